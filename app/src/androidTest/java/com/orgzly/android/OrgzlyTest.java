@@ -5,8 +5,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.espresso.Espresso;
 
 import com.orgzly.R;
+import com.orgzly.android.espresso.ChangeNotifierIdlingResource;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.prefs.AppPreferencesValues;
 import com.orgzly.android.provider.clients.DbClient;
@@ -34,6 +36,8 @@ public class OrgzlyTest {
 
     private UserTimeFormatter userTimeFormatter;
 
+    private ChangeNotifierIdlingResource changeNotifierIdlingResource;
+
     @Before
     public void setUp() throws Exception {
         context = InstrumentationRegistry.getTargetContext();
@@ -54,10 +58,16 @@ public class OrgzlyTest {
         DbClient.recreateTables(context);
 
         setupPreferences();
+
+        /* Wait for debounced notifications before interacting with views. */
+        changeNotifierIdlingResource = new ChangeNotifierIdlingResource(context);
+        Espresso.registerIdlingResources(changeNotifierIdlingResource);
     }
 
     @After
     public void tearDown() throws Exception {
+        Espresso.unregisterIdlingResources(changeNotifierIdlingResource);
+
 //        new Handler(InstrumentationRegistry.getTargetContext().getMainLooper()).post(new Runnable() {
 //            @Override
 //            public void run() {
@@ -0,0 +1,40 @@
+package com.orgzly.android.espresso;
+
+import android.content.Context;
+import android.support.test.espresso.IdlingResource;
+
+import com.orgzly.android.provider.ChangeNotifier;
+
+/**
+ * Makes Espresso wait for debounced change notifications, so lists are reloaded before checking them.
+ */
+public class ChangeNotifierIdlingResource implements IdlingResource {
+    private final ChangeNotifier changeNotifier;
+
+    private volatile ResourceCallback callback;
+
+    public ChangeNotifierIdlingResource(Context context) {
+        changeNotifier = ChangeNotifier.getInstance(context);
+
+        changeNotifier.setOnIdle(() -> {
+            if (callback != null && changeNotifier.isIdle()) {
+                callback.onTransitionToIdle();
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return ChangeNotifierIdlingResource.class.getName();
+    }
+
+    @Override
+    public boolean isIdleNow() {
+        return changeNotifier.isIdle();
+    }
+
+    @Override
+    public void registerIdleTransitionCallback(ResourceCallback callback) {
+        this.callback = callback;
+    }
+}
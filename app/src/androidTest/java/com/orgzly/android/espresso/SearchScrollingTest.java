@@ -0,0 +1,132 @@
+package com.orgzly.android.espresso;
+
+import android.app.Activity;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.ListView;
+
+import com.orgzly.R;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.ui.MainActivity;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.assertion.ViewAssertions.matches;
+import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static com.orgzly.android.espresso.EspressoUtils.listViewItemCount;
+import static com.orgzly.android.espresso.EspressoUtils.searchForText;
+import static org.hamcrest.Matchers.allOf;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame times while scrolling through a large search result.
+ */
+@SuppressWarnings("unchecked")
+public class SearchScrollingTest extends OrgzlyTest {
+    private static final String TAG = SearchScrollingTest.class.getName();
+
+    private static final int NOTES_COUNT = 5000;
+
+    /** Pixels scrolled per frame. */
+    private static final int SCROLL_STEP = 60;
+
+    private static final long FRAME_BUDGET_MS = 16;
+
+    @Rule
+    public ActivityTestRule activityRule = new ActivityTestRule<>(MainActivity.class, true, false);
+
+    @Test
+    public void testScrollingSearchResultsFrameTimes() throws InterruptedException {
+        shelfTestUtils.setupBook("book-one", generateBook(NOTES_COUNT));
+
+        activityRule.launchActivity(null);
+
+        searchForText("i.todo");
+        onView(allOf(withId(android.R.id.list), isDisplayed())).check(matches(listViewItemCount(NOTES_COUNT)));
+
+        Activity activity = activityRule.getActivity();
+        ListView listView = (ListView) activity
+                .findViewById(R.id.fragment_query_view_flipper)
+                .findViewById(android.R.id.list);
+
+        List<Long> frameTimes = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() ->
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    long previousFrameAt = 0;
+
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (previousFrameAt > 0) {
+                            frameTimes.add(TimeUnit.NANOSECONDS.toMillis(frameTimeNanos - previousFrameAt));
+                        }
+                        previousFrameAt = frameTimeNanos;
+
+                        if (listView.getLastVisiblePosition() < listView.getCount() - 1) {
+                            listView.smoothScrollBy(SCROLL_STEP, 0);
+                            Choreographer.getInstance().postFrameCallback(this);
+                        } else {
+                            done.countDown();
+                        }
+                    }
+                }));
+
+        assertTrue("Scrolling did not reach the end", done.await(5, TimeUnit.MINUTES));
+
+        long total = 0;
+        long max = 0;
+        int janky = 0;
+
+        for (long time : frameTimes) {
+            total += time;
+            max = Math.max(max, time);
+
+            if (time > FRAME_BUDGET_MS) {
+                janky++;
+            }
+        }
+
+        Log.i(TAG, String.format("Scrolled %d notes: %d frames, avg %.1f ms, max %d ms, %d over %d ms",
+                NOTES_COUNT,
+                frameTimes.size(),
+                frameTimes.isEmpty() ? 0 : (double) total / frameTimes.size(),
+                max,
+                janky,
+                FRAME_BUDGET_MS));
+    }
+
+    private static String generateBook(int notesCount) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < notesCount; i++) {
+            sb.append("* TODO Note ").append(i);
+
+            if (i % 3 == 0) {
+                sb.append(" :tag").append(i % 10).append(':');
+            }
+
+            sb.append('\n');
+
+            if (i % 5 == 0) {
+                sb.append("SCHEDULED: <2017-01-03 Tue 09:00>\n");
+            }
+
+            if (i % 4 == 0) {
+                sb.append("Content of note ").append(i).append(" with a [[https://www.orgzly.com][link]].\n");
+            }
+        }
+
+        return sb.toString();
+    }
+}
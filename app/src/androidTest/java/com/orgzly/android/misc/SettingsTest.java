@@ -45,4 +45,19 @@ public class SettingsTest extends OrgzlyTest {
         assertEquals("A", note.getHead().getPriority());
         assertEquals("Title", note.getHead().getTitle());
     }
+
+    @Test
+    public void testNotesReparseInChunks() throws IOException {
+        shelfTestUtils.setupBook("book-a", "* WAIT A1\n** WAIT A2\n* WAIT A3\n");
+        shelfTestUtils.setupBook("book-b", "* WAIT B1\n* WAIT B2\n*** WAIT B3\n* WAIT B4\n");
+
+        shelf.setNotesChunkSize(2);
+
+        AppPreferences.states(context, "WAIT|DONE");
+        assertEquals(7, shelf.reParseNotesStateAndTitles(null));
+
+        for (String title: new String[] { "A1", "A2", "A3", "B1", "B2", "B3", "B4" }) {
+            assertEquals("WAIT", shelf.getNote(title).getHead().getState());
+        }
+    }
 }
@@ -936,6 +936,55 @@ public class StructureTest extends OrgzlyTest {
         assertEquals(2, shelf.getNote("C").getInheritedTags().size());
     }
 
+    @Test
+    public void testInheritedTagsAfterPromoteAndDemote() {
+        Book book = shelfTestUtils.setupBook("notebook",
+                "* A :a:\n" +
+                "** B :b:\n" +
+                "*** C :c:\n");
+
+        shelf.promote(book.getId(), shelf.getNote("B").getId());
+
+        assertFalse(shelf.getNote("B").hasInheritedTags());
+        assertEquals(1, shelf.getNote("C").getInheritedTags().size());
+        assertTrue(shelf.getNote("C").getInheritedTags().contains("b"));
+
+        shelf.demote(book.getId(), shelf.getNote("B").getId());
+
+        assertEquals(1, shelf.getNote("B").getInheritedTags().size());
+        assertEquals(2, shelf.getNote("C").getInheritedTags().size());
+    }
+
+    @Test
+    public void testInheritedTagsAfterUpdatingTags() {
+        shelfTestUtils.setupBook("notebook",
+                "* A :a:\n" +
+                "** B\n" +
+                "*** C\n");
+
+        Note a = shelf.getNote("A");
+        a.getHead().setTags(new String[] { "x", "y" });
+        shelf.updateNote(a);
+
+        assertTrue(shelf.getNote("B").getInheritedTags().contains("x"));
+        assertFalse(shelf.getNote("C").getInheritedTags().contains("a"));
+        assertEquals(2, shelf.getNote("C").getInheritedTags().size());
+    }
+
+    @Test
+    public void testInheritedTagsForNewNote() {
+        Book book = shelfTestUtils.setupBook("notebook",
+                "* A :a:\n" +
+                "** B :b:\n");
+
+        Note note = new Note();
+        note.getPosition().setBookId(book.getId());
+        note.getHead().setTitle("C");
+        shelf.createNote(note, new NotePlace(book.getId(), shelf.getNote("B").getId(), Place.UNDER));
+
+        assertEquals(2, shelf.getNote("C").getInheritedTags().size());
+    }
+
 
     /* Make sure root node's rgt is larger then notes'. */
     @Test
@@ -964,4 +1013,41 @@ public class StructureTest extends OrgzlyTest {
 
         assertTrue(shelf.getNote("Note 2").getPosition().getRgt() < shelf.getNote("Note 3").getPosition().getLft());
     }
+
+    /* Keep creating and pasting notes at the same places, until there is no room left between positions. */
+    @Test
+    public void testStructureAfterRunningOutOfSpaceBetweenNotes() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Note 1\n** Note 1.1\n* Note 2\n");
+
+        for (int i = 1; i <= 20; i++) {
+            Note above = new Note();
+            above.getPosition().setBookId(book.getId());
+            above.getHead().setTitle("Above " + i);
+            shelf.createNote(above, new NotePlace(book.getId(), shelf.getNote("Note 1").getId(), Place.ABOVE));
+
+            Note under = new Note();
+            under.getPosition().setBookId(book.getId());
+            under.getHead().setTitle("Under " + i);
+            shelf.createNote(under, new NotePlace(book.getId(), shelf.getNote("Note 1.1").getId(), Place.UNDER));
+        }
+
+        for (int i = 1; i <= 20; i++) {
+            shelf.cut(book.getId(), shelf.getNote("Note 2").getId());
+            shelf.paste(book.getId(), shelf.getNote("Above " + i).getId(), Place.BELOW);
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 19; i++) {
+            expected.append("* Above ").append(i).append("\n");
+        }
+        expected.append("* Above 20\n* Note 2\n* Note 1\n** Note 1.1\n");
+        for (int i = 1; i <= 20; i++) {
+            expected.append("*** Under ").append(i).append("\n");
+        }
+
+        assertEquals(expected.toString(), shelf.getBookContent("notebook", BookName.Format.ORG));
+
+        assertEquals(20, shelf.getNote("Note 1.1").getPosition().getDescendantsCount());
+        assertEquals(21, shelf.getNote("Note 1").getPosition().getDescendantsCount());
+    }
 }
@@ -0,0 +1,189 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.util.AgendaUtils;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AgendaOccurrencesTest extends OrgzlyTest {
+    private static final String TAG = AgendaOccurrencesTest.class.getName();
+
+    @Test
+    public void testOccurrencesMatchExpandedTimes() {
+        DateTime now = DateTime.now();
+
+        Map<String, String[]> times = new HashMap<>();
+        times.put("Daily", new String[] { time(now.minusDays(3), " +1d"), null });
+        times.put("Weekly", new String[] { time(now.plusDays(1), " .+1w"), null });
+        times.put("Future", new String[] { time(now.plusDays(2), ""), null });
+        times.put("Overdue", new String[] { null, time(now.minusDays(10), "") });
+        times.put("Both", new String[] { time(now.plusDays(1), ""), time(now.plusDays(4), "") });
+        times.put("Range", new String[] { time(now.plusDays(1), "") + "--" + time(now.plusDays(3), ""), null });
+        times.put("Later", new String[] { time(now.plusDays(20), ""), null });
+
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String[]> entry: times.entrySet()) {
+            content.append("* ").append(entry.getKey()).append("\n");
+            if (entry.getValue()[0] != null) {
+                content.append("SCHEDULED: ").append(entry.getValue()[0]).append("\n");
+            }
+            if (entry.getValue()[1] != null) {
+                content.append("DEADLINE: ").append(entry.getValue()[1]).append("\n");
+            }
+        }
+        content.append("* No times\n");
+
+        shelfTestUtils.setupBook("notebook", content.toString());
+
+        Map<String, Set<Long>> days = agendaDays("ad.7");
+
+        for (Map.Entry<String, String[]> entry: times.entrySet()) {
+            Set<Long> expected = new TreeSet<>();
+            for (DateTime day: AgendaUtils.expandOrgDateTime(entry.getValue(), now, 7)) {
+                expected.add(day.getMillis());
+            }
+
+            Set<Long> actual = days.containsKey(entry.getKey()) ? days.get(entry.getKey()) : Collections.emptySet();
+
+            assertEquals(entry.getKey(), expected, actual);
+        }
+
+        assertEquals(times.size() - 1, days.size()); // Later and no times are not displayed
+    }
+
+    @Test
+    public void testChangedTimesAreExpandedAgain() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1\n" +
+                "SCHEDULED: " + time(today.plusDays(1), "") + "\n" +
+                "* Note 2\n" +
+                "SCHEDULED: " + time(today.plusDays(2), "") + "\n");
+
+        assertEquals(Collections.singleton(today.plusDays(1).getMillis()), agendaDays("ad.7").get("Note 1"));
+
+        long noteId = shelf.getNote("Note 1").getId();
+
+        OrgDateTime time = OrgDateTime.parse(time(today.plusDays(3), " +1d"));
+        shelf.setNotesScheduledTime(Collections.singleton(noteId), time);
+
+        Set<Long> expected = new TreeSet<>();
+        for (int i = 3; i < 7; i++) {
+            expected.add(today.plusDays(i).getMillis());
+        }
+        assertEquals(expected, agendaDays("ad.7").get("Note 1"));
+
+        shelf.delete(shelf.getNote("Note 1").getPosition().getBookId(), Collections.singleton(noteId));
+
+        Map<String, Set<Long>> days = agendaDays("ad.7");
+        assertEquals(1, days.size());
+        assertTrue(days.containsKey("Note 2"));
+    }
+
+    /**
+     * Reports time needed for 30-day agenda of 5000 repeating notes,
+     * compared to expanding all notes' times on each load.
+     */
+    @Test
+    public void testAgendaSpeed() {
+        DateTime now = DateTime.now();
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append("* Note ").append(i).append("\n")
+                    .append("SCHEDULED: ").append(time(now.minusDays(i % 50), i % 2 == 0 ? " +1d" : " +1w")).append("\n");
+        }
+        shelfTestUtils.setupBook("generated", content.toString());
+
+        String query = "ad.30";
+
+        /* Expanding times on each load. */
+        long startedAt = System.currentTimeMillis();
+        int expanded = 0;
+        Cursor cursor = NotesClient.getCursorForQuery(context, query);
+        try {
+            int scheduled = cursor.getColumnIndex(DbNoteView.SCHEDULED_RANGE_STRING);
+            int deadline = cursor.getColumnIndex(DbNoteView.DEADLINE_RANGE_STRING);
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                expanded += AgendaUtils.expandOrgDateTime(
+                        new String[] { cursor.getString(scheduled), cursor.getString(deadline) }, now, 30).size();
+            }
+        } finally {
+            cursor.close();
+        }
+        long expandingMs = System.currentTimeMillis() - startedAt;
+
+        /* First update expands all notes. */
+        startedAt = System.currentTimeMillis();
+        NotesClient.updateAgenda(context, query);
+        long updateMs = System.currentTimeMillis() - startedAt;
+
+        startedAt = System.currentTimeMillis();
+        int rows = count(query);
+        long queryMs = System.currentTimeMillis() - startedAt;
+
+        assertEquals(expanded, rows);
+
+        Log.i(TAG, String.format("Agenda of %d rows: %d ms expanding on load, %d ms first update, %d ms query",
+                rows, expandingMs, updateMs, queryMs));
+    }
+
+    private static String time(DateTime date, String suffix) {
+        return "<" + date.toString("yyyy-MM-dd EEE", Locale.ENGLISH) + suffix + ">";
+    }
+
+    private int count(String query) {
+        NotesClient.updateAgenda(context, query);
+
+        Cursor cursor = NotesClient.getCursorForAgenda(context, query);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return days on which each note is displayed, by title
+     */
+    private Map<String, Set<Long>> agendaDays(String query) {
+        Map<String, Set<Long>> result = new HashMap<>();
+
+        NotesClient.updateAgenda(context, query);
+
+        Cursor cursor = NotesClient.getCursorForAgenda(context, query);
+        try {
+            int title = cursor.getColumnIndex(DbNoteView.TITLE);
+            int day = cursor.getColumnIndex(AgendaOccurrences.AGENDA_DAY);
+
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                if (!result.containsKey(cursor.getString(title))) {
+                    result.put(cursor.getString(title), new TreeSet<>());
+                }
+                result.get(cursor.getString(title)).add(cursor.getLong(day));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return result;
+    }
+}
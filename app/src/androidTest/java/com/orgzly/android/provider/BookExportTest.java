@@ -0,0 +1,287 @@
+package com.orgzly.android.provider;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.BookName;
+import com.orgzly.android.LocalStorage;
+import com.orgzly.android.Note;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.util.MiscUtils;
+import com.orgzly.org.OrgProperty;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BookExportTest extends OrgzlyTest {
+    private static final String TAG = BookExportTest.class.getName();
+
+    @Test
+    public void testPropertiesAreExportedWithTheirNotes() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook",
+                "* Note A\n" +
+                ":PROPERTIES:\n" +
+                ":A1: 1\n" +
+                ":A2: 2\n" +
+                ":END:\n" +
+                "** Note B\n" +
+                "*** Note C\n" +
+                ":PROPERTIES:\n" +
+                ":C1: 1\n" +
+                ":END:\n" +
+                "* Note D\n" +
+                ":PROPERTIES:\n" +
+                ":D1: 1\n" +
+                ":END:\n" +
+                "* Note E\n" +
+                ":PROPERTIES:\n" +
+                ":E1: 1\n" +
+                ":E2: 2\n" +
+                ":E3: 3\n" +
+                ":END:\n");
+
+        /* Cut note's properties must be skipped. */
+        shelf.cut(book.getId(), shelf.getNote("Note D").getId());
+
+        String content = shelf.getBookContent("notebook", BookName.Format.ORG);
+
+        /* Load exported content to compare properties. */
+        shelf.deleteBook(book, false);
+        Book exported = shelfTestUtils.setupBook("exported", content);
+
+        assertEquals(4, NotesClient.getCount(context, exported.getId()));
+        assertEquals("A1=1 A2=2", properties("Note A"));
+        assertEquals("", properties("Note B"));
+        assertEquals("C1=1", properties("Note C"));
+        assertEquals("E1=1 E2=2 E3=3", properties("Note E"));
+    }
+
+    @Test
+    public void testExportInChunks() throws IOException {
+        shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        String expected = shelf.getBookContent("generated", BookName.Format.ORG);
+
+        for (int chunkSize: new int[] { 1, 3, 49, 50, 51 }) {
+            shelf.setNotesChunkSize(chunkSize);
+
+            assertEquals(expected, shelf.getBookContent("generated", BookName.Format.ORG));
+        }
+    }
+
+    /**
+     * Reports time needed to export a book with 10000 notes.
+     */
+    @Test
+    public void testExportSpeed() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(10000));
+
+        int count = NotesClient.getCount(context, book.getId());
+
+        File file = shelf.getTempBookFile();
+
+        try {
+            long startedAt = System.currentTimeMillis();
+
+            shelf.writeBookToFile(book, BookName.Format.ORG, file);
+
+            long ms = System.currentTimeMillis() - startedAt;
+
+            Log.i(TAG, String.format("Exported %d notes in %d ms (%.0f ms per 10k notes)",
+                    count, ms, count > 0 ? ms * 10000.0 / count : 0.0));
+
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSyncExportWritesOnlyChangedNotes() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        assertFalse(syncExport(book).isIncremental);
+
+        Note note = noteWithProperties("Note 7");
+        note.getHead().setTitle("Note 7 (updated)");
+        shelf.updateNote(note);
+
+        assertSyncExport(book, true);
+
+        /* Nothing changed. */
+        assertSyncExport(book, true);
+    }
+
+    @Test
+    public void testSyncExportAfterPropertiesChange() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        Note note = noteWithProperties("Note 3");
+        note.getHead().addProperty(new OrgProperty("ADDED", "value"));
+        shelf.updateNote(note);
+
+        assertSyncExport(book, true);
+
+        note = noteWithProperties("Note 4");
+        note.getHead().setProperties(new ArrayList<OrgProperty>());
+        shelf.updateNote(note);
+
+        assertSyncExport(book, true);
+    }
+
+    @Test
+    public void testSyncExportAfterScheduledTimeChange() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        Set<Long> noteIds = new HashSet<>();
+        noteIds.add(shelf.getNote("Note 11").getId());
+        shelf.setNotesScheduledTime(noteIds, OrgDateTime.parse("<2018-01-01 Mon>"));
+
+        assertSyncExport(book, true);
+    }
+
+    @Test
+    public void testSyncExportAfterPrefaceChange() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", "Preface\n\n" + BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        book = shelf.getBook(book.getId());
+        book.setPreface("Updated preface\nwith two lines");
+        shelf.updateBookSettings(book);
+
+        assertSyncExport(book, true);
+    }
+
+    @Test
+    public void testSyncExportAfterStructureChange() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        shelf.cut(book.getId(), shelf.getNote("Note 20").getId());
+
+        assertSyncExport(book, false);
+
+        Note note = noteWithProperties("Note 21");
+        note.getHead().setTitle("Note 21 (updated)");
+        shelf.updateNote(note);
+
+        /* Cache is valid again. */
+        assertSyncExport(book, true);
+    }
+
+    @Test
+    public void testSyncExportWithDifferentSettings() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        AppPreferences.tagsColumn(context, 40);
+
+        assertSyncExport(book, false);
+    }
+
+    @Test
+    public void testSyncExportWithMissingCache() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(50));
+
+        syncExport(book);
+
+        new LocalStorage(context).cleanup();
+
+        assertSyncExport(book, false);
+    }
+
+    /**
+     * Reports time needed to export a book with 10000 notes, fully and after changing one note.
+     */
+    @Test
+    public void testSyncExportSpeed() throws IOException {
+        Book book = shelfTestUtils.setupBook("generated", BookImporterTest.generateBook(10000));
+
+        int count = NotesClient.getCount(context, book.getId());
+
+        long startedAt = System.currentTimeMillis();
+        SyncExport full = syncExport(book);
+        long fullMs = System.currentTimeMillis() - startedAt;
+
+        Note note = noteWithProperties("Note 5000");
+        note.getHead().setTitle("Note 5000 (updated)");
+        shelf.updateNote(note);
+
+        startedAt = System.currentTimeMillis();
+        SyncExport incremental = syncExport(book);
+        long incrementalMs = System.currentTimeMillis() - startedAt;
+
+        assertFalse(full.isIncremental);
+        assertTrue(incremental.isIncremental);
+
+        Log.i(TAG, String.format("Exported %d notes for sync in %d ms fully, in %d ms after changing one note (%.1fx)",
+                count, fullMs, incrementalMs, incrementalMs > 0 ? (double) fullMs / incrementalMs : 0.0));
+    }
+
+    /**
+     * Exports book for sync and compares the result with the book written fully.
+     */
+    private void assertSyncExport(Book book, boolean expectedIncremental) throws IOException {
+        SyncExport export = syncExport(book);
+
+        assertEquals(shelf.getBookContent(book.getName(), BookName.Format.ORG), export.content);
+        assertEquals(expectedIncremental, export.isIncremental);
+    }
+
+    private SyncExport syncExport(Book book) throws IOException {
+        File file = shelf.getTempBookFile();
+
+        try {
+            SyncExport export = new SyncExport();
+
+            export.isIncremental = shelf.writeBookToFileForSync(shelf.getBook(book.getId()), BookName.Format.ORG, file);
+            export.content = MiscUtils.readStringFromFile(file);
+
+            return export;
+
+        } finally {
+            file.delete();
+        }
+    }
+
+    private Note noteWithProperties(String title) {
+        Note note = shelf.getNote(title);
+        note.getHead().setProperties(shelf.getNoteProperties(note.getId()));
+        return note;
+    }
+
+    private static class SyncExport {
+        boolean isIncremental;
+        String content;
+    }
+
+    private String properties(String title) {
+        List<String> result = new ArrayList<>();
+
+        for (OrgProperty property: shelf.getNoteProperties(shelf.getNote(title).getId())) {
+            result.add(property.getName() + "=" + property.getValue());
+        }
+
+        return TextUtils.join(" ", result);
+    }
+}
@@ -0,0 +1,326 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.BookName;
+import com.orgzly.android.Note;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteProperty;
+import com.orgzly.android.provider.models.DbNoteTag;
+import com.orgzly.android.provider.models.DbOrgRange;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.android.provider.models.DbProperty;
+import com.orgzly.android.provider.models.DbPropertyName;
+import com.orgzly.android.provider.models.DbPropertyValue;
+import com.orgzly.org.OrgFile;
+import com.orgzly.org.parser.OrgNestedSetParserListener;
+import com.orgzly.org.parser.OrgNodeInSet;
+import com.orgzly.org.parser.OrgParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BookImporterTest extends OrgzlyTest {
+    private static final String TAG = BookImporterTest.class.getName();
+
+    private static final String[] LARGE_ASSETS = {
+            "images/lion-wide.org",
+            "encoding/org-issues.org",
+            "encoding/org-people.org",
+            "org/org-ruby-features.org",
+            "lipsum/Chinese-Lipsum.org",
+            "lipsum/Russian-Lipsum.org"
+    };
+
+    @Test
+    public void testImportedNotes() {
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1 :a:\n" +
+                "SCHEDULED: <2017-01-02 Mon 09:00 ++1d>\n" +
+                ":PROPERTIES:\n" +
+                ":NAME: value\n" +
+                ":OTHER: value\n" +
+                ":END:\n" +
+                "** Note 1.1 :b:\n" +
+                "DEADLINE: <2017-01-02 Mon 09:00 ++1d>\n" +
+                "*** Note 1.1.1\n" +
+                ":PROPERTIES:\n" +
+                ":NAME: value\n" +
+                ":END:\n" +
+                "* Note 2\n");
+
+        Note note1 = shelf.getNote("Note 1");
+        Note note11 = shelf.getNote("Note 1.1");
+        Note note111 = shelf.getNote("Note 1.1.1");
+        Note note2 = shelf.getNote("Note 2");
+
+        assertEquals(note1.getId(), note11.getPosition().getParentId());
+        assertEquals(note11.getId(), note111.getPosition().getParentId());
+        assertEquals(note1.getPosition().getParentId(), note2.getPosition().getParentId());
+
+        assertEquals(2, note1.getPosition().getDescendantsCount());
+        assertTrue(note111.getInheritedTags().contains("a"));
+        assertTrue(note111.getInheritedTags().contains("b"));
+
+        assertNotNull(note1.getHead().getScheduled());
+        assertEquals("<2017-01-02 Mon 09:00 ++1d>", note11.getHead().getDeadline().toString());
+
+        assertEquals(2, shelf.getNoteProperties(note1.getId()).size());
+        assertEquals("NAME", shelf.getNoteProperties(note111.getId()).get(0).getName());
+        assertEquals("value", shelf.getNoteProperties(note111.getId()).get(0).getValue());
+    }
+
+    @Test
+    public void testReimportingSameBook() {
+        String content = "* Note 1\n:PROPERTIES:\n:NAME: value\n:END:\n** Note 1.1\nSCHEDULED: <2017-01-02 Mon>\n";
+
+        shelfTestUtils.setupBook("notebook", content);
+        shelfTestUtils.setupBook("notebook", content);
+
+        assertEquals(2, NotesClient.getCount(context, shelf.getBook("notebook").getId()));
+        assertEquals(1, shelf.getNoteProperties(shelf.getNote("Note 1").getId()).size());
+    }
+
+    /**
+     * Parent ids, ancestors and inherited tags must be the same as the ones calculated
+     * by scanning all positions between lft and rgt of each note (the way it was done before).
+     */
+    @Test
+    public void testParentsAndAncestorsMatchLftRangeScan() throws IOException {
+        assertStructureMatchesLftRangeScan("* A :a:\n** B :b:\n*** C\n** D :d:e:\n* E\n***** F :f:\n** G\n* H\n");
+        assertStructureMatchesLftRangeScan(generateBook(2000));
+
+        for (String asset: LARGE_ASSETS) {
+            InputStream stream = BookImporterTest.class.getClassLoader().getResourceAsStream("assets/" + asset);
+
+            if (stream == null) {
+                fail("Resource " + asset + " not found inside assets/");
+            }
+
+            try {
+                assertStructureMatchesLftRangeScan(new Scanner(stream, "UTF-8").useDelimiter("\\A").next());
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private void assertStructureMatchesLftRangeScan(String content) throws IOException {
+        final long bookId = 1;
+
+        final SQLiteDatabase db = SQLiteDatabase.create(null);
+
+        try {
+            for (String sql : DbNote.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbNoteAncestor.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbNoteProperty.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbProperty.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbPropertyName.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbPropertyValue.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbOrgRange.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbOrgTimestamp.CREATE_SQL) db.execSQL(sql);
+            for (String sql : DbNoteTag.CREATE_SQL) db.execSQL(sql);
+
+            final BookImporter importer = new BookImporter(db, bookId);
+
+            db.beginTransaction();
+            try {
+                new OrgParser.Builder()
+                        .setInput(content)
+                        .setListener(new OrgNestedSetParserListener() {
+                            @Override
+                            public void onNode(OrgNodeInSet node) throws IOException {
+                                importer.importNode(node);
+                            }
+
+                            @Override
+                            public void onFile(OrgFile file) throws IOException {
+                            }
+                        })
+                        .build()
+                        .parse();
+
+                db.setTransactionSuccessful();
+
+            } finally {
+                db.endTransaction();
+                importer.close();
+            }
+
+            /* Notes in the order they were imported. */
+            /* Positions are sparse, only look at the ones in use. */
+            TreeMap<Long, Long> lft2id = new TreeMap<>();
+            Map<Long, Long> expectedParents = new HashMap<>();
+            Map<Long, Long> actualParents = new HashMap<>();
+            Set<String> expectedAncestors = new HashSet<>();
+            Map<Long, List<String>> expectedInheritedTags = new HashMap<>();
+            Map<Long, List<String>> actualInheritedTags = new HashMap<>();
+
+            Cursor cursor = db.query(DbNote.TABLE,
+                    new String[] { DbNote._ID, DbNote.LFT, DbNote.RGT, DbNote.PARENT_ID, DbNote.TAGS, DbNote.INHERITED_TAGS },
+                    null, null, null, null, DbNote._ID);
+            try {
+                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    long lft = cursor.getLong(1);
+                    long rgt = cursor.getLong(2);
+
+                    actualParents.put(id, cursor.getLong(3));
+                    expectedParents.put(id, 0L);
+
+                    actualInheritedTags.put(id, sortedTags(cursor.getString(5)));
+                    expectedInheritedTags.put(id, new ArrayList<String>());
+
+                    lft2id.put(lft, id);
+                    for (Long descendantId : lft2id.subMap(lft, false, rgt, false).values()) {
+                        if (expectedParents.get(descendantId) == 0) {
+                            expectedParents.put(descendantId, id);
+                        }
+                        expectedAncestors.add(bookId + " " + descendantId + " " + id);
+
+                        expectedInheritedTags.get(descendantId).addAll(sortedTags(cursor.getString(4)));
+                        Collections.sort(expectedInheritedTags.get(descendantId));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            List<String> actualAncestors = new ArrayList<>();
+
+            cursor = db.query(DbNoteAncestor.TABLE,
+                    new String[] { DbNoteAncestor.BOOK_ID, DbNoteAncestor.NOTE_ID, DbNoteAncestor.ANCESTOR_NOTE_ID },
+                    null, null, null, null, null);
+            try {
+                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                    actualAncestors.add(cursor.getLong(0) + " " + cursor.getLong(1) + " " + cursor.getLong(2));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            assertEquals(importer.getNotesCount(), actualParents.size());
+            assertEquals(expectedParents, actualParents);
+            assertEquals(expectedAncestors.size(), actualAncestors.size());
+            assertEquals(expectedAncestors, new HashSet<>(actualAncestors));
+            assertEquals(expectedInheritedTags, actualInheritedTags);
+
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<String> sortedTags(String tags) {
+        List<String> list = new ArrayList<>();
+
+        if (tags != null) {
+            Collections.addAll(list, DbNote.dbDeSerializeTags(tags));
+            Collections.sort(list);
+        }
+
+        return list;
+    }
+
+    /**
+     * Reports import speed for generated and large asset notebooks.
+     * Compare the logged numbers with the ones from the previous implementation.
+     */
+    @Test
+    public void testImportSpeed() throws IOException {
+        benchmark("generated", generateBook(10000));
+
+        for (String asset: LARGE_ASSETS) {
+            InputStream stream = BookImporterTest.class.getClassLoader().getResourceAsStream("assets/" + asset);
+
+            if (stream == null) {
+                fail("Resource " + asset + " not found inside assets/");
+            }
+
+            try {
+                long startedAt = System.currentTimeMillis();
+
+                Book book = shelf.loadBookFromStream(asset.replace('/', '-'), BookName.Format.ORG, stream);
+
+                report(asset, book, System.currentTimeMillis() - startedAt);
+
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private void benchmark(String name, String content) {
+        long startedAt = System.currentTimeMillis();
+
+        Book book = shelfTestUtils.setupBook(name, content);
+
+        report(name, book, System.currentTimeMillis() - startedAt);
+    }
+
+    private void report(String name, Book book, long ms) {
+        int count = NotesClient.getCount(context, book.getId());
+
+        Log.i(TAG, String.format("Imported %s: %d notes in %d ms (%.0f notes/s)",
+                name, count, ms, ms > 0 ? count * 1000.0 / ms : 0.0));
+    }
+
+    /**
+     * Book with nested notes, tags, properties and timestamps.
+     */
+    static String generateBook(int notesCount) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < notesCount; i++) {
+            int level = 1 + (i % 4);
+
+            for (int j = 0; j < level; j++) {
+                sb.append('*');
+            }
+
+            sb.append(" TODO Note ").append(i);
+
+            if (i % 3 == 0) {
+                sb.append(" :tag").append(i % 10).append(':');
+            }
+
+            sb.append('\n');
+
+            if (i % 5 == 0) {
+                sb.append(i % 10 == 0 ? "SCHEDULED: <2017-01-02 Mon ++1w>\n" : "SCHEDULED: <2017-01-03 Tue 09:00>\n");
+            }
+
+            if (i % 2 == 0) {
+                sb.append(":PROPERTIES:\n")
+                        .append(":CREATED: ").append(i % 100).append('\n')
+                        .append(":CATEGORY: cat").append(i % 7).append('\n')
+                        .append(":END:\n");
+            }
+
+            sb.append("Content of note ").append(i).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.orgzly.android.provider;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.filter.Filter;
+import com.orgzly.android.provider.clients.FiltersClient;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChangeNotifierTest extends OrgzlyTest {
+    @Test
+    public void testBurstOfWritesIsNotifiedOnce() {
+        shelfTestUtils.setupBook("notebook", "* Note 1\n* Note 2\n* Note 3");
+
+        waitForNotifications();
+
+        AtomicInteger count = new AtomicInteger();
+        ContentObserver observer = new CountingObserver(count);
+
+        context.getContentResolver().registerContentObserver(ProviderContract.Notes.ContentUri.notes(), true, observer);
+
+        try {
+            long noteId = shelf.getNote("Note 1").getId();
+
+            for (int i = 1; i <= 5; i++) {
+                shelf.setNotesScheduledTime(
+                        Collections.singleton(noteId),
+                        OrgDateTime.parse("<2017-01-0" + i + " Sun>"));
+            }
+
+            waitForNotifications();
+
+            assertEquals(1, count.get());
+
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void testFilterChangeDoesNotNotifyNotes() {
+        shelfTestUtils.setupBook("notebook", "* Note 1");
+
+        waitForNotifications();
+
+        AtomicInteger count = new AtomicInteger();
+        ContentObserver observer = new CountingObserver(count);
+
+        context.getContentResolver().registerContentObserver(ProviderContract.Notes.ContentUri.notes(), true, observer);
+
+        try {
+            FiltersClient.INSTANCE.create(context, new Filter("Filter", "t.tag"));
+
+            waitForNotifications();
+
+            assertEquals(0, count.get());
+
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void testChangeInOneBookDoesNotNotifyOtherBooks() {
+        shelfTestUtils.setupBook("book-a", "* Note A");
+        Book bookB = shelfTestUtils.setupBook("book-b", "* Note B");
+
+        waitForNotifications();
+
+        AtomicInteger count = new AtomicInteger();
+        ContentObserver observer = new CountingObserver(count);
+
+        context.getContentResolver().registerContentObserver(
+                ProviderContract.Books.ContentUri.booksIdNotes(bookB.getId()), true, observer);
+
+        try {
+            shelf.setNotesScheduledTime(
+                    Collections.singleton(shelf.getNote("Note A").getId()),
+                    OrgDateTime.parse("<2017-01-01 Sun>"));
+
+            waitForNotifications();
+
+            assertEquals(0, count.get());
+
+            shelf.setNotesScheduledTime(
+                    Collections.singleton(shelf.getNote("Note B").getId()),
+                    OrgDateTime.parse("<2017-01-01 Sun>"));
+
+            waitForNotifications();
+
+            assertEquals(1, count.get());
+
+        } finally {
+            context.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    private void waitForNotifications() {
+        ChangeNotifier changeNotifier = ChangeNotifier.getInstance(context);
+
+        /* Wait a bit more than debounce period, in case notification is just being scheduled. */
+        do {
+            SystemClock.sleep(200);
+        } while (!changeNotifier.isIdle());
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        private final AtomicInteger count;
+
+        CountingObserver(AtomicInteger count) {
+            super(null);
+            this.count = count;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.Note;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.query.Condition;
+import com.orgzly.android.query.Query;
+import com.orgzly.android.query.user.InternalQueryBuilder;
+import com.orgzly.android.ui.Place;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class NoteTagsTest extends OrgzlyTest {
+    @Test
+    public void testTagMustMatchExactly() {
+        shelfTestUtils.setupBook("notebook",
+                "* Note A :homework:\n" +
+                "* Note B :work:\n" +
+                "* Note C :Work:workshop:\n");
+
+        assertEquals(2, count(new Condition.HasTag("work", false)));
+        assertEquals(1, count(new Condition.HasTag("homework", false)));
+        assertEquals(0, count(new Condition.HasTag("wor", false)));
+        assertEquals(1, count(new Condition.HasTag("work", true)));
+    }
+
+    @Test
+    public void testOwnAndInheritedTags() {
+        shelfTestUtils.setupBook("notebook",
+                "* Note A :a:\n" +
+                "** Note B :b:\n" +
+                "*** Note C\n" +
+                "* Note D\n");
+
+        assertEquals(3, count(new Condition.HasTag("a", false)));
+        assertEquals(1, count(new Condition.HasOwnTag("a")));
+        assertEquals(2, count(new Condition.HasTag("b", false)));
+        assertEquals(1, count(new Condition.HasOwnTag("b")));
+    }
+
+    @Test
+    public void testTagsAfterUpdatingAndMoving() {
+        Book book = shelfTestUtils.setupBook("notebook",
+                "* Note A :a:\n" +
+                "** Note B\n" +
+                "* Note C :c:\n");
+
+        Note note = shelf.getNote("Note A");
+        note.getHead().setTags(new String[] { "x" });
+        shelf.updateNote(note);
+
+        assertEquals(0, count(new Condition.HasTag("a", false)));
+        assertEquals(2, count(new Condition.HasTag("x", false)));
+
+        shelf.cut(book.getId(), shelf.getNote("Note B").getId());
+        shelf.paste(book.getId(), shelf.getNote("Note C").getId(), Place.UNDER);
+
+        assertEquals(1, count(new Condition.HasTag("x", false)));
+        assertEquals(2, count(new Condition.HasTag("c", false)));
+    }
+
+    @Test
+    public void testAllTags() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook-1",
+                "* Note A :a:b:\n" +
+                "** Note B :b:c:\n");
+
+        shelfTestUtils.setupBook("notebook-2",
+                "* Note A :d:\n");
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d")),
+                new HashSet<>(Arrays.asList(NotesClient.getAllTags(context, 0))));
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")),
+                new HashSet<>(Arrays.asList(NotesClient.getAllTags(context, book.getId()))));
+
+        shelf.deleteBook(book, false);
+
+        assertEquals(new HashSet<>(Arrays.asList("d")),
+                new HashSet<>(Arrays.asList(NotesClient.getAllTags(context, 0))));
+    }
+
+    @Test
+    public void testAllTagsDifferingInCase() {
+        shelfTestUtils.setupBook("notebook",
+                "* Note A :work:\n" +
+                "* Note B :Work:\n" +
+                "* Note C :work:\n");
+
+        assertEquals(new HashSet<>(Arrays.asList("work", "Work")),
+                new HashSet<>(Arrays.asList(NotesClient.getAllTags(context, 0))));
+    }
+
+    @Test
+    public void testInheritedTagsOrderAfterMoving() {
+        Book book = shelfTestUtils.setupBook("notebook",
+                "* Note A :a:\n" +
+                "** Note B :b:\n" +
+                "*** Note C :c:\n" +
+                "**** Note D\n" +
+                "* Note E :e:\n");
+
+        assertEquals(Arrays.asList("c", "b", "a"), shelf.getNote("Note D").getInheritedTags());
+
+        shelf.cut(book.getId(), shelf.getNote("Note B").getId());
+        shelf.paste(book.getId(), shelf.getNote("Note E").getId(), Place.UNDER);
+
+        /* Same order as when importing. */
+        assertEquals(Arrays.asList("c", "b", "e"), shelf.getNote("Note D").getInheritedTags());
+    }
+
+    private int count(Condition condition) {
+        String query = new InternalQueryBuilder().build(new Query(condition));
+
+        Cursor cursor = NotesClient.getCursorForQuery(context, query);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
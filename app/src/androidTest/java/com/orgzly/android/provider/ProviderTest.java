@@ -1,6 +1,7 @@
 package com.orgzly.android.provider;
 
 import android.database.Cursor;
+import android.util.Log;
 
 import com.orgzly.android.Book;
 import com.orgzly.android.BookName;
@@ -8,11 +9,16 @@ import com.orgzly.android.Note;
 import com.orgzly.android.NotePosition;
 import com.orgzly.android.OrgzlyTest;
 import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.provider.views.DbNoteView;
 import com.orgzly.android.repos.VersionedRook;
+import com.orgzly.android.ui.NotePlace;
+import com.orgzly.android.ui.Place;
 
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -20,6 +26,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ProviderTest extends OrgzlyTest {
+    private static final String TAG = ProviderTest.class.getName();
+
     /**
      * Used in {@link com.orgzly.android.ui.fragments.BooksFragment} to get all available local books.
      */
@@ -152,9 +160,9 @@ public class ProviderTest extends OrgzlyTest {
         assertNotNull(root);
 
         assertEquals(1, root.getLft());
-        assertEquals(6, note1.getLft());
-        assertEquals(11, note1.getRgt());
-        assertEquals(16, root.getRgt());
+        assertEquals(1001, note1.getLft());
+        assertEquals(2001, note1.getRgt());
+        assertEquals(3001, root.getRgt());
 
         Note note = new Note();
         note.getPosition().setBookId(book.getId());
@@ -191,4 +199,172 @@ public class ProviderTest extends OrgzlyTest {
 
         assertEquals(0, NotesClient.getFirstNoteId(context, book.getId()));
     }
+
+    @Test
+    public void testBookNotesAreVisibleOnlyAndLimited() {
+        Book book = shelfTestUtils.setupBook("book-1", "* Note 1\n** Note 2\n* Note 3\n* Note 4");
+
+        shelf.toggleFoldedState(shelf.getNote("Note 1").getId());
+
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.Books.ContentUri.booksIdNotes(book.getId()), null, null, null, DbNoteView.LFT);
+        try {
+            assertEquals(3, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        cursor = context.getContentResolver().query(
+                ProviderContract.Books.ContentUri.booksIdNotesLimited(book.getId(), 2), null, null, null, DbNoteView.LFT);
+        try {
+            assertEquals(2, cursor.getCount());
+
+            cursor.moveToFirst();
+            assertEquals("Note 1", cursor.getString(cursor.getColumnIndex(DbNoteView.TITLE)));
+            cursor.moveToNext();
+            assertEquals("Note 3", cursor.getString(cursor.getColumnIndex(DbNoteView.TITLE)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testBookNotesInRange() {
+        Book book = shelfTestUtils.setupBook("book-1", "* Note 1\n** Note 2\n*** Note 3\n** Note 4\n* Note 5");
+
+        shelf.toggleFoldedState(shelf.getNote("Note 2").getId());
+
+        NotePosition position = shelf.getNote("Note 1").getPosition();
+
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.Books.ContentUri.booksIdNotesInRange(book.getId(), position.getLft(), position.getRgt()),
+                null, null, null, DbNoteView.LFT);
+        try {
+            assertEquals(3, cursor.getCount());
+
+            cursor.moveToFirst();
+            assertEquals("Note 1", cursor.getString(cursor.getColumnIndex(DbNoteView.TITLE)));
+            cursor.moveToNext();
+            assertEquals("Note 2", cursor.getString(cursor.getColumnIndex(DbNoteView.TITLE)));
+            cursor.moveToNext();
+            assertEquals("Note 4", cursor.getString(cursor.getColumnIndex(DbNoteView.TITLE)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reports time to load the first page of a mostly folded book, which should depend
+     * on the number of visible notes only.
+     */
+    @Test
+    public void testLoadingFoldedBookSpeed() {
+        for (int notesCount: new int[] { 1000, 10000 }) {
+            Book book = shelfTestUtils.setupBook("book-" + notesCount, BookImporterTest.generateBook(notesCount));
+
+            shelf.cycleVisibility(book);
+
+            long startedAt = System.currentTimeMillis();
+
+            Cursor cursor = context.getContentResolver().query(
+                    ProviderContract.Books.ContentUri.booksIdNotesLimited(book.getId(), 500), null, null, null, DbNoteView.LFT);
+
+            int count;
+            try {
+                count = cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+
+            long ms = System.currentTimeMillis() - startedAt;
+
+            Log.i(TAG, String.format("Loaded %d visible notes of a folded book with %d notes in %d ms",
+                    count, notesCount, ms));
+        }
+    }
+
+    /**
+     * Reports time needed to create a note at the top of books of different sizes.
+     * With sparse positions, it should not depend on the number of notes in the book.
+     */
+    @Test
+    public void testCreatingNotesAtTopSpeed() {
+        int inserts = 100;
+
+        for (int notesCount: new int[] { 100, 1000, 10000 }) {
+            Book book = shelfTestUtils.setupBook("book-" + notesCount, BookImporterTest.generateBook(notesCount));
+
+            long startedAt = System.currentTimeMillis();
+
+            for (int i = 0; i < inserts; i++) {
+                Note note = new Note();
+                note.getPosition().setBookId(book.getId());
+                note.getHead().setTitle("New note " + i);
+
+                long firstNoteId = NotesClient.getFirstNoteId(context, book.getId());
+
+                shelf.createNote(note, new NotePlace(book.getId(), firstNoteId, Place.ABOVE));
+            }
+
+            long ms = System.currentTimeMillis() - startedAt;
+
+            Log.i(TAG, String.format("Created %d notes at the top of a book with %d notes in %d ms (%.2f ms per note)",
+                    inserts, notesCount, ms, ms / (double) inserts));
+        }
+    }
+
+    /**
+     * Moving and demoting notes must renumber only the moved notes,
+     * no matter how many notes follow them in the book.
+     */
+    @Test
+    public void testMovingNotesDoesNotRenumberBook() {
+        for (int notesCount: new int[] { 100, 1000, 10000 }) {
+            Book book = shelfTestUtils.setupBook("book-" + notesCount, BookImporterTest.generateBook(notesCount));
+
+            /* Note 0 with its three descendants, moved below Note 4's subtree. */
+            Map<Long, NotePosition> before = positions(book);
+            long startedAt = System.currentTimeMillis();
+            shelf.move(book.getId(), shelf.getNote("Note 0").getId(), 1);
+            long moveMs = System.currentTimeMillis() - startedAt;
+            assertEquals(4, changedPositions(before, positions(book)));
+
+            /* Note 8 with its three descendants, demoted under Note 0. */
+            before = positions(book);
+            startedAt = System.currentTimeMillis();
+            shelf.demote(book.getId(), shelf.getNote("Note 8").getId());
+            long demoteMs = System.currentTimeMillis() - startedAt;
+            assertEquals(4, changedPositions(before, positions(book)));
+
+            Log.i(TAG, String.format("Moved a note in %d ms and demoted a note in %d ms in a book with %d notes",
+                    moveMs, demoteMs, notesCount));
+        }
+    }
+
+    private Map<Long, NotePosition> positions(Book book) {
+        final Map<Long, NotePosition> positions = new HashMap<>();
+
+        NotesClient.forEachBookNote(context, book, new NotesClient.NotesClientInterface() {
+            @Override
+            public void onNote(Note note) {
+                positions.put(note.getId(), note.getPosition());
+            }
+        });
+
+        return positions;
+    }
+
+    private int changedPositions(Map<Long, NotePosition> before, Map<Long, NotePosition> after) {
+        int count = 0;
+
+        for (Map.Entry<Long, NotePosition> entry: after.entrySet()) {
+            NotePosition position = before.get(entry.getKey());
+
+            if (position.getLft() != entry.getValue().getLft() || position.getRgt() != entry.getValue().getRgt()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
 }
@@ -0,0 +1,165 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.Note;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.query.Condition;
+import com.orgzly.android.query.Query;
+import com.orgzly.android.query.user.InternalQueryBuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextSearchTest extends OrgzlyTest {
+    private static final String TAG = TextSearchTest.class.getName();
+
+    /** Loose bound for slow devices, scanning all notes takes seconds. */
+    private static final long MAX_SEARCH_MS = 500;
+
+    @Test
+    public void testSearchTitleContentAndTags() {
+        shelfTestUtils.setupBook("notebook",
+                "* Quick brown fox\n" +
+                "* Lazy dog\n" +
+                "Jumps over the fox.\n" +
+                "* Radio :foxtrot:\n" +
+                "* Firefox\n");
+
+        assertEquals(3, count("fox", false));
+        assertEquals(1, count("brown fox", true));
+        assertEquals(0, count("fox brown", true));
+        assertEquals(1, count("FOXTROT", false));
+        assertEquals(1, count("foxtrot", true));
+    }
+
+    @Test
+    public void testSearchAfterUpdateAndDelete() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Quick brown fox\n* Lazy dog\n");
+
+        Note note = shelf.getNote("Quick brown fox");
+        note.getHead().setTitle("Quick brown cat");
+        note.getHead().setContent("Not a fox");
+        shelf.updateNote(note);
+
+        assertEquals(0, count("brown fox", true));
+        assertEquals(1, count("brown cat", true));
+        assertEquals(1, count("fox", false));
+
+        shelf.deleteBook(book, false);
+
+        assertEquals(0, count("fox", false));
+    }
+
+    /* Text is found from the start of a word, not inside it. */
+    @Test
+    public void testSearchFromStartOfWords() {
+        shelfTestUtils.setupBook("notebook",
+                "* Work\n" +
+                "* Homework\n" +
+                "* Worker bee\n" +
+                "* Play\n");
+
+        assertEquals(2, count("wor", false));
+        assertEquals(0, count("ork", false));
+        assertEquals(1, count("homework", false));
+        assertEquals(1, count("worker be", false));
+        assertEquals(0, count("worker be", true));
+        assertEquals(1, count("worker bee", true));
+        assertEquals(0, count("work bee", true));
+    }
+
+    @Test
+    public void testSearchTextWithoutSpaces() {
+        shelfTestUtils.setupBook("notebook",
+                "* 日本語のテキスト\n" +
+                "* 中文笔记\n" +
+                "Content with 笔记本\n" +
+                "* Note\n");
+
+        assertEquals(1, count("日本", false));
+        assertEquals(1, count("日本語のテキスト", false));
+        assertEquals(1, count("笔记", false));
+        assertEquals(0, count("英语", false));
+
+        /* Not at the start of the indexed word. */
+        assertEquals(0, count("テキスト", false));
+    }
+
+    @Test
+    public void testSearchCaseAsBefore() {
+        shelfTestUtils.setupBook("notebook",
+                "* CAFÉ\n" +
+                "* café\n");
+
+        /* Only ASCII is case-insensitive with LIKE. */
+        assertEquals(2, count("caf", false));
+        assertEquals(1, count("café", false));
+        assertEquals(1, count("CAFÉ", false));
+    }
+
+    /* Prefix of many different words. */
+    @Test
+    public void testSearchTextInManyTerms() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("* Note w").append(i).append("\n");
+        }
+        shelfTestUtils.setupBook("notebook", sb.toString());
+
+        assertEquals(1000, count("w", false));
+        assertEquals(111, count("w1", false));
+    }
+
+    @Test
+    public void testSearchPunctuationOnly() {
+        shelfTestUtils.setupBook("notebook", "* Note ...\n* Note\n");
+
+        assertEquals(1, count("...", true));
+    }
+
+    /**
+     * Searches generated notebooks. Only the matching notes should be read,
+     * so finding a few of them must not take as long as scanning all notes.
+     */
+    @Test
+    public void testSearchSpeed() {
+        for (int i = 0; i < 5; i++) {
+            shelfTestUtils.setupBook("notebook-" + i, BookImporterTest.generateBook(10000));
+        }
+
+        /* Warm up. */
+        count("note", false);
+
+        long startedAt = System.currentTimeMillis();
+
+        int count = count("1234", false);
+
+        long elapsed = System.currentTimeMillis() - startedAt;
+
+        Log.i(TAG, String.format("Found %d notes in %d ms", count, elapsed));
+
+        assertEquals(5, count);
+        assertTrue("Searching took " + elapsed + " ms", elapsed < MAX_SEARCH_MS);
+
+        assertEquals(50000, count("content", false));
+    }
+
+    private int count(String text, boolean isQuoted) {
+        String query = new InternalQueryBuilder().build(new Query(new Condition.HasText(text, isQuoted)));
+
+        Cursor cursor = NotesClient.getCursorForQuery(context, query);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
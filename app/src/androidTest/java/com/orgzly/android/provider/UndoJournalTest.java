@@ -0,0 +1,166 @@
+package com.orgzly.android.provider;
+
+import com.orgzly.android.Book;
+import com.orgzly.android.BookName;
+import com.orgzly.android.Note;
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.actions.UndoJournal;
+import com.orgzly.android.ui.NotePlace;
+import com.orgzly.android.ui.Place;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UndoJournalTest extends OrgzlyTest {
+    @Test
+    public void testUndoCut() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Note 1\n** Note 1.1\n* Note 2\n");
+
+        shelf.cut(book.getId(), shelf.getNote("Note 1").getId());
+
+        assertEquals("* Note 2\n", shelf.getBookContent("notebook", BookName.Format.ORG));
+
+        assertTrue(shelf.undo(book.getId()) > 0);
+
+        assertEquals("* Note 1\n** Note 1.1\n* Note 2\n", shelf.getBookContent("notebook", BookName.Format.ORG));
+        assertEquals(1, shelf.getNote("Note 1").getPosition().getDescendantsCount());
+        assertEquals(shelf.getNote("Note 1").getId(), shelf.getNote("Note 1.1").getPosition().getParentId());
+    }
+
+    @Test
+    public void testUndoInReverseOrder() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Note 1 :a:\n** Note 1.1\n* Note 2\n* Note 3\n");
+
+        String original = shelf.getBookContent("notebook", BookName.Format.ORG);
+
+        shelf.move(book.getId(), shelf.getNote("Note 1").getId(), 1);
+        String moved = shelf.getBookContent("notebook", BookName.Format.ORG);
+
+        shelf.cut(book.getId(), shelf.getNote("Note 3").getId());
+        shelf.paste(book.getId(), shelf.getNote("Note 1.1").getId(), Place.UNDER);
+
+        assertEquals(shelf.getNote("Note 1.1").getId(), shelf.getNote("Note 3").getPosition().getParentId());
+        assertEquals(1, shelf.getNote("Note 3").getInheritedTags().size());
+
+        shelf.undo(book.getId()); // Paste
+        shelf.undo(book.getId()); // Cut
+
+        assertEquals(moved, shelf.getBookContent("notebook", BookName.Format.ORG));
+        assertEquals(0, shelf.getNote("Note 3").getInheritedTags().size());
+
+        shelf.undo(book.getId()); // Move
+
+        assertEquals(original, shelf.getBookContent("notebook", BookName.Format.ORG));
+
+        assertEquals(0, shelf.undo(book.getId()));
+    }
+
+    @Test
+    public void testUndoPasteToAnotherBook() throws IOException {
+        Book book1 = shelfTestUtils.setupBook("book-1", "* Note A\n** Note A.1\n");
+        Book book2 = shelfTestUtils.setupBook("book-2", "* Note B\n");
+
+        shelf.cut(book1.getId(), shelf.getNote("Note A").getId());
+        shelf.paste(book2.getId(), shelf.getNote("Note B").getId(), Place.BELOW);
+
+        assertEquals("", shelf.getBookContent("book-1", BookName.Format.ORG));
+        assertEquals("* Note B\n* Note A\n** Note A.1\n", shelf.getBookContent("book-2", BookName.Format.ORG));
+
+        shelf.undo(book2.getId());
+        shelf.undo(book1.getId());
+
+        assertEquals("* Note A\n** Note A.1\n", shelf.getBookContent("book-1", BookName.Format.ORG));
+        assertEquals("* Note B\n", shelf.getBookContent("book-2", BookName.Format.ORG));
+    }
+
+    @Test
+    public void testUndoOnlyInTheBook() throws IOException {
+        Book book1 = shelfTestUtils.setupBook("book-1", "* Note A1\n* Note A2\n");
+        Book book2 = shelfTestUtils.setupBook("book-2", "* Note B1\n* Note B2\n");
+
+        shelf.move(book1.getId(), shelf.getNote("Note A2").getId(), -1);
+        shelf.move(book2.getId(), shelf.getNote("Note B2").getId(), -1);
+
+        assertTrue(shelf.undo(book1.getId()) > 0);
+        assertEquals(0, shelf.undo(book1.getId()));
+
+        assertEquals("* Note A1\n* Note A2\n", shelf.getBookContent("book-1", BookName.Format.ORG));
+        assertEquals("* Note B2\n* Note B1\n", shelf.getBookContent("book-2", BookName.Format.ORG));
+    }
+
+    @Test
+    public void testUndoInOtherBookFirst() throws IOException {
+        Book book1 = shelfTestUtils.setupBook("book-1", "* Note A\n");
+        Book book2 = shelfTestUtils.setupBook("book-2", "* Note B1\n* Note B2\n");
+
+        shelf.cut(book1.getId(), shelf.getNote("Note A").getId());
+        shelf.paste(book2.getId(), shelf.getNote("Note B1").getId(), Place.BELOW);
+        shelf.move(book2.getId(), shelf.getNote("Note B2").getId(), -1);
+
+        /* Paste involves the second book, which was changed later. */
+        assertEquals(0, shelf.undo(book1.getId()));
+
+        shelf.undo(book2.getId()); // Move
+        shelf.undo(book1.getId()); // Paste
+        shelf.undo(book1.getId()); // Cut
+
+        assertEquals("* Note A\n", shelf.getBookContent("book-1", BookName.Format.ORG));
+        assertEquals("* Note B1\n* Note B2\n", shelf.getBookContent("book-2", BookName.Format.ORG));
+    }
+
+    @Test
+    public void testCreatingNoteClearsJournalOfTheBook() throws IOException {
+        Book book1 = shelfTestUtils.setupBook("book-1", "* Note A1\n* Note A2\n");
+        Book book2 = shelfTestUtils.setupBook("book-2", "* Note B1\n* Note B2\n");
+
+        shelf.cut(book2.getId(), shelf.getNote("Note B2").getId());
+        shelf.cut(book1.getId(), shelf.getNote("Note A2").getId());
+
+        Note note = new Note();
+        note.getPosition().setBookId(book1.getId());
+        note.getHead().setTitle("Note A3");
+        shelf.createNote(note, new NotePlace(book1.getId(), shelf.getNote("Note A1").getId(), Place.BELOW));
+
+        /* Only the cut from the other book can be undone. */
+        assertEquals(0, shelf.undo(book1.getId()));
+        assertTrue(shelf.undo(book2.getId()) > 0);
+        assertEquals(0, shelf.undo(book2.getId()));
+
+        assertEquals("* Note A1\n* Note A3\n", shelf.getBookContent("book-1", BookName.Format.ORG));
+        assertEquals("* Note B1\n* Note B2\n", shelf.getBookContent("book-2", BookName.Format.ORG));
+    }
+
+    @Test
+    public void testDeleteCannotBeUndone() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Note 1\n* Note 2\n* Note 3\n");
+
+        shelf.move(book.getId(), shelf.getNote("Note 3").getId(), -1);
+        shelf.delete(book.getId(), Collections.singleton(shelf.getNote("Note 1").getId()));
+
+        assertEquals(0, shelf.undo(book.getId()));
+        assertEquals("* Note 3\n* Note 2\n", shelf.getBookContent("notebook", BookName.Format.ORG));
+    }
+
+    @Test
+    public void testJournalIsBounded() throws IOException {
+        Book book = shelfTestUtils.setupBook("notebook", "* Note 1\n* Note 2\n");
+
+        int moves = UndoJournal.MAX_ENTRIES + 5;
+
+        for (int i = 0; i < moves; i++) {
+            shelf.move(book.getId(), shelf.getNote("Note 1").getId(), i % 2 == 0 ? 1 : -1);
+        }
+
+        int undone = 0;
+        while (shelf.undo(book.getId()) > 0) {
+            undone++;
+        }
+
+        assertEquals(UndoJournal.MAX_ENTRIES, undone);
+    }
+}
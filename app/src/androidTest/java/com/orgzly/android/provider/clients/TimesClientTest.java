@@ -0,0 +1,50 @@
+package com.orgzly.android.provider.clients;
+
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimesClientTest extends OrgzlyTest {
+    @Test
+    public void testTimesBuiltFromFieldsMatchParsedStrings() {
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1\n" +
+                "SCHEDULED: <2017-04-16 Sun>\n" +
+                "* Note 2\n" +
+                "SCHEDULED: <2017-01-02 Mon 13:00>\n" +
+                "* Note 3\n" +
+                "DEADLINE: <2017-04-16 Sun .+1d>\n" +
+                "* Note 4\n" +
+                "SCHEDULED: <2017-01-02 Mon 09:00 ++1w>\n" +
+                "* Note 5\n" +
+                "DEADLINE: <2017-04-16 Sun +2m -3d>\n" +
+                "* Note 6\n" +
+                "SCHEDULED: <2006-11-02 Thu 20:00-22:00>\n" +
+                "* Note 7\n" +
+                "SCHEDULED: <2009-10-17 Sat .+2d/4d>\n");
+
+        final Map<String, OrgDateTime> times = new HashMap<>();
+
+        TimesClient.forEachTime(context, time -> times.put(time.orgTimestampString, time.orgDateTime));
+
+        assertEquals(7, times.size());
+
+        for (Map.Entry<String, OrgDateTime> entry: times.entrySet()) {
+            OrgDateTime parsed = OrgDateTime.parse(entry.getKey());
+            OrgDateTime built = entry.getValue();
+
+            assertEquals(parsed.toString(), built.toString());
+            assertEquals(parsed.getCalendar().getTimeInMillis(), built.getCalendar().getTimeInMillis());
+            assertEquals(parsed.hasTime(), built.hasTime());
+            assertEquals(parsed.hasEndTime(), built.hasEndTime());
+            assertEquals(parsed.hasRepeater(), built.hasRepeater());
+            assertEquals(parsed.hasDelay(), built.hasDelay());
+        }
+    }
+}
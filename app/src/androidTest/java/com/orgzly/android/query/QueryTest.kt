@@ -37,6 +37,11 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
     )
 
     companion object {
+        private const val HAS_TEXT = "(_id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND " +
+                "(title LIKE ? OR content LIKE ? OR tags LIKE ?))"
+
+        private fun hasTextArgs(match: String, text: String) = listOf(match) + List(3) { "%$text%" }
+
         @JvmStatic @Parameterized.Parameters
         fun data(): Collection<Parameter> {
             return listOf(
@@ -49,21 +54,21 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%")
+                            expectedSqlSelection = "COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work")
                     ),
                     Parameter(
                             queryString = "i.todo and t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%"),
+                            expectedSqlSelection = "COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work"),
                             expectedQuerySortOrders = listOf()
                     ),
                     Parameter(
                             queryString = "i.todo AND t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%"),
+                            expectedSqlSelection = "COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work"),
                             expectedQuerySortOrders = listOf()
                     ),
                     Parameter(
@@ -82,32 +87,32 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo or i.next and t.work",
                             expectedQueryString = "i.todo or i.next t.work",
-                            expectedSqlSelection = "COALESCE(state, '') = ? OR (COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "%work%", "%work%")
+                            expectedSqlSelection = "COALESCE(state, '') = ? OR (COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "work")
                     ),
                     Parameter(
                             queryString = "i.todo and t.work or i.next",
                             expectedQueryString = "i.todo t.work or i.next",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR COALESCE(state, '') = ?",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR COALESCE(state, '') = ?",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT")
                     ),
                     Parameter(
                             queryString = "i.todo t.work or i.next t.home",
                             expectedQueryString = "i.todo t.work or i.next t.home",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR (COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT", "%home%", "%home%")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR (COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT", "home")
                     ),
                     Parameter(
                             queryString = "( i.todo t.work ) or i.next",
                             expectedQueryString = "i.todo t.work or i.next",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR COALESCE(state, '') = ?",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR COALESCE(state, '') = ?",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT")
                     ),
                     Parameter(
                             queryString = "i.todo (i.next or t.work)",
                             expectedQueryString = "i.todo (i.next or t.work)",
-                            expectedSqlSelection = "COALESCE(state, '') = ? AND (COALESCE(state, '') = ? OR (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "%work%", "%work%")
+                            expectedSqlSelection = "COALESCE(state, '') = ? AND (COALESCE(state, '') = ? OR _id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "work")
                     ),
                     Parameter(
                             queryString = "(( i.todo) )",
@@ -118,8 +123,8 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "(it.todo b.gtd )or .s.none",
                             expectedQueryString = "it.todo b.gtd or .s.none",
-                            expectedSqlSelection = "(COALESCE(state, '') IN (?, ?) AND book_name = ?) OR (title LIKE ? OR content LIKE ? OR tags LIKE ?)",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd", "%.s.none%", "%.s.none%", "%.s.none%")
+                            expectedSqlSelection = "(COALESCE(state, '') IN (?, ?) AND book_name = ?) OR $HAS_TEXT",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd") + hasTextArgs("\".s.none*\"", ".s.none")
                     ),
                     Parameter(
                             queryString = "it.todo",
@@ -136,33 +141,33 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo (t.work or o.p i.next) .o.book t.home",
                             expectedQueryString = "i.todo (t.work or i.next) t.home o.p .o.b",
-                            expectedSqlSelection = "COALESCE(state, '') = ? AND ((COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?) OR COALESCE(state, '') = ?) AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT", "%home%", "%home%"),
+                            expectedSqlSelection = "COALESCE(state, '') = ? AND (_id IN (SELECT note_id FROM note_tags WHERE tag = ?) OR COALESCE(state, '') = ?) AND _id IN (SELECT note_id FROM note_tags WHERE tag = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT", "home"),
                             expectedQuerySortOrders = listOf(SortOrder.Priority(), SortOrder.Book(desc = true))
                     ),
                     Parameter(
                             queryString = ".i.done ( t.t1 or t.t2)",
                             expectedQueryString = ".i.done (t.t1 or t.t2)",
-                            expectedSqlSelection = "NOT(COALESCE(state, '') = ?) AND ((COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?) OR (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("DONE", "%t1%", "%t1%", "%t2%", "%t2%")
+                            expectedSqlSelection = "NOT(COALESCE(state, '') = ?) AND (_id IN (SELECT note_id FROM note_tags WHERE tag = ?) OR _id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("DONE", "t1", "t2")
                     ),
                     Parameter(
                             queryString = "tnn.tag1",
                             expectedQueryString = "tnn.tag1",
-                            expectedSqlSelection = "(title LIKE ? OR content LIKE ? OR tags LIKE ?)",
-                            expectedSelectionArgs = listOf("%tnn.tag1%", "%tnn.tag1%", "%tnn.tag1%")
+                            expectedSqlSelection = HAS_TEXT,
+                            expectedSelectionArgs = hasTextArgs("\"tnn.tag1*\"", "tnn.tag1")
                     ),
                     Parameter(
                             queryString = "p.",
                             expectedQueryString = "p.",
-                            expectedSqlSelection = "(title LIKE ? OR content LIKE ? OR tags LIKE ?)",
-                            expectedSelectionArgs = listOf("%p.%", "%p.%", "%p.%")
+                            expectedSqlSelection = HAS_TEXT,
+                            expectedSelectionArgs = hasTextArgs("\"p*\"", "p.")
                     ),
                     Parameter( // Operator with no expression before it
                             queryString = "and t.tag",
                             expectedQueryString = "t.tag",
-                            expectedSqlSelection = "(COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)",
-                            expectedSelectionArgs = listOf("%tag%", "%tag%")
+                            expectedSqlSelection = "_id IN (SELECT note_id FROM note_tags WHERE tag = ?)",
+                            expectedSelectionArgs = listOf("tag")
                     ),
                     Parameter(
                             queryString = "i.todo (b.\"book(1) name\" or b.book2)",
@@ -219,15 +224,25 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "\"(o.s o.d)\"",
                             expectedQueryString = "\"(o.s o.d)\"",
-                            expectedSqlSelection = "(title LIKE ? OR content LIKE ? OR tags LIKE ?)",
-                            expectedSelectionArgs = listOf("%(o.s o.d)%", "%(o.s o.d)%", "%(o.s o.d)%")
+                            expectedSqlSelection = HAS_TEXT,
+                            expectedSelectionArgs = hasTextArgs("\"(o.s o.d)\"", "(o.s o.d)")
                     ),
                     Parameter(
                             queryString = "\"or\"",
                             expectedQueryString = "\"or\"",
                             expectedParsedQuery = "Query(condition=And(operands=[HasText(text=or, isQuoted=true)]), sortOrders=[], options=Options(agendaDays=0))",
+                            expectedSqlSelection = HAS_TEXT,
+                            expectedSelectionArgs = hasTextArgs("\"or\"", "or")
+                    ),
+                    Parameter( // Nothing to look up in full-text index
+                            queryString = "\"...\"",
                             expectedSqlSelection = "(title LIKE ? OR content LIKE ? OR tags LIKE ?)",
-                            expectedSelectionArgs = listOf("%or%", "%or%", "%or%")
+                            expectedSelectionArgs = listOf("%...%", "%...%", "%...%")
+                    ),
+                    Parameter( // Text without spaces is a single term
+                            queryString = "日本語",
+                            expectedSqlSelection = HAS_TEXT,
+                            expectedSelectionArgs = hasTextArgs("\"日本語*\"", "日本語")
                     ),
                     Parameter(
                             queryString = "\"\"",
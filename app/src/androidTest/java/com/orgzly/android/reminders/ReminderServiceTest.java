@@ -2,83 +2,166 @@ package com.orgzly.android.reminders;
 
 import com.orgzly.android.OrgzlyTest;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.provider.clients.TimesClient;
 import com.orgzly.android.provider.views.DbTimeView;
+import com.orgzly.org.datetime.OrgDateTime;
 
-import org.joda.time.Instant;
+import org.joda.time.DateTime;
 import org.joda.time.LocalDateTime;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 import static org.junit.Assert.assertEquals;
 
+/**
+ * Times are relative to today, as reminders are computed from the current time
+ * when notes are written.
+ */
 public class ReminderServiceTest extends OrgzlyTest {
     @Test
     public void testNotesWithTimesSkipDoneState() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
         shelfTestUtils.setupBook("notebook",
                 "* Note 1\n"+
-                "SCHEDULED: <2017-03-20>\n" +
+                "SCHEDULED: " + time(today.plusDays(5), "") + "\n" +
                 "* DONE Note 2\n"+
-                "SCHEDULED: <2017-03-20>\n" +
+                "SCHEDULED: " + time(today.plusDays(5), "") + "\n" +
                 "* Note 3");
 
-        ReminderService.LastRun lastRun = new ReminderService.LastRun();
-        Instant now = Instant.parse("2017-03-15");
+        DateTime now = DateTime.now();
         AppPreferences.remindersForScheduledEnabled(context, true);
 
         List<NoteReminder> notes = ReminderService.getNoteReminders(
-                context, now, lastRun, ReminderService.TIME_FROM_NOW);
+                context, now, ReminderService.TIME_FROM_NOW);
 
         assertEquals(1, notes.size());
     }
 
     @Test
     public void testNotesWithTimesWithRepeater() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
         shelfTestUtils.setupBook("notebook",
                 "* Note 1\n"+
-                "SCHEDULED: <2017-03-10 Fri +1w>\n" +
+                "SCHEDULED: " + time(today.minusDays(5), " +1w") + "\n" +
                 "* Note 2\n"+
-                "SCHEDULED: <2017-03-20 Mon 16:00>\n" +
+                "SCHEDULED: " + time(today.plusDays(5), " 16:00") + "\n" +
                 "* Note 3\n" +
                 "* Note 4\n"+
-                "SCHEDULED: <2017-03-16 Fri +1w>\n");
+                "SCHEDULED: " + time(today.plusDays(1), " +1w") + "\n");
 
-        ReminderService.LastRun lastRun = new ReminderService.LastRun();
-        Instant now = Instant.parse("2017-03-15T13:00:00"); // Wed
+        DateTime now = DateTime.now();
         AppPreferences.remindersForScheduledEnabled(context, true);
 
         List<NoteReminder> notes = ReminderService.getNoteReminders(
-                context, now, lastRun, ReminderService.TIME_FROM_NOW);
+                context, now, ReminderService.TIME_FROM_NOW);
 
         assertEquals(2, notes.size());
 
         assertEquals("Note 4", notes.get(0).getPayload().title);
-        assertEquals("2017-03-16T09:00:00", new LocalDateTime(notes.get(0).getRunTime()).toString("yyyy-MM-dd'T'HH:mm:ss"));
+        assertEquals(dateTime(today.plusDays(1).withHourOfDay(9)), dateTime(notes.get(0).getRunTime()));
 
         assertEquals("Note 2", notes.get(1).getPayload().title);
-        assertEquals("2017-03-20T16:00:00", new LocalDateTime(notes.get(1).getRunTime()).toString("yyyy-MM-dd'T'HH:mm:ss"));
+        assertEquals(dateTime(today.plusDays(5).withHourOfDay(16)), dateTime(notes.get(1).getRunTime()));
     }
 
     @Test
     public void testReminderForDeadlineTime() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
         shelfTestUtils.setupBook("notebook",
                 "* Note 1\n"+
-                "SCHEDULED: <2017-03-16 Fri +1w>\n" +
+                "SCHEDULED: " + time(today.plusDays(1), " +1w") + "\n" +
                 "* Note 2\n"+
-                "DEADLINE: <2017-03-20 Mon 16:00>\n");
+                "DEADLINE: " + time(today.plusDays(5), " 16:00") + "\n");
 
-        ReminderService.LastRun lastRun = new ReminderService.LastRun();
-        Instant now = Instant.parse("2017-03-15T13:00:00"); // Wed
+        DateTime now = DateTime.now();
         AppPreferences.remindersForDeadlineEnabled(context, true);
 
         List<NoteReminder> notes = ReminderService.getNoteReminders(
-                context, now, lastRun, ReminderService.TIME_FROM_NOW);
+                context, now, ReminderService.TIME_FROM_NOW);
 
         assertEquals(1, notes.size());
 
         NoteReminder reminder = notes.get(0);
         assertEquals("Note 2", reminder.getPayload().title);
         assertEquals(DbTimeView.DEADLINE_TIME, reminder.getPayload().timeType);
-        assertEquals("2017-03-20T16:00:00", new LocalDateTime(reminder.getRunTime()).toString("yyyy-MM-dd'T'HH:mm:ss"));
+        assertEquals(dateTime(today.plusDays(5).withHourOfDay(16)), dateTime(reminder.getRunTime()));
+    }
+
+    @Test
+    public void testFiredReminderIsRescheduled() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1\n"+
+                "SCHEDULED: " + time(today.plusDays(1), " 10:00") + "\n" +
+                "* Note 2\n"+
+                "SCHEDULED: " + time(today.plusDays(5), " 16:00") + "\n");
+
+        DateTime now = DateTime.now();
+        AppPreferences.remindersForScheduledEnabled(context, true);
+
+        List<NoteReminder> notes = ReminderService.getNoteReminders(
+                context, now, ReminderService.TIME_FROM_NOW);
+
+        assertEquals("Note 1", notes.get(0).getPayload().title);
+
+        /* Job triggered at the time of the first reminder. */
+        DateTime fired = notes.get(0).getRunTime();
+
+        notes = ReminderService.getNoteReminders(context, fired, ReminderService.TIME_BEFORE_NOW);
+
+        assertEquals(1, notes.size());
+        assertEquals("Note 1", notes.get(0).getPayload().title);
+
+        TimesClient.rescheduleReminders(context, fired);
+
+        assertEquals(0, ReminderService.getNoteReminders(context, fired, ReminderService.TIME_BEFORE_NOW).size());
+
+        notes = ReminderService.getNoteReminders(context, fired, ReminderService.TIME_FROM_NOW);
+
+        assertEquals(1, notes.size());
+        assertEquals("Note 2", notes.get(0).getPayload().title);
+    }
+
+    @Test
+    public void testChangedTimeIsComputedAgain() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1\n"+
+                "SCHEDULED: " + time(today.plusDays(5), " 16:00") + "\n" +
+                "* Note 2\n"+
+                "SCHEDULED: " + time(today.plusDays(6), " 16:00") + "\n");
+
+        AppPreferences.remindersForScheduledEnabled(context, true);
+
+        assertEquals("Note 1", ReminderService.getNoteReminders(
+                context, DateTime.now(), ReminderService.TIME_FROM_NOW).get(0).getPayload().title);
+
+        shelf.setNotesScheduledTime(
+                Collections.singleton(shelf.getNote("Note 1").getId()),
+                OrgDateTime.parse(time(today.plusDays(7), " 16:00")));
+
+        List<NoteReminder> notes = ReminderService.getNoteReminders(
+                context, DateTime.now(), ReminderService.TIME_FROM_NOW);
+
+        assertEquals(2, notes.size());
+        assertEquals("Note 2", notes.get(0).getPayload().title);
+        assertEquals("Note 1", notes.get(1).getPayload().title);
+        assertEquals(dateTime(today.plusDays(7).withHourOfDay(16)), dateTime(notes.get(1).getRunTime()));
+    }
+
+    private static String time(DateTime date, String suffix) {
+        return "<" + date.toString("yyyy-MM-dd EEE", Locale.ENGLISH) + suffix + ">";
+    }
+
+    private static String dateTime(DateTime time) {
+        return new LocalDateTime(time).toString("yyyy-MM-dd'T'HH:mm:ss");
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,8 @@ import com.orgzly.android.Book;
 import com.orgzly.android.BookName;
 import com.orgzly.android.LocalStorage;
 import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.sync.BookSyncStatus;
 import com.orgzly.android.util.MiscUtils;
 
 import org.junit.After;
@@ -15,10 +17,13 @@ import org.junit.Test;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class DirectoryRepoTest extends OrgzlyTest {
     private static final String TAG = DirectoryRepoTest.class.getName();
@@ -132,5 +137,66 @@ public class DirectoryRepoTest extends OrgzlyTest {
         assertEquals(1, shelf.getBooks().size());
     }
 
+    @Test
+    public void testContentRevisions() throws IOException {
+        DirectoryRepo repo = new DirectoryRepo(repoUriString, true, new ContentRevisions(context));
+        File file = new File(dirFile, "notebook.org");
+
+        MiscUtils.writeStringToFile("Notebook content", file);
+        String revision = repo.getBooks().get(0).getRevision();
+
+        /* Touched, but not modified. */
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertEquals(revision, repo.getBooks().get(0).getRevision());
+
+        /* Hashes are kept after restart, file is not read again. */
+        String cached = new ContentRevisions(context).get(file.getAbsolutePath(), file.length(), file.lastModified(), new ContentRevisions.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                throw new IOException("File should not be read");
+            }
+        });
+        assertEquals(revision, cached);
+
+        MiscUtils.writeStringToFile("Notebook content modified", file);
+        assertNotEquals(revision, repo.getBooks().get(0).getRevision());
+    }
+
+    @Test
+    public void testTouchedFileIsNotReloaded() throws IOException {
+        AppPreferences.contentRevisions(context, true);
+
+        File file = new File(dirFile, "notebook.org");
+
+        shelfTestUtils.setupRepo(repoUriString);
+        MiscUtils.writeStringToFile("* Note", file);
+
+        shelf.sync();
+        assertEquals(BookSyncStatus.NO_CHANGE, shelf.sync().get("notebook").getStatus());
+
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        assertEquals(BookSyncStatus.NO_CHANGE, shelf.sync().get("notebook").getStatus());
+
+        MiscUtils.writeStringToFile("* Note modified", file);
+        assertEquals(BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED, shelf.sync().get("notebook").getStatus());
+    }
+
+    @Test
+    public void testLoadingBookDirectlyFromFile() throws IOException {
+        File file = new File(dirFile, "notebook.org");
+
+        shelfTestUtils.setupRepo(repoUriString);
+        MiscUtils.writeStringToFile("* Бележка\n** Note", file);
+
+        shelf.sync();
+
+        Book book = shelf.getBooks().get(0);
+
+        assertEquals("UTF-8", book.getUsedEncoding());
+        assertEquals(file.lastModified(), book.getLastSyncedToRook().getMtime());
+        assertNotNull(shelf.getNote("Бележка"));
+        assertNotNull(shelf.getNote("Note"));
+    }
+
     // TODO: Test saving and loading
 }
@@ -0,0 +1,171 @@
+package com.orgzly.android.repos;
+
+import android.net.Uri;
+
+import com.dropbox.core.v2.files.DeletedMetadata;
+import com.dropbox.core.v2.files.FileMetadata;
+import com.dropbox.core.v2.files.ListFolderResult;
+import com.dropbox.core.v2.files.Metadata;
+import com.orgzly.android.OrgzlyTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DropboxClientTest extends OrgzlyTest {
+    private static final Uri REPO_URI = Uri.parse("dropbox:");
+
+    private FakeFilesApi filesApi;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        new DropboxListingCache(context).clear();
+
+        filesApi = new FakeFilesApi();
+    }
+
+    @Test
+    public void testOnlyChangesAreFetchedAfterFirstListing() throws IOException {
+        filesApi.upload("a.org");
+        filesApi.upload("b.org");
+        filesApi.upload("c.txt");
+
+        assertEquals("a.org@1 b.org@2", listing(new DropboxClient(context, filesApi)));
+        assertEquals(1, filesApi.listFolderCount);
+        assertEquals(0, filesApi.listFolderContinueCount);
+
+        filesApi.upload("b.org");
+        filesApi.delete("a.org");
+        filesApi.upload("d.org");
+
+        /* New client must use the stored cursor too. */
+        assertEquals("b.org@4 d.org@6", listing(new DropboxClient(context, filesApi)));
+        assertEquals(1, filesApi.listFolderCount);
+        assertEquals(1, filesApi.listFolderContinueCount);
+
+        assertEquals("b.org@4 d.org@6", listing(new DropboxClient(context, filesApi)));
+        assertEquals(1, filesApi.listFolderCount);
+        assertEquals(2, filesApi.listFolderContinueCount);
+    }
+
+    @Test
+    public void testFullListingAfterCursorReset() throws IOException {
+        DropboxClient client = new DropboxClient(context, filesApi);
+
+        filesApi.upload("a.org");
+
+        assertEquals("a.org@1", listing(client));
+
+        filesApi.upload("b.org");
+        filesApi.isReset = true;
+
+        assertEquals("a.org@1 b.org@2", listing(client));
+        assertEquals(2, filesApi.listFolderCount);
+        assertEquals(1, filesApi.listFolderContinueCount);
+    }
+
+    @Test
+    public void testFullListingAfterFolderRecreated() throws IOException {
+        DropboxClient client = new DropboxClient(context, filesApi);
+
+        filesApi.upload("a.org");
+
+        assertEquals("a.org@1", listing(client));
+
+        filesApi.deleteFolder();
+        filesApi.upload("b.org");
+
+        assertEquals("b.org@1", listing(client));
+        assertEquals(2, filesApi.listFolderCount);
+        assertEquals(1, filesApi.listFolderContinueCount);
+
+        assertEquals("b.org@1", listing(client));
+        assertEquals(2, filesApi.listFolderCount);
+        assertEquals(2, filesApi.listFolderContinueCount);
+    }
+
+    private String listing(DropboxClient client) throws IOException {
+        StringBuilder result = new StringBuilder();
+
+        for (VersionedRook vrook : client.getBooks(REPO_URI)) {
+            if (result.length() > 0) {
+                result.append(" ");
+            }
+            result.append(vrook.getUri().getLastPathSegment()).append("@").append(vrook.getMtime());
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Keeps all changes of the root folder. Cursor is the number of changes seen.
+     * File's modification time is the number of the change which created it.
+     */
+    private static class FakeFilesApi implements DropboxClient.FilesApi {
+        private final Map<String, Metadata> files = new LinkedHashMap<>();
+        private final List<Metadata> changes = new ArrayList<>();
+
+        boolean isReset = false;
+
+        int listFolderCount = 0;
+        int listFolderContinueCount = 0;
+
+        void upload(String name) {
+            long change = changes.size() + 1;
+
+            Metadata file = new FileMetadata(name, "id:" + name, new Date(change), new Date(change), String.format("%09x", change), 1);
+
+            files.remove(name);
+            files.put(name, file);
+            changes.add(file);
+        }
+
+        void delete(String name) {
+            files.remove(name);
+            changes.add(new DeletedMetadata(name));
+        }
+
+        /* Cursors created before are not valid for the new folder at the same path. */
+        void deleteFolder() {
+            files.clear();
+            changes.clear();
+            isReset = true;
+        }
+
+        @Override
+        public Metadata getMetadata(String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ListFolderResult listFolder(String path) {
+            listFolderCount++;
+
+            return new ListFolderResult(new ArrayList<>(files.values()), String.valueOf(changes.size()), false);
+        }
+
+        @Override
+        public ListFolderResult listFolderContinue(String cursor) {
+            listFolderContinueCount++;
+
+            if (isReset) {
+                isReset = false;
+                return null;
+            }
+
+            List<Metadata> entries = changes.subList(Integer.parseInt(cursor), changes.size());
+
+            return new ListFolderResult(new ArrayList<>(entries), String.valueOf(changes.size()), false);
+        }
+    }
+}
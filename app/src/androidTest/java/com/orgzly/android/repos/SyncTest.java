@@ -2,6 +2,7 @@ package com.orgzly.android.repos;
 
 import android.net.Uri;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
 
 import com.orgzly.BuildConfig;
 import com.orgzly.android.Book;
@@ -15,10 +16,12 @@ import com.orgzly.android.provider.clients.LocalDbRepoClient;
 import com.orgzly.android.provider.clients.ReposClient;
 import com.orgzly.android.sync.BookNamesake;
 import com.orgzly.android.sync.BookSyncStatus;
+import com.orgzly.android.sync.SyncEngine;
 import com.orgzly.android.util.EncodingDetect;
 import com.orgzly.android.util.MiscUtils;
 import com.orgzly.org.datetime.OrgRange;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -52,6 +55,91 @@ public class SyncTest extends OrgzlyTest {
         AppPreferences.dropboxToken(context, BuildConfig.DROPBOX_TOKEN);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        MockRepo.resetLatency();
+
+        super.tearDown();
+    }
+
+    /**
+     * Repositories are listed and books are downloaded concurrently,
+     * so sync must take less time than the sum of all simulated latencies.
+     */
+    @Test
+    public void testParallelSyncWithSlowRepos() {
+        final long latency = 300;
+        final int reposCount = 3;
+        final int booksPerRepo = 5;
+
+        MockRepo.setLatency(new MockRepo.Latency(latency, latency, latency));
+
+        for (int i = 0; i < reposCount; i++) {
+            String repoUrl = "mock://repo-" + i;
+
+            shelfTestUtils.setupRepo(repoUrl);
+
+            for (int j = 0; j < booksPerRepo; j++) {
+                shelfTestUtils.setupRook(repoUrl, repoUrl + "/book-" + i + "-" + j + ".org", "* Note " + j, "rev" + j, 1400067156);
+            }
+        }
+
+        long serialLatency = reposCount * latency + reposCount * booksPerRepo * latency;
+
+        long startedAt = System.currentTimeMillis();
+
+        Map<String, BookNamesake> namesakes = shelf.sync();
+
+        long ms = System.currentTimeMillis() - startedAt;
+
+        Log.i(TAG, String.format("Synced %d books from %d repos in %d ms (%d ms of simulated latency)",
+                namesakes.size(), reposCount, ms, serialLatency));
+
+        assertEquals(reposCount * booksPerRepo, shelf.getBooks().size());
+        for (BookNamesake namesake: namesakes.values()) {
+            assertEquals(BookSyncStatus.DUMMY_WITHOUT_LINK_AND_ONE_ROOK, namesake.getStatus());
+        }
+        assertTrue(ms < serialLatency);
+    }
+
+    @Test
+    public void testUnchangedBooksAreSkipped() throws IOException {
+        shelfTestUtils.setupRepo("mock://repo-a");
+        shelfTestUtils.setupRook("mock://repo-a", "mock://repo-a/book-1.org", "* Note 1", "1abcdef", 1400067156);
+        shelfTestUtils.setupRook("mock://repo-a", "mock://repo-a/book-2.org", "* Note 2", "2abcdef", 1400067156);
+
+        /* Load books, then store NO_CHANGE status. */
+        shelf.sync();
+        shelf.sync();
+
+        Map<String, BookNamesake> namesakes = shelf.groupAllNotebooksByName();
+        assertEquals(BookSyncStatus.NO_CHANGE, namesakes.get("book-1").getStatus());
+        assertEquals(0, SyncEngine.getChanged(namesakes).size());
+
+        /* Remote revision moved. */
+        shelfTestUtils.setupRook("mock://repo-a", "mock://repo-a/book-2.org", "* Note 2 modified", "3abcdef", 1400067157);
+
+        namesakes = shelf.groupAllNotebooksByName();
+        List<BookNamesake> changed = SyncEngine.getChanged(namesakes);
+        assertEquals(1, changed.size());
+        assertEquals("book-2", changed.get(0).getName());
+        assertEquals(BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED, changed.get(0).getStatus());
+
+        shelf.sync();
+        assertEquals(1, SyncEngine.getChanged(shelf.groupAllNotebooksByName()).size());
+        shelf.sync();
+        assertEquals(0, SyncEngine.getChanged(shelf.groupAllNotebooksByName()).size());
+
+        /* Local book modified. */
+        Note note = shelf.getNote("Note 1");
+        note.getHead().setTitle("Note 1 modified");
+        shelf.updateNote(note);
+
+        changed = SyncEngine.getChanged(shelf.groupAllNotebooksByName());
+        assertEquals(1, changed.size());
+        assertEquals(BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED, changed.get(0).getStatus());
+    }
+
     @Test
     public void testOrgRange() {
         shelfTestUtils.setupRepo("mock://repo-a");
@@ -0,0 +1,63 @@
+package com.orgzly.android.ui;
+
+import android.database.Cursor;
+
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.ui.fragments.AgendaFragment;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AgendaLoaderTest extends OrgzlyTest {
+    @Test
+    public void testSeparatorsFollowedByNotesOfTheDay() {
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
+        shelfTestUtils.setupBook("notebook",
+                "* Note 1\n" +
+                "SCHEDULED: " + time(today.plusDays(1), " +1d") + "\n" +
+                "* Note 2\n" +
+                "DEADLINE: " + time(today.minusDays(5), "") + "\n");
+
+        AgendaLoader.AgendaCursor cursor = (AgendaLoader.AgendaCursor) new AgendaLoader(context, "ad.3").loadInBackground();
+
+        try {
+            int id = cursor.getColumnIndex(DbNoteView._ID);
+            int title = cursor.getColumnIndex(DbNoteView.TITLE);
+            int isSeparator = cursor.getColumnIndex(AgendaFragment.Columns.IS_SEPARATOR);
+
+            List<String> rows = new ArrayList<>();
+
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                Long noteId = cursor.getOriginalNoteId(cursor.getLong(id));
+
+                if (cursor.getInt(isSeparator) == 1) {
+                    assertNull(noteId);
+                    rows.add("-");
+
+                } else {
+                    assertEquals(shelf.getNote(cursor.getString(title)).getId(), (long) noteId);
+                    rows.add(cursor.getString(title));
+                }
+            }
+
+            assertEquals(Arrays.asList("-", "Note 2", "-", "Note 1", "-", "Note 1"), rows);
+
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String time(DateTime date, String suffix) {
+        return "<" + date.toString("yyyy-MM-dd EEE", Locale.ENGLISH) + suffix + ">";
+    }
+}
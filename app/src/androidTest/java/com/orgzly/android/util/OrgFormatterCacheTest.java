@@ -0,0 +1,62 @@
+package com.orgzly.android.util;
+
+import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.prefs.AppPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OrgFormatterCacheTest extends OrgzlyTest {
+    @Before
+    public void setup() throws Exception {
+        super.setUp();
+
+        AppPreferences.styledTextWithMarks(context, false);
+
+        OrgFormatterCache.clear();
+    }
+
+    @Test
+    public void testSameTextIsFormattedOnce() {
+        CharSequence first = OrgFormatterCache.parseTitle(context, 1, "Note *bold*");
+        CharSequence second = OrgFormatterCache.parseTitle(context, 1, "Note *bold*");
+
+        assertEquals("Note bold", first.toString());
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testTitleAndContentAreCachedSeparately() {
+        CharSequence title = OrgFormatterCache.parseTitle(context, 1, "Title");
+        CharSequence content = OrgFormatterCache.parseContent(context, 1, "Content");
+
+        assertEquals("Title", title.toString());
+        assertEquals("Content", content.toString());
+        assertSame(title, OrgFormatterCache.parseTitle(context, 1, "Title"));
+    }
+
+    @Test
+    public void testChangedTextIsFormattedAgain() {
+        CharSequence before = OrgFormatterCache.parseContent(context, 1, "[[http://www.orgzly.com][Orgzly]]");
+        CharSequence after = OrgFormatterCache.parseContent(context, 1, "[[http://www.orgzly.com][Orgzly app]]");
+
+        assertEquals("Orgzly", before.toString());
+        assertEquals("Orgzly app", after.toString());
+    }
+
+    @Test
+    public void testChangedPreferenceIsFormattedAgain() {
+        CharSequence before = OrgFormatterCache.parseTitle(context, 1, "Note *bold*");
+
+        AppPreferences.styledTextWithMarks(context, true);
+
+        CharSequence after = OrgFormatterCache.parseTitle(context, 1, "Note *bold*");
+
+        assertNotSame(before, after);
+        assertEquals("Note *bold*", after.toString());
+    }
+}
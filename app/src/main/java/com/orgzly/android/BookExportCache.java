@@ -0,0 +1,443 @@
+package com.orgzly.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.clients.BooksClient;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.util.LogUtils;
+import com.orgzly.android.util.MiscUtils;
+import com.orgzly.org.parser.OrgParserSettings;
+import com.orgzly.org.parser.OrgParserWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Last exported content of each book, split into segments (preface and notes).
+ *
+ * Exported text of a note depends only on the note itself, so when exporting the book
+ * again only notes changed since (as recorded by triggers, see
+ * {@link com.orgzly.android.provider.models.DbNoteExportChange}) are written,
+ * while the rest is copied from the last export. Book is written fully if notes
+ * were added, removed or moved, if there are too many changes or if the cache
+ * is missing or was created using different settings.
+ */
+public class BookExportCache {
+    private static final String TAG = BookExportCache.class.getName();
+
+    private static final int INDEX_VERSION = 1;
+
+    /** Segment ID of the book's preface. Notes' IDs are positive. */
+    private static final long PREFACE = 0;
+
+    /** Book is written fully if more than 1/MAX_CHANGED_PART of its notes changed. */
+    private static final int MAX_CHANGED_PART = 4;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Context context;
+    private final File dir;
+
+    public BookExportCache(Context context, File dir) {
+        this.context = context;
+        this.dir = dir;
+    }
+
+    /**
+     * Segments can be copied only if encoding each one separately gives the same bytes
+     * as encoding the whole book.
+     */
+    public static boolean canCache(Book book) {
+        return canEncodeSeparately(getCharset(book));
+    }
+
+    /**
+     * Writes book to {@code file}, reusing unchanged notes from the last export when possible.
+     * Book must be one which {@link #canCache(Book)}.
+     *
+     * @return true if only changed notes were written
+     */
+    public boolean writeBookToFile(Book book, OrgParserSettings settings, int chunkSize, File file) throws IOException {
+        Charset charset = getCharset(book);
+
+        /* Read before exporting, so changes made while exporting are kept for the next time. */
+        BooksClient.ExportChanges changes = BooksClient.getExportChanges(context, book.getId());
+
+        String signature = signature(book, charset, settings);
+
+        OrgParserWriter parserWriter = new OrgParserWriter(settings);
+
+        boolean isIncremental = false;
+        List<Segment> segments = null;
+
+        Index index = readIndex(book.getId(), signature);
+
+        if (index != null && !changes.isStructureChanged() && changes.getNoteIds().size() * MAX_CHANGED_PART <= index.segments.size()) {
+            segments = writeChanged(book, charset, parserWriter, index, changes.getNoteIds(), file);
+            isIncremental = segments != null;
+        }
+
+        if (segments == null) {
+            segments = writeSegmented(book, charset, parserWriter, chunkSize, file);
+        }
+
+        if (store(book.getId(), signature, segments, file)) {
+            BooksClient.deleteExportChanges(context, book.getId(), changes.getLastChangeId());
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, book.getName() + ": " +
+                (isIncremental ? changes.getNoteIds().size() + " changed notes written" : "written fully"));
+
+        return isIncremental;
+    }
+
+    /**
+     * Removes book's cached export.
+     */
+    public void delete(long bookId) {
+        deleteFile(indexFile(bookId));
+        deleteFile(contentFile(bookId));
+    }
+
+    /**
+     * Writes changed notes and copies the rest from the cached export.
+     *
+     * @return segments written or null if the book needs to be written fully
+     */
+    private List<Segment> writeChanged(
+            final Book book,
+            Charset charset,
+            final OrgParserWriter parserWriter,
+            Index index,
+            Set<Long> changedNoteIds,
+            File file) throws IOException {
+
+        final Map<Long, String> changedTexts = new HashMap<>();
+
+        NotesClient.forEachBookNote(context, book, changedNoteIds, new NotesClient.NotesClientInterface() {
+            @Override
+            public void onNote(Note note) {
+                changedTexts.put(note.getId(), noteText(book, parserWriter, note));
+            }
+        });
+
+        /* Every changed note must have been exported the last time. */
+        int found = 0;
+        for (Segment segment: index.segments) {
+            if (changedTexts.containsKey(segment.id)) {
+                found++;
+            }
+        }
+        if (found != changedTexts.size()) {
+            return null;
+        }
+
+        List<Segment> segments = new ArrayList<>(index.segments.size());
+
+        InputStream in = new BufferedInputStream(new FileInputStream(contentFile(book.getId())), BUFFER_SIZE);
+
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                for (Segment segment: index.segments) {
+                    String text;
+
+                    if (segment.id == PREFACE) {
+                        text = parserWriter.whiteSpacedFilePreface(book.getPreface());
+                    } else {
+                        text = changedTexts.get(segment.id);
+                    }
+
+                    if (text != null) {
+                        skip(in, segment.length);
+                        segments.add(writeSegment(out, charset, segment.id, text));
+
+                    } else {
+                        copy(in, out, segment.length, buffer);
+                        segments.add(segment);
+                    }
+                }
+
+            } finally {
+                out.close();
+            }
+
+        } finally {
+            in.close();
+        }
+
+        return segments;
+    }
+
+    /**
+     * Writes all notes, recording the segments.
+     */
+    private List<Segment> writeSegmented(
+            final Book book,
+            final Charset charset,
+            final OrgParserWriter parserWriter,
+            int chunkSize,
+            File file) throws IOException {
+
+        final List<Segment> segments = new ArrayList<>();
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+
+        try {
+            segments.add(writeSegment(out, charset, PREFACE, parserWriter.whiteSpacedFilePreface(book.getPreface())));
+
+            final IOException[] exception = new IOException[1];
+
+            NotesClient.forEachBookNote(context, book, chunkSize, new NotesClient.NotesClientInterface() {
+                @Override
+                public void onNote(Note note) {
+                    if (exception[0] == null) {
+                        try {
+                            segments.add(writeSegment(out, charset, note.getId(), noteText(book, parserWriter, note)));
+                        } catch (IOException e) {
+                            exception[0] = e;
+                        }
+                    }
+                }
+            });
+
+            if (exception[0] != null) {
+                throw exception[0];
+            }
+
+        } finally {
+            out.close();
+        }
+
+        return segments;
+    }
+
+    private static String noteText(Book book, OrgParserWriter parserWriter, Note note) {
+        return parserWriter.whiteSpacedHead(
+                note.getHead(),
+                note.getPosition().getLevel(),
+                book.getOrgFileSettings().isIndented());
+    }
+
+    private static Segment writeSegment(OutputStream out, Charset charset, long id, String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        out.write(bytes);
+        return new Segment(id, bytes.length);
+    }
+
+    /**
+     * Copies exported file and its segments to the cache.
+     *
+     * @return true if cached
+     */
+    private boolean store(long bookId, String signature, List<Segment> segments, File file) {
+        File indexFile = indexFile(bookId);
+        File contentFile = contentFile(bookId);
+
+        /* Old index must not be used with the new content, even if storing fails. */
+        deleteFile(indexFile);
+
+        try {
+            File tmpFile = new File(dir, contentFile.getName() + ".tmp");
+            MiscUtils.copyFile(file, tmpFile);
+
+            if (!tmpFile.renameTo(contentFile)) {
+                throw new IOException("Failed renaming " + tmpFile + " to " + contentFile);
+            }
+
+            writeIndex(indexFile, new Index(signature, file.length(), segments));
+
+            return true;
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed caching exported book " + bookId, e);
+            delete(bookId);
+            return false;
+        }
+    }
+
+    private Index readIndex(long bookId, String signature) {
+        File indexFile = indexFile(bookId);
+        File contentFile = contentFile(bookId);
+
+        if (!indexFile.exists() || !contentFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE));
+
+            try {
+                if (in.readInt() != INDEX_VERSION) {
+                    return null;
+                }
+
+                String indexSignature = in.readUTF();
+                long length = in.readLong();
+                int count = in.readInt();
+
+                if (!signature.equals(indexSignature) || length != contentFile.length()) {
+                    return null;
+                }
+
+                List<Segment> segments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    segments.add(new Segment(in.readLong(), in.readInt()));
+                }
+
+                return new Index(indexSignature, length, segments);
+
+            } finally {
+                in.close();
+            }
+
+        } catch (IOException e) {
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Failed reading " + indexFile + ": " + e);
+            return null;
+        }
+    }
+
+    private static void writeIndex(File file, Index index) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+
+        try {
+            out.writeInt(INDEX_VERSION);
+            out.writeUTF(index.signature);
+            out.writeLong(index.length);
+            out.writeInt(index.segments.size());
+
+            for (Segment segment: index.segments) {
+                out.writeLong(segment.id);
+                out.writeInt(segment.length);
+            }
+
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Everything other than notes and preface which changes the exported content.
+     */
+    private static String signature(Book book, Charset charset, OrgParserSettings settings) {
+        return charset.name() + "|" +
+               book.getOrgFileSettings().isIndented() + "|" +
+               settings.separateNotesWithNewLine + "|" +
+               settings.separateHeaderAndContentWithNewLine + "|" +
+               settings.tagsColumn + "|" +
+               settings.orgIndentMode + "|" +
+               settings.orgIndentIndentationPerLevel;
+    }
+
+    /**
+     * Stateful encodings (e.g. UTF-16 with its byte order mark) encode
+     * concatenated strings differently than each one of them.
+     */
+    private static boolean canEncodeSeparately(Charset charset) {
+        String str = "a\u00e9\u65e5\n";
+
+        byte[] one = str.getBytes(charset);
+        byte[] two = (str + str).getBytes(charset);
+
+        return two.length == one.length * 2
+               && Arrays.equals(Arrays.copyOfRange(two, 0, one.length), one)
+               && Arrays.equals(Arrays.copyOfRange(two, one.length, two.length), one);
+    }
+
+    /* Same encoding as the one used when the book was loaded. */
+    private static Charset getCharset(Book book) {
+        String encoding = book.getUsedEncoding();
+
+        if (encoding == null) {
+            return Charset.defaultCharset();
+        }
+
+        return Charset.forName(encoding);
+    }
+
+    private static void skip(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+
+            count -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count, byte[] buffer) throws IOException {
+        while (count > 0) {
+            int len = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+
+            if (len == -1) {
+                throw new EOFException();
+            }
+
+            out.write(buffer, 0, len);
+
+            count -= len;
+        }
+    }
+
+    private File indexFile(long bookId) {
+        return new File(dir, bookId + ".index");
+    }
+
+    private File contentFile(long bookId) {
+        return new File(dir, bookId + ".org");
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Failed deleting " + file);
+        }
+    }
+
+    private static class Index {
+        final String signature;
+        final long length;
+        final List<Segment> segments;
+
+        Index(String signature, long length, List<Segment> segments) {
+            this.signature = signature;
+            this.length = length;
+            this.segments = segments;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final int length;
+
+        Segment(long id, int length) {
+            this.id = id;
+            this.length = length;
+        }
+    }
+}
@@ -64,6 +64,14 @@ public class LocalStorage {
         return baseDir;
     }
 
+    /**
+     * Directory with books' last exported content, used to write only changed notes.
+     * Internal, as it is not shared with any other app.
+     */
+    public File getExportCacheDirectory() throws IOException {
+        return internalCacheDir("export");
+    }
+
     /**
      * Export directory.
      */
@@ -7,7 +7,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.OperationApplicationException;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.RemoteException;
 import android.support.design.widget.Snackbar;
@@ -19,20 +18,25 @@ import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.filter.Filter;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.provider.ChangeNotifier;
+import com.orgzly.android.provider.GenericDatabaseUtils;
 import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.provider.clients.BooksClient;
 import com.orgzly.android.provider.clients.CurrentRooksClient;
 import com.orgzly.android.provider.clients.DbClient;
 import com.orgzly.android.provider.clients.FiltersClient;
+import com.orgzly.android.provider.clients.NotesChunkIterator;
 import com.orgzly.android.provider.clients.NotesClient;
 import com.orgzly.android.provider.clients.ReposClient;
-import com.orgzly.android.reminders.ReminderService;
+import com.orgzly.android.provider.models.DbNote;
 import com.orgzly.android.repos.Repo;
 import com.orgzly.android.repos.RepoFactory;
 import com.orgzly.android.repos.Rook;
 import com.orgzly.android.repos.VersionedRook;
+import com.orgzly.android.repos.VersionedRookInputStream;
 import com.orgzly.android.sync.BookNamesake;
 import com.orgzly.android.sync.BookSyncStatus;
+import com.orgzly.android.sync.SyncEngine;
 import com.orgzly.android.sync.SyncService;
 import com.orgzly.android.ui.NotePlace;
 import com.orgzly.android.ui.Place;
@@ -55,11 +59,16 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Local books storage
@@ -69,14 +78,27 @@ import java.util.TreeSet;
 public class Shelf {
     private static final String TAG = Shelf.class.getName();
 
+    /**
+     * Books are downloaded and uploaded by multiple sync workers,
+     * but only one of them at a time is writing the results to the database.
+     */
+    private static final Object SYNC_WRITE_LOCK = new Object();
+
     private Context mContext;
     private LocalStorage mLocalStorage;
 
+    /** Number of notes fetched at once when going through all notes of a book. */
+    private int notesChunkSize = NotesChunkIterator.DEFAULT_CHUNK_SIZE;
+
     public Shelf(Context context) {
         mContext = context;
         mLocalStorage = new LocalStorage(context);
     }
 
+    public void setNotesChunkSize(int notesChunkSize) {
+        this.notesChunkSize = notesChunkSize;
+    }
+
     public List<Book> getBooks() {
         return BooksClient.getAll(mContext);
     }
@@ -123,16 +145,36 @@ public class Shelf {
     }
 
     public Book loadBookFromStream(String name, BookName.Format format, InputStream inputStream) throws IOException {
-        /* Save content to temporary file. */
-        File tmpFile = getTempBookFile();
+        return loadBookFromStream(name, format, inputStream, null, null);
+    }
 
-        try {
-            MiscUtils.writeStreamToFile(inputStream, tmpFile);
-            return loadBookFromFile(name, format, tmpFile);
+    /**
+     * Imports content of the stream, reading it only once.
+     * Falls back to a temporary file if content provider is not local.
+     */
+    public Book loadBookFromStream(String name, BookName.Format format, InputStream inputStream, VersionedRook vrook, String selectedEncoding) throws IOException {
+        if (selectedEncoding == null && AppPreferences.forceUtf8(mContext)) {
+            selectedEncoding = "UTF-8";
+        }
 
-        } finally {
-            tmpFile.delete();
+        Uri uri = BooksClient.loadFromStream(mContext, name, format, inputStream, vrook, selectedEncoding);
+
+        if (uri == null) {
+            /* Save content to temporary file. */
+            File tmpFile = getTempBookFile();
+
+            try {
+                MiscUtils.writeStreamToFile(inputStream, tmpFile);
+                return loadBookFromFile(name, format, tmpFile, vrook, selectedEncoding);
+
+            } finally {
+                tmpFile.delete();
+            }
         }
+
+        notifyDataChanged(mContext);
+
+        return BooksClient.get(mContext, ContentUris.parseId(uri));
     }
 
     /**
@@ -160,8 +202,24 @@ public class Shelf {
         return BooksClient.get(mContext, ContentUris.parseId(uri));
     }
 
+    /**
+     * Sets the same status for multiple books in a single transaction.
+     */
+    public void setBooksStatus(Collection<Book> books, String status, BookAction action) {
+        List<Long> bookIds = new ArrayList<>();
+        for (Book book: books) {
+            bookIds.add(book.getId());
+        }
+
+        synchronized (SYNC_WRITE_LOCK) {
+            BooksClient.updateStatuses(mContext, bookIds, status, action);
+        }
+    }
+
     public void setBookStatus(Book book, String status, BookAction action) {
-        BooksClient.updateStatus(mContext, book.getId(), status, action);
+        synchronized (SYNC_WRITE_LOCK) {
+            BooksClient.updateStatus(mContext, book.getId(), status, action);
+        }
     }
 
     // TODO: Do in Provider under transaction
@@ -177,6 +235,8 @@ public class Shelf {
 
         BooksClient.delete(mContext, book.getId());
 
+        getExportCache().delete(book.getId());
+
         notifyDataChanged(mContext);
     }
 
@@ -232,28 +292,11 @@ public class Shelf {
         final PrintWriter out = new PrintWriter(file, encoding);
 
         try {
-            String prefValue = AppPreferences.separateNotesWithNewLine(mContext);
-
-            OrgParserSettings parserSettings = OrgParserSettings.getBasic();
-
-            if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_always).equals(prefValue)) {
-                parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.ALWAYS;
-            } else if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_multi_line_notes_only).equals(prefValue)) {
-                parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.MULTI_LINE_NOTES_ONLY;
-            } else if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_never).equals(prefValue)) {
-                parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.NEVER;
-            }
-
-            parserSettings.separateHeaderAndContentWithNewLine = AppPreferences.separateHeaderAndContentWithNewLine(mContext);
-            parserSettings.tagsColumn = AppPreferences.tagsColumn(mContext);
-            parserSettings.orgIndentMode = AppPreferences.orgIndentMode(mContext);
-            parserSettings.orgIndentIndentationPerLevel = AppPreferences.orgIndentIndentationPerLevel(mContext);
-
-            final OrgParserWriter parserWriter = new OrgParserWriter(parserSettings);
+            final OrgParserWriter parserWriter = new OrgParserWriter(getParserSettings());
 
             out.write(parserWriter.whiteSpacedFilePreface(book.getPreface()));
 
-            NotesClient.forEachBookNote(mContext, book.getName(), new NotesClient.NotesClientInterface() {
+            NotesClient.forEachBookNote(mContext, book, notesChunkSize, new NotesClient.NotesClientInterface() {
                 @Override
                 public void onNote(Note note) {
                     out.write(parserWriter.whiteSpacedHead(
@@ -268,6 +311,53 @@ public class Shelf {
         }
     }
 
+    /**
+     * Settings used for writing books, from preferences.
+     */
+    private OrgParserSettings getParserSettings() {
+        String prefValue = AppPreferences.separateNotesWithNewLine(mContext);
+
+        OrgParserSettings parserSettings = OrgParserSettings.getBasic();
+
+        if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_always).equals(prefValue)) {
+            parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.ALWAYS;
+        } else if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_multi_line_notes_only).equals(prefValue)) {
+            parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.MULTI_LINE_NOTES_ONLY;
+        } else if (mContext.getString(R.string.pref_value_separate_notes_with_new_line_never).equals(prefValue)) {
+            parserSettings.separateNotesWithNewLine = OrgParserSettings.SeparateNotesWithNewLine.NEVER;
+        }
+
+        parserSettings.separateHeaderAndContentWithNewLine = AppPreferences.separateHeaderAndContentWithNewLine(mContext);
+        parserSettings.tagsColumn = AppPreferences.tagsColumn(mContext);
+        parserSettings.orgIndentMode = AppPreferences.orgIndentMode(mContext);
+        parserSettings.orgIndentIndentationPerLevel = AppPreferences.orgIndentIndentationPerLevel(mContext);
+
+        return parserSettings;
+    }
+
+    /**
+     * Writes book to file for uploading to a repository. Only notes changed since
+     * the last time are written, if possible, with the rest copied from the last export.
+     *
+     * @return true if only changed notes were written
+     */
+    public boolean writeBookToFileForSync(Book book, BookName.Format format, File file) throws IOException {
+        BookExportCache exportCache = getExportCache();
+
+        if (BookExportCache.canCache(book)) {
+            return exportCache.writeBookToFile(book, getParserSettings(), notesChunkSize, file);
+
+        } else {
+            exportCache.delete(book.getId());
+            writeBookToFile(book, format, file);
+            return false;
+        }
+    }
+
+    private BookExportCache getExportCache() throws IOException {
+        return new BookExportCache(mContext, mLocalStorage.getExportCacheDirectory());
+    }
+
     public void setNotesScheduledTime(Set<Long> noteIds, OrgDateTime time) {
         NotesClient.updateScheduledTime(mContext, noteIds, time);
         notifyDataChanged(mContext);
@@ -377,6 +467,15 @@ public class Shelf {
 
     }
 
+    public int undo(long bookId) {
+        int result = NotesClient.undo(mContext, bookId);
+        if (result > 0) {
+            notifyDataChanged(mContext);
+            syncOnNoteUpdate();
+        }
+        return result;
+    }
+
     public int delete(long bookId, Set<Long> noteIds) {
         int result = NotesClient.delete(mContext, bookId, noteIds);
         notifyDataChanged(mContext);
@@ -404,12 +503,25 @@ public class Shelf {
      * @throws IOException
      */
     public Map<String, BookNamesake> groupAllNotebooksByName() throws IOException {
+        return groupAllNotebooksByName(null);
+    }
+
+    /**
+     * @param executor used to list repositories concurrently, if not null
+     */
+    public Map<String, BookNamesake> groupAllNotebooksByName(ExecutorService executor) throws IOException {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Collecting all local and remote books ...");
 
         Map<String, Repo> repos = ReposClient.getAll(mContext);
 
         List<Book> localBooks = getBooks();
-        List<VersionedRook> versionedRooks = getBooksFromAllRepos(repos);
+
+        /* Listing from the previous sync. */
+        Map<String, VersionedRook> previousRooks = CurrentRooksClient.getAll(mContext);
+
+        List<VersionedRook> versionedRooks = listBooksFromAllRepos(repos, executor);
+
+        storeCurrentRooksIfChanged(previousRooks, versionedRooks);
 
         /* Group local and remote books by name. */
         Map<String, BookNamesake> namesakes = BookNamesake.getAll(mContext, localBooks, versionedRooks);
@@ -422,6 +534,7 @@ public class Shelf {
             }
 
             namesake.updateStatus(repos.size());
+            namesake.updateIsUnchanged(previousRooks);
         }
 
         return namesakes;
@@ -436,25 +549,91 @@ public class Shelf {
      * Goes through each repository and collects all books from each one.
      */
     public List<VersionedRook> getBooksFromAllRepos(Map<String, Repo> repos) throws IOException {
+        return getBooksFromAllRepos(repos, null);
+    }
+
+    /**
+     * Goes through each repository and collects all books from each one.
+     * Repositories are listed concurrently using {@code executor}, if one is passed.
+     * Books are returned in the same order as when listing repositories one by one.
+     */
+    public List<VersionedRook> getBooksFromAllRepos(Map<String, Repo> repos, ExecutorService executor) throws IOException {
+        List<VersionedRook> result = listBooksFromAllRepos(repos, executor);
+
+        storeCurrentRooksIfChanged(CurrentRooksClient.getAll(mContext), result);
+
+        return result;
+    }
+
+    private List<VersionedRook> listBooksFromAllRepos(Map<String, Repo> repos, ExecutorService executor) throws IOException {
         List<VersionedRook> result = new ArrayList<>();
 
         if (repos == null) {
             repos = getAllRepos();
         }
 
-        for (Repo repo: repos.values()) { /* Each repository. */
-            List<VersionedRook> libBooks = repo.getBooks();
+        if (executor == null) {
+            for (Repo repo: repos.values()) { /* Each repository. */
+                result.addAll(repo.getBooks());
+            }
+
+        } else {
+            List<Future<List<VersionedRook>>> listings = new ArrayList<>();
+
+            for (final Repo repo: repos.values()) {
+                listings.add(executor.submit(new Callable<List<VersionedRook>>() {
+                    @Override
+                    public List<VersionedRook> call() throws Exception {
+                        return repo.getBooks();
+                    }
+                }));
+            }
+
+            try {
+                for (Future<List<VersionedRook>> listing: listings) {
+                    result.addAll(listing.get());
+                }
 
-            for (VersionedRook vrook : libBooks) { /* Each book in repository. */
-                result.add(vrook);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while listing repositories", e);
+
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+
+            } finally {
+                for (Future<List<VersionedRook>> listing: listings) {
+                    listing.cancel(true);
+                }
             }
         }
 
-        CurrentRooksClient.set(mContext, result);
-
         return result;
     }
 
+    /**
+     * Replaces stored listing of all repositories, unless it's the same as the new one.
+     */
+    private void storeCurrentRooksIfChanged(Map<String, VersionedRook> previousRooks, List<VersionedRook> vrooks) {
+        boolean isChanged = previousRooks.size() != vrooks.size();
+
+        for (int i = 0; !isChanged && i < vrooks.size(); i++) {
+            VersionedRook vrook = vrooks.get(i);
+            VersionedRook previous = previousRooks.get(vrook.getUri().toString());
+
+            isChanged = previous == null
+                        || !previous.getRepoUri().equals(vrook.getRepoUri())
+                        || !previous.getRevision().equals(vrook.getRevision())
+                        || previous.getMtime() != vrook.getMtime();
+        }
+
+        if (isChanged) {
+            CurrentRooksClient.set(mContext, vrooks);
+        }
+    }
+
     /**
      * Passed {@link com.orgzly.android.sync.BookNamesake} is NOT updated after load or save.
      *
@@ -534,17 +713,39 @@ public class Shelf {
 
     /**
      * Downloads remote book, parses it and stores it to {@link Shelf}.
+     *
+     * Books from local repositories are parsed while being read. Books from repositories
+     * which require connection are downloaded to a temporary file first, so that downloads
+     * can run concurrently while parsing is serialized.
+     *
      * @return book now linked to remote one
      * @throws IOException
      */
     public Book loadBookFromRepo(Rook rook) throws IOException {
-        Book book;
-
         Repo repo = RepoFactory.getFromUri(mContext, rook.getRepoUri());
         if (repo == null) {
             throw new IOException("Unsupported repository URL \"" + rook.getRepoUri() + "\"");
         }
 
+        if (!repo.requiresConnection()) {
+            VersionedRookInputStream in = repo.openBook(rook.getUri());
+
+            try {
+                VersionedRook vrook = in.getVersionedRook();
+
+                BookName bookName = BookName.fromFileName(BookName.getFileName(mContext, vrook.getUri()));
+
+                synchronized (SYNC_WRITE_LOCK) {
+                    return loadBookFromStream(bookName.getName(), bookName.getFormat(), in, vrook, null);
+                }
+
+            } finally {
+                in.close();
+            }
+        }
+
+        Book book;
+
         File tmpFile = getTempBookFile();
 
         try {
@@ -555,7 +756,9 @@ public class Shelf {
             BookName bookName = BookName.fromFileName(fileName);
 
             /* Store from file to Shelf. */
-            book = loadBookFromFile(bookName.getName(), bookName.getFormat(), tmpFile, vrook);
+            synchronized (SYNC_WRITE_LOCK) {
+                book = loadBookFromFile(bookName.getName(), bookName.getFormat(), tmpFile, vrook);
+            }
 
         } finally {
             tmpFile.delete();
@@ -583,7 +786,7 @@ public class Shelf {
         File tmpFile = getTempBookFile();
         try {
             /* Write to temporary file. */
-            writeBookToFile(book, format, tmpFile);
+            writeBookToFileForSync(book, format, tmpFile);
 
             /* Upload to repo. */
             uploadedBook = repo.storeBook(tmpFile, fileName);
@@ -595,7 +798,9 @@ public class Shelf {
 
         book.setLastSyncedToRook(uploadedBook);
 
-        BooksClient.saved(mContext, book.getId(), uploadedBook);
+        synchronized (SYNC_WRITE_LOCK) {
+            BooksClient.saved(mContext, book.getId(), uploadedBook);
+        }
 
         return book;
     }
@@ -797,9 +1002,8 @@ public class Shelf {
     public static void notifyDataChanged(Context context) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG);
 
-        ReminderService.notifyDataChanged(context);
-
-        context.sendBroadcast(new Intent(AppIntent.ACTION_UPDATE_LIST_WIDGET));
+        /* Debounced, as operations often follow each other. */
+        ChangeNotifier.getInstance(context).notifyDataChanged();
     }
 
     public void syncOnNoteCreate() {
@@ -857,36 +1061,27 @@ public class Shelf {
 
         ArrayList<ContentProviderOperation> ops = new ArrayList<>();
 
-        /* Get all notes. */
-        Cursor cursor = mContext.getContentResolver().query(
-                ProviderContract.Notes.ContentUri.notes(), null, null, null, null);
+        /* All notes, skipping root nodes. */
+        String selection = DbNote.LEVEL + " > 0";
 
-        try {
-            int current = 0;
-            int total = 0;
+        int current = 0;
 
-            OrgParser.Builder parserBuilder = new OrgParser.Builder()
-                    .setTodoKeywords(AppPreferences.todoKeywordsSet(mContext))
-                    .setDoneKeywords(AppPreferences.doneKeywordsSet(mContext));
+        /* Get total number of notes for displaying the stats. */
+        int total = GenericDatabaseUtils.getCount(mContext, ProviderContract.Notes.ContentUri.notes(), selection);
 
-            OrgParserWriter parserWriter = new OrgParserWriter();
+        OrgParser.Builder parserBuilder = new OrgParser.Builder()
+                .setTodoKeywords(AppPreferences.todoKeywordsSet(mContext))
+                .setDoneKeywords(AppPreferences.doneKeywordsSet(mContext));
 
-            /* Get total number of notes for displaying the stats. */
-            if (cursor.moveToFirst()) {
-                total = cursor.getCount();
-            }
+        OrgParserWriter parserWriter = new OrgParserWriter();
 
-            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+        NotesChunkIterator chunks = new NotesChunkIterator(mContext, selection, notesChunkSize);
+
+        while (chunks.hasNext()) {
+            for (Note note: chunks.next()) {
                 current++;
 
                 /* Get current heading string. */
-                Note note = NotesClient.fromCursor(cursor);
-
-                /* Skip root node. */
-                if (note.getPosition().getLevel() == 0) {
-                    continue;
-                }
-
                 OrgHead head = note.getHead();
                 String headString = parserWriter.whiteSpacedHead(head, note.getPosition().getLevel(), false);
 
@@ -917,7 +1112,7 @@ public class Shelf {
                     values.put(ProviderContract.Notes.UpdateParam.PRIORITY, newHead.getPriority());
 
                     ops.add(ContentProviderOperation
-                            .newUpdate(ContentUris.withAppendedId(ProviderContract.Notes.ContentUri.notes(), cursor.getLong(0)))
+                            .newUpdate(ContentUris.withAppendedId(ProviderContract.Notes.ContentUri.notes(), note.getId()))
                             .withValues(values)
                             .build()
                     );
@@ -927,9 +1122,6 @@ public class Shelf {
                     listener.noteParsed(current, total, "Updating notes...");
                 }
             }
-
-        } finally {
-            cursor.close();
         }
 
         if (listener != null) {
@@ -976,18 +1168,20 @@ public class Shelf {
 
     // TODO: Used by tests only for now
     public Map<String, BookNamesake> sync() {
+        SyncEngine engine = new SyncEngine(this);
+
         try {
-            Map<String, BookNamesake> nameGroups = groupAllNotebooksByName();
+            Map<String, BookNamesake> nameGroups = engine.collect();
 
-            for (BookNamesake group : nameGroups.values()) {
-                BookAction action = syncNamesake(group);
-                setBookStatus(group.getBook(), group.getStatus().toString(), action);
-            }
+            engine.sync(SyncEngine.getChanged(nameGroups), null);
 
             return nameGroups;
 
         } catch (IOException e) {
             e.printStackTrace();
+
+        } finally {
+            engine.shutdown();
         }
 
         return null;
@@ -208,6 +208,17 @@ public class AppPreferences {
                 context.getResources().getBoolean(R.bool.pref_default_force_utf8));
     }
 
+    public static boolean contentRevisions(Context context) {
+        return getDefaultSharedPreferences(context).getBoolean(
+                context.getResources().getString(R.string.pref_key_content_revisions),
+                context.getResources().getBoolean(R.bool.pref_default_content_revisions));
+    }
+
+    public static void contentRevisions(Context context, boolean value) {
+        String key = context.getResources().getString(R.string.pref_key_content_revisions);
+        getDefaultSharedPreferences(context).edit().putBoolean(key, value).apply();
+    }
+
     public static boolean newNoteNotification(Context context) {
         return getDefaultSharedPreferences(context).getBoolean(
                 context.getResources().getString(R.string.pref_key_new_note_notification),
@@ -338,6 +349,11 @@ public class AppPreferences {
         return Integer.parseInt(prefStr);
     }
 
+    public static void tagsColumn(Context context, int value) {
+        String key = context.getResources().getString(R.string.pref_key_tags_column);
+        getDefaultSharedPreferences(context).edit().putString(key, String.valueOf(value)).apply();
+    }
+
     public static boolean orgIndentMode(Context context) {
         return getDefaultSharedPreferences(context).getBoolean(
             context.getResources().getString(R.string.pref_key_org_indent_mode),
@@ -539,31 +555,6 @@ public class AppPreferences {
         return getStateSharedPreferences(context).getLong(key, 0L);
     }
 
-    /*
-     * ReminderService
-     */
-
-    public static void reminderLastRunForScheduled(Context context, long value) {
-        String key = context.getResources().getString(R.string.pref_key_reminder_service_last_run_for_scheduled);
-        getStateSharedPreferences(context).edit().putLong(key, value).apply();
-    }
-
-    public static long reminderLastRunForScheduled(Context context) {
-        String key = context.getResources().getString(R.string.pref_key_reminder_service_last_run_for_scheduled);
-        return getStateSharedPreferences(context).getLong(key, 0L);
-    }
-
-    public static void reminderLastRunForDeadline(Context context, long value) {
-        String key = context.getResources().getString(R.string.pref_key_reminder_service_last_run_for_deadline);
-        getStateSharedPreferences(context).edit().putLong(key, value).apply();
-    }
-
-    public static long reminderLastRunForDeadline(Context context) {
-        String key = context.getResources().getString(R.string.pref_key_reminder_service_last_run_for_deadline);
-        return getStateSharedPreferences(context).getLong(key, 0L);
-    }
-
-
     /*
      * Auto Sync
      */
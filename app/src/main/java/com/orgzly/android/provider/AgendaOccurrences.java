@@ -0,0 +1,256 @@
+package com.orgzly.android.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.models.DbAgendaOccurrence;
+import com.orgzly.android.provider.models.DbAgendaWindow;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.provider.views.DbTimeView;
+import com.orgzly.android.util.AgendaUtils;
+import com.orgzly.android.util.LogUtils;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps {@link DbAgendaOccurrence} expanded over the window of days starting today.
+ *
+ * Window is extended before agenda is queried, expanding all times only for the days added.
+ * Notes marked by triggers as changed are expanded over the whole window when they are written.
+ */
+public class AgendaOccurrences {
+    private static final String TAG = AgendaOccurrences.class.getName();
+
+    /** Days expanded in advance. */
+    public static final int WINDOW_DAYS = 45;
+
+    /** Column with the day on which the note is displayed in agenda. */
+    public static final String AGENDA_DAY = "agenda_day";
+
+    private static final String WHERE_PENDING =
+            DbNote._ID + " IN (SELECT " + DbAgendaOccurrence.NOTE_ID + " FROM " + DbAgendaOccurrence.TABLE +
+            " WHERE " + DbAgendaOccurrence.TIME_TYPE + " = " + DbAgendaOccurrence.PENDING + ")";
+
+    /* Columns of each time type. */
+    private static final int[] TIME_TYPES = { DbTimeView.SCHEDULED_TIME, DbTimeView.DEADLINE_TIME };
+    private static final String[] STRING_COLUMNS = { DbNoteView.SCHEDULED_TIME_STRING, DbNoteView.DEADLINE_TIME_STRING };
+    private static final String[] END_COLUMNS = { DbNoteView.SCHEDULED_TIME_END_TIMESTAMP, DbNoteView.DEADLINE_TIME_END_TIMESTAMP };
+    private static final String[] FIELDS_PREFIXES = { DbNoteView.SCHEDULED_START_PREFIX, DbNoteView.DEADLINE_START_PREFIX };
+
+    /**
+     * Selects notes displayed in agenda, one row for each day they are displayed on.
+     * Rows are ordered by {@link #AGENDA_DAY} first.
+     *
+     * Only selects occurrences, window must already cover the days (see {@link #update}).
+     */
+    public static Cursor query(SQLiteDatabase db, DateTime now, int days, String selection, String[] selectionArgs, String sortOrder) {
+        long today = now.withTimeAtStartOfDay().getMillis();
+        long end = now.withTimeAtStartOfDay().plusDays(days).getMillis();
+
+        String sql = "SELECT n.*, o." + AGENDA_DAY +
+                     " FROM " + DbNoteView.VIEW_NAME + " n" +
+                     " JOIN (SELECT DISTINCT " + DbAgendaOccurrence.NOTE_ID + ", " +
+                     "MAX(" + DbAgendaOccurrence.DAY + ", " + today + ") AS " + AGENDA_DAY +
+                     " FROM " + DbAgendaOccurrence.TABLE +
+                     " WHERE " + DbAgendaOccurrence.DAY + " < " + end + ") o" +
+                     " ON (o." + DbAgendaOccurrence.NOTE_ID + " = n." + DbNote._ID + ")" +
+                     " WHERE " + selection +
+                     " ORDER BY o." + AGENDA_DAY + (!TextUtils.isEmpty(sortOrder) ? ", " + sortOrder : "");
+
+        return db.rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * Extends the window to cover {@code days} days from today and expands changed notes.
+     *
+     * @return number of notes expanded
+     */
+    public static int update(SQLiteDatabase db, DateTime now, int days) {
+        DateTime today = now.withTimeAtStartOfDay();
+        DateTime end = today.plusDays(Math.max(days, WINDOW_DAYS));
+
+        long windowEnd = getWindowEnd(db);
+
+        int count = 0;
+
+        if (windowEnd == 0) {
+            /* Never expanded, mark all notes. */
+            db.delete(DbAgendaOccurrence.TABLE, null, null);
+            db.execSQL("INSERT INTO " + DbAgendaOccurrence.TABLE +
+                       " (" + DbAgendaOccurrence.NOTE_ID + ", " + DbAgendaOccurrence.TIME_TYPE + ")" +
+                       " SELECT " + DbNote._ID + ", " + DbAgendaOccurrence.PENDING +
+                       " FROM " + DbNote.TABLE + " WHERE " + DatabaseUtils.WHERE_NOTES_WITH_TIMES);
+
+            setWindowEnd(db, end.getMillis());
+
+        } else if (windowEnd < end.getMillis()) {
+            DateTime from = new DateTime(Math.max(windowEnd, today.getMillis()));
+
+            count = expand(db, DatabaseUtils.WHERE_NOTES_WITH_TIMES + " AND NOT " + WHERE_PENDING, from, end, false);
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Extended window from " + from + " to " + end + " for " + count + " notes");
+
+            removePastOccurrences(db, today.getMillis());
+
+            setWindowEnd(db, end.getMillis());
+
+        } else {
+            end = new DateTime(windowEnd);
+        }
+
+        return count + expandChanged(db, today, end);
+    }
+
+    /**
+     * Expands notes whose times have changed over the current window.
+     * Before the window is first created there is nothing to do, as all notes are expanded then.
+     *
+     * @return number of notes expanded
+     */
+    public static int updateChanged(SQLiteDatabase db, DateTime now) {
+        long windowEnd = getWindowEnd(db);
+
+        if (windowEnd == 0) {
+            return 0;
+        }
+
+        return expandChanged(db, now.withTimeAtStartOfDay(), new DateTime(windowEnd));
+    }
+
+    private static int expandChanged(SQLiteDatabase db, DateTime today, DateTime end) {
+        int count = expand(db, WHERE_PENDING, today, end, true);
+
+        if (count > 0) {
+            db.delete(DbAgendaOccurrence.TABLE, DbAgendaOccurrence.TIME_TYPE + " = " + DbAgendaOccurrence.PENDING, null);
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Expanded " + count + " changed notes until " + end);
+        }
+
+        return count;
+    }
+
+    /**
+     * Inserts occurrences of selected notes' times between {@code from} and {@code to}.
+     *
+     * @param withOwnDay also insert the day of the time itself, used for overdue notes
+     * @return number of notes expanded
+     */
+    private static int expand(SQLiteDatabase db, String selection, DateTime from, DateTime to, boolean withOwnDay) {
+        List<String> projection = new ArrayList<>();
+        projection.add(DbNote._ID);
+
+        /* String and end, followed by the fields. */
+        int[] stringColumns = new int[TIME_TYPES.length];
+        int[] endColumns = new int[TIME_TYPES.length];
+        int[] fieldColumns = new int[TIME_TYPES.length];
+
+        for (int i = 0; i < TIME_TYPES.length; i++) {
+            stringColumns[i] = projection.size();
+            projection.add(STRING_COLUMNS[i]);
+
+            endColumns[i] = projection.size();
+            projection.add(END_COLUMNS[i]);
+
+            fieldColumns[i] = projection.size();
+            projection.addAll(Arrays.asList(DbOrgTimestamp.orgDateTimeColumns(FIELDS_PREFIXES[i])));
+        }
+
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO " + DbAgendaOccurrence.TABLE +
+                " (" + DbAgendaOccurrence.NOTE_ID + ", " + DbAgendaOccurrence.TIME_TYPE + ", " + DbAgendaOccurrence.DAY + ")" +
+                " VALUES (?, ?, ?)");
+
+        int count = 0;
+
+        Cursor cursor = db.query(
+                DbNoteView.VIEW_NAME,
+                projection.toArray(new String[projection.size()]),
+                selection,
+                null,
+                null,
+                null,
+                DbNote._ID);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long noteId = cursor.getLong(0);
+
+                for (int i = 0; i < TIME_TYPES.length; i++) {
+                    OrgDateTime start = DbOrgTimestamp.toOrgDateTime(cursor, stringColumns[i], fieldColumns[i]);
+
+                    if (start == null) {
+                        continue;
+                    }
+
+                    DateTime end = cursor.isNull(endColumns[i]) ? null : new DateTime(cursor.getLong(endColumns[i]));
+
+                    Set<DateTime> days = new TreeSet<>(AgendaUtils.getOccurrenceDays(start, end, from, to));
+
+                    if (withOwnDay) {
+                        days.add(new DateTime(start.getCalendar()).withTimeAtStartOfDay());
+                    }
+
+                    for (DateTime day: days) {
+                        insert.bindLong(1, noteId);
+                        insert.bindLong(2, TIME_TYPES[i]);
+                        insert.bindLong(3, day.getMillis());
+                        insert.executeInsert();
+                    }
+                }
+
+                count++;
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Only the earliest day is needed before today, to display the note as overdue.
+     */
+    private static void removePastOccurrences(SQLiteDatabase db, long today) {
+        db.execSQL("DELETE FROM " + DbAgendaOccurrence.TABLE +
+                   " WHERE " + DbAgendaOccurrence.DAY + " < " + today +
+                   " AND " + DbAgendaOccurrence.DAY + " > (" +
+                   "SELECT MIN(o." + DbAgendaOccurrence.DAY + ") FROM " + DbAgendaOccurrence.TABLE + " o" +
+                   " WHERE o." + DbAgendaOccurrence.NOTE_ID + " = " + DbAgendaOccurrence.TABLE + "." + DbAgendaOccurrence.NOTE_ID +
+                   " AND o." + DbAgendaOccurrence.TIME_TYPE + " = " + DbAgendaOccurrence.TABLE + "." + DbAgendaOccurrence.TIME_TYPE + ")");
+    }
+
+    private static long getWindowEnd(SQLiteDatabase db) {
+        Cursor cursor = db.query(DbAgendaWindow.TABLE, new String[] { DbAgendaWindow.END_DAY }, null, null, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return 0;
+    }
+
+    private static void setWindowEnd(SQLiteDatabase db, long endDay) {
+        ContentValues values = new ContentValues();
+        values.put(DbAgendaWindow._ID, 1);
+        values.put(DbAgendaWindow.END_DAY, endDay);
+
+        db.replace(DbAgendaWindow.TABLE, null, values);
+    }
+}
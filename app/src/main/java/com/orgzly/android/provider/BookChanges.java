@@ -0,0 +1,58 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.orgzly.android.provider.models.DbBookChange;
+
+import java.util.Collection;
+
+/**
+ * Turns books recorded in {@link DbBookChange} by triggers into URIs to notify.
+ *
+ * Cursors are registered for notifications on URIs of the data they depend on
+ * (see {@link Provider#query}), so a change in one book does not reload other books' notes.
+ */
+public class BookChanges {
+    /**
+     * Adds URIs of changed books to {@code uris} and forgets the changes.
+     * Must be called in the same transaction as the write.
+     *
+     * @return true if there were any changes
+     */
+    public static boolean consume(SQLiteDatabase db, Collection<Uri> uris) {
+        boolean changed = false;
+
+        Cursor cursor = db.query(
+                DbBookChange.TABLE,
+                new String[] { DbBookChange.BOOK_ID, DbBookChange.TYPE },
+                null, null, null, null, null);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long bookId = cursor.getLong(0);
+
+                if (cursor.getInt(1) == DbBookChange.NOTES) {
+                    uris.add(ProviderContract.Books.ContentUri.booksIdNotes(bookId));
+                } else {
+                    uris.add(ProviderContract.Books.ContentUri.booksId(bookId));
+                }
+
+                changed = true;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (changed) {
+            db.delete(DbBookChange.TABLE, null, null);
+
+            /* Notes are displayed with their book's name, searches and times can include any note. */
+            uris.add(ProviderContract.Notes.ContentUri.notes());
+            uris.add(ProviderContract.Times.ContentUri.times());
+        }
+
+        return changed;
+    }
+}
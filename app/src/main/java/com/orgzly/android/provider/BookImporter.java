@@ -0,0 +1,375 @@
+package com.orgzly.android.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteProperty;
+import com.orgzly.android.provider.models.DbNoteTag;
+import com.orgzly.android.provider.models.DbProperty;
+import com.orgzly.android.provider.models.DbPropertyName;
+import com.orgzly.android.provider.models.DbPropertyValue;
+import com.orgzly.android.util.MiscUtils;
+import com.orgzly.org.OrgHead;
+import com.orgzly.org.OrgProperty;
+import com.orgzly.org.parser.OrgNestedSetParser;
+import com.orgzly.org.parser.OrgNodeInSet;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes parsed notes of a single book to the database.
+ *
+ * All statements are compiled once per import and re-bound for every note,
+ * avoiding {@link ContentValues} allocation and SQL compilation per row.
+ * Must be used under transaction and closed after the import.
+ */
+public class BookImporter implements Closeable {
+    /*
+     * Parser numbers nodes leaving only a few positions between them.
+     * Spread them further, so that notes can later be created or pasted
+     * in between without renumbering the rest of the book.
+     */
+    private static final long POSITION_SCALE = 200;
+
+    private final SQLiteDatabase db;
+    private final long bookId;
+
+    private final SQLiteStatement insertNote;
+    private final SQLiteStatement updateParent;
+    private final SQLiteStatement insertAncestors;
+    private final SQLiteStatement appendInheritedTags;
+    private final SQLiteStatement insertOwnTag;
+    private final SQLiteStatement insertInheritedTag;
+    private final SQLiteStatement insertNoteProperty;
+
+    private final SQLiteStatement selectProperty;
+    private final SQLiteStatement insertProperty;
+    private final SQLiteStatement insertPropertyName;
+    private final SQLiteStatement insertPropertyValue;
+
+    private final OrgRangeWriter rangeWriter;
+
+    private final Map<String, Long> propertyNames = new HashMap<>();
+    private final Map<String, Long> propertyValues = new HashMap<>();
+    private final Map<String, Long> properties = new HashMap<>();
+
+    /* Stack of imported notes without parent set: their lft, id and id of the first descendant. */
+    private long[] stackLft = new long[16];
+    private long[] stackId = new long[16];
+    private long[] stackFirstDescendantId = new long[16];
+    private int stackSize = 0;
+
+    private int notesCount = 0;
+
+    private static final String[] NOTE_COLUMNS = {
+            DbNote.BOOK_ID,
+            DbNote.POSITION,
+            DbNote.LFT,
+            DbNote.RGT,
+            DbNote.LEVEL,
+            DbNote.DESCENDANTS_COUNT,
+            DbNote.FOLDED_UNDER_ID,
+            DbNote.PARENT_ID,
+            DbNote.IS_FOLDED,
+            DbNote.TITLE,
+            DbNote.PRIORITY,
+            DbNote.STATE,
+            DbNote.TAGS,
+            DbNote.CONTENT,
+            DbNote.CONTENT_LINE_COUNT,
+            DbNote.SCHEDULED_RANGE_ID,
+            DbNote.DEADLINE_RANGE_ID,
+            DbNote.CLOSED_RANGE_ID,
+            DbNote.CLOCK_RANGE_ID
+    };
+
+
+    public BookImporter(SQLiteDatabase db, long bookId) {
+        this.db = db;
+        this.bookId = bookId;
+
+        insertNote = db.compileStatement(GenericDatabaseUtils.insertSql(DbNote.TABLE, NOTE_COLUMNS));
+
+        updateParent = db.compileStatement(
+                "UPDATE " + DbNote.TABLE + " SET " + DbNote.PARENT_ID + " = ? WHERE " + DbNote._ID + " = ?");
+
+        insertAncestors = db.compileStatement(
+                "INSERT INTO " + DbNoteAncestor.TABLE +
+                " (" + DbNoteAncestor.BOOK_ID + ", " + DbNoteAncestor.NOTE_ID + ", " + DbNoteAncestor.ANCESTOR_NOTE_ID + ")" +
+                " SELECT ?, " + DbNote._ID + ", ? FROM " + DbNote.TABLE +
+                " WHERE " + DbNote.BOOK_ID + " = ? AND " + DbNote._ID + " >= ? AND " + DbNote._ID + " < ?");
+
+        /* Ancestors are imported from the closest one, which is also the order of inherited tags. */
+        appendInheritedTags = db.compileStatement(
+                "UPDATE " + DbNote.TABLE +
+                " SET " + DbNote.INHERITED_TAGS + " = COALESCE(" + DbNote.INHERITED_TAGS + " || ' ', '') || ?" +
+                " WHERE " + DbNote.BOOK_ID + " = ? AND " + DbNote._ID + " >= ? AND " + DbNote._ID + " < ?");
+
+        insertOwnTag = db.compileStatement(DbNoteTag.INSERT_SQL);
+
+        insertInheritedTag = db.compileStatement(
+                "INSERT INTO " + DbNoteTag.TABLE +
+                " (" + DbNoteTag.BOOK_ID + ", " + DbNoteTag.NOTE_ID + ", " + DbNoteTag.TAG + ", " + DbNoteTag.IS_INHERITED + ")" +
+                " SELECT ?, " + DbNote._ID + ", ?, 1 FROM " + DbNote.TABLE +
+                " WHERE " + DbNote.BOOK_ID + " = ? AND " + DbNote._ID + " >= ? AND " + DbNote._ID + " < ?");
+
+        insertNoteProperty = db.compileStatement(GenericDatabaseUtils.insertSql(DbNoteProperty.TABLE, new String[] {
+                DbNoteProperty.NOTE_ID, DbNoteProperty.POSITION, DbNoteProperty.PROPERTY_ID }));
+
+        selectProperty = db.compileStatement(
+                "SELECT " + DbProperty._ID + " FROM " + DbProperty.TABLE +
+                " WHERE " + DbProperty.NAME_ID + " = ? AND " + DbProperty.VALUE_ID + " = ?");
+        insertProperty = db.compileStatement(GenericDatabaseUtils.insertSql(DbProperty.TABLE, new String[] {
+                DbProperty.NAME_ID, DbProperty.VALUE_ID }));
+        insertPropertyName = db.compileStatement(GenericDatabaseUtils.insertSql(DbPropertyName.TABLE, new String[] {
+                DbPropertyName.NAME }));
+        insertPropertyValue = db.compileStatement(GenericDatabaseUtils.insertSql(DbPropertyValue.TABLE, new String[] {
+                DbPropertyValue.VALUE }));
+
+        rangeWriter = new OrgRangeWriter(db);
+
+        loadIds(DbPropertyName.TABLE, DbPropertyName.NAME, propertyNames);
+        loadIds(DbPropertyValue.TABLE, DbPropertyValue.VALUE, propertyValues);
+    }
+
+    /**
+     * Number of notes (including the root note) imported so far.
+     */
+    public int getNotesCount() {
+        return notesCount;
+    }
+
+    /**
+     * Inserts note with its properties, then sets it as a parent of its children
+     * and as an ancestor of all its descendants, passing its tags down to them.
+     * Nodes are expected in the order emitted by {@link com.orgzly.org.parser.OrgNestedSetParser}
+     * (descendants before their ancestors).
+     */
+    public long importNode(OrgNodeInSet node) {
+        long noteId = insertNote(node);
+
+        insertNoteProperties(noteId, node.getHead().getProperties());
+
+        if (node.getHead().hasTags()) {
+            for (String tag : node.getHead().getTags()) {
+                insertOwnTag.bindLong(1, bookId);
+                insertOwnTag.bindLong(2, noteId);
+                insertOwnTag.bindString(3, tag);
+                insertOwnTag.bindLong(4, 0);
+                insertOwnTag.executeInsert();
+            }
+        }
+
+        /*
+         * Nodes are received after all of their descendants. Notes which are still waiting
+         * for their parent are kept on the stack -- the ones with larger lft are direct
+         * children of the current node. Ids are increasing, so the whole subtree of the
+         * current node is the range of ids starting from its first descendant.
+         */
+        long firstDescendantId = noteId;
+
+        while (stackSize > 0 && stackLft[stackSize - 1] > node.getLft()) {
+            stackSize--;
+
+            updateParent.bindLong(1, noteId);
+            updateParent.bindLong(2, stackId[stackSize]);
+            updateParent.executeUpdateDelete();
+
+            firstDescendantId = stackFirstDescendantId[stackSize];
+        }
+
+        if (firstDescendantId < noteId) {
+            insertAncestors.bindLong(1, bookId);
+            insertAncestors.bindLong(2, noteId);
+            insertAncestors.bindLong(3, bookId);
+            insertAncestors.bindLong(4, firstDescendantId);
+            insertAncestors.bindLong(5, noteId);
+            insertAncestors.executeInsert();
+
+            if (node.getHead().hasTags()) {
+                appendInheritedTags.bindString(1, DbNote.dbSerializeTags(node.getHead().getTags()));
+                appendInheritedTags.bindLong(2, bookId);
+                appendInheritedTags.bindLong(3, firstDescendantId);
+                appendInheritedTags.bindLong(4, noteId);
+                appendInheritedTags.executeUpdateDelete();
+
+                for (String tag : node.getHead().getTags()) {
+                    insertInheritedTag.bindLong(1, bookId);
+                    insertInheritedTag.bindString(2, tag);
+                    insertInheritedTag.bindLong(3, bookId);
+                    insertInheritedTag.bindLong(4, firstDescendantId);
+                    insertInheritedTag.bindLong(5, noteId);
+                    insertInheritedTag.executeInsert();
+                }
+            }
+        }
+
+        push(node.getLft(), noteId, firstDescendantId);
+
+        notesCount++;
+
+        return noteId;
+    }
+
+    private void push(long lft, long id, long firstDescendantId) {
+        if (stackSize == stackLft.length) {
+            stackLft = Arrays.copyOf(stackLft, stackSize * 2);
+            stackId = Arrays.copyOf(stackId, stackSize * 2);
+            stackFirstDescendantId = Arrays.copyOf(stackFirstDescendantId, stackSize * 2);
+        }
+
+        stackLft[stackSize] = lft;
+        stackId[stackSize] = id;
+        stackFirstDescendantId[stackSize] = firstDescendantId;
+        stackSize++;
+    }
+
+    private static long scaledPosition(long position) {
+        return OrgNestedSetParser.STARTING_VALUE + (position - OrgNestedSetParser.STARTING_VALUE) * POSITION_SCALE;
+    }
+
+    private long insertNote(OrgNodeInSet node) {
+        OrgHead head = node.getHead();
+
+        SQLiteStatement s = insertNote;
+        s.clearBindings();
+
+        /* Position. Parent is set once the parent itself is imported. */
+        s.bindLong(1, bookId);
+        s.bindLong(2, 0); // TODO: Remove
+        s.bindLong(3, scaledPosition(node.getLft()));
+        s.bindLong(4, scaledPosition(node.getRgt()));
+        s.bindLong(5, node.getLevel());
+        s.bindLong(6, node.getDescendantsCount());
+        s.bindLong(7, 0);
+        s.bindLong(8, 0);
+        s.bindLong(9, 0);
+
+        /* Payload. */
+        bindStringOrNull(s, 10, head.getTitle());
+        bindStringOrNull(s, 11, head.getPriority());
+        bindStringOrNull(s, 12, head.getState());
+
+        if (head.hasTags()) {
+            s.bindString(13, DbNote.dbSerializeTags(head.getTags()));
+        }
+
+        if (head.hasContent()) {
+            s.bindString(14, head.getContent());
+            s.bindLong(15, MiscUtils.lineCount(head.getContent()));
+        }
+
+        /* Times. */
+        if (head.hasScheduled()) {
+            s.bindLong(16, rangeWriter.getOrInsert(head.getScheduled()));
+        }
+
+        if (head.hasDeadline()) {
+            s.bindLong(17, rangeWriter.getOrInsert(head.getDeadline()));
+        }
+
+        if (head.hasClosed()) {
+            s.bindLong(18, rangeWriter.getOrInsert(head.getClosed()));
+        }
+
+        if (head.hasClock()) {
+            s.bindLong(19, rangeWriter.getOrInsert(head.getClock()));
+        }
+
+        return s.executeInsert();
+    }
+
+    private void insertNoteProperties(long noteId, List<OrgProperty> noteProperties) {
+        int pos = 1;
+
+        for (OrgProperty property: noteProperties) {
+            long nameId = getOrInsertString(propertyNames, insertPropertyName, property.getName());
+            long valueId = getOrInsertString(propertyValues, insertPropertyValue, property.getValue());
+            long propertyId = getOrInsertProperty(nameId, valueId);
+
+            insertNoteProperty.bindLong(1, noteId);
+            insertNoteProperty.bindLong(2, pos++);
+            insertNoteProperty.bindLong(3, propertyId);
+            insertNoteProperty.executeInsert();
+        }
+    }
+
+    private long getOrInsertString(Map<String, Long> cache, SQLiteStatement insert, String str) {
+        Long id = cache.get(str);
+
+        if (id == null) {
+            insert.bindString(1, str);
+            id = insert.executeInsert();
+            cache.put(str, id);
+        }
+
+        return id;
+    }
+
+    private long getOrInsertProperty(long nameId, long valueId) {
+        String key = nameId + "," + valueId;
+
+        Long id = properties.get(key);
+
+        if (id == null) {
+            selectProperty.bindLong(1, nameId);
+            selectProperty.bindLong(2, valueId);
+            id = GenericDatabaseUtils.simpleQueryForId(selectProperty);
+
+            if (id == 0) {
+                insertProperty.bindLong(1, nameId);
+                insertProperty.bindLong(2, valueId);
+                id = insertProperty.executeInsert();
+            }
+
+            properties.put(key, id);
+        }
+
+        return id;
+    }
+
+    @Override
+    public void close() {
+        insertNote.close();
+        updateParent.close();
+        insertAncestors.close();
+        appendInheritedTags.close();
+        insertOwnTag.close();
+        insertInheritedTag.close();
+        insertNoteProperty.close();
+        selectProperty.close();
+        insertProperty.close();
+        insertPropertyName.close();
+        insertPropertyValue.close();
+        rangeWriter.close();
+    }
+
+    private void loadIds(String table, String column, Map<String, Long> map) {
+        Cursor cursor = db.query(table, new String[] { "_id", column }, null, null, null, null, null);
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                map.put(cursor.getString(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+
+}
@@ -0,0 +1,211 @@
+package com.orgzly.android.provider;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.AppIntent;
+import com.orgzly.android.reminders.ReminderService;
+import com.orgzly.android.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Collects changed URIs and notifies them together, once there are no new changes
+ * for {@link #DEBOUNCE_MS}. A burst of writes then reloads each loader only once.
+ *
+ * Reminders and widgets are notified about changed data the same way.
+ */
+public class ChangeNotifier {
+    private static final String TAG = ChangeNotifier.class.getName();
+
+    /** Changes closer to each other than this are notified together. */
+    private static final long DEBOUNCE_MS = 100;
+
+    /** Changes which keep coming are still notified at least this often. */
+    private static final long MAX_DELAY_MS = 500;
+
+    private static ChangeNotifier instance;
+
+    public static synchronized ChangeNotifier getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChangeNotifier(context.getApplicationContext());
+        }
+
+        return instance;
+    }
+
+    private final Context context;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable flush = this::flush;
+
+    /* Guarded by this. */
+    private final Set<Uri> pendingUris = new LinkedHashSet<>();
+    private boolean isDataChanged = false;
+    private boolean isScheduled = false;
+    private long firstPendingAt;
+
+    private Runnable onIdle;
+
+    /* Queries since the last notification, by path. Used for logging only. */
+    private final Map<String, Integer> queries = new TreeMap<>();
+    private int notificationCount = 0;
+
+    private ChangeNotifier(Context context) {
+        this.context = context;
+    }
+
+    public void notifyChange(Uri... uris) {
+        notifyChange(Arrays.asList(uris));
+    }
+
+    public synchronized void notifyChange(Collection<Uri> uris) {
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        pendingUris.addAll(uris);
+
+        schedule();
+    }
+
+    /**
+     * Notify reminders and widgets about data changed outside of provider's notifications
+     * (e.g. after the whole operation of {@link com.orgzly.android.Shelf} completes).
+     */
+    public synchronized void notifyDataChanged() {
+        isDataChanged = true;
+
+        schedule();
+    }
+
+    private void schedule() {
+        long now = SystemClock.uptimeMillis();
+
+        if (!isScheduled) {
+            firstPendingAt = now;
+            isScheduled = true;
+        }
+
+        handler.removeCallbacks(flush);
+
+        long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstPendingAt + MAX_DELAY_MS - now));
+
+        handler.postDelayed(flush, delay);
+    }
+
+    private void flush() {
+        List<Uri> uris;
+        boolean dataChanged;
+
+        synchronized (this) {
+            uris = coalesce(pendingUris);
+            dataChanged = isDataChanged;
+
+            pendingUris.clear();
+            isDataChanged = false;
+            isScheduled = false;
+        }
+
+        if (BuildConfig.LOG_DEBUG) logQueries(uris);
+
+        for (Uri uri : uris) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+
+        if (dataChanged) {
+            ReminderService.notifyDataChanged(context);
+
+            context.sendBroadcast(new Intent(AppIntent.ACTION_UPDATE_LIST_WIDGET));
+        }
+
+        if (onIdle != null) {
+            onIdle.run();
+        }
+    }
+
+    /**
+     * Observers of a URI's ancestors are notified too, so URIs under other collected URIs can be dropped.
+     */
+    private static List<Uri> coalesce(Collection<Uri> uris) {
+        List<Uri> result = new ArrayList<>();
+
+        for (Uri uri : uris) {
+            if (!hasAncestorIn(uri, uris)) {
+                result.add(uri);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean hasAncestorIn(Uri uri, Collection<Uri> uris) {
+        String path = uri.toString();
+
+        for (Uri other : uris) {
+            String otherPath = other.toString();
+
+            if (path.length() > otherPath.length() && path.startsWith(otherPath + "/")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts provider's queries, which are mostly loaders reloading after a notification.
+     */
+    public void countQuery(Uri uri) {
+        String path = uri.getPath();
+
+        synchronized (queries) {
+            Integer count = queries.get(path);
+            queries.put(path, count != null ? count + 1 : 1);
+        }
+    }
+
+    /**
+     * Logs queries made after the previous notification, before notifying again.
+     */
+    private void logQueries(List<Uri> uris) {
+        synchronized (queries) {
+            if (notificationCount > 0) {
+                LogUtils.d(TAG, "Notification #" + notificationCount + " was followed by queries: " + queries);
+            }
+
+            queries.clear();
+        }
+
+        notificationCount++;
+
+        LogUtils.d(TAG, "Notification #" + notificationCount + ": " + uris);
+    }
+
+    /**
+     * There are no changes waiting to be notified.
+     */
+    public synchronized boolean isIdle() {
+        return !isScheduled;
+    }
+
+    /**
+     * Called on the main thread after each notification. Used by tests.
+     */
+    public void setOnIdle(Runnable onIdle) {
+        this.onIdle = onIdle;
+    }
+}
@@ -9,27 +9,37 @@ import android.util.Log;
 
 import com.orgzly.BuildConfig;
 import com.orgzly.android.AppIntent;
+import com.orgzly.android.provider.models.DbAgendaOccurrence;
+import com.orgzly.android.provider.models.DbAgendaWindow;
 import com.orgzly.android.provider.models.DbBook;
+import com.orgzly.android.provider.models.DbBookChange;
 import com.orgzly.android.provider.models.DbBookLink;
 import com.orgzly.android.provider.models.DbBookSync;
 import com.orgzly.android.provider.models.DbCurrentVersionedRook;
 import com.orgzly.android.provider.models.DbDbRepo;
 import com.orgzly.android.provider.models.DbNote;
 import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteExportChange;
+import com.orgzly.android.provider.models.DbNoteFts;
 import com.orgzly.android.provider.models.DbNoteProperty;
+import com.orgzly.android.provider.models.DbNoteTag;
 import com.orgzly.android.provider.models.DbOrgRange;
 import com.orgzly.android.provider.models.DbOrgTimestamp;
 import com.orgzly.android.provider.models.DbProperty;
 import com.orgzly.android.provider.models.DbPropertyName;
 import com.orgzly.android.provider.models.DbPropertyValue;
+import com.orgzly.android.provider.models.DbReminderTime;
 import com.orgzly.android.provider.models.DbRepo;
 import com.orgzly.android.provider.models.DbRook;
 import com.orgzly.android.provider.models.DbRookUrl;
 import com.orgzly.android.provider.models.DbSearch;
+import com.orgzly.android.provider.models.DbUndoEntry;
+import com.orgzly.android.provider.models.DbUndoNote;
 import com.orgzly.android.provider.models.DbVersionedRook;
 import com.orgzly.android.provider.views.DbTimeView;
 import com.orgzly.android.provider.views.DbBookView;
 import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.provider.views.DbReminderView;
 import com.orgzly.android.util.LogUtils;
 
 /**
@@ -120,6 +130,15 @@ public class Database extends SQLiteOpenHelper {
         for (String sql : DbPropertyValue.CREATE_SQL) db.execSQL(sql);
         for (String sql : DbProperty.CREATE_SQL) db.execSQL(sql);
         for (String sql : DbNoteAncestor.CREATE_SQL) db.execSQL(sql);
+        DbNoteFts.create(db);
+        for (String sql : DbNoteTag.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbUndoEntry.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbUndoNote.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbAgendaOccurrence.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbAgendaWindow.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbReminderTime.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbBookChange.CREATE_SQL) db.execSQL(sql);
+        for (String sql : DbNoteExportChange.CREATE_SQL) db.execSQL(sql);
     }
 
     private void dropAllTables(SQLiteDatabase db) {
@@ -144,6 +163,15 @@ public class Database extends SQLiteOpenHelper {
         db.execSQL(DbPropertyValue.DROP_SQL);
         db.execSQL(DbProperty.DROP_SQL);
         db.execSQL(DbNoteAncestor.DROP_SQL);
+        db.execSQL(DbNoteFts.DROP_SQL);
+        db.execSQL(DbNoteTag.DROP_SQL);
+        db.execSQL(DbUndoEntry.DROP_SQL);
+        db.execSQL(DbUndoNote.DROP_SQL);
+        db.execSQL(DbAgendaOccurrence.DROP_SQL);
+        db.execSQL(DbAgendaWindow.DROP_SQL);
+        db.execSQL(DbReminderTime.DROP_SQL);
+        db.execSQL(DbBookChange.DROP_SQL);
+        db.execSQL(DbNoteExportChange.DROP_SQL);
 
     }
 
@@ -154,6 +182,7 @@ public class Database extends SQLiteOpenHelper {
         db.execSQL(DbNoteView.DROP_SQL);
         db.execSQL(DbBookView.DROP_SQL);
         db.execSQL(DbTimeView.DROP_SQL);
+        db.execSQL(DbReminderView.DROP_SQL);
     }
 
     /** CREATE views */
@@ -163,5 +192,6 @@ public class Database extends SQLiteOpenHelper {
         db.execSQL(DbNoteView.CREATE_SQL);
         db.execSQL(DbBookView.CREATE_SQL);
         db.execSQL(DbTimeView.CREATE_SQL);
+        db.execSQL(DbReminderView.CREATE_SQL);
     }
 }
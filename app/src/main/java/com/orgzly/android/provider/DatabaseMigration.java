@@ -7,13 +7,22 @@ import android.text.TextUtils;
 
 import com.orgzly.BuildConfig;
 import com.orgzly.android.NotePosition;
+import com.orgzly.android.provider.models.DbAgendaOccurrence;
+import com.orgzly.android.provider.models.DbAgendaWindow;
+import com.orgzly.android.provider.models.DbBookChange;
 import com.orgzly.android.provider.models.DbNote;
 import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteExportChange;
+import com.orgzly.android.provider.models.DbNoteFts;
 import com.orgzly.android.provider.models.DbNoteProperty;
+import com.orgzly.android.provider.models.DbNoteTag;
 import com.orgzly.android.provider.models.DbOrgTimestamp;
 import com.orgzly.android.provider.models.DbProperty;
 import com.orgzly.android.provider.models.DbPropertyName;
 import com.orgzly.android.provider.models.DbPropertyValue;
+import com.orgzly.android.provider.models.DbReminderTime;
+import com.orgzly.android.provider.models.DbUndoEntry;
+import com.orgzly.android.provider.models.DbUndoNote;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.android.util.MiscUtils;
 import com.orgzly.org.datetime.OrgDateTime;
@@ -57,8 +66,18 @@ public class DatabaseMigration {
     private static final int DB_VER_15 = 144;
     private static final int DB_VER_16 = 145;
     private static final int DB_VER_17 = 146;
-
-    static final int DB_VER_CURRENT = DB_VER_17;
+    private static final int DB_VER_18 = 147;
+    private static final int DB_VER_19 = 148;
+    private static final int DB_VER_20 = 149;
+    private static final int DB_VER_21 = 150;
+    private static final int DB_VER_22 = 151;
+    private static final int DB_VER_23 = 152;
+    private static final int DB_VER_24 = 153;
+    private static final int DB_VER_25 = 154;
+    private static final int DB_VER_26 = 155;
+    private static final int DB_VER_27 = 156;
+
+    static final int DB_VER_CURRENT = DB_VER_27;
 
     /**
      * Start from the old version and go through all changes. No breaks.
@@ -139,9 +158,64 @@ public class DatabaseMigration {
                 insertAgendaSavedSearch(db);
                 // CLOSED_TIME_TIMESTAMP added to DbNoteView
 
+            case DB_VER_17:
+                addInheritedTags(db);
+
+            case DB_VER_18:
+                if (notifyUserIfSlow != null) {
+                    notifyUserIfSlow.run();
+                    notifyUserIfSlow = null;
+                }
+
+                DbNoteFts.create(db);
+                db.execSQL(DbNoteFts.REBUILD_SQL);
+
+            case DB_VER_19:
+                for (String sql : DbNoteTag.CREATE_SQL) db.execSQL(sql);
+                DatabaseUtils.updateNoteTags(db, null, null);
+
+            case DB_VER_20:
+                for (String sql : DbUndoEntry.CREATE_SQL) db.execSQL(sql);
+                for (String sql : DbUndoNote.CREATE_SQL) db.execSQL(sql);
+
+            case DB_VER_21: /* Views-only updates (timestamp fields) */
+
+            case DB_VER_22:
+                /* Occurrences of existing notes are expanded when agenda is first displayed. */
+                for (String sql : DbAgendaOccurrence.CREATE_SQL) db.execSQL(sql);
+                for (String sql : DbAgendaWindow.CREATE_SQL) db.execSQL(sql);
+
+            case DB_VER_23:
+                /* Reminders of existing notes are computed when reminders are first rescheduled. */
+                for (String sql : DbReminderTime.CREATE_SQL) db.execSQL(sql);
+                db.execSQL(DbReminderTime.INSERT_ALL_PENDING_SQL);
+
+            case DB_VER_24:
+                for (String sql : DbBookChange.CREATE_SQL) db.execSQL(sql);
+
+            case DB_VER_25:
+                /* Visible notes are selected by equality, so the index can be used. */
+                db.execSQL("UPDATE notes SET is_under_collapsed = 0 WHERE is_under_collapsed IS NULL"); // FOLDED_UNDER_ID
+                db.execSQL("CREATE INDEX IF NOT EXISTS i_notes_book_id_is_under_collapsed_is_visible ON notes(book_id, is_under_collapsed, is_visible)"); // BOOK_ID, FOLDED_UNDER_ID, LFT
+
+            case DB_VER_26:
+                /* No rows, so the first export of each book is a full one. */
+                for (String sql : DbNoteExportChange.CREATE_SQL) db.execSQL(sql);
         }
     }
 
+    private static void addInheritedTags(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE notes ADD COLUMN inherited_tags TEXT"); // INHERITED_TAGS
+
+        /* From the closest ancestor, as in DatabaseUtils.updateInheritedTags. */
+        db.execSQL("UPDATE notes SET inherited_tags = " +
+                   "(SELECT group_concat(tags, ' ') FROM (" +
+                   "SELECT a.tags FROM note_ancestors na " +
+                   "JOIN notes a ON (a._id = na.ancestor_note_id) " +
+                   "WHERE na.note_id = notes._id " +
+                   "ORDER BY a.is_visible DESC))"); // LFT
+    }
+
     private static void insertAgendaSavedSearch(SQLiteDatabase db) {
         ContentValues values = new ContentValues();
         values.put("name", "Agenda");
@@ -3,12 +3,15 @@ package com.orgzly.android.provider;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 
 import com.orgzly.BuildConfig;
 import com.orgzly.android.NotePosition;
 import com.orgzly.android.provider.models.DbBook;
 import com.orgzly.android.provider.models.DbNote;
-import com.orgzly.android.ui.Place;
+import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteTag;
 import com.orgzly.android.util.LogUtils;
 
 /**
@@ -30,6 +33,16 @@ public class DatabaseUtils {
 
     public static final String WHERE_NOTES_WITH_TIMES = "(" + DbNote.SCHEDULED_RANGE_ID + " IS NOT NULL OR " + DbNote.DEADLINE_RANGE_ID + " IS NOT NULL)";
 
+    /**
+     * Same notes as {@link #WHERE_VISIBLE_NOTES} in the book, with folded notes
+     * selected by equality only, so book's index on folded state and position is used.
+     */
+    public static String whereVisibleBookNotes(long bookId) {
+        return "(" + DbNote.BOOK_ID + " = " + bookId + " AND " +
+               DbNote.FOLDED_UNDER_ID + " = 0 AND " +
+               WHERE_EXISTING_NOTES + ")";
+    }
+
     public static String whereUncutBookNotes(long bookId) {
         return "(" + DbNote.BOOK_ID + " = " + bookId + " AND " + WHERE_EXISTING_NOTES + ")";
     }
@@ -127,76 +140,120 @@ public class DatabaseUtils {
     }
 
     /**
-     * Increments note's lft and rgt to make space for new notes.
-     *
-     * @return available lft and rgt which can be occupied by new notes.
+     * Positions used by notes created or pasted into a gap which is large enough.
+     * Unused positions are left between them, so that more notes can be added later
+     * without renumbering the rest of the book.
      */
-    public static long[] makeSpaceForNewNotes(SQLiteDatabase db, int numberOfNotes, NotePosition targetNotePosition, Place place) { // TODO: Book ID not checked
-        long lft;
-        int level;
-
-        int spaceRequired = numberOfNotes * 2;
-
-        String selection;
-
-        String bookSelection = whereUncutBookNotes(targetNotePosition.getBookId());
-
-        switch (place) {
-
-            case ABOVE:
-                selection = bookSelection + " AND " + DbNote.LFT + " >= " + targetNotePosition.getLft();
+    public static final long NOTE_POSITION_STEP = 1000;
 
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.LFT);
-
-                selection = bookSelection + " AND " + DbNote.RGT + " > " + targetNotePosition.getLft();
-
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.RGT);
+    /**
+     * Space made for each required position when there is no room left in a gap.
+     */
+    private static final long NOTE_POSITION_SPACE = 1000 * NOTE_POSITION_STEP;
 
-                lft = targetNotePosition.getLft();
-                level = targetNotePosition.getLevel();
+    /**
+     * Positions of book's notes which are not cut, including the root note.
+     */
+    private static String whereBookPositions(long bookId) {
+        return "(" + DbNote.BOOK_ID + " = " + bookId + " AND " + DbNote.IS_CUT + " = 0)";
+    }
 
-                break;
+    /**
+     * @return the smallest lft or rgt in the book larger then {@code position}
+     * or 0 if there is none
+     */
+    public static long getNextPosition(SQLiteDatabase db, long bookId, long position) {
+        return getLong(db,
+                "SELECT MIN(p) FROM (" +
+                "SELECT MIN(" + DbNote.LFT + ") AS p FROM " + DbNote.TABLE +
+                " WHERE " + whereBookPositions(bookId) + " AND " + DbNote.LFT + " > " + position +
+                " UNION ALL " +
+                "SELECT MIN(" + DbNote.RGT + ") AS p FROM " + DbNote.TABLE +
+                " WHERE " + whereBookPositions(bookId) + " AND " + DbNote.RGT + " > " + position + ")");
+    }
 
-            case UNDER:
-                selection = bookSelection + " AND " + DbNote.LFT + " > " + targetNotePosition.getRgt();
+    /**
+     * @return the largest lft or rgt in the book smaller then {@code position}
+     * or 0 if there is none
+     */
+    public static long getPreviousPosition(SQLiteDatabase db, long bookId, long position) {
+        return getLong(db,
+                "SELECT MAX(p) FROM (" +
+                "SELECT MAX(" + DbNote.LFT + ") AS p FROM " + DbNote.TABLE +
+                " WHERE " + whereBookPositions(bookId) + " AND " + DbNote.LFT + " < " + position +
+                " UNION ALL " +
+                "SELECT MAX(" + DbNote.RGT + ") AS p FROM " + DbNote.TABLE +
+                " WHERE " + whereBookPositions(bookId) + " AND " + DbNote.RGT + " < " + position + ")");
+    }
 
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.LFT);
+    private static long getLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            } else {
+                return 0;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
 
-                selection = bookSelection + " AND " + DbNote.RGT + " >= " + targetNotePosition.getRgt();
+    /**
+     * Finds {@code count} unused positions, in increasing order, between {@code after}
+     * and the next position used in the book.
+     *
+     * Notes are numbered sparsely, so usually there is enough room and nothing is updated.
+     * If the gap ran out, lft and rgt of all notes positioned after it are shifted,
+     * creating a large gap again.
+     *
+     * @param atEnd place positions next to the following position instead of next to {@code after}
+     *              (leaving space before them for notes inserted above)
+     */
+    public static long[] getFreePositions(SQLiteDatabase db, long bookId, long after, int count, boolean atEnd) {
+        long before = getNextPosition(db, bookId, after);
 
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.RGT);
+        if (before == 0) { /* Nothing after, no need to shift anything. */
+            before = after + count * NOTE_POSITION_SPACE;
 
-                lft = targetNotePosition.getRgt();
-                level = targetNotePosition.getLevel() + 1;
+        } else if (before - after <= count) {
+            before += shiftPositions(db, bookId, before, count * NOTE_POSITION_SPACE);
+        }
 
-                break;
+        long step = Math.min((before - after) / (count + 1), NOTE_POSITION_STEP);
 
-            case BELOW:
-                selection = bookSelection + " AND " + DbNote.LFT + " > " + targetNotePosition.getRgt();
+        long[] positions = new long[count];
 
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.LFT);
+        for (int i = 0; i < count; i++) {
+            if (atEnd) {
+                positions[i] = before - (count - i) * step;
+            } else {
+                positions[i] = after + (i + 1) * step;
+            }
+        }
 
-                // Container notes - update their RGT.
-                selection = bookSelection + " AND " + DbNote.RGT + " > " + targetNotePosition.getRgt();
+        return positions;
+    }
 
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection,
-                        spaceRequired, ProviderContract.Notes.UpdateParam.RGT);
+    /**
+     * Increments all lft and rgt in the book starting from {@code from}.
+     *
+     * @return {@code shift}
+     */
+    private static long shiftPositions(SQLiteDatabase db, long bookId, long from, long shift) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Shifting positions of book " + bookId + " from " + from + " by " + shift);
 
-                lft = targetNotePosition.getRgt() + 1;
-                level = targetNotePosition.getLevel();
+        String bookSelection = whereBookPositions(bookId);
 
-                break;
+        GenericDatabaseUtils.incrementFields(db, DbNote.TABLE,
+                bookSelection + " AND " + DbNote.LFT + " >= " + from,
+                shift, ProviderContract.Notes.UpdateParam.LFT);
 
-            default:
-                throw new IllegalArgumentException("Unsupported paste relative position " + place);
-        }
+        GenericDatabaseUtils.incrementFields(db, DbNote.TABLE,
+                bookSelection + " AND " + DbNote.RGT + " >= " + from,
+                shift, ProviderContract.Notes.UpdateParam.RGT);
 
-        return new long[] { lft, level };
+        return shift;
     }
 
     public static void updateDescendantsCount(SQLiteDatabase db, String where) {
@@ -231,6 +288,92 @@ public class DatabaseUtils {
         }
     }
 
+    /**
+     * Recalculates inherited tags of selected notes from their ancestors.
+     * Must be called after {@link DbNoteAncestor} rows for these notes are in place.
+     * Selected notes' {@link DbNoteTag} rows are rebuilt as well.
+     */
+    public static void updateInheritedTags(SQLiteDatabase db, String where, String[] whereArgs) {
+        /* Ancestors' tags from the closest one, same as when importing (see BookImporter). */
+        String inheritedTags = "(SELECT group_concat(" + DbNote.TAGS + ", ' ') FROM (" +
+                               "SELECT a." + DbNote.TAGS +
+                               " FROM " + DbNoteAncestor.TABLE + " na" +
+                               " JOIN " + DbNote.TABLE + " a ON (a." + DbNote._ID + " = na." + DbNoteAncestor.ANCESTOR_NOTE_ID + ")" +
+                               " WHERE na." + DbNoteAncestor.NOTE_ID + " = " + DbNote.TABLE + "." + DbNote._ID +
+                               " ORDER BY a." + DbNote.LFT + " DESC))";
+
+        String sql = "UPDATE " + DbNote.TABLE +
+                     " SET " + DbNote.INHERITED_TAGS + " = " + inheritedTags +
+                     " WHERE " + where;
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, sql);
+
+        if (whereArgs != null) {
+            db.execSQL(sql, whereArgs);
+        } else {
+            db.execSQL(sql);
+        }
+
+        updateNoteTags(db, where, whereArgs);
+    }
+
+    /**
+     * Rebuilds {@link DbNoteTag} rows of selected notes from their own and inherited tags.
+     */
+    public static void updateNoteTags(SQLiteDatabase db, String where, String[] whereArgs) {
+        db.delete(DbNoteTag.TABLE,
+                DbNoteTag.NOTE_ID + " IN (SELECT " + DbNote._ID + " FROM " + DbNote.TABLE +
+                (where != null ? " WHERE " + where : "") + ")",
+                whereArgs);
+
+        SQLiteStatement insert = db.compileStatement(DbNoteTag.INSERT_SQL);
+
+        Cursor cursor = db.query(
+                DbNote.TABLE,
+                new String[] { DbNote._ID, DbNote.BOOK_ID, DbNote.TAGS, DbNote.INHERITED_TAGS },
+                where,
+                whereArgs,
+                null, null, null);
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long noteId = cursor.getLong(0);
+                long bookId = cursor.getLong(1);
+
+                insertNoteTags(insert, bookId, noteId, cursor.getString(2), false);
+                insertNoteTags(insert, bookId, noteId, cursor.getString(3), true);
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+    }
+
+    private static void insertNoteTags(SQLiteStatement insert, long bookId, long noteId, String tags, boolean isInherited) {
+        if (TextUtils.isEmpty(tags)) {
+            return;
+        }
+
+        for (String tag : DbNote.dbDeSerializeTags(tags)) {
+            insert.bindLong(1, bookId);
+            insert.bindLong(2, noteId);
+            insert.bindString(3, tag);
+            insert.bindLong(4, isInherited ? 1 : 0);
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * Recalculates inherited tags of all descendants of selected notes.
+     * Used after notes' own tags are modified.
+     */
+    public static void updateInheritedTagsOfDescendants(SQLiteDatabase db, String where, String[] whereArgs) {
+        updateInheritedTags(db,
+                DbNote._ID + " IN (SELECT " + DbNoteAncestor.NOTE_ID + " FROM " + DbNoteAncestor.TABLE +
+                " WHERE " + DbNoteAncestor.ANCESTOR_NOTE_ID + " IN (SELECT " + DbNote._ID + " FROM " + DbNote.TABLE +
+                (where != null ? " WHERE " + where : "") + "))",
+                whereArgs);
+    }
+
     public static long getPreviousSiblingId(SQLiteDatabase db, NotePosition n) {
         Cursor cursor = db.query(
                 DbNote.TABLE,
@@ -4,6 +4,8 @@ package com.orgzly.android.provider;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 
@@ -19,7 +21,7 @@ import java.util.List;
  * http://www.jooq.org/doc/latest/manual/getting-started/use-cases/jooq-as-a-standalone-sql-builder/
  */
 public class GenericDatabaseUtils {
-    public static void incrementFields(SQLiteDatabase db, String table, String selection, int count, String... fields) {
+    public static void incrementFields(SQLiteDatabase db, String table, String selection, long count, String... fields) {
         if (fields.length == 0) {
             throw new IllegalArgumentException("No fields passed to incrementFields");
         }
@@ -35,6 +37,28 @@ public class GenericDatabaseUtils {
         db.execSQL(sql);
     }
 
+    /**
+     * @return id selected by the statement or 0 if there is no such row
+     */
+    public static long simpleQueryForId(SQLiteStatement statement) {
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return 0;
+        }
+    }
+
+    public static String insertSql(String table, String[] columns) {
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            params.add("?");
+        }
+
+        return "INSERT INTO " + table +
+               " (" + TextUtils.join(", ", columns) + ")" +
+               " VALUES (" + TextUtils.join(", ", params) + ")";
+    }
+
     public static String whereNullOrZero(String field) {
         return "(" + field + " IS NULL OR " + field + " = 0 )";
     }
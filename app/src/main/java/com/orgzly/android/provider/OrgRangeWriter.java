@@ -0,0 +1,155 @@
+package com.orgzly.android.provider;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orgzly.android.provider.models.DbOrgRange;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.org.datetime.OrgDateTime;
+import com.orgzly.org.datetime.OrgRange;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds or inserts {@link OrgRange} records together with their timestamps.
+ *
+ * Statements are compiled once and IDs of ranges already seen are remembered,
+ * so the same writer should be used for all ranges written together.
+ */
+public class OrgRangeWriter implements Closeable {
+    private static final String[] TIMESTAMP_COLUMNS = {
+            DbOrgTimestamp.STRING,
+            DbOrgTimestamp.IS_ACTIVE,
+            DbOrgTimestamp.YEAR,
+            DbOrgTimestamp.MONTH,
+            DbOrgTimestamp.DAY,
+            DbOrgTimestamp.HOUR,
+            DbOrgTimestamp.MINUTE,
+            DbOrgTimestamp.SECOND,
+            DbOrgTimestamp.END_HOUR,
+            DbOrgTimestamp.END_MINUTE,
+            DbOrgTimestamp.END_SECOND,
+            DbOrgTimestamp.REPEATER_TYPE,
+            DbOrgTimestamp.REPEATER_VALUE,
+            DbOrgTimestamp.REPEATER_UNIT,
+            DbOrgTimestamp.HABIT_DEADLINE_VALUE,
+            DbOrgTimestamp.HABIT_DEADLINE_UNIT,
+            DbOrgTimestamp.DELAY_TYPE,
+            DbOrgTimestamp.DELAY_VALUE,
+            DbOrgTimestamp.DELAY_UNIT,
+            DbOrgTimestamp.TIMESTAMP,
+            DbOrgTimestamp.END_TIMESTAMP
+    };
+
+    private final SQLiteStatement selectRange;
+    private final SQLiteStatement insertRange;
+    private final SQLiteStatement selectTimestamp;
+    private final SQLiteStatement insertTimestamp;
+
+    private final Map<String, Long> ranges = new HashMap<>();
+
+    public OrgRangeWriter(SQLiteDatabase db) {
+        selectRange = db.compileStatement(
+                "SELECT " + DbOrgRange._ID + " FROM " + DbOrgRange.TABLE + " WHERE " + DbOrgRange.STRING + " = ?");
+        insertRange = db.compileStatement(GenericDatabaseUtils.insertSql(DbOrgRange.TABLE, new String[] {
+                DbOrgRange.STRING, DbOrgRange.START_TIMESTAMP_ID, DbOrgRange.END_TIMESTAMP_ID }));
+
+        selectTimestamp = db.compileStatement(
+                "SELECT " + DbOrgTimestamp._ID + " FROM " + DbOrgTimestamp.TABLE + " WHERE " + DbOrgTimestamp.STRING + " = ?");
+        insertTimestamp = db.compileStatement(GenericDatabaseUtils.insertSql(DbOrgTimestamp.TABLE, TIMESTAMP_COLUMNS));
+    }
+
+    /**
+     * Gets {@link OrgRange} from database or inserts a new record if it doesn't exist.
+     * For writing a single range.
+     *
+     * @return {@link OrgRange} database ID
+     */
+    public static long getOrInsert(SQLiteDatabase db, OrgRange range) {
+        OrgRangeWriter writer = new OrgRangeWriter(db);
+
+        try {
+            return writer.getOrInsert(range);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets {@link OrgRange} from database or inserts a new record if it doesn't exist.
+     * @return {@link OrgRange} database ID
+     */
+    public long getOrInsert(OrgRange range) {
+        String str = range.toString();
+
+        Long id = ranges.get(str);
+
+        if (id == null) {
+            selectRange.bindString(1, str);
+            id = GenericDatabaseUtils.simpleQueryForId(selectRange);
+
+            if (id == 0) {
+                long startTimestampId = getOrInsertOrgTime(range.getStartTime());
+
+                long endTimestampId = 0;
+                if (range.getEndTime() != null) {
+                    endTimestampId = getOrInsertOrgTime(range.getEndTime());
+                }
+
+                insertRange.clearBindings();
+                insertRange.bindString(1, str);
+                insertRange.bindLong(2, startTimestampId);
+                if (endTimestampId != 0) {
+                    insertRange.bindLong(3, endTimestampId);
+                }
+                id = insertRange.executeInsert();
+            }
+
+            ranges.put(str, id);
+        }
+
+        return id;
+    }
+
+    private long getOrInsertOrgTime(OrgDateTime orgDateTime) {
+        selectTimestamp.bindString(1, orgDateTime.toString());
+        long id = GenericDatabaseUtils.simpleQueryForId(selectTimestamp);
+
+        if (id == 0) {
+            ContentValues values = new ContentValues();
+            DbOrgTimestamp.toContentValues(values, orgDateTime);
+
+            bindAll(insertTimestamp, TIMESTAMP_COLUMNS, values);
+            id = insertTimestamp.executeInsert();
+        }
+
+        return id;
+    }
+
+    @Override
+    public void close() {
+        selectRange.close();
+        insertRange.close();
+        selectTimestamp.close();
+        insertTimestamp.close();
+    }
+
+    private static void bindAll(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+
+            if (value == null) {
+                statement.bindNull(i + 1);
+            } else if (value instanceof Number) {
+                statement.bindLong(i + 1, ((Number) value).longValue());
+            } else {
+                statement.bindString(i + 1, value.toString());
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.orgzly.android.provider;
 
-import android.annotation.SuppressLint;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
@@ -26,6 +25,8 @@ import com.orgzly.android.provider.actions.PasteNotesAction;
 import com.orgzly.android.provider.actions.PromoteNotesAction;
 import com.orgzly.android.provider.actions.SparseTreeAction;
 import com.orgzly.android.provider.actions.ToggleFoldedStateAction;
+import com.orgzly.android.provider.actions.UndoAction;
+import com.orgzly.android.provider.actions.UndoJournal;
 import com.orgzly.android.provider.clients.BooksClient;
 import com.orgzly.android.provider.clients.NotesClient;
 import com.orgzly.android.provider.models.DbBook;
@@ -35,8 +36,9 @@ import com.orgzly.android.provider.models.DbCurrentVersionedRook;
 import com.orgzly.android.provider.models.DbDbRepo;
 import com.orgzly.android.provider.models.DbNote;
 import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbNoteExportChange;
 import com.orgzly.android.provider.models.DbNoteProperty;
-import com.orgzly.android.provider.models.DbOrgRange;
+import com.orgzly.android.provider.models.DbNoteTag;
 import com.orgzly.android.provider.models.DbOrgTimestamp;
 import com.orgzly.android.provider.models.DbProperty;
 import com.orgzly.android.provider.models.DbPropertyName;
@@ -48,18 +50,18 @@ import com.orgzly.android.provider.models.DbSearch;
 import com.orgzly.android.provider.models.DbVersionedRook;
 import com.orgzly.android.provider.views.DbBookView;
 import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.provider.views.DbReminderView;
 import com.orgzly.android.provider.views.DbTimeView;
 import com.orgzly.android.query.sql.SqlQuery;
 import com.orgzly.android.query.Query;
 import com.orgzly.android.query.QueryParser;
 import com.orgzly.android.query.user.InternalQueryParser;
 import com.orgzly.android.query.sql.SqliteQueryBuilder;
+import com.orgzly.android.repos.VersionedRook;
 import com.orgzly.android.ui.Place;
 import com.orgzly.android.util.EncodingDetect;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.org.OrgFile;
-import com.orgzly.org.OrgProperty;
-import com.orgzly.org.datetime.OrgDateTime;
 import com.orgzly.org.datetime.OrgRange;
 import com.orgzly.org.parser.OrgNestedSetParserListener;
 import com.orgzly.org.parser.OrgNode;
@@ -68,17 +70,19 @@ import com.orgzly.org.parser.OrgParser;
 import com.orgzly.org.parser.OrgParserWriter;
 import com.orgzly.org.utils.StateChangeLogic;
 
+import org.joda.time.DateTime;
+
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static com.orgzly.android.provider.GenericDatabaseUtils.field;
@@ -87,6 +91,9 @@ import static com.orgzly.android.provider.GenericDatabaseUtils.join;
 public class Provider extends ContentProvider {
     private static final String TAG = Provider.class.getName();
 
+    /** Number of bytes from the beginning of the book used for encoding detection. */
+    private static final int ENCODING_DETECTION_LIMIT = 1024 * 1024;
+
     public static String DATABASE_NAME = "orgzly.db";
     public static String DATABASE_NAME_FOR_TESTS = "orgzly_test.db";
 
@@ -96,6 +103,11 @@ public class Provider extends ContentProvider {
 
     private final ThreadLocal<Boolean> inBatch = new ThreadLocal<>();
 
+    /* URIs changed by operations of the current batch, notified once it is committed. */
+    private final ThreadLocal<Set<Uri>> batchChangedUris = new ThreadLocal<>();
+
+    private ChangeNotifier changeNotifier;
+
     private boolean isInBatch() {
         return inBatch.get() != null && inBatch.get();
     }
@@ -111,6 +123,8 @@ public class Provider extends ContentProvider {
          */
         mOpenHelper = new Database(getContext(), DATABASE_NAME);
 
+        changeNotifier = ChangeNotifier.getInstance(getContext());
+
         return true;
     }
 
@@ -126,18 +140,24 @@ public class Provider extends ContentProvider {
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
+        Set<Uri> changedUris = new LinkedHashSet<>();
+
         db.beginTransaction();
         try {
             inBatch.set(true);
+            batchChangedUris.set(changedUris);
+
             results = super.applyBatch(operations);
-            inBatch.set(false);
 
             db.setTransactionSuccessful();
         } finally {
+            inBatch.set(false);
+            batchChangedUris.remove();
+
             db.endTransaction();
         }
 
-        notifyChange();
+        changeNotifier.notifyChange(changedUris);
 
         return results;
     }
@@ -150,6 +170,7 @@ public class Provider extends ContentProvider {
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
 
         String table;
+        String limit = null;
         Cursor cursor = null;
 
         switch (uris.matcher.match(uri)) {
@@ -171,11 +192,17 @@ public class Provider extends ContentProvider {
 
             case ProviderUris.NOTES:
                 table = DbNoteView.VIEW_NAME;
+                limit = uri.getQueryParameter(ProviderContract.Notes.Param.LIMIT);
                 break;
 
             case ProviderUris.NOTES_SEARCH_QUERIED:
                 table = null;
-                cursor = runUserQuery(db, uri.getQuery(), sortOrder);
+                cursor = runUserQuery(db, uri.getQuery(), projection, sortOrder);
+                break;
+
+            case ProviderUris.NOTES_AGENDA_QUERIED:
+                table = null;
+                cursor = runAgendaQuery(db, uri.getQuery(), sortOrder);
                 break;
 
             case ProviderUris.BOOKS_ID_NOTES:
@@ -183,8 +210,15 @@ public class Provider extends ContentProvider {
 
                 long bookId = Long.parseLong(uri.getPathSegments().get(1));
 
-                selection = DbNoteView.BOOK_ID + "=" + bookId + " AND " + DatabaseUtils.WHERE_VISIBLE_NOTES;
+                selection = DatabaseUtils.whereVisibleBookNotes(bookId);
                 selectionArgs = null;
+                limit = uri.getQueryParameter(ProviderContract.Notes.Param.LIMIT);
+
+                if (uri.getQueryParameter(ProviderContract.Notes.Param.FROM_LFT) != null) {
+                    selection += " AND " + DbNoteView.LFT + " BETWEEN " +
+                                 Long.parseLong(uri.getQueryParameter(ProviderContract.Notes.Param.FROM_LFT)) + " AND " +
+                                 Long.parseLong(uri.getQueryParameter(ProviderContract.Notes.Param.TO_LFT));
+                }
                 break;
 
             case ProviderUris.NOTES_WITH_PROPERTY:
@@ -233,6 +267,37 @@ public class Provider extends ContentProvider {
 
                 break;
 
+            case ProviderUris.BOOKS_ID_NOTES_PROPERTIES:
+                bookId = Long.parseLong(uri.getPathSegments().get(1));
+
+                /* Same notes as the ones iterated over when exporting the book,
+                 * optionally limited by the passed selection (e.g. a range of notes).
+                 */
+                selection = field("tnotes", DbNote.BOOK_ID) + "=" + bookId + " AND " +
+                            field("tnotes", DbNote.IS_CUT) + " = 0 AND " +
+                            field("tnotes", DbNote.LEVEL) + " > 0" +
+                            (selection != null ? " AND (" + selection + ")" : "");
+
+                sortOrder = field("tnotes", DbNote.LFT) + ", " + field(DbNoteProperty.TABLE, DbNoteProperty.POSITION);
+
+                table = DbNote.TABLE + " tnotes " +
+                        " JOIN " + DbNoteProperty.TABLE + " ON " + field(DbNoteProperty.TABLE, DbNoteProperty.NOTE_ID) + " = " + field("tnotes", DbNote._ID) + " " +
+                        join(DbProperty.TABLE, "tproperties", DbProperty._ID, DbNoteProperty.TABLE, DbNoteProperty.PROPERTY_ID) +
+                        join(DbPropertyName.TABLE, "tpropertyname", DbPropertyName._ID, "tproperties", DbProperty.NAME_ID) +
+                        join(DbPropertyValue.TABLE, "tpropertyvalue", DbPropertyValue._ID, "tproperties", DbProperty.VALUE_ID);
+
+                projection = new String[] {
+                        field("tnotes", DbNote._ID),
+                        "tpropertyname." + DbPropertyName.NAME,
+                        "tpropertyvalue." + DbPropertyValue.VALUE,
+                };
+
+                break;
+
+            case ProviderUris.NOTES_TAGS:
+                table = DbNoteTag.TABLE;
+                break;
+
             case ProviderUris.BOOKS:
                 table = DbBookView.VIEW_NAME;
                 break;
@@ -243,6 +308,12 @@ public class Provider extends ContentProvider {
                 selectionArgs = new String[] { uri.getLastPathSegment() };
                 break;
 
+            case ProviderUris.BOOKS_ID_EXPORT_CHANGES:
+                table = DbNoteExportChange.TABLE;
+                selection = DbNoteExportChange.BOOK_ID + " = " + Long.parseLong(uri.getPathSegments().get(1));
+                selectionArgs = null;
+                break;
+
             case ProviderUris.FILTERS:
                 table = DbSearch.TABLE;
                 break;
@@ -279,30 +350,38 @@ public class Provider extends ContentProvider {
                                DbTimeView.NOTE_STATE + ", " +
                                DbTimeView.NOTE_TITLE + ", " +
                                DbTimeView.TIME_TYPE + ", " +
-                               DbTimeView.ORG_TIMESTAMP_STRING +
+                               DbTimeView.ORG_TIMESTAMP_STRING + ", " +
+                               TextUtils.join(", ", DbOrgTimestamp.orgDateTimeColumns(DbTimeView.ORG_TIMESTAMP_PREFIX)) +
                                " FROM " + DbTimeView.VIEW_NAME;
 
                 cursor = db.rawQuery(query, null);
 
                 break;
 
+            case ProviderUris.TIMES_REMINDERS:
+                table = null;
+                cursor = runRemindersQuery(db, uri, selection, selectionArgs, sortOrder);
+                break;
+
             default:
                 throw new IllegalArgumentException("URI is not recognized: " + uri);
         }
 
         if (cursor == null) {
-            cursor = db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+            cursor = db.query(table, projection, selection, selectionArgs, null, null, sortOrder, limit);
         }
 
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Cursor count: " + cursor.getCount() + " for " +
                                                    table + " " + selection + " " + (selectionArgs != null ? TextUtils.join(",", selectionArgs) : ""));
 
-        cursor.setNotificationUri(getContext().getContentResolver(), ProviderContract.AUTHORITY_URI);
+        if (BuildConfig.LOG_DEBUG) changeNotifier.countQuery(uri);
+
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
 
         return cursor;
     }
 
-    private Cursor runUserQuery(SQLiteDatabase db, String queryString, String sortOrder) {
+    private Cursor runUserQuery(SQLiteDatabase db, String queryString, String[] projection, String sortOrder) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, queryString, sortOrder);
 
         QueryParser parser = new InternalQueryParser();
@@ -338,7 +417,83 @@ public class Provider extends ContentProvider {
 
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, query, query.getCondition(), sqlQuery.getOrderBy(), selection, selectionArgs, sortOrder);
 
-        return db.query(DbNoteView.VIEW_NAME, null, selection, selectionArgs, null, null, sortOrder);
+        return db.query(DbNoteView.VIEW_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Same as {@link #runUserQuery(SQLiteDatabase, String, String[], String)}, but with notes
+     * repeated for each day of the agenda they are displayed on.
+     */
+    private Cursor runAgendaQuery(SQLiteDatabase db, String queryString, String sortOrder) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, queryString, sortOrder);
+
+        QueryParser parser = new InternalQueryParser();
+        Query query = parser.parse(queryString);
+
+        SqliteQueryBuilder queryBuilder = new SqliteQueryBuilder(getContext());
+        SqlQuery sqlQuery = queryBuilder.build(query);
+
+        if (sortOrder == null) {
+            sortOrder = sqlQuery.getOrderBy();
+        }
+
+        String selection = DatabaseUtils.WHERE_EXISTING_NOTES;
+
+        if (query.getCondition() != null) {
+            selection = sqlQuery.getSelection() + " AND " + selection;
+        }
+
+        String[] selectionArgs = sqlQuery.getSelectionArgs().toArray(
+                new String[sqlQuery.getSelectionArgs().size()]);
+
+        return AgendaOccurrences.query(
+                db, new DateTime(), query.getOptions().getAgendaDays(), selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Extends agenda occurrences to cover the days of the agenda query.
+     */
+    private int updateAgenda(SQLiteDatabase db, String queryString) {
+        Query query = new InternalQueryParser().parse(queryString);
+
+        return AgendaOccurrences.update(db, new DateTime(), query.getOptions().getAgendaDays());
+    }
+
+    /**
+     * Same columns as {@link ProviderUris#TIMES}, followed by the next reminder time.
+     */
+    private Cursor runRemindersQuery(SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs, String sortOrder) {
+        String[] projection = {
+                DbReminderView.NOTE_ID,
+                DbReminderView.BOOK_ID,
+                DbReminderView.BOOK_NAME,
+                DbReminderView.NOTE_STATE,
+                DbReminderView.NOTE_TITLE,
+                DbReminderView.TIME_TYPE,
+                DbReminderView.ORG_TIMESTAMP_STRING,
+                TextUtils.join(", ", DbOrgTimestamp.orgDateTimeColumns(DbReminderView.ORG_TIMESTAMP_PREFIX)),
+                DbReminderView.FIRE_TIME
+        };
+
+        String limit = uri.getQueryParameter(ProviderContract.Times.Param.LIMIT);
+
+        return db.query(DbReminderView.VIEW_NAME, projection, selection, selectionArgs, null, null, sortOrder, limit);
+    }
+
+    /**
+     * Computes reminders of notes marked as changed, then moves fired reminders to their next time.
+     * Notes are only left marked by migration, as they are computed on every write.
+     */
+    private int updateReminders(SQLiteDatabase db, Uri uri) {
+        DateTime now = getNowParameter(uri);
+
+        ReminderTimes.update(db, now);
+
+        return ReminderTimes.reschedule(db, now);
+    }
+
+    private DateTime getNowParameter(Uri uri) {
+        return new DateTime(Long.parseLong(uri.getQueryParameter(ProviderContract.Times.Param.NOW)));
     }
 
     @Override
@@ -348,18 +503,22 @@ public class Provider extends ContentProvider {
         /* Gets a writable database. This will trigger its creation if it doesn't already exist. */
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
+        Set<Uri> changedUris;
+
         db.beginTransaction();
         try {
             for (int i = 0; i < values.length; i++) {
                 insertUnderTransaction(db, uri, values[i]);
             }
 
+            changedUris = getChangedUris(db, uri);
+
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
 
-        notifyChange();
+        notifyChange(changedUris);
 
         return values.length;
     }
@@ -373,22 +532,26 @@ public class Provider extends ContentProvider {
 
         Uri resultUri;
 
+        Set<Uri> changedUris;
+
         if (isInBatch()) {
             resultUri = insertUnderTransaction(db, uri, contentValues);
+            changedUris = getChangedUris(db, uri);
 
         } else {
             db.beginTransaction();
             try {
                 resultUri = insertUnderTransaction(db, uri, contentValues);
+                changedUris = getChangedUris(db, uri);
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
-
-            notifyChange();
         }
 
+        notifyChange(changedUris);
+
         return resultUri;
     }
 
@@ -455,6 +618,13 @@ public class Provider extends ContentProvider {
                 resultUri = bookSavedToRepo(db, uri, contentValues);
                 return resultUri;
 
+            case ProviderUris.BOOKS_ID_EXPORT_CHANGES:
+                table = DbNoteExportChange.TABLE;
+                contentValues = new ContentValues();
+                contentValues.put(DbNoteExportChange.BOOK_ID, Long.parseLong(uri.getPathSegments().get(1)));
+                contentValues.put(DbNoteExportChange.NOTE_ID, DbNoteExportChange.READ);
+                break;
+
             default:
                 throw new IllegalArgumentException("URI is not recognized: " + uri);
         }
@@ -479,6 +649,9 @@ public class Provider extends ContentProvider {
 
         long bookId = values.getAsLong(ProviderContract.Notes.UpdateParam.BOOK_ID);
 
+        /* Positions of other notes could change, recorded ones would no longer fit. */
+        UndoJournal.clear(db, bookId);
+
         /* If new note is inserted relative to some other note, get info about that target note. */
         long refNoteId = 0;
         NotePosition refNotePos = null;
@@ -487,19 +660,27 @@ public class Provider extends ContentProvider {
             refNotePos = DbNote.getPosition(db, refNoteId);
         }
 
+        /*
+         * Find unused positions for note's lft and rgt.
+         * Notes following it are moved only if there is no room left.
+         */
+        long[] positions;
+
         switch (place) {
             case ABOVE:
+                positions = DatabaseUtils.getFreePositions(db, bookId,
+                        DatabaseUtils.getPreviousPosition(db, bookId, refNotePos.getLft()), 2, true);
+
                 notePos.setLevel(refNotePos.getLevel());
-                notePos.setLft(refNotePos.getLft());
-                notePos.setRgt(refNotePos.getLft() + 1);
                 notePos.setParentId(refNotePos.getParentId());
 
                 break;
 
             case UNDER:
+                positions = DatabaseUtils.getFreePositions(db, bookId,
+                        DatabaseUtils.getPreviousPosition(db, bookId, refNotePos.getRgt()), 2, false);
+
                 notePos.setLevel(refNotePos.getLevel() + 1);
-                notePos.setLft(refNotePos.getRgt());
-                notePos.setRgt(refNotePos.getRgt() + 1);
                 notePos.setParentId(refNoteId);
 
                 /*
@@ -513,9 +694,9 @@ public class Provider extends ContentProvider {
                 break;
 
             case BELOW:
+                positions = DatabaseUtils.getFreePositions(db, bookId, refNotePos.getRgt(), 2, false);
+
                 notePos.setLevel(refNotePos.getLevel());
-                notePos.setLft(refNotePos.getRgt() + 1);
-                notePos.setRgt(refNotePos.getRgt() + 2);
                 notePos.setParentId(refNotePos.getParentId());
 
                 break;
@@ -525,9 +706,10 @@ public class Provider extends ContentProvider {
                 long rootRgt = getMaxRgt(db, bookId);
                 long rootId = getRootId(db, bookId);
 
+                positions = DatabaseUtils.getFreePositions(db, bookId,
+                        DatabaseUtils.getPreviousPosition(db, bookId, rootRgt), 2, false);
+
                 notePos.setLevel(1);
-                notePos.setLft(rootRgt);
-                notePos.setRgt(rootRgt + 1);
                 notePos.setParentId(rootId);
 
                 break;
@@ -536,23 +718,15 @@ public class Provider extends ContentProvider {
                 throw new IllegalArgumentException("Unsupported place for new note: " + place);
         }
 
-        switch (place) {
-            case ABOVE:
-            case UNDER:
-            case BELOW:
-                /* Make space for new note - increment notes' LFT and RGT. */
-                DatabaseUtils.makeSpaceForNewNotes(db, 1, refNotePos, place);
-
-                /*
-                 * If new note can be an ancestor, increment descendants count of all
-                 * its ancestors.
-                 */
-                incrementDescendantsCountForAncestors(db, bookId, notePos.getLft(), notePos.getRgt());
+        notePos.setLft(positions[0]);
+        notePos.setRgt(positions[1]);
 
-            case UNSPECIFIED:
-                /* Make space for new note - increment root's RGT. */
-                String selection = DbNote.BOOK_ID + " = " + bookId + " AND " + DbNote.LFT + " = 1";
-                GenericDatabaseUtils.incrementFields(db, DbNote.TABLE, selection, 2, ProviderContract.Notes.UpdateParam.RGT);
+        if (place != Place.UNSPECIFIED) {
+            /*
+             * If new note can be an ancestor, increment descendants count of all
+             * its ancestors.
+             */
+            incrementDescendantsCountForAncestors(db, bookId, notePos.getLft(), notePos.getRgt());
         }
 
         notePos.setBookId(bookId);
@@ -577,6 +751,8 @@ public class Provider extends ContentProvider {
                    field(DbNote.TABLE, DbNote.RGT) + " < " + field("a", DbNote.RGT) + ")" +
                    " WHERE " + field(DbNote.TABLE, DbNote._ID) + " = " + id + " AND " + field("a", DbNote.LEVEL) + " > 0");
 
+        DatabaseUtils.updateInheritedTags(db, DbNote._ID + " = " + id, null);
+
         return ContentUris.withAppendedId(uri, id);
     }
 
@@ -586,7 +762,7 @@ public class Provider extends ContentProvider {
                    "WHERE " + DatabaseUtils.whereAncestors(bookId, lft, rgt));
     }
 
-    private int getMaxRgt(SQLiteDatabase db, long bookId) {
+    private long getMaxRgt(SQLiteDatabase db, long bookId) {
         Cursor cursor = db.query(
                 DbNote.TABLE,
                 new String[] { "MAX(" + DbNoteView.RGT + ")" },
@@ -599,7 +775,7 @@ public class Provider extends ContentProvider {
 
         try {
             if (cursor.moveToFirst()) {
-                return cursor.getInt(0);
+                return cursor.getLong(0);
             } else {
                 return 0;
             }
@@ -745,22 +921,26 @@ public class Provider extends ContentProvider {
 
         int result;
 
+        Set<Uri> changedUris;
+
         if (isInBatch()) {
             result = deleteUnderTransaction(db, uri, selection, selectionArgs);
+            changedUris = getChangedUris(db, uri);
 
         } else {
             db.beginTransaction();
             try {
                 result = deleteUnderTransaction(db, uri, selection, selectionArgs);
+                changedUris = getChangedUris(db, uri);
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
-
-            notifyChange();
         }
 
+        notifyChange(changedUris);
+
         return result;
     }
 
@@ -809,6 +989,9 @@ public class Provider extends ContentProvider {
                 table = DbBook.TABLE;
                 selection = DbBook._ID + " = " + uri.getLastPathSegment();
                 selectionArgs = null;
+
+                UndoJournal.clear(db, Long.parseLong(uri.getLastPathSegment()));
+
                 break;
 
             case ProviderUris.NOTES:
@@ -826,6 +1009,12 @@ public class Provider extends ContentProvider {
                 result = db.delete(table, selection, selectionArgs);
                 return result;
 
+            case ProviderUris.BOOKS_ID_EXPORT_CHANGES:
+                table = DbNoteExportChange.TABLE;
+                selection = DbNoteExportChange.BOOK_ID + " = " + Long.parseLong(uri.getPathSegments().get(1)) +
+                            (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")");
+                break;
+
             case ProviderUris.NOTES_ID_PROPERTIES:
                 noteId = Long.parseLong(uri.getPathSegments().get(1));
 
@@ -871,22 +1060,26 @@ public class Provider extends ContentProvider {
 
         int result;
 
+        Set<Uri> changedUris;
+
         if (isInBatch()) {
             result = updateUnderTransaction(db, uri, contentValues, selection, selectionArgs);
+            changedUris = getChangedUris(db, uri);
 
         } else {
             db.beginTransaction();
             try {
                 result = updateUnderTransaction(db, uri, contentValues, selection, selectionArgs);
+                changedUris = getChangedUris(db, uri);
 
                 db.setTransactionSuccessful();
             } finally {
                 db.endTransaction();
             }
-
-            notifyChange();
         }
 
+        notifyChange(changedUris);
+
         return result;
     }
 
@@ -950,9 +1143,16 @@ public class Provider extends ContentProvider {
                 break;
 
             case ProviderUris.NOTES:
-                table = DbNote.TABLE;
                 replaceTimestampRangeStringsWithIds(db, contentValues);
-                break;
+
+                result = db.update(DbNote.TABLE, contentValues, selection, selectionArgs);
+
+                if (contentValues.containsKey(DbNote.TAGS)) {
+                    DatabaseUtils.updateNoteTags(db, selection, selectionArgs);
+                    DatabaseUtils.updateInheritedTagsOfDescendants(db, selection, selectionArgs);
+                }
+
+                return result;
 
             case ProviderUris.NOTE:
                 selection = DbNote._ID + " = " + uri.getLastPathSegment();
@@ -962,6 +1162,11 @@ public class Provider extends ContentProvider {
 
                 result = db.update(DbNote.TABLE, contentValues, selection, selectionArgs);
 
+                if (contentValues.containsKey(DbNote.TAGS)) {
+                    DatabaseUtils.updateNoteTags(db, selection, selectionArgs);
+                    DatabaseUtils.updateInheritedTagsOfDescendants(db, selection, selectionArgs);
+                }
+
                 // TODO: Ugh: Use /books/1/notes/23/ or just move to constant
                 if (uri.getQueryParameter("bookId") != null) {
                     DatabaseUtils.updateBookMtime(db, Long.parseLong(uri.getQueryParameter("bookId")));
@@ -995,6 +1200,15 @@ public class Provider extends ContentProvider {
             case ProviderUris.MOVE:
                 return ActionRunner.run(db, new MoveNotesAction(contentValues));
 
+            case ProviderUris.UNDO:
+                return ActionRunner.run(db, new UndoAction(contentValues));
+
+            case ProviderUris.NOTES_AGENDA_QUERIED:
+                return updateAgenda(db, uri.getQuery());
+
+            case ProviderUris.TIMES_REMINDERS:
+                return updateReminders(db, uri);
+
             case ProviderUris.NOTE_TOGGLE_FOLDED_STATE:
                 noteId = Long.valueOf(uri.getPathSegments().get(1));
                 return ActionRunner.run(db, new ToggleFoldedStateAction(noteId));
@@ -1247,6 +1461,82 @@ public class Provider extends ContentProvider {
         long rookMtime = values.containsKey(ProviderContract.LoadBookFromFile.Param.ROOK_MTIME) ? values.getAsLong(ProviderContract.LoadBookFromFile.Param.ROOK_MTIME) : 0;
         String selectedEncoding = values.getAsString(ProviderContract.LoadBookFromFile.Param.SELECTED_ENCODING);
 
+        try {
+            InputStream in = new FileInputStream(new File(filePath));
+
+            return loadBookFromStream(bookName, repoUrl, rookUrl, rookRevision, rookMtime, format, in, selectedEncoding);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            /* Remember that the Android system must be able to communicate the Exception
+             * across process boundaries. This is one of those.
+             */
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Loads book directly from the stream, without copying it to a file first.
+     * Streams can't be passed using {@link ContentValues}, so this is called
+     * on the local provider instance. Stream is closed.
+     */
+    public Uri loadBookFromStream(
+            String bookName,
+            String format,
+            InputStream in,
+            VersionedRook vrook,
+            String selectedEncoding) throws IOException {
+
+        String repoUrl = null, rookUrl = null, rookRevision = null;
+        long rookMtime = 0;
+
+        if (vrook != null) {
+            repoUrl = vrook.getRepoUri().toString();
+            rookUrl = vrook.getUri().toString();
+            rookRevision = vrook.getRevision();
+            rookMtime = vrook.getMtime();
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        Uri uri;
+        Set<Uri> changedUris = new LinkedHashSet<>();
+
+        db.beginTransaction();
+        try {
+            uri = loadBookFromStream(bookName, repoUrl, rookUrl, rookRevision, rookMtime, format, in, selectedEncoding);
+
+            if (BookChanges.consume(db, changedUris)) {
+                updateChangedTimes(db);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChange(changedUris);
+
+        return uri;
+    }
+
+    /**
+     * Encoding is detected from the beginning of the stream, which is then read again
+     * for parsing, so the content is read only once.
+     */
+    private Uri loadBookFromStream(
+            String bookName,
+            String repoUrl,
+            String rookUrl,
+            String rookRevision,
+            long rookMtime,
+            String format,
+            InputStream inputStream,
+            String selectedEncoding) throws IOException {
+
+        BufferedInputStream in = new BufferedInputStream(inputStream);
+
         try {
             /*
              * Determine encoding to use -- detect or force it.
@@ -1255,7 +1545,7 @@ public class Provider extends ContentProvider {
             String detectedEncoding = null;
 
             if (selectedEncoding == null) {
-                usedEncoding = detectedEncoding = EncodingDetect.getInstance(new FileInputStream(new File(filePath))).getEncoding();
+                usedEncoding = detectedEncoding = EncodingDetect.getInstance(in, ENCODING_DETECTION_LIMIT).getEncoding();
                 if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Detected encoding: " + detectedEncoding);
 
                 /* Can't detect encoding - use default. */
@@ -1276,19 +1566,14 @@ public class Provider extends ContentProvider {
                     rookRevision,
                     rookMtime,
                     format,
-                    new InputStreamReader(new FileInputStream(new File(filePath)), usedEncoding),
+                    new InputStreamReader(in, usedEncoding),
                     usedEncoding,
                     detectedEncoding,
                     selectedEncoding
             );
 
-        } catch (IOException e) {
-            e.printStackTrace();
-
-            /* Remember that the Android system must be able to communicate the Exception
-             * across process boundaries. This is one of those.
-             */
-            throw new IllegalArgumentException(e);
+        } finally {
+            in.close();
         }
     }
 
@@ -1316,42 +1601,12 @@ public class Provider extends ContentProvider {
 
         final long bookId = ContentUris.parseId(uri);
 
+        UndoJournal.clear(db, bookId);
+
         /* Delete all notes from book. TODO: Delete all other references to this book ID */
         db.delete(DbNote.TABLE, DbNote.BOOK_ID + "=" + bookId, null);
 
-        final Map<String, Long> propertyNames = new HashMap<>();
-        {
-            Cursor cursor = db.query(DbPropertyName.TABLE, new String[] {DbPropertyName._ID, DbPropertyName.NAME}, null, null, null, null, null);
-            try {
-                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                    propertyNames.put(cursor.getString(1), cursor.getLong(0));
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        final Map<String, Long> propertyValues = new HashMap<>();
-        {
-            Cursor cursor = db.query(DbPropertyValue.TABLE, new String[] {DbPropertyValue._ID, DbPropertyValue.VALUE}, null, null, null, null, null);
-            try {
-                for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                    propertyValues.put(cursor.getString(1), cursor.getLong(0));
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        /*
-         * Maps node's lft to database id.
-         * Used to update parent id and insert ancestors.
-         * Not using SparseArray as speed is preferred over memory here.
-         */
-        @SuppressLint("UseSparseArrays") final HashMap<Long,Long> lft2id = new HashMap<>();
-
-        /* Set of ids for which parent is already set. */
-        final Set<Long> notesWithParentSet = new HashSet<>();
+        final BookImporter importer = new BookImporter(db, bookId);
 
         /* Open reader. */
         Reader reader = new BufferedReader(inReader);
@@ -1369,67 +1624,7 @@ public class Provider extends ContentProvider {
                         public void onNode(OrgNodeInSet node) throws IOException {
                             BookSizeValidator.validate(node);
 
-                            /* Insert note with book id at specific position. */
-
-                            NotePosition position = new NotePosition();
-                            position.setBookId(bookId);
-                            position.setLft(node.getLft());
-                            position.setRgt(node.getRgt());
-                            position.setLevel(node.getLevel());
-                            position.setDescendantsCount(node.getDescendantsCount());
-
-                            ContentValues values = new ContentValues();
-
-                            DbNote.toContentValues(values, position);
-                            DbNote.toContentValues(db, values, node.getHead());
-
-                            long noteId = db.insertOrThrow(DbNote.TABLE, null, values);
-
-                            /* Insert note's properties. */
-                            int pos = 1;
-                            for (OrgProperty property: node.getHead().getProperties()) {
-                                Long nameId = propertyNames.get(property.getName());
-                                if (nameId == null) {
-                                    nameId = DbPropertyName.getOrInsert(db, property.getName());
-                                    propertyNames.put(property.getName(), nameId);
-                                }
-
-                                Long valueId = propertyValues.get(property.getValue());
-                                if (valueId == null) {
-                                    valueId = DbPropertyValue.getOrInsert(db, property.getValue());
-                                    propertyValues.put(property.getValue(), valueId);
-                                }
-
-                                long propertyId = DbProperty.getOrInsert(db, nameId, valueId);
-
-                                DbNoteProperty.getOrInsert(db, noteId, pos++, propertyId);
-                            }
-
-                            /*
-                             * Update parent ID and insert ancestors.
-                             * Going through all descendants - nodes between lft and rgt.
-                             *
-                             *  lft:  1    2    3    4    5   6
-                             *            L2   l1   r2   R2
-                             */
-                            lft2id.put(node.getLft(), noteId);
-                            for (long index = node.getLft() + 1; index < node.getRgt(); index++) {
-                                Long descendantId = lft2id.get(index);
-                                if (descendantId != null) {
-                                    if (! notesWithParentSet.contains(descendantId)) {
-                                        values = new ContentValues();
-                                        values.put(DbNote.PARENT_ID, noteId);
-                                        db.update(DbNote.TABLE, values, DbNote._ID + " = " + descendantId, null);
-                                        notesWithParentSet.add(descendantId);
-                                    }
-
-                                    values = new ContentValues();
-                                    values.put(DbNoteAncestor.NOTE_ID, descendantId);
-                                    values.put(DbNoteAncestor.ANCESTOR_NOTE_ID, noteId);
-                                    values.put(DbNoteAncestor.BOOK_ID, bookId);
-                                    db.insert(DbNoteAncestor.TABLE, null, values);
-                                }
-                            }
+                            importer.importNode(node);
                         }
 
                         @Override
@@ -1455,12 +1650,17 @@ public class Provider extends ContentProvider {
                     .parse();
 
         } finally {
-            reader.close();
+            try {
+                reader.close();
+            } finally {
+                importer.close();
+            }
         }
 
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, bookName + ": Parsing done in " +
-                            (System.currentTimeMillis() - startedAt) + " ms");
+                            (System.currentTimeMillis() - startedAt) + " ms (" +
+                            importer.getNotesCount() + " notes)");
 
         if (rookUrl != null) {
             updateOrInsertBookLink(db, bookId, repoUrl, rookUrl);
@@ -1480,7 +1680,7 @@ public class Provider extends ContentProvider {
         if (values.containsKey(ProviderContract.Notes.UpdateParam.SCHEDULED_STRING)) {
             String str = values.getAsString(ProviderContract.Notes.UpdateParam.SCHEDULED_STRING);
             if (! TextUtils.isEmpty(str)) {
-                values.put(DbNote.SCHEDULED_RANGE_ID, getOrInsertOrgRange(db, OrgRange.parse(str)));
+                values.put(DbNote.SCHEDULED_RANGE_ID, OrgRangeWriter.getOrInsert(db, OrgRange.parse(str)));
             } else {
                 values.putNull(DbNote.SCHEDULED_RANGE_ID);
             }
@@ -1491,7 +1691,7 @@ public class Provider extends ContentProvider {
         if (values.containsKey(ProviderContract.Notes.UpdateParam.DEADLINE_STRING)) {
             String str = values.getAsString(ProviderContract.Notes.UpdateParam.DEADLINE_STRING);
             if (! TextUtils.isEmpty(str)) {
-                values.put(DbNote.DEADLINE_RANGE_ID, getOrInsertOrgRange(db, OrgRange.parse(str)));
+                values.put(DbNote.DEADLINE_RANGE_ID, OrgRangeWriter.getOrInsert(db, OrgRange.parse(str)));
             } else {
                 values.putNull(DbNote.DEADLINE_RANGE_ID);
             }
@@ -1502,7 +1702,7 @@ public class Provider extends ContentProvider {
         if (values.containsKey(ProviderContract.Notes.UpdateParam.CLOSED_STRING)) {
             String str = values.getAsString(ProviderContract.Notes.UpdateParam.CLOSED_STRING);
             if (! TextUtils.isEmpty(str)) {
-                values.put(DbNote.CLOSED_RANGE_ID, getOrInsertOrgRange(db, OrgRange.parse(str)));
+                values.put(DbNote.CLOSED_RANGE_ID, OrgRangeWriter.getOrInsert(db, OrgRange.parse(str)));
             } else {
                 values.putNull(DbNote.CLOSED_RANGE_ID);
             }
@@ -1513,7 +1713,7 @@ public class Provider extends ContentProvider {
         if (values.containsKey(ProviderContract.Notes.UpdateParam.CLOCK_STRING)) {
             String str = values.getAsString(ProviderContract.Notes.UpdateParam.CLOCK_STRING);
             if (! TextUtils.isEmpty(str)) {
-                values.put(DbNote.CLOCK_RANGE_ID, getOrInsertOrgRange(db, OrgRange.parse(str)));
+                values.put(DbNote.CLOCK_RANGE_ID, OrgRangeWriter.getOrInsert(db, OrgRange.parse(str)));
             } else {
                 values.putNull(DbNote.CLOCK_RANGE_ID);
             }
@@ -1522,57 +1722,124 @@ public class Provider extends ContentProvider {
         }
     }
 
+
     /**
-     * Gets {@link OrgDateTime} from database or inserts a new record if it doesn't exist.
-     * @return {@link OrgDateTime} database ID
+     * Notifies changed URIs, at the end of the batch if in one.
      */
-    private long getOrInsertOrgRange(SQLiteDatabase db, OrgRange range) {
-        long id = DatabaseUtils.getId(
-                db,
-                DbOrgRange.TABLE,
-                DbOrgRange.STRING + "=?",
-                new String[] { range.toString() });
+    private void notifyChange(Set<Uri> changedUris) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, changedUris);
 
-        if (id == 0) {
-            ContentValues values = new ContentValues();
+        if (isInBatch()) {
+            batchChangedUris.get().addAll(changedUris);
+        } else {
+            changeNotifier.notifyChange(changedUris);
+        }
+    }
 
-            long startTimestampId = getOrInsertOrgTime(db, range.getStartTime());
+    /**
+     * Data changed by writing to {@code uri}. Books and notes are found from
+     * the changes recorded by triggers, so it must be called before the transaction ends.
+     */
+    private Set<Uri> getChangedUris(SQLiteDatabase db, Uri uri) {
+        Set<Uri> changedUris = new LinkedHashSet<>();
 
-            long endTimestampId = 0;
-            if (range.getEndTime() != null) {
-                endTimestampId = getOrInsertOrgTime(db, range.getEndTime());
-            }
+        switch (uris.matcher.match(uri)) {
+            case ProviderUris.LOCAL_DB_REPO:
+            case ProviderUris.REPOS:
+                changedUris.add(ProviderContract.Repos.ContentUri.repos());
+                break;
 
-            DbOrgRange.toContentValues(values, range, startTimestampId, endTimestampId);
+            /* Books' links using the repo could have been removed. */
+            case ProviderUris.REPOS_ID:
+                changedUris.add(ProviderContract.Repos.ContentUri.repos());
+                changedUris.add(ProviderContract.Books.ContentUri.books());
+                break;
 
-            id = db.insertOrThrow(DbOrgRange.TABLE, null, values);
-        }
+            case ProviderUris.FILTERS:
+            case ProviderUris.FILTERS_ID:
+            case ProviderUris.FILTER_UP:
+            case ProviderUris.FILTER_DOWN:
+                changedUris.add(ProviderContract.Filters.ContentUri.filters());
+                break;
 
-        return id;
-    }
+            case ProviderUris.BOOKS_ID_SAVED:
+            case ProviderUris.LINKS_FOR_BOOK:
+                changedUris.add(ProviderContract.Books.ContentUri.booksId(Long.parseLong(uri.getPathSegments().get(1))));
+                break;
 
-    private long getOrInsertOrgTime(SQLiteDatabase db, OrgDateTime orgDateTime) {
-        long id = DatabaseUtils.getId(
-                db,
-                DbOrgTimestamp.TABLE,
-                DbOrgTimestamp.STRING + "= ?",
-                new String[] { orgDateTime.toString() });
+            case ProviderUris.CURRENT_ROOKS:
+                changedUris.add(ProviderContract.Books.ContentUri.books());
+                break;
 
-        if (id == 0) {
-            ContentValues values = new ContentValues();
-            DbOrgTimestamp.toContentValues(values, orgDateTime);
+            case ProviderUris.NOTES_PROPERTIES:
+            case ProviderUris.NOTES_ID_PROPERTIES:
+                changedUris.add(ProviderContract.Notes.ContentUri.notes());
+                break;
 
-            id = db.insertOrThrow(DbOrgTimestamp.TABLE, null, values);
+            case ProviderUris.DB_RECREATE:
+                changedUris.add(ProviderContract.AUTHORITY_URI);
+                break;
         }
 
-        return id;
+        if (BookChanges.consume(db, changedUris)) {
+            updateChangedTimes(db);
+        }
+
+        return changedUris;
     }
 
-    private void notifyChange() {
-        Uri uri = ProviderContract.AUTHORITY_URI;
+    /**
+     * Expands agenda occurrences and computes reminders of notes whose times have changed,
+     * so that queries only select them. Must be called in the same transaction as the write.
+     */
+    private void updateChangedTimes(SQLiteDatabase db) {
+        DateTime now = new DateTime();
 
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, uri.toString());
-        getContext().getContentResolver().notifyChange(uri, null);
+        AgendaOccurrences.updateChanged(db, now);
+
+        ReminderTimes.update(db, now);
+    }
+
+    /**
+     * URI which is notified when data returned for {@code uri} changes.
+     */
+    private Uri getNotificationUri(Uri uri) {
+        switch (uris.matcher.match(uri)) {
+            case ProviderUris.LOCAL_DB_REPO:
+            case ProviderUris.REPOS:
+            case ProviderUris.REPOS_ID:
+                return ProviderContract.Repos.ContentUri.repos();
+
+            case ProviderUris.FILTERS:
+            case ProviderUris.FILTERS_ID:
+                return ProviderContract.Filters.ContentUri.filters();
+
+            case ProviderUris.BOOKS:
+            case ProviderUris.CURRENT_ROOKS:
+                return ProviderContract.Books.ContentUri.books();
+
+            case ProviderUris.BOOKS_ID:
+                return ProviderContract.Books.ContentUri.booksId(Long.parseLong(uri.getLastPathSegment()));
+
+            case ProviderUris.BOOKS_ID_NOTES:
+            case ProviderUris.BOOKS_ID_NOTES_PROPERTIES:
+                return ProviderContract.Books.ContentUri.booksIdNotes(Long.parseLong(uri.getPathSegments().get(1)));
+
+            case ProviderUris.NOTES:
+            case ProviderUris.NOTES_SEARCH_QUERIED:
+            case ProviderUris.NOTES_AGENDA_QUERIED:
+            case ProviderUris.NOTES_WITH_PROPERTY:
+            case ProviderUris.NOTES_ID_PROPERTIES:
+            case ProviderUris.NOTES_TAGS:
+                return ProviderContract.Notes.ContentUri.notes();
+
+            case ProviderUris.TIMES:
+            case ProviderUris.TIMES_REMINDERS:
+                return ProviderContract.Times.ContentUri.times();
+
+            default:
+                return ProviderContract.AUTHORITY_URI;
+        }
     }
 
     /**
@@ -7,6 +7,8 @@ import android.provider.BaseColumns;
 import com.orgzly.android.provider.models.DbBookColumns;
 import com.orgzly.android.provider.models.DbDbRepoColumns;
 import com.orgzly.android.provider.models.DbNoteColumns;
+import com.orgzly.android.provider.models.DbNoteTagColumns;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
 import com.orgzly.android.provider.models.DbRepoColumns;
 import com.orgzly.android.provider.models.DbSearchColumns;
 import com.orgzly.android.provider.views.DbBookViewColumns;
@@ -45,6 +47,24 @@ public class ProviderContract {
                 return booksId(bookId).buildUpon().appendPath("notes").build();
             }
 
+            /**
+             * Book's visible notes, returning at most {@code limit} rows.
+             */
+            public static Uri booksIdNotesLimited(long bookId, int limit) {
+                return booksIdNotes(bookId).buildUpon()
+                        .appendQueryParameter(Notes.Param.LIMIT, String.valueOf(limit)).build();
+            }
+
+            /**
+             * Book's visible notes positioned from {@code lft} to {@code rgt},
+             * i.e. a note and its visible descendants.
+             */
+            public static Uri booksIdNotesInRange(long bookId, long lft, long rgt) {
+                return booksIdNotes(bookId).buildUpon()
+                        .appendQueryParameter(Notes.Param.FROM_LFT, String.valueOf(lft))
+                        .appendQueryParameter(Notes.Param.TO_LFT, String.valueOf(rgt)).build();
+            }
+
 
             public static Uri booksIdCycleVisibility(long id) {
                 return ContentUris.withAppendedId(books(), id).buildUpon()
@@ -113,6 +133,7 @@ public class ProviderContract {
         interface MatcherUri {
             String NOTES_PROPERTIES = "notes/properties";
             String NOTES_ID_PROPERTIES = "notes/#/properties";
+            String BOOKS_ID_NOTES_PROPERTIES = "books/#/notes/properties";
         }
 
         class ContentUri {
@@ -127,6 +148,34 @@ public class ProviderContract {
                 builder = builder.appendPath("properties");
                 return builder.build();
             }
+
+            /**
+             * Properties of all book's notes, ordered by note's position in the book.
+             * Columns are note's ID, property name and property value.
+             */
+            public static Uri booksIdNotesProperties(long bookId) {
+                Uri.Builder builder = AUTHORITY_URI.buildUpon();
+                builder = builder.appendPath("books");
+                builder = ContentUris.appendId(builder, bookId);
+                builder = builder.appendPath("notes");
+                builder = builder.appendPath("properties");
+                return builder.build();
+            }
+        }
+    }
+
+    public interface NoteTags {
+        class Param implements DbNoteTagColumns {
+        }
+
+        interface MatcherUri {
+            String NOTES_TAGS = "notes/tags";
+        }
+
+        class ContentUri {
+            public static Uri notesTags() {
+                return Uri.withAppendedPath(AUTHORITY_URI, MatcherUri.NOTES_TAGS);
+            }
         }
     }
 
@@ -134,6 +183,9 @@ public class ProviderContract {
         class Param {
             public static final String PROPERTY_NAME = "property_name";
             public static final String PROPERTY_VALUE = "property_value";
+            public static final String LIMIT = "limit";
+            public static final String FROM_LFT = "from_lft";
+            public static final String TO_LFT = "to_lft";
         }
 
         class UpdateParam implements DbNoteColumns, BaseColumns {
@@ -147,6 +199,7 @@ public class ProviderContract {
         interface MatcherUri {
             String NOTES = "notes";
             String NOTES_SEARCH_QUERIED = NOTES + "/queried";
+            String NOTES_AGENDA_QUERIED = NOTES + "/agenda";
             String NOTES_STATE = NOTES + "/state";
             String NOTES_WITH_PROPERTY = NOTES + "/with-property";
             String NOTES_ID = NOTES + "/#";
@@ -165,6 +218,14 @@ public class ProviderContract {
                 return ContentUris.withAppendedId(notes(), id);
             }
 
+            /**
+             * Notes, returning at most {@code limit} rows.
+             */
+            public static Uri notesLimited(int limit) {
+                return notes().buildUpon()
+                        .appendQueryParameter(Param.LIMIT, String.valueOf(limit)).build();
+            }
+
             public static Uri notesWithProperty(String propName, String propValue) {
                 return Uri.withAppendedPath(AUTHORITY_URI, MatcherUri.NOTES_WITH_PROPERTY).buildUpon()
                         .appendQueryParameter(Param.PROPERTY_NAME, propName)
@@ -196,6 +257,13 @@ public class ProviderContract {
             public static Uri notesSearchQueried(String query) {
                 return notes().buildUpon().appendPath("queried").query(query).build();
             }
+
+            /**
+             * Notes matching the agenda query, repeated for each day they are displayed on.
+             */
+            public static Uri notesAgendaQueried(String query) {
+                return notes().buildUpon().appendPath("agenda").query(query).build();
+            }
         }
     }
 
@@ -291,6 +359,22 @@ public class ProviderContract {
         }
     }
 
+    public interface Undo {
+        class Param {
+            public static final String BOOK_ID = "book_id";
+        }
+
+        interface MatcherUri {
+            String UNDO = "undo";
+        }
+
+        class ContentUri {
+            public static Uri undo() {
+                return Uri.withAppendedPath(AUTHORITY_URI, "undo");
+            }
+        }
+    }
+
     public interface NotesState {
         class Param {
             public static final String NOTE_IDS = "note_ids";
@@ -442,9 +526,34 @@ public class ProviderContract {
         }
     }
 
+    /**
+     * Notes changed since the book was last exported.
+     */
+    public interface BookExportChanges {
+        interface MatcherUri {
+            String BOOKS_ID_EXPORT_CHANGES = "books/#/export_changes";
+        }
+
+        class ContentUri {
+            public static Uri booksIdExportChanges(long id) {
+                Uri.Builder builder = AUTHORITY_URI.buildUpon();
+                builder = builder.appendPath("books");
+                builder = ContentUris.appendId(builder, id);
+                builder = builder.appendPath("export_changes");
+                return builder.build();
+            }
+        }
+    }
+
     public interface Times {
+        class Param {
+            public static final String NOW = "now";
+            public static final String LIMIT = "limit";
+        }
+
         interface MatcherUri {
             String TIMES = "times";
+            String TIMES_REMINDERS = TIMES + "/reminders";
         }
 
         class ColumnIndex {
@@ -455,6 +564,10 @@ public class ProviderContract {
             public static final int NOTE_TITLE = 4;
             public static final int TIME_TYPE = 5;
             public static final int ORG_TIMESTAMP_STRING = 6;
+            public static final int ORG_TIMESTAMP_FIELDS = 7;
+
+            /* Reminders only, after the fields. */
+            public static final int FIRE_TIME = ORG_TIMESTAMP_FIELDS + DbOrgTimestamp.ORG_DATE_TIME_COLUMNS.length;
         }
 
         class ContentUri {
@@ -463,6 +576,21 @@ public class ProviderContract {
                         .buildUpon()
                         .build();
             }
+
+            /**
+             * Reminders of times. Updating it moves reminders fired by {@code now} to their next time.
+             */
+            public static Uri timesReminders(long now, String limit) {
+                Uri.Builder builder = Uri.withAppendedPath(AUTHORITY_URI, MatcherUri.TIMES_REMINDERS)
+                        .buildUpon()
+                        .appendQueryParameter(Param.NOW, String.valueOf(now));
+
+                if (limit != null) {
+                    builder.appendQueryParameter(Param.LIMIT, limit);
+                }
+
+                return builder.build();
+            }
         }
     }
 }
@@ -21,6 +21,7 @@ class ProviderUris {
         /* Notebooks. */
         matcher.addURI(ProviderContract.AUTHORITY, Books.MatcherUri.BOOKS_ID_NOTES, BOOKS_ID_NOTES);
         matcher.addURI(ProviderContract.AUTHORITY, BooksIdSaved.MatcherUri.BOOKS_ID_SAVED, BOOKS_ID_SAVED);
+        matcher.addURI(ProviderContract.AUTHORITY, BookExportChanges.MatcherUri.BOOKS_ID_EXPORT_CHANGES, BOOKS_ID_EXPORT_CHANGES);
         matcher.addURI(ProviderContract.AUTHORITY, Books.MatcherUri.BOOKS_ID_CYCLE_VISIBILITY, BOOKS_ID_CYCLE_VISIBILITY);
         matcher.addURI(ProviderContract.AUTHORITY, Books.MatcherUri.BOOKS_ID_SPARSE_TREE, BOOKS_ID_SPARSE_TREE);
         matcher.addURI(ProviderContract.AUTHORITY, Books.MatcherUri.BOOKS_ID, BOOKS_ID);
@@ -31,6 +32,7 @@ class ProviderUris {
         matcher.addURI(ProviderContract.AUTHORITY, CurrentRooks.MatcherUri.CURRENT_ROOKS, CURRENT_ROOKS);
 
         matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES_SEARCH_QUERIED, NOTES_SEARCH_QUERIED);
+        matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES_AGENDA_QUERIED, NOTES_AGENDA_QUERIED);
         matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES_WITH_PROPERTY, NOTES_WITH_PROPERTY);
         matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES_ID_ABOVE, NOTE_ABOVE);
         matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES_ID_UNDER, NOTE_UNDER);
@@ -41,7 +43,10 @@ class ProviderUris {
         matcher.addURI(ProviderContract.AUTHORITY, Notes.MatcherUri.NOTES, NOTES);
 
         matcher.addURI(ProviderContract.AUTHORITY, NoteProperties.MatcherUri.NOTES_PROPERTIES, NOTES_PROPERTIES);
+
+        matcher.addURI(ProviderContract.AUTHORITY, NoteTags.MatcherUri.NOTES_TAGS, NOTES_TAGS);
         matcher.addURI(ProviderContract.AUTHORITY, NoteProperties.MatcherUri.NOTES_ID_PROPERTIES, NOTES_ID_PROPERTIES);
+        matcher.addURI(ProviderContract.AUTHORITY, NoteProperties.MatcherUri.BOOKS_ID_NOTES_PROPERTIES, BOOKS_ID_NOTES_PROPERTIES);
 
         matcher.addURI(ProviderContract.AUTHORITY, LocalDbRepo.MatcherUri.DB_REPOS, LOCAL_DB_REPO);
 
@@ -54,9 +59,11 @@ class ProviderUris {
         matcher.addURI(ProviderContract.AUTHORITY, Promote.MatcherUri.PROMOTE, PROMOTE);
         matcher.addURI(ProviderContract.AUTHORITY, Demote.MatcherUri.DEMOTE, DEMOTE);
         matcher.addURI(ProviderContract.AUTHORITY, Move.MatcherUri.MOVE, MOVE);
+        matcher.addURI(ProviderContract.AUTHORITY, Undo.MatcherUri.UNDO, UNDO);
         matcher.addURI(ProviderContract.AUTHORITY, LoadBookFromFile.MatcherUri.LOAD_FROM_FILE, LOAD_BOOK_FROM_FILE);
 
         matcher.addURI(ProviderContract.AUTHORITY, Times.MatcherUri.TIMES, TIMES);
+        matcher.addURI(ProviderContract.AUTHORITY, Times.MatcherUri.TIMES_REMINDERS, TIMES_REMINDERS);
 
     }
 
@@ -96,4 +103,10 @@ class ProviderUris {
     static final int BOOKS_ID_SPARSE_TREE = 34;
     static final int TIMES = 35;
     static final int NOTES_WITH_PROPERTY = 36;
+    static final int NOTES_TAGS = 37;
+    static final int BOOKS_ID_NOTES_PROPERTIES = 38;
+    static final int UNDO = 39;
+    static final int NOTES_AGENDA_QUERIED = 40;
+    static final int TIMES_REMINDERS = 41;
+    static final int BOOKS_ID_EXPORT_CHANGES = 42;
 }
@@ -0,0 +1,197 @@
+package com.orgzly.android.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.android.provider.models.DbReminderTime;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.provider.views.DbReminderView;
+import com.orgzly.android.provider.views.DbTimeView;
+import com.orgzly.android.util.LogUtils;
+import com.orgzly.org.datetime.OrgDateTime;
+import com.orgzly.org.datetime.OrgDateTimeUtils;
+import com.orgzly.org.datetime.OrgInterval;
+
+import org.joda.time.DateTime;
+import org.joda.time.ReadableInstant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps {@link DbReminderTime} up to date, so the next reminder
+ * can be found using the index, without going through all times.
+ *
+ * Fire times are computed for notes marked by triggers as changed, in the same
+ * transaction as the write, and for reminders which have fired, as their next
+ * time depends on now.
+ */
+public class ReminderTimes {
+    private static final String TAG = ReminderTimes.class.getName();
+
+    /** Time of day used for times without one. */
+    private static final OrgInterval DEFAULT_TIME = new OrgInterval(9, OrgInterval.Unit.HOUR);
+
+    /** Warning period for deadlines. */
+    private static final OrgInterval WARNING_PERIOD = new OrgInterval(1, OrgInterval.Unit.DAY);
+
+    private static final String WHERE_PENDING =
+            DbNote._ID + " IN (SELECT " + DbReminderTime.NOTE_ID + " FROM " + DbReminderTime.TABLE +
+            " WHERE " + DbReminderTime.TIME_TYPE + " = " + DbReminderTime.PENDING + ")";
+
+    /* Columns of each time type. */
+    private static final int[] TIME_TYPES = { DbTimeView.SCHEDULED_TIME, DbTimeView.DEADLINE_TIME };
+    private static final String[] STRING_COLUMNS = { DbNoteView.SCHEDULED_TIME_STRING, DbNoteView.DEADLINE_TIME_STRING };
+    private static final String[] FIELDS_PREFIXES = { DbNoteView.SCHEDULED_START_PREFIX, DbNoteView.DEADLINE_START_PREFIX };
+
+    /**
+     * Computes the first reminder after {@code now} for notes whose times have changed.
+     *
+     * @return number of notes computed
+     */
+    public static int update(SQLiteDatabase db, ReadableInstant now) {
+        List<String> projection = new ArrayList<>();
+        projection.add(DbNote._ID);
+
+        /* String followed by the fields. */
+        int[] stringColumns = new int[TIME_TYPES.length];
+        int[] fieldColumns = new int[TIME_TYPES.length];
+
+        for (int i = 0; i < TIME_TYPES.length; i++) {
+            stringColumns[i] = projection.size();
+            projection.add(STRING_COLUMNS[i]);
+
+            fieldColumns[i] = projection.size();
+            projection.addAll(Arrays.asList(DbOrgTimestamp.orgDateTimeColumns(FIELDS_PREFIXES[i])));
+        }
+
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO " + DbReminderTime.TABLE +
+                " (" + DbReminderTime.NOTE_ID + ", " + DbReminderTime.TIME_TYPE + ", " + DbReminderTime.FIRE_TIME + ")" +
+                " VALUES (?, ?, ?)");
+
+        int count = 0;
+
+        Cursor cursor = db.query(
+                DbNoteView.VIEW_NAME,
+                projection.toArray(new String[projection.size()]),
+                WHERE_PENDING,
+                null,
+                null,
+                null,
+                null);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long noteId = cursor.getLong(0);
+
+                for (int i = 0; i < TIME_TYPES.length; i++) {
+                    OrgDateTime time = DbOrgTimestamp.toOrgDateTime(cursor, stringColumns[i], fieldColumns[i]);
+
+                    if (time == null || !time.isActive()) {
+                        continue;
+                    }
+
+                    DateTime fireTime = getFireTime(TIME_TYPES[i], time, now);
+
+                    insert.bindLong(1, noteId);
+                    insert.bindLong(2, TIME_TYPES[i]);
+                    bindFireTime(insert, 3, fireTime);
+                    insert.executeInsert();
+                }
+
+                count++;
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        if (count > 0) {
+            db.delete(DbReminderTime.TABLE, DbReminderTime.TIME_TYPE + " = " + DbReminderTime.PENDING, null);
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Computed reminders of " + count + " changed notes");
+        }
+
+        return count;
+    }
+
+    /**
+     * Moves reminders which fired at or before {@code now} to their next time.
+     *
+     * @return number of reminders moved
+     */
+    public static int reschedule(SQLiteDatabase db, ReadableInstant now) {
+        String[] projection = new String[2 + 1 + DbOrgTimestamp.ORG_DATE_TIME_COLUMNS.length];
+        projection[0] = DbReminderView.NOTE_ID;
+        projection[1] = DbReminderView.TIME_TYPE;
+        projection[2] = DbReminderView.ORG_TIMESTAMP_STRING;
+        System.arraycopy(
+                DbOrgTimestamp.orgDateTimeColumns(DbReminderView.ORG_TIMESTAMP_PREFIX), 0,
+                projection, 3,
+                DbOrgTimestamp.ORG_DATE_TIME_COLUMNS.length);
+
+        /* Reminder which fired exactly now must not be found again. */
+        DateTime after = new DateTime(now.getMillis() + 1);
+
+        SQLiteStatement update = db.compileStatement(
+                "UPDATE " + DbReminderTime.TABLE + " SET " + DbReminderTime.FIRE_TIME + " = ?" +
+                " WHERE " + DbReminderTime.NOTE_ID + " = ? AND " + DbReminderTime.TIME_TYPE + " = ?");
+
+        int count = 0;
+
+        Cursor cursor = db.query(
+                DbReminderView.VIEW_NAME,
+                projection,
+                DbReminderView.FIRE_TIME + " <= " + now.getMillis(),
+                null,
+                null,
+                null,
+                null);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long noteId = cursor.getLong(0);
+                int timeType = cursor.getInt(1);
+
+                OrgDateTime time = DbOrgTimestamp.toOrgDateTime(cursor, 2, 3);
+
+                DateTime fireTime = getFireTime(timeType, time, after);
+
+                bindFireTime(update, 1, fireTime);
+                update.bindLong(2, noteId);
+                update.bindLong(3, timeType);
+                update.executeUpdateDelete();
+
+                count++;
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Rescheduled " + count + " reminders fired before " + now);
+
+        return count;
+    }
+
+    /**
+     * @return first time of the reminder at or after {@code from}, or null if there is none
+     */
+    private static DateTime getFireTime(int timeType, OrgDateTime time, ReadableInstant from) {
+        return OrgDateTimeUtils.getFirstWarningTime(timeType, time, from, null, DEFAULT_TIME, WARNING_PERIOD);
+    }
+
+    private static void bindFireTime(SQLiteStatement statement, int index, DateTime fireTime) {
+        if (fireTime != null) {
+            statement.bindLong(index, fireTime.getMillis());
+        } else {
+            statement.bindNull(index);
+        }
+    }
+}
@@ -5,5 +5,9 @@ import android.database.sqlite.SQLiteDatabase;
 public interface Action {
     int run(SQLiteDatabase db);
 
-    void undo();
+    /**
+     * Whether changes made by the action are recorded, so they can be undone.
+     * See {@link UndoJournal}.
+     */
+    boolean isUndoable();
 }
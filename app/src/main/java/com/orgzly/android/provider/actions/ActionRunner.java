@@ -6,7 +6,8 @@ import com.orgzly.BuildConfig;
 import com.orgzly.android.util.LogUtils;
 
 /**
- * TODO: Encode action and save it to support undo.
+ * Runs actions, recording changes made by undoable ones in {@link UndoJournal}.
+ * Expected to be called inside a transaction.
  */
 public class ActionRunner {
     private static final String TAG = ActionRunner.class.getName();
@@ -16,7 +17,15 @@ public class ActionRunner {
 
         long t = System.currentTimeMillis();
 
-        result = action.run(db);
+        if (action.isUndoable()) {
+            /* If action fails, transaction is rolled back together with the journal entry. */
+            long entryId = UndoJournal.begin(db, action);
+            result = action.run(db);
+            UndoJournal.end(db, entryId);
+
+        } else {
+            result = action.run(db);
+        }
 
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, action.getClass() + ": " + (System.currentTimeMillis() - t) + "ms");
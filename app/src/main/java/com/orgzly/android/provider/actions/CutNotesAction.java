@@ -16,7 +16,7 @@ import com.orgzly.android.util.LogUtils;
  * Notes are cut by setting the flag to the current time in ms.
  */
 public class CutNotesAction implements Action {
-    private long bookId;
+    protected long bookId;
     private String ids;
 
     protected long batchId;
@@ -55,6 +55,7 @@ public class CutNotesAction implements Action {
     }
 
     @Override
-    public void undo() {
+    public boolean isUndoable() {
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -70,7 +70,7 @@ public class CycleVisibilityAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return false;
     }
 }
@@ -20,10 +20,14 @@ public class DeleteNotesAction extends CutNotesAction {
 
         db.execSQL("DELETE FROM " + DbNote.TABLE + " WHERE " + DbNote.IS_CUT + " = " + batchId);
 
+        /* Deleted notes cannot be restored. */
+        UndoJournal.clear(db, bookId);
+
         return result;
     }
 
     @Override
-    public void undo() {
+    public boolean isUndoable() {
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -81,7 +81,7 @@ public class DemoteNotesAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return true;
     }
 }
@@ -109,7 +109,7 @@ public class MoveNotesAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -4,15 +4,20 @@ package com.orgzly.android.provider.actions;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import com.orgzly.android.NotePosition;
-import com.orgzly.android.provider.GenericDatabaseUtils;
 import com.orgzly.android.provider.DatabaseUtils;
 import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.provider.models.DbNote;
 import com.orgzly.android.provider.models.DbNoteAncestor;
 import com.orgzly.android.ui.Place;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 
 public class PasteNotesAction implements Action {
     private static final String TAG = PasteNotesAction.class.getName();
@@ -30,21 +35,19 @@ public class PasteNotesAction implements Action {
     @Override
     public int run(SQLiteDatabase db) {
         long batchMinLft;
-        long batchMaxRgt;
         long batchMinLevel;
         long foldedUnder = 0;
 
         Cursor cursor = db.query(
                 DbNote.TABLE,
-                new String[] { "min(" + DbNote.LFT + ")", "max(" + DbNote.RGT + ")", "min(" + DbNote.LEVEL + ")" },
+                new String[] { "min(" + DbNote.LFT + ")", "min(" + DbNote.LEVEL + ")" },
                 DbNote.IS_CUT + " = " + batchId,
                 null, null, null, null);
 
         try {
             if (cursor.moveToFirst()) {
                 batchMinLft = cursor.getLong(0);
-                batchMaxRgt = cursor.getLong(1);
-                batchMinLevel = cursor.getLong(2);
+                batchMinLevel = cursor.getLong(1);
             } else {
                 return 0;
             }
@@ -55,7 +58,13 @@ public class PasteNotesAction implements Action {
 
         NotePosition targetNotePosition = DbNote.getPosition(db, targetNoteId);
 
-        long pastedLft, pastedLevel, pastedParentId;
+        long bookId = targetNotePosition.getBookId();
+
+        /* Batch is placed after this position. */
+        long pastedAfter;
+        boolean pastedAtEnd = false;
+
+        long pastedLevel, pastedParentId;
 
         /* If target note is hidden, hide pasted under the same note. */
         if (targetNotePosition.getFoldedUnderId() != 0) {
@@ -64,7 +73,8 @@ public class PasteNotesAction implements Action {
 
         switch (place) {
             case ABOVE:
-                pastedLft = targetNotePosition.getLft();
+                pastedAfter = DatabaseUtils.getPreviousPosition(db, bookId, targetNotePosition.getLft());
+                pastedAtEnd = true;
                 pastedLevel = targetNotePosition.getLevel();
                 pastedParentId = targetNotePosition.getParentId();
                 break;
@@ -74,12 +84,12 @@ public class PasteNotesAction implements Action {
 
                 if (lastHighestLevelDescendant != null) {
                     /* Insert batch after last descendant with highest level. */
-                    pastedLft = lastHighestLevelDescendant.getRgt() + 1;
+                    pastedAfter = lastHighestLevelDescendant.getRgt();
                     pastedLevel = lastHighestLevelDescendant.getLevel();
 
                 } else {
                     /* Insert batch just under the target note. */
-                    pastedLft = targetNotePosition.getLft() + 1;
+                    pastedAfter = targetNotePosition.getLft();
                     pastedLevel = targetNotePosition.getLevel() + 1;
                 }
 
@@ -92,7 +102,7 @@ public class PasteNotesAction implements Action {
                 break;
 
             case BELOW:
-                pastedLft = targetNotePosition.getRgt() + 1;
+                pastedAfter = targetNotePosition.getRgt();
                 pastedLevel = targetNotePosition.getLevel();
                 pastedParentId = targetNotePosition.getParentId();
                 break;
@@ -101,32 +111,8 @@ public class PasteNotesAction implements Action {
                 throw new IllegalArgumentException("Unsupported place for paste: " + place);
         }
 
-        int positionsRequired = (int) (batchMaxRgt - batchMinLft + 1);
-        long positionOffset = pastedLft - batchMinLft;
         long levelOffset = pastedLevel - batchMinLevel;
 
-
-        /*
-         * Make space for new notes incrementing lft and rgt.
-         * FIXME: This could be slow.
-         */
-
-        String bookSelection = DatabaseUtils.whereUncutBookNotes(targetNotePosition.getBookId());
-
-        GenericDatabaseUtils.incrementFields(
-                db,
-                DbNote.TABLE,
-                bookSelection + " AND " + DbNote.LFT + " >= " + pastedLft,
-                positionsRequired,
-                ProviderContract.Notes.UpdateParam.LFT);
-
-        GenericDatabaseUtils.incrementFields(
-                db,
-                DbNote.TABLE,
-                "(" + bookSelection + " AND " + DbNote.RGT + " >= " + pastedLft + ") OR " + DbNote.LEVEL + " = 0",
-                positionsRequired,
-                ProviderContract.Notes.UpdateParam.RGT);
-
         /* Make sure batch has no no FOLDED_UNDER_ID IDs which do not belong to the batch itself. */
         db.execSQL("UPDATE " + DbNote.TABLE + " SET " + DbNote.FOLDED_UNDER_ID + " = 0 WHERE " +
                    DbNote.IS_CUT + " = " + batchId + " AND " +
@@ -150,10 +136,10 @@ public class PasteNotesAction implements Action {
 
 
         /* Move batch to the new position. */
-        String set = DbNote.LFT + " = " + DbNote.LFT + " + " + positionOffset + ", " +
-                     DbNote.RGT + " = " + DbNote.RGT + " + " + positionOffset + ", " +
-                     DbNote.LEVEL + " = " + DbNote.LEVEL + " + " + levelOffset + ", " +
-                     DbNote.BOOK_ID + "= " + targetNotePosition.getBookId();
+        renumberBatch(db, bookId, pastedAfter, pastedAtEnd);
+
+        String set = DbNote.LEVEL + " = " + DbNote.LEVEL + " + " + levelOffset + ", " +
+                     DbNote.BOOK_ID + "= " + bookId;
         String sql = "UPDATE " + DbNote.TABLE + " SET " + set + " WHERE " + DbNote.IS_CUT + " = " + batchId;
         db.execSQL(sql);
 
@@ -167,21 +153,78 @@ public class PasteNotesAction implements Action {
                    "WHERE n." + DbNote.IS_CUT + " = " + batchId + "  AND " +
                    "a." + DbNote.LEVEL + " > 0");
 
+        /* Inherited tags of the batch depend on its new ancestors. */
+        DatabaseUtils.updateInheritedTags(db, DbNote.IS_CUT + " = " + batchId, null);
+
         /* Make the batch visible. */
         db.execSQL("UPDATE " + DbNote.TABLE + " SET " + DbNote.IS_CUT  + " = 0 WHERE " + DbNote.IS_CUT + " = " + batchId);
 
         /* Update number of descendants for ancestors and the note itself. */
-        String where = DatabaseUtils.whereAncestorsAndNote(targetNotePosition.getBookId(), targetNoteId);
+        String where = DatabaseUtils.whereAncestorsAndNote(bookId, targetNoteId);
         DatabaseUtils.updateDescendantsCount(db, where);
 
         /* Delete other batches. */
         db.execSQL("DELETE FROM " + DbNote.TABLE + " WHERE " + DbNote.IS_CUT + " != 0");
 
-        DatabaseUtils.updateBookMtime(db, targetNotePosition.getBookId());
+        DatabaseUtils.updateBookMtime(db, bookId);
 
         return 0;
     }
 
+    /**
+     * Gives the batch's notes unused positions after {@code pastedAfter}, keeping their order.
+     *
+     * Batch keeps none of its old gaps, so it fits into the gap at the target whenever
+     * there is room for its positions. Notes of the book are moved only if there is not.
+     * Only the batch's own notes are updated, so the cost does not depend on the book's size.
+     */
+    private void renumberBatch(SQLiteDatabase db, long bookId, long pastedAfter, boolean pastedAtEnd) {
+        /* Positions of the batch in order, with notes they belong to. */
+        List<long[]> positions = new ArrayList<>();
+
+        Cursor cursor = db.query(
+                DbNote.TABLE,
+                new String[] { DbNote._ID, DbNote.LFT, DbNote.RGT },
+                DbNote.IS_CUT + " = " + batchId,
+                null, null, null, null);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                positions.add(new long[] { cursor.getLong(1), cursor.getLong(0), 0 });
+                positions.add(new long[] { cursor.getLong(2), cursor.getLong(0), 1 });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(positions, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        long[] free = DatabaseUtils.getFreePositions(db, bookId, pastedAfter, positions.size(), pastedAtEnd);
+
+        SQLiteStatement updateLft = db.compileStatement(
+                "UPDATE " + DbNote.TABLE + " SET " + DbNote.LFT + " = ? WHERE " + DbNote._ID + " = ?");
+        SQLiteStatement updateRgt = db.compileStatement(
+                "UPDATE " + DbNote.TABLE + " SET " + DbNote.RGT + " = ? WHERE " + DbNote._ID + " = ?");
+
+        try {
+            for (int i = 0; i < free.length; i++) {
+                SQLiteStatement update = positions.get(i)[2] == 0 ? updateLft : updateRgt;
+
+                update.bindLong(1, free[i]);
+                update.bindLong(2, positions.get(i)[1]);
+                update.executeUpdateDelete();
+            }
+        } finally {
+            updateLft.close();
+            updateRgt.close();
+        }
+    }
+
     private NotePosition getLastHighestLevelDescendant(SQLiteDatabase db, NotePosition note) {
         NotePosition position = null;
 
@@ -203,7 +246,7 @@ public class PasteNotesAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -47,7 +47,7 @@ public class SparseTreeAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return false;
     }
 }
@@ -100,7 +100,7 @@ public class ToggleFoldedStateAction implements Action {
     }
 
     @Override
-    public void undo() {
-
+    public boolean isUndoable() {
+        return false;
     }
 }
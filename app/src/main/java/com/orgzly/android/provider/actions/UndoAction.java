@@ -0,0 +1,27 @@
+package com.orgzly.android.provider.actions;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.orgzly.android.provider.ProviderContract;
+
+/**
+ * Undoes the latest undoable action in the book and returns the number of notes restored.
+ */
+public class UndoAction implements Action {
+    private long bookId;
+
+    public UndoAction(ContentValues values) {
+        bookId = values.getAsLong(ProviderContract.Undo.Param.BOOK_ID);
+    }
+
+    @Override
+    public int run(SQLiteDatabase db) {
+        return UndoJournal.undo(db, bookId);
+    }
+
+    @Override
+    public boolean isUndoable() {
+        return false;
+    }
+}
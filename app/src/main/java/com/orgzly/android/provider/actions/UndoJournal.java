@@ -0,0 +1,274 @@
+package com.orgzly.android.provider.actions;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.DatabaseUtils;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbNoteAncestor;
+import com.orgzly.android.provider.models.DbUndoEntry;
+import com.orgzly.android.provider.models.DbUndoNote;
+import com.orgzly.android.util.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal of undoable actions.
+ *
+ * While an action is running, a temporary trigger records before-images of all notes
+ * whose position, folding or cut state changes. Undoing the latest action writes those
+ * values back and rebuilds everything derived from them.
+ *
+ * Journal is limited to {@link #MAX_ENTRIES} actions and {@link #MAX_NOTES} recorded notes,
+ * the oldest actions are evicted first.
+ */
+public class UndoJournal {
+    private static final String TAG = UndoJournal.class.getName();
+
+    public static final int MAX_ENTRIES = 20;
+    public static final int MAX_NOTES = 20000;
+
+    private static final String TRIGGER = "t_" + DbUndoNote.TABLE + "_au";
+
+    /**
+     * Starts recording changes made to notes.
+     *
+     * @return ID of the new journal entry
+     */
+    public static long begin(SQLiteDatabase db, Action action) {
+        ContentValues values = new ContentValues();
+        values.put(DbUndoEntry.ACTION, action.getClass().getSimpleName());
+        values.put(DbUndoEntry.CREATED_AT, System.currentTimeMillis());
+
+        long entryId = db.insertOrThrow(DbUndoEntry.TABLE, null, values);
+
+        List<String> changed = new ArrayList<>();
+        List<String> old = new ArrayList<>();
+        for (String column: DbUndoNote.NOTE_COLUMNS) {
+            changed.add("old." + column + " IS NOT new." + column);
+            old.add("old." + column);
+        }
+
+        String columns = TextUtils.join(", ", DbUndoNote.NOTE_COLUMNS);
+
+        /*
+         * Entry ID is part of the trigger, which exists only while the action is running.
+         * INSERT OR IGNORE keeps the first image of the note, from before the action.
+         */
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER);
+        db.execSQL("CREATE TEMP TRIGGER " + TRIGGER +
+                   " AFTER UPDATE OF " + columns + " ON " + DbNote.TABLE +
+                   " WHEN " + TextUtils.join(" OR ", changed) + " BEGIN " +
+                   "INSERT OR IGNORE INTO " + DbUndoNote.TABLE +
+                   " (" + DbUndoNote.ENTRY_ID + ", " + DbUndoNote.NOTE_ID + ", " + columns + ")" +
+                   " VALUES (" + entryId + ", old." + DbNote._ID + ", " + TextUtils.join(", ", old) + "); " +
+                   "END");
+
+        return entryId;
+    }
+
+    /**
+     * Stops recording changes and evicts old entries if journal is too large.
+     */
+    public static void end(SQLiteDatabase db, long entryId) {
+        db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER);
+
+        long count = android.database.DatabaseUtils.queryNumEntries(
+                db, DbUndoNote.TABLE, DbUndoNote.ENTRY_ID + " = " + entryId);
+
+        if (count == 0) { /* Nothing to undo. */
+            db.delete(DbUndoEntry.TABLE, DbUndoEntry._ID + " = " + entryId, null);
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Recorded " + count + " notes for entry " + entryId);
+
+        evict(db);
+    }
+
+    /**
+     * Restores notes to their state before the latest action recorded in the book.
+     *
+     * Action can also involve other books (notes pasted from one book to another).
+     * It is not undone if any of those books has been changed by a later action,
+     * as that action would have to be undone first.
+     *
+     * @return number of notes restored, 0 if there is nothing to undo
+     */
+    public static int undo(SQLiteDatabase db, long bookId) {
+        long entryId = DatabaseUtils.getId(db, DbUndoEntry.TABLE,
+                DbUndoEntry._ID + " = (SELECT MAX(" + DbUndoNote.ENTRY_ID + ") FROM " + DbUndoNote.TABLE +
+                " WHERE " + inBooks(String.valueOf(bookId)) + ")", null);
+
+        if (entryId == 0) {
+            return 0;
+        }
+
+        String restored = "(SELECT " + DbUndoNote.NOTE_ID + " FROM " + DbUndoNote.TABLE +
+                          " WHERE " + DbUndoNote.ENTRY_ID + " = " + entryId + ")";
+
+        /* Books before and after the action. */
+        List<Long> bookIds = new ArrayList<>();
+        Cursor cursor = db.rawQuery(
+                "SELECT " + DbUndoNote.TABLE + "." + DbNote.BOOK_ID + " FROM " + DbUndoNote.TABLE +
+                " WHERE " + DbUndoNote.ENTRY_ID + " = " + entryId +
+                " UNION SELECT " + DbNote.BOOK_ID + " FROM " + DbNote.TABLE +
+                " WHERE " + DbNote._ID + " IN " + restored, null);
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                bookIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        String books = TextUtils.join(",", bookIds);
+
+        if (android.database.DatabaseUtils.queryNumEntries(db, DbUndoNote.TABLE,
+                DbUndoNote.ENTRY_ID + " > " + entryId + " AND " + inBooks(books)) > 0) {
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Entry " + entryId + " is followed by entries in books " + books);
+
+            return 0;
+        }
+
+        /* Write back before-images. */
+        List<String> set = new ArrayList<>();
+        for (String column: DbUndoNote.NOTE_COLUMNS) {
+            set.add(column + " = (SELECT u." + column + " FROM " + DbUndoNote.TABLE + " u" +
+                    " WHERE u." + DbUndoNote.ENTRY_ID + " = " + entryId +
+                    " AND u." + DbUndoNote.NOTE_ID + " = " + DbNote.TABLE + "." + DbNote._ID + ")");
+        }
+
+        String where = DbNote._ID + " IN " + restored;
+
+        /* Notes deleted since the action are gone for good. */
+        int result = (int) android.database.DatabaseUtils.queryNumEntries(db, DbNote.TABLE, where);
+
+        db.execSQL("UPDATE " + DbNote.TABLE + " SET " + TextUtils.join(", ", set) + " WHERE " + where);
+
+        /* Rebuild ancestors of restored notes. Cut notes have none. */
+        db.execSQL("DELETE FROM " + DbNoteAncestor.TABLE + " WHERE " + DbNoteAncestor.NOTE_ID + " IN " + restored);
+
+        db.execSQL("INSERT INTO " + DbNoteAncestor.TABLE +
+                   " (" + DbNoteAncestor.BOOK_ID + ", " + DbNoteAncestor.NOTE_ID + ", " + DbNoteAncestor.ANCESTOR_NOTE_ID + ") " +
+                   "SELECT n." + DbNote.BOOK_ID + ", n." + DbNote._ID + ", a." + DbNote._ID + " FROM " + DbNote.TABLE + " n " +
+                   " JOIN " + DbNote.TABLE + " a ON (n." + DbNote.BOOK_ID + " = a." + DbNote.BOOK_ID +
+                   " AND a." + DbNote.LFT + " < n." + DbNote.LFT +
+                   " AND n." + DbNote.RGT + " < a." + DbNote.RGT +
+                   " AND a." + DbNote.IS_CUT + " = 0) " +
+                   "WHERE n." + DbNote._ID + " IN " + restored + " AND " +
+                   "n." + DbNote.IS_CUT + " = 0 AND " +
+                   "a." + DbNote.LEVEL + " > 0");
+
+        DatabaseUtils.updateInheritedTags(db, where, null);
+
+        /* Counted again, as some of the descendants could have been deleted since. */
+        DatabaseUtils.updateDescendantsCount(db, where + " AND " + DbNote.IS_CUT + " = 0");
+
+        for (long bookId: bookIds) {
+            DatabaseUtils.updateBookMtime(db, bookId);
+        }
+
+        delete(db, DbUndoEntry._ID + " = " + entryId);
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Undone entry " + entryId + ", restored " + result + " notes");
+
+        return result;
+    }
+
+    /**
+     * Forgets all actions which modified notes of the book.
+     *
+     * Used after the book is changed in a way which is not recorded
+     * (notes created, deleted or the book reloaded), as the recorded positions
+     * could then conflict with the current ones.
+     */
+    public static void clear(SQLiteDatabase db, long bookId) {
+        delete(db, DbUndoEntry._ID + " IN (" +
+                   "SELECT " + DbUndoNote.ENTRY_ID + " FROM " + DbUndoNote.TABLE +
+                   " WHERE " + inBooks(String.valueOf(bookId)) + ")");
+    }
+
+    /* Recorded notes which were or are now in one of the books. */
+    private static String inBooks(String bookIds) {
+        return "(" + DbUndoNote.TABLE + "." + DbNote.BOOK_ID + " IN (" + bookIds + ")" +
+               " OR " + DbUndoNote.NOTE_ID + " IN (SELECT " + DbNote._ID + " FROM " + DbNote.TABLE +
+               " WHERE " + DbNote.BOOK_ID + " IN (" + bookIds + ")))";
+    }
+
+    /**
+     * Keeps the latest {@link #MAX_ENTRIES} entries, as long as they have
+     * no more then {@link #MAX_NOTES} notes recorded in total.
+     */
+    private static void evict(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(
+                "SELECT e." + DbUndoEntry._ID + ", COUNT(u." + DbUndoNote.NOTE_ID + ")" +
+                " FROM " + DbUndoEntry.TABLE + " e" +
+                " LEFT JOIN " + DbUndoNote.TABLE + " u ON (u." + DbUndoNote.ENTRY_ID + " = e." + DbUndoEntry._ID + ")" +
+                " GROUP BY e." + DbUndoEntry._ID +
+                " ORDER BY e." + DbUndoEntry._ID + " DESC", null);
+
+        long keepFromId = 0;
+
+        try {
+            int entries = 0;
+            long notes = 0;
+
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                entries++;
+                notes += cursor.getLong(1);
+
+                if (entries > MAX_ENTRIES || notes > MAX_NOTES) {
+                    break;
+                }
+
+                keepFromId = cursor.getLong(0);
+            }
+
+            if (cursor.isAfterLast()) { /* Everything fits. */
+                return;
+            }
+
+        } finally {
+            cursor.close();
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Evicting entries older then " + keepFromId);
+
+        if (keepFromId == 0) { /* Even the latest entry is too large. */
+            delete(db, null);
+        } else {
+            delete(db, DbUndoEntry._ID + " < " + keepFromId);
+        }
+    }
+
+    private static void delete(SQLiteDatabase db, String entriesSelection) {
+        if (entriesSelection == null) {
+            db.delete(DbUndoNote.TABLE, null, null);
+            db.delete(DbUndoEntry.TABLE, null, null);
+            return;
+        }
+
+        /* Selection can depend on recorded notes, get IDs before deleting anything. */
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.query(DbUndoEntry.TABLE, DatabaseUtils.PROJECTION_FOR_ID, entriesSelection, null, null, null, null);
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (!ids.isEmpty()) {
+            String in = " IN (" + TextUtils.join(",", ids) + ")";
+
+            db.delete(DbUndoNote.TABLE, DbUndoNote.ENTRY_ID + in, null);
+            db.delete(DbUndoEntry.TABLE, DbUndoEntry._ID + in, null);
+        }
+    }
+}
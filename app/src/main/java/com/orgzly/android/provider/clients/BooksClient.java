@@ -1,10 +1,15 @@
 package com.orgzly.android.provider.clients;
 
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.TextUtils;
@@ -14,8 +19,10 @@ import com.orgzly.android.Book;
 import com.orgzly.android.BookAction;
 import com.orgzly.android.BookName;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.provider.Provider;
 import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.provider.actions.SparseTreeAction;
+import com.orgzly.android.provider.models.DbNoteExportChange;
 import com.orgzly.android.provider.views.DbBookView;
 import com.orgzly.android.repos.Rook;
 import com.orgzly.android.repos.VersionedRook;
@@ -24,7 +31,10 @@ import com.orgzly.org.OrgFileSettings;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -239,6 +249,34 @@ public class BooksClient {
      * Stores synchronization message to database, prepended with current time.
      */
     public static int updateStatus(Context context, long bookId, String status, BookAction action) {
+        ContentValues values = statusToContentValues(status, action);
+
+        return context.getContentResolver().update(ContentUris.withAppendedId(ProviderContract.Books.ContentUri.books(), bookId), values, null, null);
+    }
+
+    /**
+     * Updates status of multiple books in a single transaction.
+     */
+    public static void updateStatuses(Context context, Collection<Long> bookIds, String status, BookAction action) {
+        ContentValues values = statusToContentValues(status, action);
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+
+        for (long bookId: bookIds) {
+            ops.add(ContentProviderOperation
+                    .newUpdate(ContentUris.withAppendedId(ProviderContract.Books.ContentUri.books(), bookId))
+                    .withValues(values)
+                    .build());
+        }
+
+        try {
+            context.getContentResolver().applyBatch(ProviderContract.AUTHORITY, ops);
+        } catch (RemoteException | OperationApplicationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ContentValues statusToContentValues(String status, BookAction action) {
         ContentValues values = new ContentValues();
 
         // TODO: Do we even need status in DB? Is it used except for tests?
@@ -252,7 +290,7 @@ public class BooksClient {
         values.put(ProviderContract.Books.Param.LAST_ACTION_TIMESTAMP, action.getTimestamp());
         values.put(ProviderContract.Books.Param.LAST_ACTION_TYPE, action.getType().toString());
 
-        return context.getContentResolver().update(ContentUris.withAppendedId(ProviderContract.Books.ContentUri.books(), bookId), values, null, null);
+        return values;
     }
 
     public static int updateSettings(Context context, Book book) {
@@ -326,6 +364,38 @@ public class BooksClient {
         }
     }
 
+    /**
+     * Loads book from the stream without copying it to a file first.
+     * Content provider must be running in the same process for the stream to be passed to it.
+     *
+     * @return URI of the loaded book or null if content provider is not local
+     * and stream has not been read
+     */
+    public static Uri loadFromStream(Context context, String name, BookName.Format format, InputStream in, VersionedRook vrook, String selectedEncoding) throws IOException {
+        ContentProviderClient client = context.getContentResolver().acquireContentProviderClient(ProviderContract.AUTHORITY);
+
+        if (client == null) {
+            return null;
+        }
+
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+
+            if (!(provider instanceof Provider)) {
+                return null;
+            }
+
+            try {
+                return ((Provider) provider).loadBookFromStream(name, format.toString(), in, vrook, selectedEncoding);
+            } catch (IOException | IllegalArgumentException e) {
+                throw ExceptionUtils.IOException(e, "Failed loading book " + name);
+            }
+
+        } finally {
+            client.release();
+        }
+    }
+
     public static void saved(Context context, long id, VersionedRook uploadedBook) {
         ContentValues values = new ContentValues();
         values.put(ProviderContract.BooksIdSaved.Param.REPO_URL, uploadedBook.getRepoUri().toString());
@@ -336,6 +406,75 @@ public class BooksClient {
         context.getContentResolver().insert(ProviderContract.BooksIdSaved.ContentUri.booksIdSaved(id), values);
     }
 
+    /**
+     * Notes changed since the book was last exported.
+     * Reading is recorded, so that notes moved from now on are recorded again.
+     */
+    public static ExportChanges getExportChanges(Context context, long bookId) {
+        ExportChanges changes = new ExportChanges();
+
+        Uri uri = ProviderContract.BookExportChanges.ContentUri.booksIdExportChanges(bookId);
+
+        context.getContentResolver().insert(uri, new ContentValues());
+
+        Cursor cursor = context.getContentResolver().query(
+                uri,
+                new String[] { DbNoteExportChange._ID, DbNoteExportChange.NOTE_ID },
+                null,
+                null,
+                null);
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                long noteId = cursor.getLong(1);
+
+                if (noteId == DbNoteExportChange.STRUCTURE) {
+                    changes.isStructureChanged = true;
+                } else if (noteId != DbNoteExportChange.READ) {
+                    changes.noteIds.add(noteId);
+                }
+
+                changes.lastChangeId = Math.max(changes.lastChangeId, id);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return changes;
+    }
+
+    /**
+     * Removes changes up to (and including) {@code lastChangeId}, once they have been exported.
+     * Changes made while exporting are kept.
+     */
+    public static int deleteExportChanges(Context context, long bookId, long lastChangeId) {
+        return context.getContentResolver().delete(
+                ProviderContract.BookExportChanges.ContentUri.booksIdExportChanges(bookId),
+                DbNoteExportChange._ID + " <= " + lastChangeId,
+                null);
+    }
+
+    public static class ExportChanges {
+        private final Set<Long> noteIds = new HashSet<>();
+        private boolean isStructureChanged = false;
+        private long lastChangeId = 0;
+
+        /** IDs of notes whose text changed. */
+        public Set<Long> getNoteIds() {
+            return noteIds;
+        }
+
+        /** Notes were added, removed or moved. */
+        public boolean isStructureChanged() {
+            return isStructureChanged;
+        }
+
+        public long getLastChangeId() {
+            return lastChangeId;
+        }
+    }
+
     public static Loader<Cursor> getCursorLoader(Context context) {
         return new CursorLoader(
                 context,
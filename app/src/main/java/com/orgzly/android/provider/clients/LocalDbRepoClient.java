@@ -9,9 +9,11 @@ import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.repos.MockRepo;
 import com.orgzly.android.repos.Rook;
 import com.orgzly.android.repos.VersionedRook;
+import com.orgzly.android.repos.VersionedRookInputStream;
 import com.orgzly.android.util.MiscUtils;
 import com.orgzly.android.util.UriUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -70,6 +72,39 @@ public class LocalDbRepoClient {
         }
     }
 
+    /**
+     * Opens book's content for reading, without writing it to a file first.
+     */
+    public static VersionedRookInputStream openBook(Context context, Uri repoUri, Uri uri) throws IOException {
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.LocalDbRepo.ContentUri.dbRepos(),
+                null,
+                ProviderContract.LocalDbRepo.Param.URL + "=?",
+                new String[] { uri.toString() },
+                null);
+
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IOException("Book " + uri + " not found in repo");
+            }
+
+            if (cursor.getCount() != 1) {
+                throw new IOException("Found " + cursor.getCount() + " books matching name " + uri);
+            }
+
+            String content = cursor.getString(cursor.getColumnIndex(ProviderContract.LocalDbRepo.Param.CONTENT));
+            String revision = cursor.getString(cursor.getColumnIndex(ProviderContract.LocalDbRepo.Param.REVISION));
+            long mtime = cursor.getLong(cursor.getColumnIndex(ProviderContract.LocalDbRepo.Param.MTIME));
+
+            return new VersionedRookInputStream(
+                    new VersionedRook(repoUri, uri, revision, mtime),
+                    new ByteArrayInputStream(content.getBytes("UTF-8")));
+
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Select only those belonging to this repo's name.
      */
@@ -0,0 +1,116 @@
+package com.orgzly.android.provider.clients;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.orgzly.android.Note;
+import com.orgzly.android.provider.ProviderContract;
+import com.orgzly.android.provider.models.DbNote;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over notes in chunks, ordered by their position in the book.
+ *
+ * Each chunk is fetched with a separate query which continues after the last note
+ * of the previous chunk (keyset pagination), instead of keeping a single cursor
+ * over all notes open. Only one chunk is kept in memory, no matter how large the book is.
+ */
+public class NotesChunkIterator implements Iterator<List<Note>> {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final Context context;
+    private final String selection;
+    private final int chunkSize;
+
+    /* Position of the last note fetched. Positions and IDs are never negative. */
+    private long lastLft = 0;
+    private long lastId = 0;
+
+    private List<Note> nextChunk;
+    private boolean isLastChunk = false;
+
+    /**
+     * @param selection notes to iterate over, using {@link ProviderContract.Notes.ContentUri#notes()} columns
+     */
+    public NotesChunkIterator(Context context, String selection, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        }
+
+        this.context = context;
+        this.selection = selection;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextChunk == null && !isLastChunk) {
+            nextChunk = fetch();
+        }
+
+        return nextChunk != null;
+    }
+
+    @Override
+    public List<Note> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        List<Note> chunk = nextChunk;
+        nextChunk = null;
+
+        return chunk;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return next chunk of notes or null if there are no more notes
+     */
+    private List<Note> fetch() {
+        /* Notes after the last one fetched. ID is used for ordering notes with the same position. */
+        String where = "(" + selection + ") AND (" +
+                       DbNote.LFT + " > " + lastLft + " OR (" +
+                       DbNote.LFT + " = " + lastLft + " AND " + DbNote._ID + " > " + lastId + "))";
+
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.Notes.ContentUri.notesLimited(chunkSize),
+                null,
+                where,
+                null,
+                DbNote.LFT + ", " + DbNote._ID);
+
+        List<Note> chunk = new ArrayList<>();
+
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                chunk.add(NotesClient.fromCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (chunk.size() < chunkSize) {
+            isLastChunk = true;
+        }
+
+        if (chunk.isEmpty()) {
+            return null;
+        }
+
+        Note last = chunk.get(chunk.size() - 1);
+
+        lastLft = last.getPosition().getLft();
+        lastId = last.getId();
+
+        return chunk;
+    }
+}
@@ -11,10 +11,12 @@ import android.database.SQLException;
 import android.net.Uri;
 import android.os.RemoteException;
 import android.support.v4.content.CursorLoader;
+import android.support.v4.util.LongSparseArray;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.orgzly.BuildConfig;
+import com.orgzly.android.Book;
 import com.orgzly.android.Note;
 import com.orgzly.android.NotePosition;
 import com.orgzly.android.NotesBatch;
@@ -22,6 +24,7 @@ import com.orgzly.android.provider.DatabaseUtils;
 import com.orgzly.android.provider.GenericDatabaseUtils;
 import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbNoteProperty;
 import com.orgzly.android.provider.views.DbNoteView;
 import com.orgzly.android.query.Condition;
 import com.orgzly.android.query.Query;
@@ -37,7 +40,7 @@ import com.orgzly.org.datetime.OrgDateTime;
 import com.orgzly.org.datetime.OrgRange;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -50,22 +53,120 @@ public class NotesClient {
         void onNote(Note note);
     }
 
-    public static void forEachBookNote(Context context, String bookName, NotesClientInterface notesClientInterface) {
-        Cursor cursor = NotesClient.getCursorForBook(context, bookName);
+    /**
+     * Iterates over all book's notes with their properties set.
+     */
+    public static void forEachBookNote(Context context, Book book, NotesClientInterface notesClientInterface) {
+        forEachBookNote(context, book, NotesChunkIterator.DEFAULT_CHUNK_SIZE, notesClientInterface);
+    }
+
+    /**
+     * Iterates over all book's notes with their properties set.
+     *
+     * Notes are fetched in chunks of {@code chunkSize}. Properties of all notes
+     * in a chunk are fetched using a single query.
+     */
+    public static void forEachBookNote(Context context, Book book, int chunkSize, NotesClientInterface notesClientInterface) {
+        NotesChunkIterator chunks = new NotesChunkIterator(
+                context, DatabaseUtils.whereUncutBookNotes(book.getId()), chunkSize);
+
+        while (chunks.hasNext()) {
+            List<Note> notes = chunks.next();
+
+            LongSparseArray<List<OrgProperty>> properties = getNotesProperties(
+                    context,
+                    book.getId(),
+                    DbNote.LFT + " BETWEEN " +
+                    notes.get(0).getPosition().getLft() + " AND " +
+                    notes.get(notes.size() - 1).getPosition().getLft());
+
+            onNotes(notes, properties, notesClientInterface);
+        }
+    }
+
+    /**
+     * Iterates over book's notes with passed IDs, with their properties set.
+     * Notes are ordered by their position in the book. Missing and cut notes are skipped.
+     */
+    public static void forEachBookNote(Context context, Book book, Collection<Long> noteIds, NotesClientInterface notesClientInterface) {
+        if (noteIds.isEmpty()) {
+            return;
+        }
+
+        String ids = TextUtils.join(",", noteIds);
+
+        NotesChunkIterator chunks = new NotesChunkIterator(
+                context,
+                DatabaseUtils.whereUncutBookNotes(book.getId()) + " AND " + DbNote._ID + " IN (" + ids + ")",
+                NotesChunkIterator.DEFAULT_CHUNK_SIZE);
+
+        while (chunks.hasNext()) {
+            List<Note> notes = chunks.next();
+
+            LongSparseArray<List<OrgProperty>> properties = getNotesProperties(
+                    context,
+                    book.getId(),
+                    DbNoteProperty.TABLE + "." + DbNoteProperty.NOTE_ID + " IN (" + noteIdsOf(notes) + ")");
+
+            onNotes(notes, properties, notesClientInterface);
+        }
+    }
+
+    private static String noteIdsOf(List<Note> notes) {
+        StringBuilder sb = new StringBuilder();
+
+        for (Note note: notes) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(note.getId());
+        }
+
+        return sb.toString();
+    }
+
+    private static void onNotes(List<Note> notes, LongSparseArray<List<OrgProperty>> properties, NotesClientInterface notesClientInterface) {
+        for (Note note: notes) {
+            List<OrgProperty> noteProperties = properties.get(note.getId());
+
+            note.getHead().setProperties(noteProperties != null ? noteProperties : new ArrayList<OrgProperty>());
+
+            notesClientInterface.onNote(note);
+        }
+    }
+
+    /**
+     * Properties of book's notes matching {@code selection}.
+     *
+     * @return properties keyed by note ID
+     */
+    private static LongSparseArray<List<OrgProperty>> getNotesProperties(Context context, long bookId, String selection) {
+        LongSparseArray<List<OrgProperty>> result = new LongSparseArray<>();
+
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.NoteProperties.ContentUri.booksIdNotesProperties(bookId),
+                null,
+                selection,
+                null,
+                null);
 
         try {
             for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                Note note = NotesClient.fromCursor(cursor);
-
-                List<OrgProperty> propertiesFromCursor = getNoteProperties(context, note.getId());
+                long noteId = cursor.getLong(0);
 
-                note.getHead().setProperties(propertiesFromCursor);
+                List<OrgProperty> properties = result.get(noteId);
+                if (properties == null) {
+                    properties = new ArrayList<>();
+                    result.put(noteId, properties);
+                }
 
-                notesClientInterface.onNote(note);
+                properties.add(new OrgProperty(cursor.getString(1), cursor.getString(2)));
             }
         } finally {
             cursor.close();
         }
+
+        return result;
     }
 
     public static List<OrgProperty> getNoteProperties(Context context, long noteId) {
@@ -450,10 +551,41 @@ public class NotesClient {
         return results;
     }
 
-    public static CursorLoader getLoaderForQuery(Context context, String query) throws SQLException {
+    public static CursorLoader getLoaderForQuery(Context context, String query, String[] projection) throws SQLException {
         return new CursorLoader(
                 context,
                 ProviderContract.Notes.ContentUri.notesSearchQueried(query),
+                projection,
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * Loader for agenda, with a row for each day the note is displayed on.
+     */
+    public static CursorLoader getLoaderForAgenda(Context context, String query) throws SQLException {
+        return new CursorLoader(
+                context,
+                ProviderContract.Notes.ContentUri.notesAgendaQueried(query),
+                null,
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * Expands times of notes over the days of the agenda query, if not already expanded.
+     * Needed before {@link #getCursorForAgenda(Context, String)}, as days pass.
+     */
+    public static int updateAgenda(Context context, String query) {
+        return context.getContentResolver().update(
+                ProviderContract.Notes.ContentUri.notesAgendaQueried(query), null, null, null);
+    }
+
+    public static Cursor getCursorForAgenda(Context context, String query) throws SQLException {
+        return context.getContentResolver().query(
+                ProviderContract.Notes.ContentUri.notesAgendaQueried(query),
                 null,
                 null,
                 null,
@@ -499,21 +631,25 @@ public class NotesClient {
      * @return Array of all known tags
      */
     public static String[] getAllTags(Context context, long bookId) {
-        Set<String> result = new HashSet<>();
+        List<String> result = new ArrayList<>();
+
+        String selection = ProviderContract.NoteTags.Param.IS_INHERITED + " = 0";
 
         /* If book id is specified, return only tags from that book. */
-        String selection = null;
         if (bookId > 0) {
-            selection = DbNoteView.BOOK_ID + " = " + bookId;
+            selection += " AND " + ProviderContract.NoteTags.Param.BOOK_ID + " = " + bookId;
         }
 
-        Cursor cursor = context.getContentResolver().query(ProviderContract.Notes.ContentUri.notes(), new String[] { "DISTINCT " + DbNoteView.TAGS }, selection, null, null);
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.NoteTags.ContentUri.notesTags(),
+                /* Column is case-insensitive, but tags differing in case are different tags. */
+                new String[] { "DISTINCT " + ProviderContract.NoteTags.Param.TAG + " COLLATE BINARY" },
+                selection,
+                null,
+                null);
         try {
             for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                String tags = cursor.getString(0);
-                if (! TextUtils.isEmpty(tags)) {
-                    result.addAll(Arrays.asList(DbNote.dbDeSerializeTags(tags)));
-                }
+                result.add(cursor.getString(0));
             }
         } finally {
             cursor.close();
@@ -574,6 +710,18 @@ public class NotesClient {
         return batch;
     }
 
+    /**
+     * Undoes the latest cut, paste or move of notes in the book.
+     *
+     * @return number of notes restored
+     */
+    public static int undo(Context context, long bookId) {
+        ContentValues values = new ContentValues();
+        values.put(ProviderContract.Undo.Param.BOOK_ID, bookId);
+
+        return context.getContentResolver().update(ProviderContract.Undo.ContentUri.undo(), values, null, null);
+    }
+
     public static int delete(Context context, long bookId, Set<Long> noteIds) {
         ContentValues values = new ContentValues();
 
@@ -4,6 +4,11 @@ import android.content.Context;
 import android.database.Cursor;
 
 import com.orgzly.android.provider.ProviderContract;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.android.provider.views.DbReminderView;
+import com.orgzly.org.datetime.OrgDateTime;
+
+import org.joda.time.ReadableInstant;
 
 public class TimesClient {
     private static final String TAG = TimesClient.class.getName();
@@ -12,6 +17,35 @@ public class TimesClient {
         Cursor cursor = context.getContentResolver().query(
                 ProviderContract.Times.ContentUri.times(), null, null, null, null);
 
+        forEach(cursor, false, listener);
+    }
+
+    /**
+     * Times with their next reminder, ordered by the reminder time.
+     *
+     * @param now time of the query
+     * @param limit maximum number of times or null for all
+     */
+    public static void forEachReminderTime(Context context, ReadableInstant now, String selection, String[] selectionArgs, String limit, TimesClientInterface listener) {
+        Cursor cursor = context.getContentResolver().query(
+                ProviderContract.Times.ContentUri.timesReminders(now.getMillis(), limit),
+                null,
+                selection,
+                selectionArgs,
+                DbReminderView.FIRE_TIME);
+
+        forEach(cursor, true, listener);
+    }
+
+    /**
+     * Moves fired reminders to their next time.
+     */
+    public static int rescheduleReminders(Context context, ReadableInstant now) {
+        return context.getContentResolver().update(
+                ProviderContract.Times.ContentUri.timesReminders(now.getMillis(), null), null, null, null);
+    }
+
+    private static void forEach(Cursor cursor, boolean withFireTime, TimesClientInterface listener) {
         if (cursor != null) {
             try {
                 for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
@@ -22,7 +56,12 @@ public class TimesClient {
                             cursor.getString(ProviderContract.Times.ColumnIndex.NOTE_STATE),
                             cursor.getString(ProviderContract.Times.ColumnIndex.NOTE_TITLE),
                             cursor.getInt(ProviderContract.Times.ColumnIndex.TIME_TYPE),
-                            cursor.getString(ProviderContract.Times.ColumnIndex.ORG_TIMESTAMP_STRING)
+                            cursor.getString(ProviderContract.Times.ColumnIndex.ORG_TIMESTAMP_STRING),
+                            DbOrgTimestamp.toOrgDateTime(
+                                    cursor,
+                                    ProviderContract.Times.ColumnIndex.ORG_TIMESTAMP_STRING,
+                                    ProviderContract.Times.ColumnIndex.ORG_TIMESTAMP_FIELDS),
+                            withFireTime ? cursor.getLong(ProviderContract.Times.ColumnIndex.FIRE_TIME) : 0
                     ));
                 }
             } finally {
@@ -43,8 +82,12 @@ public class TimesClient {
         public String title;
         public int timeType;
         public String orgTimestampString;
+        public OrgDateTime orgDateTime;
+
+        /** Next reminder time, 0 if there is none or the time is not from reminders. */
+        public long fireTime;
 
-        NoteTime(long noteId, long bookId, String bookName, String state, String title, int timeType, String orgTimestampString) {
+        NoteTime(long noteId, long bookId, String bookName, String state, String title, int timeType, String orgTimestampString, OrgDateTime orgDateTime, long fireTime) {
             this.noteId = noteId;
             this.bookId = bookId;
             this.bookName = bookName;
@@ -52,6 +95,8 @@ public class TimesClient {
             this.title = title;
             this.timeType = timeType;
             this.orgTimestampString = orgTimestampString;
+            this.orgDateTime = orgDateTime;
+            this.fireTime = fireTime;
         }
     }
 }
\ No newline at end of file
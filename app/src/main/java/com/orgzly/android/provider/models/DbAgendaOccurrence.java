@@ -0,0 +1,53 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+/**
+ * Days on which notes with scheduled or deadline time appear in agenda.
+ *
+ * Each time has a row for its own day and a row for each day it occurs on
+ * until the end of {@link DbAgendaWindow}. Days before today are displayed as today.
+ *
+ * Times are expanded in code. Triggers only mark notes whose times have changed
+ * with a row without a day, so they are expanded before the write is committed.
+ */
+public class DbAgendaOccurrence implements DbAgendaOccurrenceColumns, BaseColumns {
+    public static final String TABLE = "agenda_occurrences";
+
+    /** Type of a row marking the note which needs expanding. */
+    public static final int PENDING = 0;
+
+    private static final String HAS_TIMES =
+            "(new." + DbNote.SCHEDULED_RANGE_ID + " IS NOT NULL OR new." + DbNote.DEADLINE_RANGE_ID + " IS NOT NULL)";
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            NOTE_ID + " INTEGER NOT NULL," +
+            TIME_TYPE + " INTEGER NOT NULL," +
+            DAY + " INTEGER)",
+
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + DAY + " ON " + TABLE + "(" + DAY + ", " + NOTE_ID + ")",
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + NOTE_ID + " ON " + TABLE + "(" + NOTE_ID + ")",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ai AFTER INSERT ON " + DbNote.TABLE +
+            " WHEN " + HAS_TIMES + " BEGIN " +
+            "INSERT INTO " + TABLE + " (" + NOTE_ID + ", " + TIME_TYPE + ") VALUES (new." + DbNote._ID + ", " + PENDING + "); " +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_au AFTER UPDATE OF " +
+            DbNote.SCHEDULED_RANGE_ID + ", " + DbNote.DEADLINE_RANGE_ID + " ON " + DbNote.TABLE +
+            " WHEN old." + DbNote.SCHEDULED_RANGE_ID + " IS NOT new." + DbNote.SCHEDULED_RANGE_ID +
+            " OR old." + DbNote.DEADLINE_RANGE_ID + " IS NOT new." + DbNote.DEADLINE_RANGE_ID + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + NOTE_ID + " = new." + DbNote._ID + "; " +
+            "INSERT INTO " + TABLE + " (" + NOTE_ID + ", " + TIME_TYPE + ") SELECT new." + DbNote._ID + ", " + PENDING + " WHERE " + HAS_TIMES + "; " +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ad AFTER DELETE ON " + DbNote.TABLE + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + NOTE_ID + " = old." + DbNote._ID + "; " +
+            "END"
+    };
+
+    /** Triggers are dropped together with notes table. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+}
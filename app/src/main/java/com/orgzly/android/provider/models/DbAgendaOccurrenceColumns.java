@@ -0,0 +1,9 @@
+package com.orgzly.android.provider.models;
+
+public interface DbAgendaOccurrenceColumns {
+    String NOTE_ID = "note_id";
+    String TIME_TYPE = "time_type";
+
+    /* Start of the day in milliseconds, null until note's times are expanded. */
+    String DAY = "day";
+}
@@ -0,0 +1,18 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+/**
+ * Days up to which {@link DbAgendaOccurrence} are expanded. Table has at most one row.
+ */
+public class DbAgendaWindow implements DbAgendaWindowColumns, BaseColumns {
+    public static final String TABLE = "agenda_window";
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY," +
+            END_DAY + " INTEGER NOT NULL)"
+    };
+
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+}
@@ -0,0 +1,6 @@
+package com.orgzly.android.provider.models;
+
+public interface DbAgendaWindowColumns {
+    /* Start of the first day which is not expanded, in milliseconds. */
+    String END_DAY = "end_day";
+}
@@ -0,0 +1,78 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+/**
+ * Books changed by the current write, so only their URIs are notified.
+ *
+ * Rows are inserted by triggers and removed by {@link com.orgzly.android.provider.BookChanges}
+ * before the write's transaction is committed.
+ */
+public class DbBookChange implements DbBookChangeColumns, BaseColumns {
+    public static final String TABLE = "book_changes";
+
+    /** Book's own row has changed. */
+    public static final int BOOK = 0;
+
+    /** Some of the book's notes have changed. */
+    public static final int NOTES = 1;
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            BOOK_ID + " INTEGER NOT NULL," +
+            TYPE + " INTEGER NOT NULL," +
+            "UNIQUE(" + BOOK_ID + ", " + TYPE + ") ON CONFLICT IGNORE)",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_books_ai AFTER INSERT ON " + DbBook.TABLE + " BEGIN " +
+            insert("new." + DbBook._ID, BOOK) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_books_au AFTER UPDATE ON " + DbBook.TABLE + " BEGIN " +
+            insert("new." + DbBook._ID, BOOK) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_books_ad AFTER DELETE ON " + DbBook.TABLE + " BEGIN " +
+            insert("old." + DbBook._ID, BOOK) +
+            "END",
+
+            /*
+             * Statements change many notes of the same book,
+             * so book is recorded by the first one and the rest do nothing.
+             */
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_ai AFTER INSERT ON " + DbNote.TABLE +
+            " WHEN " + notRecorded("new." + DbNote.BOOK_ID, NOTES) + " BEGIN " +
+            insert("new." + DbNote.BOOK_ID, NOTES) +
+            "END",
+
+            /* Any displayed column. */
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_au AFTER UPDATE ON " + DbNote.TABLE +
+            " WHEN " + notRecorded("new." + DbNote.BOOK_ID, NOTES) + " BEGIN " +
+            insert("new." + DbNote.BOOK_ID, NOTES) +
+            "END",
+
+            /* Notes can be moved to a different book. */
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_au_book_id AFTER UPDATE OF " + DbNote.BOOK_ID + " ON " + DbNote.TABLE +
+            " WHEN old." + DbNote.BOOK_ID + " IS NOT new." + DbNote.BOOK_ID +
+            " AND " + notRecorded("old." + DbNote.BOOK_ID, NOTES) + " BEGIN " +
+            insert("old." + DbNote.BOOK_ID, NOTES) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_ad AFTER DELETE ON " + DbNote.TABLE +
+            " WHEN " + notRecorded("old." + DbNote.BOOK_ID, NOTES) + " BEGIN " +
+            insert("old." + DbNote.BOOK_ID, NOTES) +
+            "END"
+    };
+
+    /** Triggers are dropped together with books and notes tables. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+
+    private static String notRecorded(String bookId, int type) {
+        return "NOT EXISTS (SELECT 1 FROM " + TABLE + " WHERE " + BOOK_ID + " = " + bookId + " AND " + TYPE + " = " + type + ")";
+    }
+
+    private static String insert(String bookId, int type) {
+        return "INSERT INTO " + TABLE + " (" + BOOK_ID + ", " + TYPE + ") VALUES (" + bookId + ", " + type + "); ";
+    }
+}
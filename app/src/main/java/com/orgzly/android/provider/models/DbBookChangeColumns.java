@@ -0,0 +1,8 @@
+package com.orgzly.android.provider.models;
+
+public interface DbBookChangeColumns {
+    String BOOK_ID = "book_id";
+
+    /* Book's own row or its notes. */
+    String TYPE = "type";
+}
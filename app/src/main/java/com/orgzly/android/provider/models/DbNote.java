@@ -7,11 +7,9 @@ import android.provider.BaseColumns;
 import android.text.TextUtils;
 
 import com.orgzly.android.NotePosition;
-import com.orgzly.android.provider.DatabaseUtils;
+import com.orgzly.android.provider.OrgRangeWriter;
 import com.orgzly.android.util.MiscUtils;
 import com.orgzly.org.OrgHead;
-import com.orgzly.org.datetime.OrgDateTime;
-import com.orgzly.org.datetime.OrgRange;
 
 import java.util.List;
 
@@ -40,6 +38,7 @@ public class DbNote implements DbNoteColumns, BaseColumns {
             /* Payload */
             TITLE + " TEXT NOT NULL DEFAULT ''," +
             TAGS + " TEXT," +
+            INHERITED_TAGS + " TEXT," +
             STATE + " TEXT," +
             PRIORITY + " TEXT," +
             CONTENT + " TEXT," +
@@ -63,7 +62,10 @@ public class DbNote implements DbNoteColumns, BaseColumns {
             "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + IS_FOLDED + " ON " + TABLE + "(" + IS_FOLDED + ")",
             "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + FOLDED_UNDER_ID + " ON " + TABLE + "(" + FOLDED_UNDER_ID + ")",
             "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + PARENT_ID + " ON " + TABLE + "(" + PARENT_ID + ")",
-            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + DESCENDANTS_COUNT + " ON " + TABLE + "(" + DESCENDANTS_COUNT + ")"
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + DESCENDANTS_COUNT + " ON " + TABLE + "(" + DESCENDANTS_COUNT + ")",
+
+            /* For book's visible notes in order, without going through folded ones. */
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + BOOK_ID + "_" + FOLDED_UNDER_ID + "_" + LFT + " ON " + TABLE + "(" + BOOK_ID + ", " + FOLDED_UNDER_ID + ", " + LFT + ")"
     };
 
     public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
@@ -90,19 +92,19 @@ public class DbNote implements DbNoteColumns, BaseColumns {
         }
 
         if (head.hasScheduled()) {
-            values.put(SCHEDULED_RANGE_ID, getOrInsertOrgRange(db, head.getScheduled()));
+            values.put(SCHEDULED_RANGE_ID, OrgRangeWriter.getOrInsert(db, head.getScheduled()));
         }
 
         if (head.hasClosed()) {
-            values.put(CLOSED_RANGE_ID, getOrInsertOrgRange(db, head.getClosed()));
+            values.put(CLOSED_RANGE_ID, OrgRangeWriter.getOrInsert(db, head.getClosed()));
         }
 
         if (head.hasClock()) {
-            values.put(CLOCK_RANGE_ID, getOrInsertOrgRange(db, head.getClock()));
+            values.put(CLOCK_RANGE_ID, OrgRangeWriter.getOrInsert(db, head.getClock()));
         }
 
         if (head.hasDeadline()) {
-            values.put(DEADLINE_RANGE_ID, getOrInsertOrgRange(db, head.getDeadline()));
+            values.put(DEADLINE_RANGE_ID, OrgRangeWriter.getOrInsert(db, head.getDeadline()));
         }
 
         if (head.hasContent()) {
@@ -125,51 +127,6 @@ public class DbNote implements DbNoteColumns, BaseColumns {
         return str.split(" ");
     }
 
-    /**
-     * Gets {@link OrgDateTime} from database or inserts a new record if it doesn't exist.
-     * @return {@link OrgDateTime} database ID
-     */
-    private static long getOrInsertOrgRange(SQLiteDatabase db, OrgRange range) {
-        long id = DatabaseUtils.getId(
-                db,
-                DbOrgRange.TABLE,
-                DbOrgRange.STRING + "=?",
-                new String[] { range.toString() });
-
-        if (id == 0) {
-            ContentValues values = new ContentValues();
-
-            long startTimestampId = getOrInsertOrgTime(db, range.getStartTime());
-
-            long endTimestampId = 0;
-            if (range.getEndTime() != null) {
-                endTimestampId = getOrInsertOrgTime(db, range.getEndTime());
-            }
-
-            DbOrgRange.toContentValues(values, range, startTimestampId, endTimestampId);
-
-            id = db.insertOrThrow(DbOrgRange.TABLE, null, values);
-        }
-
-        return id;
-    }
-
-    private static long getOrInsertOrgTime(SQLiteDatabase db, OrgDateTime orgDateTime) {
-        long id = DatabaseUtils.getId(
-                db,
-                DbOrgTimestamp.TABLE,
-                DbOrgTimestamp.STRING + "= ?",
-                new String[] { orgDateTime.toString() });
-
-        if (id == 0) {
-            ContentValues values = new ContentValues();
-            DbOrgTimestamp.toContentValues(values, orgDateTime);
-
-            id = db.insertOrThrow(DbOrgTimestamp.TABLE, null, values);
-        }
-
-        return id;
-    }
 
     public static void toContentValues(ContentValues values, NotePosition position) {
         values.put(BOOK_ID, position.getBookId());
@@ -7,6 +7,7 @@ public interface DbNoteColumns {
     String LEVEL = "level";
     String TITLE = "title";
     String TAGS = "tags";
+    String INHERITED_TAGS = "inherited_tags"; /** Tags of all ancestors, kept in sync with note_ancestors. */
     String STATE = "state";
     String PRIORITY = "priority";
 
@@ -0,0 +1,142 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+/**
+ * Notes changed since the book was last exported for syncing, so only they need writing again.
+ *
+ * Rows are inserted by triggers and removed once the book is exported
+ * (see {@link com.orgzly.android.BookExportCache}).
+ */
+public class DbNoteExportChange implements DbNoteExportChangeColumns, BaseColumns {
+    public static final String TABLE = "note_export_changes";
+
+    /** Notes were added, removed or moved, so the whole book needs writing. */
+    public static final long STRUCTURE = 0;
+
+    /** Changes were last read by the export. Rows older than this one are being exported. */
+    public static final long READ = -1;
+
+    /* Columns which change the note's position in the book. */
+    private static final String[] STRUCTURE_COLUMNS = {
+            DbNote.BOOK_ID,
+            DbNote.LFT,
+            DbNote.IS_CUT
+    };
+
+    /* Columns which change the note's exported text. */
+    private static final String[] TEXT_COLUMNS = {
+            DbNote.LEVEL,
+            DbNote.TITLE,
+            DbNote.TAGS,
+            DbNote.STATE,
+            DbNote.PRIORITY,
+            DbNote.SCHEDULED_RANGE_ID,
+            DbNote.DEADLINE_RANGE_ID,
+            DbNote.CLOSED_RANGE_ID,
+            DbNote.CLOCK_RANGE_ID,
+            DbNote.CONTENT
+    };
+
+    /*
+     * Note's row is replaced when the note changes again, so its ID is always newer than
+     * the last change read by an export which is still running.
+     *
+     * Structure row is replaced only if it was read since, as moving notes updates
+     * many of them at once and the row would otherwise be rewritten for each one.
+     */
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            BOOK_ID + " INTEGER NOT NULL," +
+            NOTE_ID + " INTEGER NOT NULL," +
+            "UNIQUE(" + BOOK_ID + ", " + NOTE_ID + ") ON CONFLICT REPLACE)",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_ai AFTER INSERT ON " + DbNote.TABLE + " BEGIN " +
+            insertStructure("new." + DbNote.BOOK_ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_ad AFTER DELETE ON " + DbNote.TABLE + " BEGIN " +
+            insertStructure("old." + DbNote.BOOK_ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_au_structure AFTER UPDATE OF " +
+            join(STRUCTURE_COLUMNS) + " ON " + DbNote.TABLE + " WHEN " + changed(STRUCTURE_COLUMNS) + " BEGIN " +
+            insertStructure("old." + DbNote.BOOK_ID) +
+            insertStructure("new." + DbNote.BOOK_ID) +
+            "END",
+
+            /* Folding and other changes which are not exported are ignored. */
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_notes_au_text AFTER UPDATE OF " +
+            join(TEXT_COLUMNS) + " ON " + DbNote.TABLE + " WHEN " + changed(TEXT_COLUMNS) + " BEGIN " +
+            insert("new." + DbNote.BOOK_ID, "new." + DbNote._ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_note_properties_ai AFTER INSERT ON " + DbNoteProperty.TABLE + " BEGIN " +
+            insertForNote("new." + DbNoteProperty.NOTE_ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_note_properties_au AFTER UPDATE ON " + DbNoteProperty.TABLE + " BEGIN " +
+            insertForNote("old." + DbNoteProperty.NOTE_ID) +
+            insertForNote("new." + DbNoteProperty.NOTE_ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_note_properties_ad AFTER DELETE ON " + DbNoteProperty.TABLE + " BEGIN " +
+            insertForNote("old." + DbNoteProperty.NOTE_ID) +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_books_ad AFTER DELETE ON " + DbBook.TABLE + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + BOOK_ID + " = old." + DbBook._ID + "; " +
+            "END"
+    };
+
+    /** Triggers are dropped together with books, notes and note_properties tables. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+
+    private static String insert(String bookId, String noteId) {
+        return "INSERT INTO " + TABLE + " (" + BOOK_ID + ", " + NOTE_ID + ") VALUES (" + bookId + ", " + noteId + "); ";
+    }
+
+    /* Nothing is inserted if there is a structure row which has not been read yet. */
+    private static String insertStructure(String bookId) {
+        return "INSERT INTO " + TABLE + " (" + BOOK_ID + ", " + NOTE_ID + ")" +
+               " SELECT " + bookId + ", " + STRUCTURE +
+               " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE +
+               " WHERE " + BOOK_ID + " = " + bookId + " AND " + NOTE_ID + " = " + STRUCTURE +
+               " AND " + _ID + " > IFNULL((SELECT " + _ID + " FROM " + TABLE +
+               " WHERE " + BOOK_ID + " = " + bookId + " AND " + NOTE_ID + " = " + READ + "), 0)); ";
+    }
+
+    /* Nothing is inserted if the note has been deleted. */
+    private static String insertForNote(String noteId) {
+        return "INSERT INTO " + TABLE + " (" + BOOK_ID + ", " + NOTE_ID + ")" +
+               " SELECT " + DbNote.BOOK_ID + ", " + DbNote._ID + " FROM " + DbNote.TABLE +
+               " WHERE " + DbNote._ID + " = " + noteId + "; ";
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String column: columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(column);
+        }
+
+        return sb.toString();
+    }
+
+    private static String changed(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String column: columns) {
+            if (sb.length() > 0) {
+                sb.append(" OR ");
+            }
+            sb.append("old.").append(column).append(" IS NOT new.").append(column);
+        }
+
+        return "(" + sb + ")";
+    }
+}
@@ -0,0 +1,8 @@
+package com.orgzly.android.provider.models;
+
+public interface DbNoteExportChangeColumns {
+    String BOOK_ID = "book_id";
+
+    /* Changed note or STRUCTURE. */
+    String NOTE_ID = "note_id";
+}
@@ -0,0 +1,80 @@
+package com.orgzly.android.provider.models;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+/**
+ * Full-text index of notes' title, content and tags.
+ *
+ * Text is not duplicated - table uses notes as its external content.
+ * Index is kept in sync using triggers, which only fire when indexed columns change
+ * (not on moving notes around, which updates lft and rgt of many notes).
+ *
+ * Searched text is matched as a phrase or a prefix of indexed words, then the
+ * notes found are checked using LIKE. Text is therefore only found from the start
+ * of a word. Text without spaces (e.g. Chinese or Japanese) is indexed as a
+ * single word.
+ */
+public class DbNoteFts implements DbNoteFtsColumns {
+    public static final String TABLE = "notes_fts";
+
+    private static final String COLUMNS = TITLE + ", " + CONTENT + ", " + TAGS;
+
+    private static final String INSERT_NEW =
+            "INSERT INTO " + TABLE + " (" + DOCID + ", " + COLUMNS + ") " +
+            "VALUES (new." + DbNote._ID + ", new." + DbNote.TITLE + ", new." + DbNote.CONTENT + ", new." + DbNote.TAGS + "); ";
+
+    private static final String DELETE_OLD =
+            "DELETE FROM " + TABLE + " WHERE " + DOCID + " = old." + DbNote._ID + "; ";
+
+    /**
+     * Letters and digits of all scripts, folded to lower case. Accents are kept,
+     * as they are when searching using LIKE.
+     */
+    private static final String TOKENIZER_UNICODE61 = "unicode61 \"remove_diacritics=0\"";
+
+    /** Before SQLite 3.7.13 (Android 5.0) only ASCII is split and folded. */
+    private static final String TOKENIZER_SIMPLE = "simple";
+
+    private static final String[] CREATE_TRIGGERS_SQL = {
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_bu BEFORE UPDATE OF " + COLUMNS + " ON " + DbNote.TABLE + " BEGIN " +
+            DELETE_OLD +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_bd BEFORE DELETE ON " + DbNote.TABLE + " BEGIN " +
+            DELETE_OLD +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_au AFTER UPDATE OF " + COLUMNS + " ON " + DbNote.TABLE + " BEGIN " +
+            INSERT_NEW +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ai AFTER INSERT ON " + DbNote.TABLE + " BEGIN " +
+            INSERT_NEW +
+            "END"
+    };
+
+    /**
+     * Creates the index and its triggers.
+     */
+    public static void create(SQLiteDatabase db) {
+        try {
+            db.execSQL(createTableSql(TOKENIZER_UNICODE61));
+        } catch (SQLiteException e) {
+            db.execSQL(createTableSql(TOKENIZER_SIMPLE));
+        }
+
+        for (String sql : CREATE_TRIGGERS_SQL) db.execSQL(sql);
+    }
+
+    private static String createTableSql(String tokenizer) {
+        return "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE + " USING fts4(" +
+               "content=\"" + DbNote.TABLE + "\", " + COLUMNS + ", tokenize=" + tokenizer + ")";
+    }
+
+    /** Triggers are dropped together with notes table. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+
+    /** Re-creates the index from the content of notes table. */
+    public static final String REBUILD_SQL = "INSERT INTO " + TABLE + " (" + TABLE + ") VALUES ('rebuild')";
+}
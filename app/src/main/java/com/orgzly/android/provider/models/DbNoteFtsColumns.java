@@ -0,0 +1,8 @@
+package com.orgzly.android.provider.models;
+
+public interface DbNoteFtsColumns {
+    String DOCID = "docid"; /** Same as note's _id. */
+    String TITLE = "title";
+    String CONTENT = "content";
+    String TAGS = "tags";
+}
@@ -0,0 +1,35 @@
+package com.orgzly.android.provider.models;
+
+/**
+ * Each of note's own and inherited tags.
+ *
+ * Rebuilt from {@link DbNote#TAGS} and {@link DbNote#INHERITED_TAGS} whenever those change.
+ * Rows of deleted notes are removed by trigger.
+ */
+public class DbNoteTag implements DbNoteTagColumns {
+    public static final String TABLE = "note_tags";
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+
+            BOOK_ID + " INTEGER," +
+            NOTE_ID + " INTEGER," +
+            TAG + " TEXT COLLATE NOCASE," +
+            IS_INHERITED + " INTEGER)",
+
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + TAG + " ON " + TABLE + "(" + TAG + ")",
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + NOTE_ID + " ON " + TABLE + "(" + NOTE_ID + ")",
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + BOOK_ID + " ON " + TABLE + "(" + BOOK_ID + ")",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ad AFTER DELETE ON " + DbNote.TABLE + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + NOTE_ID + " = old." + DbNote._ID + "; " +
+            "END"
+    };
+
+    /** Trigger is dropped together with notes table. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+
+    public static final String INSERT_SQL = "INSERT INTO " + TABLE +
+                                            " (" + BOOK_ID + ", " + NOTE_ID + ", " + TAG + ", " + IS_INHERITED + ")" +
+                                            " VALUES (?, ?, ?, ?)";
+}
@@ -0,0 +1,8 @@
+package com.orgzly.android.provider.models;
+
+public interface DbNoteTagColumns {
+    String BOOK_ID = "book_id";
+    String NOTE_ID = "note_id";
+    String TAG = "tag";
+    String IS_INHERITED = "is_inherited";
+}
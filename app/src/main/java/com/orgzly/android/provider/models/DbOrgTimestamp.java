@@ -1,14 +1,18 @@
 package com.orgzly.android.provider.models;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import com.orgzly.org.datetime.OrgDateTime;
 import com.orgzly.org.datetime.OrgDelay;
 import com.orgzly.org.datetime.OrgInterval;
 import com.orgzly.org.datetime.OrgRepeater;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 
 /**
  * <2017-04-16 Sun>
@@ -77,6 +81,111 @@ public class DbOrgTimestamp implements DbOrgTimestampColumns, BaseColumns {
 
     public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
 
+    /**
+     * Columns used by {@link #toOrgDateTime(Cursor, int, int)}, in the expected order.
+     */
+    public static final String[] ORG_DATE_TIME_COLUMNS = {
+            IS_ACTIVE,
+            YEAR, MONTH, DAY,
+            HOUR, MINUTE,
+            END_HOUR, END_MINUTE,
+            REPEATER_TYPE, REPEATER_VALUE, REPEATER_UNIT,
+            HABIT_DEADLINE_VALUE,
+            DELAY_TYPE, DELAY_VALUE, DELAY_UNIT
+    };
+
+    /**
+     * @return names of {@link #ORG_DATE_TIME_COLUMNS} with {@code prefix} added
+     */
+    public static String[] orgDateTimeColumns(String prefix) {
+        String[] columns = new String[ORG_DATE_TIME_COLUMNS.length];
+
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = prefix + ORG_DATE_TIME_COLUMNS[i];
+        }
+
+        return columns;
+    }
+
+    /**
+     * Selects {@link #ORG_DATE_TIME_COLUMNS} of the table aliased as {@code alias},
+     * with {@code prefix} added to their names.
+     */
+    public static String selectOrgDateTimeColumns(String alias, String prefix) {
+        List<String> columns = new ArrayList<>();
+
+        for (String column: ORG_DATE_TIME_COLUMNS) {
+            columns.add(alias + "." + column + " AS " + prefix + column);
+        }
+
+        return TextUtils.join(", ", columns);
+    }
+
+    /**
+     * Builds {@link OrgDateTime} from its stored fields, instead of parsing the string.
+     *
+     * String is parsed only for the values which can't be built from fields,
+     * such as repeaters with habit deadline.
+     *
+     * @param stringColumn index of the {@link #STRING} column
+     * @param firstColumn index of the first of {@link #ORG_DATE_TIME_COLUMNS}, with the rest following it
+     * @return time or null if there is none
+     */
+    public static OrgDateTime toOrgDateTime(Cursor cursor, int stringColumn, int firstColumn) {
+        int i = firstColumn;
+
+        if (cursor.isNull(i + 1)) { /* No year. */
+            return null;
+        }
+
+        OrgDateTime.Builder builder = new OrgDateTime.Builder()
+                .setIsActive(cursor.getInt(i++) == 1)
+                .setYear(cursor.getInt(i++))
+                .setMonth(cursor.getInt(i++) - 1)
+                .setDay(cursor.getInt(i++));
+
+        if (!cursor.isNull(i)) {
+            builder.setHasTime(true)
+                    .setHour(cursor.getInt(i))
+                    .setMinute(cursor.getInt(i + 1));
+        }
+        i += 2;
+
+        if (!cursor.isNull(i)) {
+            builder.setHasEndTime(true)
+                    .setEndHour(cursor.getInt(i))
+                    .setEndMinute(cursor.getInt(i + 1));
+        }
+        i += 2;
+
+        if (!cursor.isNull(i)) {
+            OrgRepeater.Type type = toRepeaterType(cursor.getInt(i));
+            OrgInterval.Unit unit = toTimeUnit(cursor.getInt(i + 2));
+
+            if (type == null || unit == null || !cursor.isNull(i + 3)) {
+                return OrgDateTime.parse(cursor.getString(stringColumn));
+            }
+
+            builder.setHasRepeater(true)
+                    .setRepeater(new OrgRepeater(type, cursor.getInt(i + 1), unit));
+        }
+        i += 4;
+
+        if (!cursor.isNull(i)) {
+            OrgDelay.Type type = toDelayType(cursor.getInt(i));
+            OrgInterval.Unit unit = toTimeUnit(cursor.getInt(i + 2));
+
+            if (type == null || unit == null) {
+                return OrgDateTime.parse(cursor.getString(stringColumn));
+            }
+
+            builder.setHasDelay(true)
+                    .setDelay(new OrgDelay(type, cursor.getInt(i + 1), unit));
+        }
+
+        return builder.build();
+    }
+
     public static void toContentValues(ContentValues values, OrgDateTime orgDateTime) {
         values.put(STRING, orgDateTime.toString());
 
@@ -182,4 +291,45 @@ public class DbOrgTimestamp implements DbOrgTimestampColumns, BaseColumns {
                 return 0;
         }
     }
+
+    private static OrgRepeater.Type toRepeaterType(int type) {
+        switch (type) {
+            case REPEATER_TYPE_CUMULATE:
+                return OrgRepeater.Type.CUMULATE;
+            case REPEATER_TYPE_CATCH_UP:
+                return OrgRepeater.Type.CATCH_UP;
+            case REPEATER_TYPE_RESTART:
+                return OrgRepeater.Type.RESTART;
+            default:
+                return null;
+        }
+    }
+
+    private static OrgInterval.Unit toTimeUnit(int unit) {
+        switch (unit) {
+            case UNIT_HOUR:
+                return OrgInterval.Unit.HOUR;
+            case UNIT_DAY:
+                return OrgInterval.Unit.DAY;
+            case UNIT_WEEK:
+                return OrgInterval.Unit.WEEK;
+            case UNIT_MONTH:
+                return OrgInterval.Unit.MONTH;
+            case UNIT_YEAR:
+                return OrgInterval.Unit.YEAR;
+            default:
+                return null;
+        }
+    }
+
+    private static OrgDelay.Type toDelayType(int type) {
+        switch (type) {
+            case DELAY_TYPE_ALL:
+                return OrgDelay.Type.ALL;
+            case DELAY_TYPE_FIRST_ONLY:
+                return OrgDelay.Type.FIRST_ONLY;
+            default:
+                return null;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+import com.orgzly.android.provider.DatabaseUtils;
+
+/**
+ * Next time of the reminder for each note's scheduled and deadline time.
+ *
+ * Times are computed in code. Triggers only mark notes whose times have changed
+ * with a row of {@link #PENDING} type, so they are computed before the write is committed.
+ * Times which have no upcoming reminders have no fire time.
+ */
+public class DbReminderTime implements DbReminderTimeColumns, BaseColumns {
+    public static final String TABLE = "reminder_times";
+
+    /** Type of a row marking the note whose times need computing. */
+    public static final int PENDING = 0;
+
+    private static final String HAS_TIMES =
+            "(new." + DbNote.SCHEDULED_RANGE_ID + " IS NOT NULL OR new." + DbNote.DEADLINE_RANGE_ID + " IS NOT NULL)";
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            NOTE_ID + " INTEGER NOT NULL," +
+            TIME_TYPE + " INTEGER NOT NULL," +
+            FIRE_TIME + " INTEGER)",
+
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + FIRE_TIME + " ON " + TABLE + "(" + FIRE_TIME + ")",
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + NOTE_ID + " ON " + TABLE + "(" + NOTE_ID + ")",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ai AFTER INSERT ON " + DbNote.TABLE +
+            " WHEN " + HAS_TIMES + " BEGIN " +
+            "INSERT INTO " + TABLE + " (" + NOTE_ID + ", " + TIME_TYPE + ") VALUES (new." + DbNote._ID + ", " + PENDING + "); " +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_au AFTER UPDATE OF " +
+            DbNote.SCHEDULED_RANGE_ID + ", " + DbNote.DEADLINE_RANGE_ID + " ON " + DbNote.TABLE +
+            " WHEN old." + DbNote.SCHEDULED_RANGE_ID + " IS NOT new." + DbNote.SCHEDULED_RANGE_ID +
+            " OR old." + DbNote.DEADLINE_RANGE_ID + " IS NOT new." + DbNote.DEADLINE_RANGE_ID + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + NOTE_ID + " = new." + DbNote._ID + "; " +
+            "INSERT INTO " + TABLE + " (" + NOTE_ID + ", " + TIME_TYPE + ") SELECT new." + DbNote._ID + ", " + PENDING + " WHERE " + HAS_TIMES + "; " +
+            "END",
+
+            "CREATE TRIGGER IF NOT EXISTS t_" + TABLE + "_ad AFTER DELETE ON " + DbNote.TABLE + " BEGIN " +
+            "DELETE FROM " + TABLE + " WHERE " + NOTE_ID + " = old." + DbNote._ID + "; " +
+            "END"
+    };
+
+    /** Marks all existing notes with times, used when the table is created for existing data. */
+    public static final String INSERT_ALL_PENDING_SQL =
+            "INSERT INTO " + TABLE + " (" + NOTE_ID + ", " + TIME_TYPE + ")" +
+            " SELECT " + DbNote._ID + ", " + PENDING +
+            " FROM " + DbNote.TABLE + " WHERE " + DatabaseUtils.WHERE_NOTES_WITH_TIMES;
+
+    /** Triggers are dropped together with notes table. */
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+}
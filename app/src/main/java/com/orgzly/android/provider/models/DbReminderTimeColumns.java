@@ -0,0 +1,9 @@
+package com.orgzly.android.provider.models;
+
+public interface DbReminderTimeColumns {
+    String NOTE_ID = "note_id";
+    String TIME_TYPE = "time_type";
+
+    /* Next time the reminder is displayed in milliseconds, null if there is none. */
+    String FIRE_TIME = "fire_time";
+}
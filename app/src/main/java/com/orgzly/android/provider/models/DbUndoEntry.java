@@ -0,0 +1,20 @@
+package com.orgzly.android.provider.models;
+
+import android.provider.BaseColumns;
+
+/**
+ * Structural note actions which can be undone, latest one having the largest ID.
+ * Notes' state before each action is kept in {@link DbUndoNote}.
+ */
+public class DbUndoEntry implements DbUndoEntryColumns, BaseColumns {
+    public static final String TABLE = "undo_entries";
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            _ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            ACTION + " TEXT," +
+            CREATED_AT + " INTEGER)"
+    };
+
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+}
@@ -0,0 +1,6 @@
+package com.orgzly.android.provider.models;
+
+public interface DbUndoEntryColumns {
+    String ACTION = "action";
+    String CREATED_AT = "created_at";
+}
@@ -0,0 +1,44 @@
+package com.orgzly.android.provider.models;
+
+/**
+ * Before-images of notes modified by an undoable action.
+ *
+ * Only the columns describing note's place in the book are kept. Image is recorded
+ * the first time note is modified during the action, so it has values from before the action.
+ */
+public class DbUndoNote implements DbUndoNoteColumns {
+    public static final String TABLE = "undo_notes";
+
+    /** Columns of {@link DbNote} which are restored on undo. */
+    public static final String[] NOTE_COLUMNS = {
+            DbNote.BOOK_ID,
+            DbNote.LFT,
+            DbNote.RGT,
+            DbNote.LEVEL,
+            DbNote.PARENT_ID,
+            DbNote.DESCENDANTS_COUNT,
+            DbNote.IS_FOLDED,
+            DbNote.FOLDED_UNDER_ID,
+            DbNote.IS_CUT
+    };
+
+    public static final String[] CREATE_SQL = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE + " (" +
+            ENTRY_ID + " INTEGER NOT NULL," +
+            NOTE_ID + " INTEGER NOT NULL," +
+            DbNote.BOOK_ID + " INTEGER," +
+            DbNote.LFT + " INTEGER," +
+            DbNote.RGT + " INTEGER," +
+            DbNote.LEVEL + " INTEGER," +
+            DbNote.PARENT_ID + " INTEGER," +
+            DbNote.DESCENDANTS_COUNT + " INTEGER," +
+            DbNote.IS_FOLDED + " INTEGER," +
+            DbNote.FOLDED_UNDER_ID + " INTEGER," +
+            DbNote.IS_CUT + " INTEGER," +
+            "UNIQUE (" + ENTRY_ID + ", " + NOTE_ID + "))",
+
+            "CREATE INDEX IF NOT EXISTS i_" + TABLE + "_" + NOTE_ID + " ON " + TABLE + "(" + NOTE_ID + ")"
+    };
+
+    public static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE;
+}
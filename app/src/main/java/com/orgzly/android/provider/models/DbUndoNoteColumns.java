@@ -0,0 +1,6 @@
+package com.orgzly.android.provider.models;
+
+public interface DbUndoNoteColumns {
+    String ENTRY_ID = "entry_id";
+    String NOTE_ID = "note_id";
+}
@@ -3,14 +3,14 @@ package com.orgzly.android.provider.views;
 public interface DbNoteViewColumns {
     String BOOK_NAME = "book_name";
 
-    String INHERITED_TAGS = "inherited_tags";
-
     String SCHEDULED_RANGE_STRING = "scheduled_range_string"; // rename to just scheduled string
     String SCHEDULED_TIME_STRING = "scheduled_time_string";
     String SCHEDULED_TIME_END_STRING = "scheduled_time_end_string";
     String SCHEDULED_TIME_TIMESTAMP = "scheduled_time_timestamp";
     String SCHEDULED_TIME_START_OF_DAY = "scheduled_time_start_of_day";
     String SCHEDULED_TIME_HOUR = "scheduled_time_hour";
+    String SCHEDULED_TIME_END_TIMESTAMP = "scheduled_time_end_timestamp";
+    String SCHEDULED_START_PREFIX = "scheduled_start_"; // DbOrgTimestamp.ORG_DATE_TIME_COLUMNS
 
     String DEADLINE_RANGE_STRING = "deadline_range_string";
     String DEADLINE_TIME_STRING = "deadline_time_string";
@@ -18,6 +18,8 @@ public interface DbNoteViewColumns {
     String DEADLINE_TIME_TIMESTAMP = "deadline_time_timestamp";
     String DEADLINE_TIME_START_OF_DAY = "deadline_time_start_of_day";
     String DEADLINE_TIME_HOUR = "deadline_time_hour";
+    String DEADLINE_TIME_END_TIMESTAMP = "deadline_time_end_timestamp";
+    String DEADLINE_START_PREFIX = "deadline_start_"; // DbOrgTimestamp.ORG_DATE_TIME_COLUMNS
 
     String CLOSED_RANGE_STRING = "closed_range_string";
     String CLOSED_TIME_STRING = "closed_time_string";
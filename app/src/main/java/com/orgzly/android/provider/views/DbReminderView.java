@@ -0,0 +1,38 @@
+package com.orgzly.android.provider.views;
+
+import com.orgzly.android.provider.models.DbBook;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.models.DbOrgRange;
+import com.orgzly.android.provider.models.DbOrgTimestamp;
+import com.orgzly.android.provider.models.DbReminderTime;
+
+/**
+ * Same columns as {@link DbTimeView}, with the time of the next reminder.
+ *
+ * There is no union, so selecting by {@link #FIRE_TIME} uses the index.
+ */
+public class DbReminderView implements DbReminderViewColumns {
+    public static final String VIEW_NAME = "reminders_view";
+
+    public static final String DROP_SQL = "DROP VIEW IF EXISTS " + VIEW_NAME;
+
+    public static final String CREATE_SQL =
+            "CREATE VIEW " + VIEW_NAME + " AS " +
+            "  SELECT\n" +
+            "  n." + DbNote._ID + " as " + NOTE_ID + ",\n" +
+            "  n." + DbNote.BOOK_ID + " as " + BOOK_ID + ",\n" +
+            "  coalesce(b." + DbBook.TITLE + ", b." + DbBook.NAME + ") as " + BOOK_NAME + ",\n" +
+            "  n." + DbNote.STATE + " as " + NOTE_STATE + ",\n" +
+            "  n." + DbNote.TITLE + " as " + NOTE_TITLE + ",\n" +
+            "  rt." + DbReminderTime.TIME_TYPE + " as " + TIME_TYPE + ",\n" +
+            "  t." + DbOrgTimestamp.STRING + " as " + ORG_TIMESTAMP_STRING + ",\n" +
+            "  " + DbOrgTimestamp.selectOrgDateTimeColumns("t", ORG_TIMESTAMP_PREFIX) + ",\n" +
+            "  rt." + DbReminderTime.FIRE_TIME + " as " + FIRE_TIME + "\n" +
+            "  FROM " + DbReminderTime.TABLE + " rt\n" +
+            "  JOIN " + DbNote.TABLE + " n ON (n." + DbNote._ID + " = rt." + DbReminderTime.NOTE_ID + ")\n" +
+            "  JOIN " + DbBook.TABLE + " b ON (b." + DbBook._ID + " = n." + DbNote.BOOK_ID + ")\n" +
+            "  JOIN " + DbOrgRange.TABLE + " r ON (r." + DbOrgRange._ID + " = CASE rt." + DbReminderTime.TIME_TYPE +
+            " WHEN " + DbTimeView.SCHEDULED_TIME + " THEN n." + DbNote.SCHEDULED_RANGE_ID +
+            " WHEN " + DbTimeView.DEADLINE_TIME + " THEN n." + DbNote.DEADLINE_RANGE_ID + " END)\n" +
+            "  JOIN " + DbOrgTimestamp.TABLE + " t ON (r." + DbOrgRange.START_TIMESTAMP_ID + " = t." + DbOrgTimestamp._ID + " )\n";
+}
@@ -0,0 +1,5 @@
+package com.orgzly.android.provider.views;
+
+public interface DbReminderViewColumns extends DbTimeViewColumns {
+    String FIRE_TIME = "fire_time";
+}
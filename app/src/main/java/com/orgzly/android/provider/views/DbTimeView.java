@@ -22,7 +22,8 @@ public class DbTimeView implements DbTimeViewColumns {
             "  n." + DbNote.STATE + " as " + NOTE_STATE + ",\n" +
             "  n." + DbNote.TITLE + " as " + NOTE_TITLE + ",\n" +
             "  " + + SCHEDULED_TIME + " as " + TIME_TYPE + ",\n" +
-            "  t." + DbOrgTimestamp.STRING + " as " + ORG_TIMESTAMP_STRING + "\n" +
+            "  t." + DbOrgTimestamp.STRING + " as " + ORG_TIMESTAMP_STRING + ",\n" +
+            "  " + DbOrgTimestamp.selectOrgDateTimeColumns("t", ORG_TIMESTAMP_PREFIX) + "\n" +
             "  FROM " + DbOrgRange.TABLE + " r\n" +
             "  JOIN " + DbOrgTimestamp.TABLE + " t ON (r." + DbOrgRange.START_TIMESTAMP_ID + " = t." + DbOrgTimestamp._ID + " )\n" +
             "  JOIN " + DbNote.TABLE + " n ON (r." + DbOrgRange._ID + " = n." + DbNote.SCHEDULED_RANGE_ID + ")\n" +
@@ -36,7 +37,8 @@ public class DbTimeView implements DbTimeViewColumns {
             "  n." + DbNote.STATE + " as " + NOTE_STATE + ",\n" +
             "  n." + DbNote.TITLE + " as " + NOTE_TITLE + ",\n" +
             "  " + DEADLINE_TIME + " as " + TIME_TYPE + ",\n" +
-            "  t." + DbOrgTimestamp.STRING + " as " + ORG_TIMESTAMP_STRING + "\n" +
+            "  t." + DbOrgTimestamp.STRING + " as " + ORG_TIMESTAMP_STRING + ",\n" +
+            "  " + DbOrgTimestamp.selectOrgDateTimeColumns("t", ORG_TIMESTAMP_PREFIX) + "\n" +
             "  FROM " + DbOrgRange.TABLE + " r\n" +
             "  JOIN " + DbOrgTimestamp.TABLE + " t ON (r." + DbOrgRange.START_TIMESTAMP_ID + " = t." + DbOrgTimestamp._ID + " )\n" +
             "  JOIN " + DbNote.TABLE + " n ON (r." + DbOrgRange._ID + " = n." + DbNote.DEADLINE_RANGE_ID + ")\n" +
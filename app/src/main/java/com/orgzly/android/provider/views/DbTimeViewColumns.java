@@ -8,4 +8,7 @@ public interface DbTimeViewColumns {
     String NOTE_TITLE = "note_title";
     String TIME_TYPE = "time_type";
     String ORG_TIMESTAMP_STRING = "org_timestamp_string";
+
+    /* Prefix of DbOrgTimestamp.ORG_DATE_TIME_COLUMNS, which follow the string. */
+    String ORG_TIMESTAMP_PREFIX = "org_timestamp_";
 }
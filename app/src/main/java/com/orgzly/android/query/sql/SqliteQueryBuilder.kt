@@ -4,6 +4,8 @@ import android.content.Context
 import android.database.DatabaseUtils
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.provider.models.DbNote
+import com.orgzly.android.provider.models.DbNoteFts
+import com.orgzly.android.provider.models.DbNoteTag
 import com.orgzly.android.provider.views.DbNoteView
 import com.orgzly.android.query.*
 import com.orgzly.org.datetime.OrgInterval
@@ -186,13 +188,13 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasTag -> {
-                repeat(2) { arguments.add("%${expr.tag}%") }
-                not(expr.not, "(COALESCE(${DbNote.TAGS}, '') LIKE ? OR COALESCE(${DbNoteView.INHERITED_TAGS}, '') LIKE ?)")
+                arguments.add(expr.tag)
+                not(expr.not, "${DbNote._ID} IN (SELECT ${DbNoteTag.NOTE_ID} FROM ${DbNoteTag.TABLE} WHERE ${DbNoteTag.TAG} = ?)")
             }
 
             is Condition.HasOwnTag -> {
-                arguments.add("%${expr.tag}%")
-                "${DbNote.TAGS} LIKE ?"
+                arguments.add(expr.tag)
+                "${DbNote._ID} IN (SELECT ${DbNoteTag.NOTE_ID} FROM ${DbNoteTag.TABLE} WHERE ${DbNoteTag.TAG} = ? AND ${DbNoteTag.IS_INHERITED} = 0)"
             }
 
             is Condition.Scheduled -> {
@@ -210,8 +212,18 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasText -> {
-                repeat(3) { arguments.add("%${expr.text}%") }
-                "(${DbNote.TITLE} LIKE ? OR ${DbNote.CONTENT} LIKE ? OR ${DbNote.TAGS} LIKE ?)"
+                val like = "(${DbNote.TITLE} LIKE ? OR ${DbNote.CONTENT} LIKE ? OR ${DbNote.TAGS} LIKE ?)"
+
+                if (expr.text.any { it.isLetterOrDigit() }) {
+                    /* Index finds the candidates, which must then contain the whole text, as before. */
+                    arguments.add(toMatchExpression(expr.text, expr.isQuoted))
+                    repeat(3) { arguments.add("%${expr.text}%") }
+                    "(${DbNote._ID} IN (SELECT ${DbNoteFts.DOCID} FROM ${DbNoteFts.TABLE} WHERE ${DbNoteFts.TABLE} MATCH ?) AND $like)"
+
+                } else { // Nothing that could be found in full-text index
+                    repeat(3) { arguments.add("%${expr.text}%") }
+                    like
+                }
             }
 
             is Condition.Or -> joinConditions(expr.operands, "OR", isOuter)
@@ -221,6 +233,21 @@ class SqliteQueryBuilder(val context: Context) {
         }
     }
 
+    /**
+     * Quoted text is matched as a phrase.
+     * Unquoted text is matched as a prefix (of its last word, if there are more).
+     * Either way, text is only found if it starts at the beginning of a word.
+     */
+    private fun toMatchExpression(text: String, isQuoted: Boolean): String {
+        val phrase = text.replace('"', ' ')
+
+        return if (isQuoted) {
+            "\"$phrase\""
+        } else {
+            "\"${phrase.trimEnd { !it.isLetterOrDigit() }}*\""
+        }
+    }
+
     private fun toInterval(column: String, interval: QueryInterval, relation: Relation): String {
         if (interval.none) {
             return "$column IS NULL"
@@ -10,6 +10,7 @@ import android.media.RingtoneManager;
 import android.net.Uri;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.evernote.android.job.JobManager;
@@ -21,13 +22,11 @@ import com.orgzly.android.NotificationActionService;
 import com.orgzly.android.Notifications;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.provider.clients.TimesClient;
+import com.orgzly.android.provider.views.DbReminderView;
 import com.orgzly.android.provider.views.DbTimeView;
 import com.orgzly.android.ui.util.ActivityUtils;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.android.util.OrgFormatter;
-import com.orgzly.org.datetime.OrgDateTime;
-import com.orgzly.org.datetime.OrgDateTimeUtils;
-import com.orgzly.org.datetime.OrgInterval;
 
 import org.joda.time.DateTime;
 import org.joda.time.ReadableInstant;
@@ -62,57 +61,91 @@ public class ReminderService extends IntentService {
         setIntentRedelivery(true);
     }
 
-    public static List<NoteReminder> getNoteReminders(
-            final Context context, final ReadableInstant now, final LastRun lastRun, final int beforeOrAfter) {
+    /**
+     * Reminders of relevant times, ordered by time.
+     */
+    public static List<NoteReminder> getNoteReminders(Context context, ReadableInstant now, int beforeOrAfter) {
+        return getNoteReminders(context, now, beforeOrAfter, null);
+    }
+
+    private static List<NoteReminder> getNoteReminders(
+            Context context, ReadableInstant now, int beforeOrAfter, String limit) {
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now, beforeOrAfter, limit);
+
+        List<String> selectionArgs = new ArrayList<>();
 
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG);
+        String selection = getRelevantSelection(context, selectionArgs) + " AND " + getIntervalSelection(beforeOrAfter, now);
 
         final List<NoteReminder> result = new ArrayList<>();
 
-        TimesClient.forEachTime(context, noteTime -> {
-            if (isRelevantNoteTime(context, noteTime)) {
-                OrgDateTime orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString);
+        TimesClient.forEachReminderTime(
+                context,
+                now,
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                limit,
+                noteTime -> {
+                    NoteReminderPayload payload = new NoteReminderPayload(
+                            noteTime.noteId, noteTime.bookId, noteTime.bookName, noteTime.title, noteTime.timeType, noteTime.orgDateTime);
 
-                NoteReminderPayload payload = new NoteReminderPayload(
-                        noteTime.noteId, noteTime.bookId, noteTime.bookName, noteTime.title, noteTime.timeType, orgDateTime);
+                    result.add(new NoteReminder(new DateTime(noteTime.fireTime), payload));
+                });
 
-                ReadableInstant[] interval = getInterval(beforeOrAfter, now, lastRun, noteTime.timeType);
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Fetched " + result.size() + " reminders");
 
-                DateTime time = OrgDateTimeUtils.getFirstWarningTime(
-                        noteTime.timeType,
-                        orgDateTime,
-                        interval[0],
-                        interval[1],
-                        new OrgInterval(9, OrgInterval.Unit.HOUR), // Default time of day
-                        new OrgInterval(1, OrgInterval.Unit.DAY) // Warning period for deadlines
-                );
+        return result;
+    }
 
-                if (time != null) {
-                    result.add(new NoteReminder(time, payload));
-                }
-            }
-        });
+    /**
+     * Times of enabled types, of notes not in done-type state.
+     */
+    private static String getRelevantSelection(Context context, List<String> selectionArgs) {
+        List<String> timeTypes = new ArrayList<>();
 
-        if (BuildConfig.LOG_DEBUG)
-            LogUtils.d(TAG, "Fetched times, now sorting " + result.size() + " entries by time...");
+        if (AppPreferences.remindersForScheduledEnabled(context)) {
+            timeTypes.add(String.valueOf(DbTimeView.SCHEDULED_TIME));
+        }
 
-        /* Sort by time, older first. */
-        Collections.sort(result, (o1, o2) -> o1.getRunTime().compareTo(o2.getRunTime()));
+        if (AppPreferences.remindersForDeadlineEnabled(context)) {
+            timeTypes.add(String.valueOf(DbTimeView.DEADLINE_TIME));
+        }
 
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Times sorted, total " + result.size());
+        if (timeTypes.isEmpty()) {
+            return "0";
+        }
 
-        return result;
-    }
+        String selection = DbReminderView.TIME_TYPE + " IN (" + TextUtils.join(", ", timeTypes) + ")";
 
-    private static boolean isRelevantNoteTime(Context context, TimesClient.NoteTime noteTime) {
-        /* Not done-type state. */
         Set<String> doneStateKeywords = AppPreferences.doneKeywordsSet(context);
-        boolean state = noteTime.state == null || !doneStateKeywords.contains(noteTime.state);
 
-        boolean scheduled = AppPreferences.remindersForScheduledEnabled(context) && noteTime.timeType == DbTimeView.SCHEDULED_TIME;
-        boolean deadline = AppPreferences.remindersForDeadlineEnabled(context) && noteTime.timeType == DbTimeView.DEADLINE_TIME;
+        if (!doneStateKeywords.isEmpty()) {
+            selection += " AND (" + DbReminderView.NOTE_STATE + " IS NULL OR " +
+                         DbReminderView.NOTE_STATE + " NOT IN (" +
+                         TextUtils.join(", ", Collections.nCopies(doneStateKeywords.size(), "?")) + "))";
 
-        return state && (scheduled || deadline);
+            selectionArgs.addAll(doneStateKeywords);
+        }
+
+        return selection;
+    }
+
+    /**
+     * Reminders which have fired are only moved to their next time by
+     * {@link TimesClient#rescheduleReminders(Context, ReadableInstant)},
+     * so all of them are due, no matter when they fired.
+     */
+    private static String getIntervalSelection(int beforeOrAfter, ReadableInstant now) {
+        switch (beforeOrAfter) {
+            case TIME_BEFORE_NOW:
+                return DbReminderView.FIRE_TIME + " <= " + now.getMillis();
+
+            case TIME_FROM_NOW:
+                return DbReminderView.FIRE_TIME + " > " + now.getMillis();
+
+            default:
+                throw new IllegalArgumentException("Before or after now?");
+        }
     }
 
     /**
@@ -143,30 +176,6 @@ public class ReminderService extends IntentService {
         context.startService(intent);
     }
 
-    private static ReadableInstant[] getInterval(int beforeOrAfter, ReadableInstant now, LastRun lastRun, int timeType) {
-        ReadableInstant[] res = new ReadableInstant[2];
-
-        switch (beforeOrAfter) {
-            case TIME_BEFORE_NOW: // Before now, starting from lastRun, depending on timeType
-                res[0] = timeType == DbTimeView.SCHEDULED_TIME ? lastRun.scheduled : lastRun.deadline;
-                if (res[0] == null) {
-                    res[0] = now;
-                }
-                res[1] = now;
-                break;
-
-            case TIME_FROM_NOW:
-                res[0] = now;
-                res[1] = null;
-                break;
-
-            default:
-                throw new IllegalArgumentException("Before or after now?");
-        }
-
-        return res;
-    }
-
     @Override
     protected void onHandleIntent(Intent intent) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, intent);
@@ -178,21 +187,18 @@ public class ReminderService extends IntentService {
 
         DateTime now = new DateTime();
 
-        LastRun lastRun = readLastRun();
-
         int event = intent.getIntExtra(EXTRA_EVENT, EVENT_UNKNOWN);
 
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Event: " + event);
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, " Last: " + lastRun);
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "  Now: " + now);
 
         switch (event) {
             case EVENT_DATA_CHANGED:
-                onDataChanged(now, lastRun);
+                onDataChanged(now);
                 break;
 
             case EVENT_JOB_TRIGGERED:
-                onJobTriggered(now, lastRun);
+                onJobTriggered(now);
                 break;
 
             case EVENT_SNOOZE_JOB_TRIGGERED:
@@ -206,62 +212,33 @@ public class ReminderService extends IntentService {
 
             default:
                 Log.e(TAG, "Unknown event received, ignoring it");
-                return;
-        }
-
-        writeLastRun(now);
-    }
-
-    private LastRun readLastRun() {
-        LastRun lastRun = new LastRun();
-        long ms;
-
-        ms = AppPreferences.reminderLastRunForScheduled(this);
-        if (ms > 0) {
-            lastRun.scheduled = new DateTime(ms);
-        }
-
-        ms = AppPreferences.reminderLastRunForDeadline(this);
-        if (ms > 0) {
-            lastRun.deadline = new DateTime(ms);
-        }
-
-        return lastRun;
-    }
-
-    private void writeLastRun(DateTime now) {
-        Context context = this;
-
-        if (AppPreferences.remindersForScheduledEnabled(context)) {
-            AppPreferences.reminderLastRunForScheduled(context, now.getMillis());
-        }
-
-        if (AppPreferences.remindersForDeadlineEnabled(context)) {
-            AppPreferences.reminderLastRunForDeadline(context, now.getMillis());
         }
     }
 
     /**
-     * Schedule the next job for times after last run.
+     * Schedule the next job for times after now.
+     *
+     * Reminders missed since the last event are not displayed, only moved to their next time.
      */
-    private void onDataChanged(DateTime now, LastRun lastRun) {
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now, lastRun);
+    private void onDataChanged(DateTime now) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now);
 
         ReminderJob.cancelAll();
 
-        scheduleNextJob(now, lastRun);
+        TimesClient.rescheduleReminders(this, now);
+
+        scheduleNextJob(now);
     }
 
-    private void scheduleNextJob(DateTime now, LastRun lastRun) {
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now, lastRun);
+    private void scheduleNextJob(DateTime now) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now);
 
-        List<NoteReminder> notes = ReminderService.getNoteReminders(
-                this, now, lastRun, TIME_FROM_NOW);
+        /* Schedule only the first upcoming time. */
+        List<NoteReminder> notes = ReminderService.getNoteReminders(this, now, TIME_FROM_NOW, "1");
 
         String log;
 
         if (!notes.isEmpty()) {
-            /* Schedule only the first upcoming time. */
             NoteReminder firstNote = notes.get(0);
 
             /* Schedule *in* exactMs. */
@@ -288,58 +265,64 @@ public class ReminderService extends IntentService {
     }
 
     /**
-     * Display reminders for all notes with times between
-     * last run and now. Then schedule the next job for times after now.
+     * Display reminders for all notes with reminders due by now,
+     * move them to their next time, then schedule the next job.
      */
-    private void onJobTriggered(DateTime now, LastRun lastRun) {
-        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now, lastRun);
+    private void onJobTriggered(DateTime now) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, now);
 
         ReminderJob.cancelAll();
 
-        String msg;
+        List<NoteReminder> notes = ReminderService.getNoteReminders(this, now, TIME_BEFORE_NOW);
 
-        if (lastRun != null) {
-            /* Show notifications for all notes with times from previous run until now. */
-            List<NoteReminder> notes = ReminderService.getNoteReminders(
-                    this, now, lastRun, TIME_BEFORE_NOW);
+        String msg;
 
-            if (!notes.isEmpty()) {
-                msg = "Found " + notes.size() + " notes between " + lastRun + " and " + now;
-                showNotification(this, notes);
-            } else {
-                msg = "No notes found between " + lastRun + " and " + now;
-            }
+        if (!notes.isEmpty()) {
+            msg = "Found " + notes.size() + " notes due by " + now;
+            showNotification(this, notes);
         } else {
-            msg = "No previous run";
+            msg = "No notes due by " + now;
         }
 
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, msg);
 
+        TimesClient.rescheduleReminders(this, now);
+
         /* Schedule from now. */
-        scheduleNextJob(now, lastRun);
+        scheduleNextJob(now);
     }
 
     private void onSnoozeTriggered(final Context context, final long noteId,
                                    final int noteTimeType, final long timestamp) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, noteId, timestamp);
 
-        String msg;
-        // FIXME TODO replace this with a simpler query, may need to create it in notesclient
+        List<String> selectionArgs = new ArrayList<>();
+
+        String selection = getRelevantSelection(context, selectionArgs) +
+                           " AND " + DbReminderView.NOTE_ID + " = " + noteId +
+                           " AND " + DbReminderView.TIME_TYPE + " = " + noteTimeType;
+
         final List<NoteReminder> result = new ArrayList<>();
-        TimesClient.forEachTime(context, noteTime -> {
-            if (noteTime.noteId == noteId && noteTime.timeType == noteTimeType && isRelevantNoteTime(context, noteTime)) {
-                OrgDateTime orgDateTime = OrgDateTime.parse(noteTime.orgTimestampString);
-                NoteReminderPayload payload = new NoteReminderPayload(
-                        noteTime.noteId,
-                        noteTime.bookId,
-                        noteTime.bookName,
-                        noteTime.title,
-                        noteTime.timeType,
-                        orgDateTime);
-                DateTime timestampDateTime = new DateTime(timestamp);
-                result.add(new NoteReminder(timestampDateTime, payload));
-            }
-        });
+
+        TimesClient.forEachReminderTime(
+                context,
+                new DateTime(),
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                noteTime -> {
+                    NoteReminderPayload payload = new NoteReminderPayload(
+                            noteTime.noteId,
+                            noteTime.bookId,
+                            noteTime.bookName,
+                            noteTime.title,
+                            noteTime.timeType,
+                            noteTime.orgDateTime);
+                    DateTime timestampDateTime = new DateTime(timestamp);
+                    result.add(new NoteReminder(timestampDateTime, payload));
+                });
+
+        String msg;
 
         if (!result.isEmpty()) {
             msg = "Found " + result.size() + " notes";
@@ -516,14 +499,4 @@ public class ReminderService extends IntentService {
                 intent,
                 PendingIntent.FLAG_UPDATE_CURRENT);
     }
-
-    static class LastRun {
-        DateTime scheduled;
-        DateTime deadline;
-
-        @Override
-        public String toString() {
-            return "Scheduled: " + scheduled + "  Deadline: " + deadline;
-        }
-    }
 }
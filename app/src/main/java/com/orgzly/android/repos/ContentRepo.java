@@ -33,9 +33,20 @@ public class ContentRepo implements Repo {
 
     private final DocumentFile repoDocumentFile;
 
+    /** Hashes of the file content used as revisions, null to use modification time. */
+    private final ContentRevisions contentRevisions;
+
     public ContentRepo(Context context, Uri uri) throws IOException {
+        this(context, uri, false);
+    }
+
+    /**
+     * @param useContentRevisions use hash of the file content as revision, instead of modification time
+     */
+    public ContentRepo(Context context, Uri uri, boolean useContentRevisions) throws IOException {
         this.context = context;
         this.repoUri = uri;
+        this.contentRevisions = useContentRevisions ? new ContentRevisions(context) : null;
 
         this.repoDocumentFile = DocumentFile.fromTreeUri(context, uri);
     }
@@ -97,7 +108,7 @@ public class ContentRepo implements Repo {
                     result.add(new VersionedRook(
                             getUri(),
                             file.getUri(),
-                            String.valueOf(file.lastModified()),
+                            getRevision(file),
                             file.lastModified()
                     ));
                 }
@@ -122,12 +133,26 @@ public class ContentRepo implements Repo {
             is.close();
         }
 
-        String rev = String.valueOf(sourceFile.lastModified());
+        String rev = getRevision(sourceFile);
         long mtime = sourceFile.lastModified();
 
         return new VersionedRook(repoUri, uri, rev, mtime);
     }
 
+    @Override
+    public VersionedRookInputStream openBook(Uri uri) throws IOException {
+        DocumentFile sourceFile = DocumentFile.fromSingleUri(context, uri);
+
+        VersionedRook vrook = new VersionedRook(repoUri, uri, getRevision(sourceFile), sourceFile.lastModified());
+
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            throw new IOException("Failed opening " + uri);
+        }
+
+        return new VersionedRookInputStream(vrook, is);
+    }
+
     @Override
     public VersionedRook storeBook(File file, String fileName) throws IOException {
         if (!file.exists()) {
@@ -159,7 +184,7 @@ public class ContentRepo implements Repo {
             }
         }
 
-        String rev = String.valueOf(destinationFile.lastModified());
+        String rev = getRevision(destinationFile);
         long mtime = System.currentTimeMillis();
 
         return new VersionedRook(getUri(), uri, rev, mtime);
@@ -181,7 +206,7 @@ public class ContentRepo implements Repo {
             Uri newUri = DocumentsContract.renameDocument(context.getContentResolver(), from, newFileName);
 
             long mtime = fromDocFile.lastModified();
-            String rev = String.valueOf(mtime);
+            String rev = getRevision(DocumentFile.fromSingleUri(context, newUri));
 
             return new VersionedRook(getUri(), newUri, rev, mtime);
 
@@ -206,6 +231,20 @@ public class ContentRepo implements Repo {
         }
     }
 
+    private String getRevision(final DocumentFile file) throws IOException {
+        if (contentRevisions != null) {
+            return contentRevisions.get(file.getUri().toString(), file.length(), file.lastModified(), new ContentRevisions.Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return context.getContentResolver().openInputStream(file.getUri());
+                }
+            });
+
+        } else {
+            return String.valueOf(file.lastModified());
+        }
+    }
+
     @Override
     public String toString() {
         return getUri().toString();
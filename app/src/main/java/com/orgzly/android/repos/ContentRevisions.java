@@ -0,0 +1,140 @@
+package com.orgzly.android.repos;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.util.LogUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Revisions calculated from file content, for repositories which only have file's
+ * modification time to use as a revision. Touching a file changes its modification time,
+ * but not its content revision, so such file doesn't need to be loaded again.
+ *
+ * Digests are kept in shared preferences by path, size and modification time, so they
+ * survive restarts. File is read and hashed again only if one of those changed.
+ */
+public class ContentRevisions {
+    private static final String TAG = ContentRevisions.class.getName();
+
+    private static final String SHARED_PREF_NAME = "content-revisions";
+
+    private static final String JSON_SIZE = "size";
+    private static final String JSON_MTIME = "mtime";
+    private static final String JSON_REVISION = "rev";
+
+    private static final String PREFIX = "sha1:";
+
+    /** Digests of files which no longer exist are not removed, all are forgotten when there are too many. */
+    private static final int MAX_ENTRIES = 2048;
+
+    private final SharedPreferences preferences;
+
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    public ContentRevisions(Context context) {
+        preferences = context.getSharedPreferences(SHARED_PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return revision for content of the file at {@code path}
+     */
+    public String get(String path, long size, long mtime, Source source) throws IOException {
+        String cached = getCached(path, size, mtime);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        String revision = PREFIX + digest(source);
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Hashed " + path + " (" + size + " bytes): " + revision);
+
+        put(path, size, mtime, revision);
+
+        return revision;
+    }
+
+    private String getCached(String path, long size, long mtime) {
+        String value = preferences.getString(path, null);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            JSONObject json = new JSONObject(value);
+
+            if (json.getLong(JSON_SIZE) == size && json.getLong(JSON_MTIME) == mtime) {
+                return json.getString(JSON_REVISION);
+            }
+
+        } catch (JSONException e) {
+            /* Content will be hashed again. */
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private void put(String path, long size, long mtime, String revision) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put(JSON_SIZE, size)
+                    .put(JSON_MTIME, mtime)
+                    .put(JSON_REVISION, revision);
+
+            SharedPreferences.Editor editor = preferences.edit();
+
+            if (preferences.getAll().size() >= MAX_ENTRIES) {
+                editor.clear();
+            }
+
+            editor.putString(path, json.toString()).apply();
+
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String digest(Source source) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        InputStream in = source.open();
+        if (in == null) {
+            throw new IOException("Failed opening " + source);
+        }
+
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                md.update(buf, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : md.digest()) {
+            result.append(String.format("%02x", b));
+        }
+
+        return result.toString();
+    }
+}
@@ -9,9 +9,11 @@ import com.orgzly.android.util.MiscUtils;
 import com.orgzly.android.util.UriUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -25,14 +27,29 @@ public class DirectoryRepo implements Repo {
 
     private final Uri repoUri;
 
+    /** Hashes of the file content used as revisions, null to use modification time. */
+    private final ContentRevisions contentRevisions;
+
     /**
      *
      * @param url repo url, in the format (file:/a/b/c)
      * @param wipe should files be deleted first from directory
      */
     public DirectoryRepo(String url, boolean wipe) throws IOException {
+        this(url, wipe, null);
+    }
+
+    /**
+     *
+     * @param url repo url, in the format (file:/a/b/c)
+     * @param wipe should files be deleted first from directory
+     * @param contentRevisions use hash of the file content as revision, instead of modification time
+     */
+    public DirectoryRepo(String url, boolean wipe, ContentRevisions contentRevisions) throws IOException {
         repoUri = Uri.parse(url);
 
+        this.contentRevisions = contentRevisions;
+
         mDirectory = new File(repoUri.getPath());
 
         /* Delete entire contents of directory. */
@@ -86,7 +103,7 @@ public class DirectoryRepo implements Repo {
                 result.add(new VersionedRook(
                         repoUri,
                         uri,
-                        String.valueOf(files[i].lastModified()),
+                        getRevision(files[i]),
                         files[i].lastModified()
                 ));
             }
@@ -105,12 +122,21 @@ public class DirectoryRepo implements Repo {
         /* "Download" the file. */
         MiscUtils.copyFile(sourceFile, destinationFile);
 
-        String rev = String.valueOf(sourceFile.lastModified());
+        String rev = getRevision(sourceFile);
         long mtime = sourceFile.lastModified();
 
         return new VersionedRook(repoUri, uri, rev, mtime);
     }
 
+    @Override
+    public VersionedRookInputStream openBook(Uri uri) throws IOException {
+        File sourceFile = new File(uri.getPath());
+
+        VersionedRook vrook = new VersionedRook(repoUri, uri, getRevision(sourceFile), sourceFile.lastModified());
+
+        return new VersionedRookInputStream(vrook, new FileInputStream(sourceFile));
+    }
+
     @Override
     public VersionedRook storeBook(File file, String fileName) throws IOException {
         if (!file.exists()) {
@@ -125,7 +151,7 @@ public class DirectoryRepo implements Repo {
         /* "Upload" the file. */
         MiscUtils.copyFile(file, destinationFile);
 
-        String rev = String.valueOf(destinationFile.lastModified());
+        String rev = getRevision(destinationFile);
         long mtime = System.currentTimeMillis();
 
         Uri uri = repoUri.buildUpon().appendPath(fileName).build();
@@ -147,7 +173,7 @@ public class DirectoryRepo implements Repo {
             throw new IOException("Failed renaming " + fromFile + " to " + toFile);
         }
 
-        String rev = String.valueOf(toFile.lastModified());
+        String rev = getRevision(toFile);
         long mtime = toFile.lastModified();
 
         return new VersionedRook(repoUri, newUri, rev, mtime);
@@ -164,6 +190,20 @@ public class DirectoryRepo implements Repo {
         }
     }
 
+    private String getRevision(final File file) throws IOException {
+        if (contentRevisions != null) {
+            return contentRevisions.get(file.getAbsolutePath(), file.length(), file.lastModified(), new ContentRevisions.Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return new FileInputStream(file);
+                }
+            });
+
+        } else {
+            return String.valueOf(file.lastModified());
+        }
+    }
+
     public File getDirectory() {
         return mDirectory;
     }
@@ -4,13 +4,16 @@ import android.app.Activity;
 import android.content.Context;
 import android.net.Uri;
 
+import com.dropbox.core.DbxDownloader;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxRequestConfig;
 import com.dropbox.core.android.Auth;
 import com.dropbox.core.v2.DbxClientV2;
+import com.dropbox.core.v2.files.DeletedMetadata;
 import com.dropbox.core.v2.files.FileMetadata;
 import com.dropbox.core.v2.files.FolderMetadata;
 import com.dropbox.core.v2.files.GetMetadataErrorException;
+import com.dropbox.core.v2.files.ListFolderContinueErrorException;
 import com.dropbox.core.v2.files.ListFolderResult;
 import com.dropbox.core.v2.files.LookupError;
 import com.dropbox.core.v2.files.Metadata;
@@ -18,6 +21,7 @@ import com.dropbox.core.v2.files.WriteMode;
 import com.orgzly.BuildConfig;
 import com.orgzly.android.BookName;
 import com.orgzly.android.prefs.AppPreferences;
+import com.orgzly.android.util.LogUtils;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -44,20 +48,33 @@ public class DropboxClient {
 
     private Context mContext;
     private DbxClientV2 dbxClient;
+    private FilesApi filesApi;
+    private DropboxListingCache listingCache;
     private boolean tryLinking = false;
 
     public DropboxClient(Context context) {
         mContext = context;
+        listingCache = new DropboxListingCache(context);
 
         String accessToken = loadToken();
 
         if (accessToken != null) {
-            dbxClient = getDbxClient(accessToken);
+            setDbxClient(getDbxClient(accessToken));
         }
     }
 
+    /**
+     * Used by tests to list folders using a fake Dropbox API.
+     */
+    DropboxClient(Context context, FilesApi filesApi) {
+        mContext = context;
+        listingCache = new DropboxListingCache(context);
+
+        this.filesApi = filesApi;
+    }
+
     public boolean isLinked() {
-        return dbxClient != null;
+        return filesApi != null;
     }
 
     public void linkedOrThrow() throws IOException {
@@ -67,8 +84,9 @@ public class DropboxClient {
     }
 
     public void unlink() {
-        dbxClient = null;
+        setDbxClient(null);
         deleteToken();
+        listingCache.clear();
         tryLinking = false;
     }
 
@@ -90,7 +108,7 @@ public class DropboxClient {
             }
 
             if (accessToken != null) {
-                dbxClient = getDbxClient(accessToken);
+                setDbxClient(getDbxClient(accessToken));
                 return true;
             }
         }
@@ -98,6 +116,42 @@ public class DropboxClient {
         return false;
     }
 
+    private void setDbxClient(final DbxClientV2 client) {
+        dbxClient = client;
+
+        if (client == null) {
+            filesApi = null;
+            return;
+        }
+
+        filesApi = new FilesApi() {
+            @Override
+            public Metadata getMetadata(String path) throws DbxException {
+                return client.files().getMetadata(path);
+            }
+
+            @Override
+            public ListFolderResult listFolder(String path) throws DbxException {
+                return client.files().listFolder(path);
+            }
+
+            @Override
+            public ListFolderResult listFolderContinue(String cursor) throws DbxException {
+                try {
+                    return client.files().listFolderContinue(cursor);
+
+                } catch (ListFolderContinueErrorException e) {
+                    /* Cursor reset, or folder deleted or renamed since the cursor was created. */
+                    if (e.errorValue.isReset() ||
+                        e.errorValue.isPath() && e.errorValue.getPathValue() == LookupError.NOT_FOUND) {
+                        return null;
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
     private DbxClientV2 getDbxClient(String accessToken) {
         String userLocale = Locale.getDefault().toString();
 
@@ -124,11 +178,17 @@ public class DropboxClient {
         AppPreferences.dropboxToken(mContext, null);
     }
 
+    /**
+     * Lists supported files in the repository.
+     *
+     * The first listing is fetched in full. Its list-folder cursor is stored
+     * together with the listing, so later calls only need to fetch and apply
+     * the changes. If Dropbox resets the cursor or the folder no longer exists
+     * at its path, stored listing is dropped and full listing is fetched again.
+     */
     public List<VersionedRook> getBooks(Uri repoUri) throws IOException {
         linkedOrThrow();
 
-        List<VersionedRook> list = new ArrayList<>();
-
         String path = repoUri.getPath();
 
         /* Fix root path. */
@@ -140,45 +200,44 @@ public class DropboxClient {
         path = path.replaceAll("/+$", "");
 
         try {
-            if (ROOT_PATH.equals(path) || dbxClient.files().getMetadata(path) instanceof FolderMetadata) {
-                /* Get folder content. */
-                ListFolderResult result = dbxClient.files().listFolder(path);
-                while (true) {
-                    for (Metadata metadata : result.getEntries()) {
-                        if (metadata instanceof FileMetadata) {
-                            FileMetadata file = (FileMetadata) metadata;
-
-                            if (BookName.isSupportedFormatFileName(file.getName())) {
-                                Uri uri = repoUri.buildUpon().appendPath(file.getName()).build();
-                                VersionedRook book = new VersionedRook(
-                                        repoUri,
-                                        uri,
-                                        file.getRev(),
-                                        file.getServerModified().getTime());
-
-                                list.add(book);
-                            }
-                        }
-                    }
+            DropboxListingCache.Listing listing = listingCache.get(repoUri);
+
+            if (listing != null) {
+                if (!continueListing(listing, filesApi.listFolderContinue(listing.getCursor()))) {
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Cursor invalid for " + repoUri + ", listing again");
+                    listingCache.remove(repoUri);
+                    listing = null;
+                }
+            }
+
+            if (listing == null) {
+                if (ROOT_PATH.equals(path) || filesApi.getMetadata(path) instanceof FolderMetadata) {
+                    /* Get folder content. */
+                    ListFolderResult result = filesApi.listFolder(path);
 
-                    if (!result.getHasMore()) {
-                        break;
+                    listing = new DropboxListingCache.Listing(result.getCursor());
+
+                    if (!continueListing(listing, result)) {
+                        throw new IOException("Folder changed while listing " + repoUri);
                     }
 
-                    result = dbxClient.files().listFolderContinue(result.getCursor());
+                } else {
+                    throw new IOException("Not a directory: " + repoUri);
                 }
-
-            } else {
-                throw new IOException("Not a directory: " + repoUri);
             }
 
+            listingCache.put(repoUri, listing);
+
+            return listing.getVersionedRooks(repoUri);
+
         } catch (DbxException e) {
             e.printStackTrace();
 
             /* If we get NOT_FOUND from Dropbox, just return the empty list. */
             if (e instanceof GetMetadataErrorException) {
                 if (((GetMetadataErrorException) e).errorValue.getPathValue() == LookupError.NOT_FOUND) {
-                    return list;
+                    listingCache.remove(repoUri);
+                    return new ArrayList<>();
                 }
             }
 
@@ -186,8 +245,40 @@ public class DropboxClient {
                                   " listing " + path + ": " +
                                   (e.getMessage() != null ? e.getMessage() : e.toString()));
         }
+    }
+
+    /**
+     * Applies entries from the result and all following pages to the listing.
+     *
+     * @return false if the cursor has been reset or the folder is gone
+     */
+    private boolean continueListing(DropboxListingCache.Listing listing, ListFolderResult result) throws DbxException {
+        while (true) {
+            if (result == null) {
+                return false;
+            }
+
+            for (Metadata metadata : result.getEntries()) {
+                if (metadata instanceof FileMetadata) {
+                    FileMetadata file = (FileMetadata) metadata;
 
-        return list;
+                    if (BookName.isSupportedFormatFileName(file.getName())) {
+                        listing.put(file.getName(), file.getRev(), file.getServerModified().getTime());
+                    }
+
+                } else if (metadata instanceof DeletedMetadata) {
+                    listing.remove(metadata.getName());
+                }
+            }
+
+            listing.setCursor(result.getCursor());
+
+            if (!result.getHasMore()) {
+                return true;
+            }
+
+            result = filesApi.listFolderContinue(result.getCursor());
+        }
     }
 
     /**
@@ -227,6 +318,40 @@ public class DropboxClient {
     }
 
 
+    /**
+     * Open file on Dropbox for reading. Metadata is received with the content.
+     */
+    public VersionedRookInputStream openBook(Uri repoUri, Uri uri) throws IOException {
+        linkedOrThrow();
+
+        try {
+            final DbxDownloader<FileMetadata> downloader = dbxClient.files().download(uri.getPath());
+
+            FileMetadata metadata = downloader.getResult();
+
+            String rev = metadata.getRev();
+            long mtime = metadata.getServerModified().getTime();
+
+            return new VersionedRookInputStream(new VersionedRook(repoUri, uri, rev, mtime), downloader.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        downloader.close();
+                    }
+                }
+            };
+
+        } catch (DbxException e) {
+            if (e.getMessage() != null) {
+                throw new IOException("Failed downloading Dropbox file " + uri + ": " + e.getMessage());
+            } else {
+                throw new IOException("Failed downloading Dropbox file " + uri + ": " + e.toString());
+            }
+        }
+    }
+
     /** Upload file to Dropbox. */
     public VersionedRook upload(File file, Uri repoUri, String fileName) throws IOException {
         linkedOrThrow();
@@ -298,4 +423,19 @@ public class DropboxClient {
             }
         }
     }
+
+    /**
+     * Part of the Dropbox files API used for listing folders.
+     */
+    interface FilesApi {
+        Metadata getMetadata(String path) throws DbxException;
+
+        ListFolderResult listFolder(String path) throws DbxException;
+
+        /**
+         * @return null if the cursor has been reset or the folder is not found at its path
+         * anymore, and folder must be listed from scratch
+         */
+        ListFolderResult listFolderContinue(String cursor) throws DbxException;
+    }
 }
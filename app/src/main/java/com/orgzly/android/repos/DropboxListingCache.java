@@ -0,0 +1,145 @@
+package com.orgzly.android.repos;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last known content of each Dropbox repository, together with the list-folder cursor
+ * that can be used to fetch only the changes made since.
+ */
+public class DropboxListingCache {
+    private static final String SHARED_PREF_NAME = "dropbox-listings";
+
+    private static final String JSON_CURSOR = "cursor";
+    private static final String JSON_FILES = "files";
+    private static final String JSON_NAME = "name";
+    private static final String JSON_REVISION = "rev";
+    private static final String JSON_MTIME = "mtime";
+
+    private final SharedPreferences preferences;
+
+    public DropboxListingCache(Context context) {
+        preferences = context.getSharedPreferences(SHARED_PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return cached listing or null if repository has not been listed before
+     */
+    public Listing get(Uri repoUri) {
+        String value = preferences.getString(repoUri.toString(), null);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            JSONObject json = new JSONObject(value);
+
+            Listing listing = new Listing(json.getString(JSON_CURSOR));
+
+            JSONArray files = json.getJSONArray(JSON_FILES);
+            for (int i = 0; i < files.length(); i++) {
+                JSONObject file = files.getJSONObject(i);
+                listing.put(file.getString(JSON_NAME), file.getString(JSON_REVISION), file.getLong(JSON_MTIME));
+            }
+
+            return listing;
+
+        } catch (JSONException e) {
+            /* Listing will be fetched again. */
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void put(Uri repoUri, Listing listing) {
+        try {
+            JSONArray files = new JSONArray();
+
+            for (File file : listing.files.values()) {
+                files.put(new JSONObject()
+                        .put(JSON_NAME, file.name)
+                        .put(JSON_REVISION, file.revision)
+                        .put(JSON_MTIME, file.mtime));
+            }
+
+            JSONObject json = new JSONObject()
+                    .put(JSON_CURSOR, listing.cursor)
+                    .put(JSON_FILES, files);
+
+            preferences.edit().putString(repoUri.toString(), json.toString()).apply();
+
+        } catch (JSONException e) {
+            e.printStackTrace();
+            remove(repoUri);
+        }
+    }
+
+    public void remove(Uri repoUri) {
+        preferences.edit().remove(repoUri.toString()).apply();
+    }
+
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+
+    public static class Listing {
+        private String cursor;
+
+        /** Files keyed by lower-cased name, as Dropbox paths are case-insensitive. */
+        private final Map<String, File> files = new LinkedHashMap<>();
+
+        public Listing(String cursor) {
+            this.cursor = cursor;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public void setCursor(String cursor) {
+            this.cursor = cursor;
+        }
+
+        public void put(String name, String revision, long mtime) {
+            files.put(name.toLowerCase(), new File(name, revision, mtime));
+        }
+
+        public void remove(String name) {
+            files.remove(name.toLowerCase());
+        }
+
+        public List<VersionedRook> getVersionedRooks(Uri repoUri) {
+            List<VersionedRook> result = new ArrayList<>();
+
+            for (File file : files.values()) {
+                Uri uri = repoUri.buildUpon().appendPath(file.name).build();
+                result.add(new VersionedRook(repoUri, uri, file.revision, file.mtime));
+            }
+
+            return result;
+        }
+    }
+
+    private static class File {
+        final String name;
+        final String revision;
+        final long mtime;
+
+        File(String name, String revision, long mtime) {
+            this.name = name;
+            this.revision = revision;
+            this.mtime = mtime;
+        }
+    }
+}
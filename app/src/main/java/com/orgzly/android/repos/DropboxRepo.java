@@ -46,6 +46,11 @@ public class DropboxRepo implements Repo {
         return client.download(repoUri, uri, file);
     }
 
+    @Override
+    public VersionedRookInputStream openBook(Uri uri) throws IOException {
+        return client.openBook(repoUri, uri);
+    }
+
     @Override
     public VersionedRook storeBook(File file, String fileName) throws IOException {
         return client.upload(file, repoUri, fileName);
@@ -50,6 +50,11 @@ public class LocalDbRepo implements Repo {
         return LocalDbRepoClient.retrieveBook(mContext, repoUri, uri, file);
     }
 
+    @Override
+    public VersionedRookInputStream openBook(Uri uri) throws IOException {
+        return LocalDbRepoClient.openBook(mContext, repoUri, uri);
+    }
+
     @Override
     public VersionedRook storeBook(File file, String fileName) throws IOException {
         String content = MiscUtils.readStringFromFile(file);
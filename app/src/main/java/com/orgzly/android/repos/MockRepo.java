@@ -17,14 +17,27 @@ import java.util.List;
 public class MockRepo implements Repo {
     public static final String SCHEME = "mock";
 
-    private static final long SLEEP_FOR_GET_BOOKS = 100;
-    private static final long SLEEP_FOR_RETRIEVE_BOOK = 200;
-    private static final long SLEEP_FOR_STORE_BOOK = 200;
+    /** Latency used by repositories created from now on. */
+    private static volatile Latency configuredLatency = Latency.DEFAULT;
+
+    /**
+     * Sets simulated latency for mock repositories created after the call.
+     */
+    public static void setLatency(Latency latency) {
+        configuredLatency = latency;
+    }
+
+    public static void resetLatency() {
+        configuredLatency = Latency.DEFAULT;
+    }
 
     private LocalDbRepo localDbRepo;
 
+    private final Latency latency;
+
     public MockRepo(Context context, String url) {
         localDbRepo = new LocalDbRepo(context, url);
+        latency = configuredLatency;
     }
 
     @Override
@@ -45,7 +58,7 @@ public class MockRepo implements Repo {
     @Override
     public List<VersionedRook> getBooks() throws IOException {
         try {
-            Thread.sleep(SLEEP_FOR_GET_BOOKS);
+            Thread.sleep(latency.getBooks);
         } catch (InterruptedException e) { }
 
         return localDbRepo.getBooks();
@@ -54,16 +67,25 @@ public class MockRepo implements Repo {
     @Override
     public VersionedRook retrieveBook(Uri uri, File file) throws IOException {
         try {
-            Thread.sleep(SLEEP_FOR_RETRIEVE_BOOK);
+            Thread.sleep(latency.retrieveBook);
         } catch (InterruptedException e) { }
 
         return localDbRepo.retrieveBook(uri, file);
     }
 
+    @Override
+    public VersionedRookInputStream openBook(Uri uri) throws IOException {
+        try {
+            Thread.sleep(latency.retrieveBook);
+        } catch (InterruptedException e) { }
+
+        return localDbRepo.openBook(uri);
+    }
+
     @Override
     public VersionedRook storeBook(File file, String fileName) throws IOException {
         try {
-            Thread.sleep(SLEEP_FOR_STORE_BOOK);
+            Thread.sleep(latency.storeBook);
         } catch (InterruptedException e) { }
 
         return localDbRepo.storeBook(file, fileName);
@@ -72,7 +94,7 @@ public class MockRepo implements Repo {
     @Override
     public VersionedRook renameBook(Uri fromUri, String name) throws IOException {
         try {
-            Thread.sleep(SLEEP_FOR_STORE_BOOK);
+            Thread.sleep(latency.storeBook);
         } catch (InterruptedException e) { }
 
         return localDbRepo.renameBook(fromUri, name);
@@ -81,4 +103,21 @@ public class MockRepo implements Repo {
     @Override
     public void delete(Uri uri) throws IOException {
     }
+
+    /**
+     * Simulated latency of repository operations, in ms.
+     */
+    public static class Latency {
+        public static final Latency DEFAULT = new Latency(100, 200, 200);
+
+        private final long getBooks;
+        private final long retrieveBook;
+        private final long storeBook;
+
+        public Latency(long getBooks, long retrieveBook, long storeBook) {
+            this.getBooks = getBooks;
+            this.retrieveBook = retrieveBook;
+            this.storeBook = storeBook;
+        }
+    }
 }
@@ -33,6 +33,12 @@ public interface Repo {
      */
     VersionedRook retrieveBook(Uri uri, File destination) throws IOException;
 
+    /**
+     * Open the latest available revision of the book for reading, without storing it first.
+     * Returned stream must be closed by the caller.
+     */
+    VersionedRookInputStream openBook(Uri uri) throws IOException;
+
     /**
      * Uploads book storing it under given filename under repo's url.
      */
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.net.Uri;
 
 import com.orgzly.BuildConfig;
+import com.orgzly.android.prefs.AppPreferences;
 
 public class RepoFactory {
     public static Repo getFromUri(Context context, Uri uri) {
@@ -18,7 +19,7 @@ public class RepoFactory {
             try {
                 switch (uri.getScheme()) {
                     case ContentRepo.SCHEME:
-                        return new ContentRepo(context, uri);
+                        return new ContentRepo(context, uri, AppPreferences.contentRevisions(context));
 
                     case DropboxRepo.SCHEME:
                         if (! BuildConfig.IS_DROPBOX_ENABLED) {
@@ -33,7 +34,8 @@ public class RepoFactory {
                         return new DropboxRepo(context, uri);
 
                     case DirectoryRepo.SCHEME:
-                        return new DirectoryRepo(uriString, false);
+                        return new DirectoryRepo(uriString, false,
+                                AppPreferences.contentRevisions(context) ? new ContentRevisions(context) : null);
 
                     case MockRepo.SCHEME:
                         return new MockRepo(context, uriString);
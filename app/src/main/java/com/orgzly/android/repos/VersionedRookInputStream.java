@@ -0,0 +1,21 @@
+package com.orgzly.android.repos;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * Content of a specific version of {@link Rook}, read directly from the repository.
+ */
+public class VersionedRookInputStream extends FilterInputStream {
+    private final VersionedRook versionedRook;
+
+    public VersionedRookInputStream(VersionedRook versionedRook, InputStream in) {
+        super(in);
+
+        this.versionedRook = versionedRook;
+    }
+
+    public VersionedRook getVersionedRook() {
+        return versionedRook;
+    }
+}
@@ -28,6 +28,9 @@ public class BookNamesake {
 
     private BookSyncStatus status;
 
+    /** Nothing changed, locally or remotely, since the previous sync. */
+    private boolean isUnchanged;
+
     public BookNamesake(String name) {
         this.name = name;
     }
@@ -89,6 +92,35 @@ public class BookNamesake {
         return status;
     }
 
+    public boolean isUnchanged() {
+        return isUnchanged;
+    }
+
+    /**
+     * Namesake is unchanged if the previous sync left it without changes,
+     * local book has not been modified since and all remote books
+     * have the same revisions and modification times as in the previous listing.
+     *
+     * Must be called after {@link #updateStatus(int)}.
+     */
+    public void updateIsUnchanged(Map<String, VersionedRook> previousRooks) {
+        isUnchanged = status == BookSyncStatus.NO_CHANGE
+                      && book != null
+                      && book.getSyncStatus() == BookSyncStatus.NO_CHANGE;
+
+        for (VersionedRook vrook : versionedRooks) {
+            if (!isUnchanged) {
+                return;
+            }
+
+            VersionedRook previous = previousRooks.get(vrook.getUri().toString());
+
+            isUnchanged = previous != null
+                          && previous.getRevision().equals(vrook.getRevision())
+                          && previous.getMtime() == vrook.getMtime();
+        }
+    }
+
     public VersionedRook getLatestLinkedRook() {
         return latestLinkedRook;
     }
@@ -187,8 +219,10 @@ public class BookNamesake {
                 return;
             }
 
-            /* Same revision, there was no remote change. */
-            // TODO: We get difference even if the file content is identical - if mtimes (revisions) are different - do compare content too in that case. Size first for speed.
+            /* Same revision, there was no remote change.
+             * For local repositories revisions are modification times, unless content revisions
+             * are enabled. Then they are digests and touched but identical files are not reloaded.
+             */
             if (book.getLastSyncedToRook().getRevision().equals(latestLinkedRook.getRevision())) {
                 /* Revision did not change. */
 
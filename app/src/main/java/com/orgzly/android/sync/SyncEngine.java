@@ -0,0 +1,150 @@
+package com.orgzly.android.sync;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.BookAction;
+import com.orgzly.android.Shelf;
+import com.orgzly.android.util.LogUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Syncs books using a bounded pool of workers.
+ *
+ * Repositories are listed concurrently and each {@link BookNamesake} is synced by its own worker,
+ * so downloads and uploads of different books overlap. Writes to the database are serialized by
+ * {@link Shelf}.
+ */
+public class SyncEngine {
+    private static final String TAG = SyncEngine.class.getName();
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    private final Shelf shelf;
+
+    private final ExecutorService executor;
+
+    public SyncEngine(Shelf shelf) {
+        this(shelf, DEFAULT_WORKERS);
+    }
+
+    public SyncEngine(Shelf shelf, int workers) {
+        this.shelf = shelf;
+        this.executor = Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * Lists all repositories concurrently and groups local and remote books by name.
+     */
+    public Map<String, BookNamesake> collect() throws IOException {
+        return shelf.groupAllNotebooksByName(executor);
+    }
+
+    /**
+     * Returns namesakes which need syncing, skipping the ones
+     * which have not changed since the previous sync.
+     */
+    public static List<BookNamesake> getChanged(Map<String, BookNamesake> namesakes) {
+        List<BookNamesake> result = new ArrayList<>();
+
+        for (BookNamesake namesake: namesakes.values()) {
+            if (!namesake.isUnchanged()) {
+                result.add(namesake);
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Skipping " + (namesakes.size() - result.size()) + " unchanged books");
+
+        return result;
+    }
+
+    /**
+     * Syncs all namesakes, blocking until every one of them is done.
+     * Status of each book is updated after its sync ends.
+     *
+     * @param listener notified about progress and checked for cancellation (can be null)
+     */
+    public void sync(Collection<BookNamesake> namesakes, final Listener listener) {
+        final int total = namesakes.size();
+        final AtomicInteger finished = new AtomicInteger(0);
+
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (final BookNamesake namesake: namesakes) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    /* If sync has been canceled, let listener mark the remaining books as such. */
+                    if (listener != null && listener.isCancelled()) {
+                        listener.onBookCanceled(namesake);
+                        return;
+                    }
+
+                    if (listener != null) {
+                        listener.onBookStarted(namesake, finished.get(), total);
+                    }
+
+                    try {
+                        BookAction action = shelf.syncNamesake(namesake);
+                        shelf.setBookStatus(namesake.getBook(), namesake.getStatus().toString(), action);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        shelf.setBookStatus(namesake.getBook(), null, new BookAction(BookAction.Type.ERROR, e.getMessage()));
+                    }
+
+                    int current = finished.incrementAndGet();
+
+                    if (listener != null) {
+                        listener.onBookEnded(namesake, current, total);
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+
+            } catch (InterruptedException e) {
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Interrupted while waiting for books to sync");
+
+                for (Future<?> future: futures) {
+                    future.cancel(false);
+                }
+
+                Thread.currentThread().interrupt();
+
+                return;
+
+            } catch (ExecutionException e) {
+                /* Exceptions are handled for each book separately, keep waiting for the others. */
+                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Book " + (i + 1) + " of " + futures.size() + " failed to sync", e.getCause());
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Listener methods are called from worker threads.
+     */
+    public interface Listener {
+        boolean isCancelled();
+
+        void onBookCanceled(BookNamesake namesake);
+
+        void onBookStarted(BookNamesake namesake, int current, int total);
+
+        void onBookEnded(BookNamesake namesake, int current, int total);
+    }
+}
@@ -15,6 +15,7 @@ import android.support.v4.content.LocalBroadcastManager;
 import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.AppIntent;
+import com.orgzly.android.Book;
 import com.orgzly.android.BookAction;
 import com.orgzly.android.Notifications;
 import com.orgzly.android.Shelf;
@@ -25,13 +26,15 @@ import com.orgzly.android.repos.RepoUtils;
 import com.orgzly.android.util.AppPermissions;
 import com.orgzly.android.util.LogUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 public class SyncService extends Service {
     public static final String TAG = SyncService.class.getName();
 
-    private SyncStatus status = new SyncStatus();
+    private final SyncStatus status = new SyncStatus();
 
     private Shelf shelf;
 
@@ -94,8 +97,10 @@ public class SyncService extends Service {
     private void stop() {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG);
 
-        status.set(SyncStatus.Type.CANCELING, null, status.currentBook, status.totalBooks);
-        announceActiveSyncStatus();
+        synchronized (status) {
+            status.set(SyncStatus.Type.CANCELING, null, status.currentBook, status.totalBooks);
+            announceActiveSyncStatus();
+        }
 
         syncTask.cancel(false);
     }
@@ -215,13 +220,23 @@ public class SyncService extends Service {
             }
 
 
+            SyncEngine engine = new SyncEngine(shelf);
+
+            try {
+                return sync(engine, System.currentTimeMillis());
+            } finally {
+                engine.shutdown();
+            }
+        }
+
+        private Void sync(SyncEngine engine, long startedAt) {
             /* Get the list of local and remote books from all repositories.
              * Group them by name.
              * Inserts dummy books if they don't exist in database.
              */
             Map<String, BookNamesake> namesakes;
             try {
-                namesakes = shelf.groupAllNotebooksByName();
+                namesakes = engine.collect();
             } catch (Exception e) {
                 e.printStackTrace();
                 String msg = (e.getMessage() != null ? e.getMessage() : e.toString());
@@ -236,7 +251,10 @@ public class SyncService extends Service {
                 return null;
             }
 
-            status.set(SyncStatus.Type.BOOKS_COLLECTED, null, 0, namesakes.size());
+            /* Only books which changed locally or remotely since the last sync. */
+            List<BookNamesake> changed = SyncEngine.getChanged(namesakes);
+
+            status.set(SyncStatus.Type.BOOKS_COLLECTED, null, 0, changed.size());
             announceActiveSyncStatus();
 
             /* Because android sometimes drops milliseconds on reported file lastModified,
@@ -251,40 +269,53 @@ public class SyncService extends Service {
             /*
              * Update books' statuses, before starting to sync them.
              */
-            for (BookNamesake namesake : namesakes.values()) {
-                shelf.setBookStatus(namesake.getBook(), null, new BookAction(BookAction.Type.PROGRESS, getString(R.string.syncing_in_progress)));
+            if (!changed.isEmpty()) {
+                List<Book> books = new ArrayList<>();
+                for (BookNamesake namesake : changed) {
+                    books.add(namesake.getBook());
+                }
+
+                shelf.setBooksStatus(books, null, new BookAction(BookAction.Type.PROGRESS, getString(R.string.syncing_in_progress)));
             }
 
             /*
-             * Start syncing name by name.
+             * Sync books in parallel. Progress is announced from worker threads.
              */
-            int curr = 0;
-            for (BookNamesake namesake : namesakes.values()) {
-                /* If task has been canceled, just mark the remaining books as such. */
-                if (isCancelled()) {
+            engine.sync(changed, new SyncEngine.Listener() {
+                @Override
+                public boolean isCancelled() {
+                    return SyncTask.this.isCancelled();
+                }
+
+                @Override
+                public void onBookCanceled(BookNamesake namesake) {
                     shelf.setBookStatus(namesake.getBook(), null,
                             new BookAction(BookAction.Type.INFO, getString(R.string.canceled)));
+                }
 
-                } else {
-                    status.set(SyncStatus.Type.BOOK_STARTED, namesake.getName(), curr, namesakes.size());
-                    announceActiveSyncStatus();
-
-                    try {
-                        BookAction action = shelf.syncNamesake(namesake);
-                        shelf.setBookStatus(namesake.getBook(), namesake.getStatus().toString(), action);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        shelf.setBookStatus(namesake.getBook(), null, new BookAction(BookAction.Type.ERROR, e.getMessage()));
+                @Override
+                public void onBookStarted(BookNamesake namesake, int current, int total) {
+                    synchronized (status) {
+                        status.set(SyncStatus.Type.BOOK_STARTED, namesake.getName(), current, total);
+                        announceActiveSyncStatus();
                     }
+                }
 
-                    status.set(SyncStatus.Type.BOOK_ENDED, namesake.getName(), curr + 1, namesakes.size());
-                    announceActiveSyncStatus();
+                @Override
+                public void onBookEnded(BookNamesake namesake, int current, int total) {
+                    synchronized (status) {
+                        status.set(SyncStatus.Type.BOOK_ENDED, namesake.getName(), current, total);
+                        announceActiveSyncStatus();
+                    }
                 }
+            });
 
-                curr++;
-            }
+            long elapsedTime = System.currentTimeMillis() - startedAt;
+
+            if (BuildConfig.LOG_DEBUG)
+                LogUtils.d(TAG, "Synced " + changed.size() + " of " + namesakes.size() + " books in " + elapsedTime + " ms");
 
-            status.set(SyncStatus.Type.FINISHED, null, 0, 0);
+            status.set(SyncStatus.Type.FINISHED, null, changed.size(), namesakes.size(), elapsedTime);
             announceActiveSyncStatus();
 
             /* Save last successful sync time to preferences. */
@@ -13,12 +13,16 @@ public class SyncStatus {
     private static final String EXTRA_MESSAGE = "message";
     private static final String EXTRA_TOTAL_BOOKS = "total_books";
     private static final String EXTRA_CURRENT_BOOK = "current_book";
+    private static final String EXTRA_ELAPSED_TIME = "elapsed_time";
 
     public Type type = Type.NOT_RUNNING;
     public String message = null;
     public int totalBooks = 0;
     public int currentBook = 0;
 
+    /** Duration of the finished sync in ms. */
+    public long elapsedTime = 0;
+
     public static SyncStatus fromIntent(Intent intent) {
         SyncStatus status = new SyncStatus();
 
@@ -26,15 +30,21 @@ public class SyncStatus {
         status.message = intent.getStringExtra(SyncStatus.EXTRA_MESSAGE);
         status.currentBook = intent.getIntExtra(SyncStatus.EXTRA_CURRENT_BOOK, 0);
         status.totalBooks = intent.getIntExtra(SyncStatus.EXTRA_TOTAL_BOOKS, 0);
+        status.elapsedTime = intent.getLongExtra(SyncStatus.EXTRA_ELAPSED_TIME, 0);
 
         return status;
     }
 
     public void set(Type type, String message, int currentBook, int totalBooks) {
+        set(type, message, currentBook, totalBooks, 0);
+    }
+
+    public void set(Type type, String message, int currentBook, int totalBooks, long elapsedTime) {
         this.type = type;
         this.message = message;
         this.currentBook = currentBook;
         this.totalBooks = totalBooks;
+        this.elapsedTime = elapsedTime;
     }
 
     public Intent intent() {
@@ -42,7 +52,8 @@ public class SyncStatus {
                 .putExtra(SyncStatus.EXTRA_TYPE, type.name())
                 .putExtra(SyncStatus.EXTRA_MESSAGE, message)
                 .putExtra(SyncStatus.EXTRA_TOTAL_BOOKS, totalBooks)
-                .putExtra(SyncStatus.EXTRA_CURRENT_BOOK, currentBook);
+                .putExtra(SyncStatus.EXTRA_CURRENT_BOOK, currentBook)
+                .putExtra(SyncStatus.EXTRA_ELAPSED_TIME, elapsedTime);
     }
 
     public void saveToPreferences(Context context) {
@@ -52,6 +63,7 @@ public class SyncStatus {
                 .putString(EXTRA_MESSAGE, message)
                 .putInt(EXTRA_CURRENT_BOOK, currentBook)
                 .putInt(EXTRA_TOTAL_BOOKS, totalBooks)
+                .putLong(EXTRA_ELAPSED_TIME, elapsedTime)
                 .apply();
     }
 
@@ -61,6 +73,7 @@ public class SyncStatus {
         this.message = pref.getString(EXTRA_MESSAGE, null);
         this.currentBook = pref.getInt(EXTRA_CURRENT_BOOK, 0);
         this.totalBooks = pref.getInt(EXTRA_TOTAL_BOOKS, 0);
+        this.elapsedTime = pref.getLong(EXTRA_ELAPSED_TIME, 0);
     }
 
     public enum Type {
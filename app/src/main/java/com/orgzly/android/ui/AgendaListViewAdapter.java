@@ -18,6 +18,9 @@ public class AgendaListViewAdapter extends HeadsListViewAdapter {
 
     private static final int TYPE_COUNT = 2;
 
+    /* All rows of agenda cursor have the same columns. */
+    private int isSeparatorColumn = -1;
+
     public AgendaListViewAdapter(Context context, Selection selection,
                                  GesturedListViewItemMenus toolbars, boolean inBook) {
         super(context, selection, toolbars, inBook);
@@ -36,16 +39,12 @@ public class AgendaListViewAdapter extends HeadsListViewAdapter {
             // do not use @convertView
             return super.getView(position, null, parent);
         }
-        System.out.println("Position is: " + position);
-
         return super.getView(position, convertView, parent);
     }
 
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        int isSeparator = cursor.getInt(cursor.getColumnIndex(AgendaFragment.Columns.IS_SEPARATOR));
-
-        if (isSeparator == 1) {
+        if (getCursorType(cursor) == SEPARATOR_TYPE) {
             View view = LayoutInflater.from(context).inflate(R.layout.item_agenda_time, null);
 
             TextView textView = (TextView) view.findViewById(R.id.item_agenda_time_text);
@@ -78,6 +77,13 @@ public class AgendaListViewAdapter extends HeadsListViewAdapter {
         }
     }
 
+    @Override
+    public Cursor swapCursor(Cursor cursor) {
+        isSeparatorColumn = cursor != null ? cursor.getColumnIndex(AgendaFragment.Columns.IS_SEPARATOR) : -1;
+
+        return super.swapCursor(cursor);
+    }
+
     @Override
     public int getItemViewType(int position) {
         Cursor cursor = (Cursor) getItem(position);
@@ -90,7 +96,7 @@ public class AgendaListViewAdapter extends HeadsListViewAdapter {
     }
 
     private int getCursorType(Cursor cursor) {
-        if (cursor.getInt(cursor.getColumnIndex(AgendaFragment.Columns.IS_SEPARATOR)) == 1)
+        if (cursor.getInt(isSeparatorColumn) == 1)
             return SEPARATOR_TYPE;
         return NOTE_TYPE;
     }
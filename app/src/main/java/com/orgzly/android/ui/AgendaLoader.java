@@ -0,0 +1,194 @@
+package com.orgzly.android.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.util.LongSparseArray;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.AgendaOccurrences;
+import com.orgzly.android.provider.ProviderContract;
+import com.orgzly.android.provider.clients.NotesClient;
+import com.orgzly.android.query.Query;
+import com.orgzly.android.query.user.InternalQueryParser;
+import com.orgzly.android.ui.fragments.AgendaFragment;
+import com.orgzly.android.util.AgendaUtils;
+import com.orgzly.android.util.LogUtils;
+import com.orgzly.android.util.UserTimeFormatter;
+
+import org.joda.time.DateTime;
+
+/**
+ * Loads agenda in background, as a single cursor ready to be bound to the list:
+ * a separator row for each day, followed by rows of notes displayed on that day.
+ *
+ * Loaded agenda is kept and delivered again when loader is restarted,
+ * unless the data has changed or the day has passed since.
+ */
+public class AgendaLoader extends AsyncTaskLoader<Cursor> {
+    private static final String TAG = AgendaLoader.class.getName();
+
+    public static final int MAX_DAYS = 30;
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private boolean isObserving = false;
+
+    private final String query;
+
+    private AgendaCursor agenda;
+
+    public AgendaLoader(Context context, String query) {
+        super(context);
+
+        this.query = query;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Query parsedQuery = new InternalQueryParser().parse(query);
+
+        int days = Math.min(parsedQuery.getOptions().getAgendaDays(), MAX_DAYS);
+
+        DateTime today = DateTime.now().withTimeAtStartOfDay();
+
+        NotesClient.updateAgenda(getContext(), query);
+
+        Cursor cursor = NotesClient.getCursorForAgenda(getContext(), query);
+
+        try {
+            return build(cursor, today, days);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private AgendaCursor build(Cursor cursor, DateTime today, int days) {
+        UserTimeFormatter userTimeFormatter = new UserTimeFormatter(getContext());
+
+        int noteColumnCount = cursor.getColumnCount();
+
+        String[] columnNames = new String[noteColumnCount + 2];
+        System.arraycopy(cursor.getColumnNames(), 0, columnNames, 0, noteColumnCount);
+        columnNames[noteColumnCount] = AgendaFragment.Columns.IS_SEPARATOR;
+        columnNames[noteColumnCount + 1] = AgendaFragment.Columns.AGENDA_DAY;
+
+        int idIdx = cursor.getColumnIndex(BaseColumns._ID);
+        int dayIdx = cursor.getColumnIndex(AgendaOccurrences.AGENDA_DAY);
+
+        AgendaCursor result = new AgendaCursor(columnNames, cursor.getCount() + days, today.getMillis());
+
+        long nextId = 1;
+
+        cursor.moveToFirst();
+
+        DateTime day = today;
+
+        /* Notes are ordered by day. */
+        for (int i = 0; i < days; i++) {
+            DateTime nextDay = day.plusDays(1);
+
+            Object[] separator = new Object[columnNames.length];
+            separator[idIdx] = nextId++;
+            separator[noteColumnCount] = 1;
+            separator[noteColumnCount + 1] = userTimeFormatter.formatDate(AgendaUtils.buildOrgDateTimeFromDate(day, null));
+            result.addRow(separator);
+
+            for (; !cursor.isAfterLast() && cursor.getLong(dayIdx) < nextDay.getMillis(); cursor.moveToNext()) {
+                Object[] row = new Object[columnNames.length];
+
+                for (int col = 0; col < noteColumnCount; col++) {
+                    row[col] = cursor.getString(col);
+                }
+
+                result.originalNoteIds.put(nextId, cursor.getLong(idIdx));
+                row[idIdx] = nextId++;
+                row[noteColumnCount] = 0;
+
+                result.addRow(row);
+            }
+
+            day = nextDay;
+        }
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Loaded " + result.getCount() + " rows for " + days + " days");
+
+        return result;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            return;
+        }
+
+        agenda = (AgendaCursor) cursor;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!isObserving) {
+            getContext().getContentResolver().registerContentObserver(ProviderContract.Notes.ContentUri.notes(), true, observer);
+            isObserving = true;
+        }
+
+        if (agenda != null) {
+            deliverResult(agenda);
+        }
+
+        if (takeContentChanged() || agenda == null || !agenda.isForToday()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (isObserving) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            isObserving = false;
+        }
+
+        agenda = null;
+    }
+
+    /**
+     * Agenda rows, with IDs of notes displayed in each row.
+     *
+     * Rows have their own IDs, as the same note can be displayed on multiple days.
+     */
+    public static class AgendaCursor extends MatrixCursor {
+        private final LongSparseArray<Long> originalNoteIds = new LongSparseArray<>();
+        private final long today;
+
+        AgendaCursor(String[] columnNames, int initialCapacity, long today) {
+            super(columnNames, initialCapacity);
+
+            this.today = today;
+        }
+
+        /**
+         * @return ID of the note displayed in the row or null for separators
+         */
+        public Long getOriginalNoteId(long rowId) {
+            return originalNoteIds.get(rowId);
+        }
+
+        boolean isForToday() {
+            return today == DateTime.now().withTimeAtStartOfDay().getMillis();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.orgzly.android.ui;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.provider.ProviderContract;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.android.util.LogUtils;
+
+import java.util.Arrays;
+
+/**
+ * Loads book's visible notes.
+ *
+ * After a note is folded or unfolded, only the note and its visible descendants are
+ * loaded again. They replace the note's rows in the previous cursor, which is kept
+ * open and shared by the new one, instead of reloading all loaded notes.
+ *
+ * Positions of the note's rows are found in the background, from the notes' left
+ * values read with each loaded cursor, as the displayed cursor is used by the list.
+ */
+public class BookNotesLoader extends CursorLoader {
+    private static final String TAG = BookNotesLoader.class.getName();
+
+    /** Cursors are nested with each replacement. Everything is loaded again after this many. */
+    private static final int MAX_REPLACEMENTS = 8;
+
+    private final long bookId;
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+
+    /* Last delivered cursor and book's modification time at the time it was loaded. */
+    private volatile SharedCursor lastCursor;
+    private volatile long lastBookMtime;
+
+    private volatile Replacement pendingReplacement;
+
+    public BookNotesLoader(Context context, long bookId, Uri uri, String[] projection, String sortOrder) {
+        super(context, uri, projection, null, null, sortOrder);
+
+        this.bookId = bookId;
+    }
+
+    /**
+     * Load only the note's rows the next time the data changes.
+     * Must be called before the note's folded state is toggled.
+     */
+    public void replaceOnNextLoad(long noteId) {
+        SharedCursor cursor = lastCursor;
+
+        if (cursor != null) {
+            pendingReplacement = new Replacement(cursor, noteId);
+        }
+    }
+
+    /**
+     * @return true if some of the cursor's rows were replaced, so its number of rows
+     * is not limited by the loader's URI
+     */
+    public static boolean hasReplacedRows(Cursor cursor) {
+        return cursor instanceof SharedCursor && ((SharedCursor) cursor).depth > 0;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        long mtime = getBookMtime();
+
+        Replacement replacement = pendingReplacement;
+        pendingReplacement = null;
+
+        if (replacement != null && replacement.cursor == lastCursor && mtime == lastBookMtime) {
+            Cursor cursor = loadReplaced(replacement);
+
+            if (cursor != null) {
+                lastBookMtime = mtime;
+                return cursor;
+            }
+        }
+
+        Cursor cursor = super.loadInBackground();
+
+        if (cursor == null) {
+            return null;
+        }
+
+        lastBookMtime = mtime;
+
+        return new SharedCursor(cursor, 0, readLfts(cursor));
+    }
+
+    private Cursor loadReplaced(Replacement replacement) {
+        SharedCursor base = replacement.cursor;
+
+        if (base.depth >= MAX_REPLACEMENTS) {
+            return null;
+        }
+
+        long[] range = getNoteRange(replacement.noteId);
+
+        if (range == null) {
+            return null;
+        }
+
+        long lft = range[0];
+        long rgt = range[1];
+
+        /* Note and its descendants displayed below it. */
+        int start = Arrays.binarySearch(base.lfts, lft);
+
+        if (start < 0) {
+            return null;
+        }
+
+        int end = start + 1;
+        while (end < base.lfts.length && base.lfts[end] < rgt) {
+            end++;
+        }
+
+        Cursor rows = getContext().getContentResolver().query(
+                ProviderContract.Books.ContentUri.booksIdNotesInRange(bookId, lft, rgt),
+                getProjection(),
+                null,
+                null,
+                getSortOrder());
+
+        if (rows == null) {
+            return null;
+        }
+
+        /* Base can be closed if the loader was reset meanwhile. */
+        if (!base.acquire(2)) {
+            rows.close();
+            return null;
+        }
+
+        long[] rowsLfts = readLfts(rows);
+        rows.registerContentObserver(observer);
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Replaced rows " + start + "-" + end +
+                                                   " with " + rows.getCount() + " rows");
+
+        long[] lfts = new long[start + rowsLfts.length + base.lfts.length - end];
+        System.arraycopy(base.lfts, 0, lfts, 0, start);
+        System.arraycopy(rowsLfts, 0, lfts, start, rowsLfts.length);
+        System.arraycopy(base.lfts, end, lfts, start + rowsLfts.length, base.lfts.length - end);
+
+        return new SharedCursor(new MergeCursor(new Cursor[] {
+                new RangeCursor(base, 0, start),
+                rows,
+                new RangeCursor(base, end, base.getCount())
+        }), base.depth + 1, lfts);
+    }
+
+    /**
+     * @return left and right value of the note, or null if it doesn't exist
+     */
+    private long[] getNoteRange(long noteId) {
+        Cursor cursor = getContext().getContentResolver().query(
+                ProviderContract.Notes.ContentUri.notes(),
+                new String[] { DbNoteView.LFT, DbNoteView.RGT },
+                DbNoteView._ID + "=" + noteId,
+                null,
+                null);
+
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            return cursor.moveToFirst() ? new long[] { cursor.getLong(0), cursor.getLong(1) } : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads left values of all rows, before the cursor is delivered and used by the list.
+     */
+    private static long[] readLfts(Cursor cursor) {
+        long[] lfts = new long[cursor.getCount()];
+
+        int column = cursor.getColumnIndexOrThrow(DbNoteView.LFT);
+
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            lfts[i] = cursor.getLong(column);
+        }
+
+        cursor.moveToPosition(-1);
+
+        return lfts;
+    }
+
+    private long getBookMtime() {
+        Cursor cursor = getContext().getContentResolver().query(
+                ProviderContract.Books.ContentUri.booksId(bookId),
+                new String[] { ProviderContract.Books.Param.MTIME },
+                null,
+                null,
+                null);
+
+        if (cursor == null) {
+            return 0;
+        }
+
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (cursor instanceof SharedCursor && !isReset()) {
+            lastCursor = (SharedCursor) cursor;
+        }
+
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        lastCursor = null;
+        pendingReplacement = null;
+    }
+
+    private static class Replacement {
+        final SharedCursor cursor;
+        final long noteId;
+
+        Replacement(SharedCursor cursor, long noteId) {
+            this.cursor = cursor;
+            this.noteId = noteId;
+        }
+    }
+
+    /**
+     * Cursor closed only once it's closed by the loader and by all cursors using its rows.
+     */
+    private static class SharedCursor extends CursorWrapper {
+        final int depth;
+
+        /** Left values of the notes, by position. */
+        final long[] lfts;
+
+        /* Guarded by this. */
+        private int references = 1;
+
+        SharedCursor(Cursor cursor, int depth, long[] lfts) {
+            super(cursor);
+            this.depth = depth;
+            this.lfts = lfts;
+        }
+
+        synchronized boolean acquire(int count) {
+            if (references == 0) {
+                return false;
+            }
+
+            references += count;
+
+            return true;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (references == 0 || --references > 0) {
+                    return;
+                }
+            }
+
+            super.close();
+        }
+
+        @Override
+        public boolean isClosed() {
+            synchronized (this) {
+                if (references == 0) {
+                    return true;
+                }
+            }
+
+            return super.isClosed();
+        }
+    }
+
+    /**
+     * Rows from {@code start} to {@code end} (exclusive) of the shared cursor.
+     */
+    private static class RangeCursor extends AbstractCursor {
+        private final SharedCursor cursor;
+        private final int start;
+        private final int count;
+
+        RangeCursor(SharedCursor cursor, int start, int end) {
+            this.cursor = cursor;
+            this.start = start;
+            this.count = Math.max(0, end - start);
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return cursor.getColumnNames();
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            return cursor.moveToPosition(start + newPosition);
+        }
+
+        @Override
+        public String getString(int column) {
+            return cursor.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return cursor.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return cursor.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return cursor.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return cursor.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return cursor.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return cursor.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            return cursor.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return cursor.isNull(column);
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                super.close();
+                cursor.close();
+            }
+        }
+    }
+}
@@ -6,27 +6,32 @@ import android.content.res.TypedArray;
 import android.database.Cursor;
 import android.graphics.Typeface;
 import android.os.AsyncTask;
+import android.support.v4.util.LruCache;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import com.orgzly.R;
 import com.orgzly.android.Note;
 import com.orgzly.android.Shelf;
 import com.orgzly.android.prefs.AppPreferences;
-import com.orgzly.android.provider.ProviderContract;
-import com.orgzly.android.provider.clients.NotesClient;
-import com.orgzly.android.provider.views.DbNoteView;
 import com.orgzly.android.ui.util.TitleGenerator;
 import com.orgzly.android.ui.views.GesturedListViewItemMenus;
-import com.orgzly.android.util.OrgFormatter;
+import com.orgzly.android.util.OrgFormatterCache;
 import com.orgzly.android.util.UserTimeFormatter;
 import com.orgzly.org.OrgHead;
+import com.orgzly.org.datetime.OrgRange;
+
+import java.util.Set;
 
 public class HeadsListViewAdapter extends SimpleCursorAdapter {
     private static final String TAG = HeadsListViewAdapter.class.getName();
 
+    /** Enough for a few screens when scrolling back and forth. */
+    private static final int ITEMS_CACHE_SIZE = 200;
+
     private final Selection selection;
     private final GesturedListViewItemMenus quickMenu;
 
@@ -36,6 +41,15 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
 
     private final UserTimeFormatter userTimeFormatter;
 
+    /** Items of the current cursor, by note ID. */
+    private final LruCache<Long, NoteListItem> items = new LruCache<>(ITEMS_CACHE_SIZE);
+
+    private OnToggleFoldedStateListener onToggleFoldedStateListener;
+
+    /* Found for each new cursor. */
+    private NoteListItem.Columns columns;
+    private ListPreferences prefs;
+
     public HeadsListViewAdapter(Context context, Selection selection, GesturedListViewItemMenus toolbars, boolean inBook) {
         super(context, R.layout.item_head, null, new String[0], new int[0], 0);
 
@@ -132,20 +146,70 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
         return new int[] { itemMargins, belowTitleMargins };
     }
 
+    /**
+     * Column indexes and preferences are the same for all rows of the cursor.
+     * Activity is recreated when preferences change.
+     */
     @Override
-    public void bindView(final View view, final Context context, Cursor cursor) {
-        final Note note = NotesClient.fromCursor(cursor);
-        final OrgHead head = note.getHead();
-        final ViewHolder holder = (ViewHolder) view.getTag();
+    public Cursor swapCursor(Cursor cursor) {
+        items.evictAll();
 
-        if (inBook) {
-            if (note.getPosition().getFoldedUnderId() == 0) {
-                view.setVisibility(View.VISIBLE);
-            } else {
-                view.setVisibility(View.GONE);
+        if (cursor != null) {
+            columns = new NoteListItem.Columns(cursor);
+            prefs = new ListPreferences(mContext);
+        }
+
+        return super.swapCursor(cursor);
+    }
+
+    /**
+     * Returns the note in the current row, creating it only the first time it's displayed.
+     */
+    private NoteListItem getListItem(Context context, Cursor cursor) {
+        long id = cursor.getLong(columns.id);
+
+        NoteListItem item = items.get(id);
+
+        if (item == null) {
+            item = NoteListItem.fromCursor(cursor, columns);
+
+            OrgHead head = item.note.getHead();
+
+            item.title = titleGenerator.generateTitle(item.note, head);
+
+            if (head.hasContent() && titleGenerator.shouldDisplayContent(item.note)) {
+                item.content = OrgFormatterCache.parseContent(context, item.note.getId(), head.getContent());
+            }
+
+            /* see also ListWidgetViewsFactory.setContent */
+            if (prefs.displayPlanning) {
+                item.closed = formatRange(item.closedRange);
+                item.deadline = formatRange(item.deadlineRange);
+                item.scheduled = formatRange(item.scheduledRange);
             }
+
+            item.isDone = head.getState() != null && prefs.doneKeywords.contains(head.getState());
+
+            items.put(id, item);
         }
 
+        return item;
+    }
+
+    private CharSequence formatRange(String range) {
+        return range != null ? userTimeFormatter.formatAll(OrgRange.parse(range)) : null;
+    }
+
+    public void setOnToggleFoldedStateListener(OnToggleFoldedStateListener listener) {
+        onToggleFoldedStateListener = listener;
+    }
+
+    @Override
+    public void bindView(final View view, final Context context, Cursor cursor) {
+        final NoteListItem item = getListItem(context, cursor);
+        final Note note = item.note;
+        final ViewHolder holder = (ViewHolder) view.getTag();
+
         setupIndentContainer(context, holder.indentContainer, inBook ? note.getPosition().getLevel() - 1 : 0);
 
         updateBullet(context, note, holder);
@@ -163,18 +227,18 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
             holder.bookNameUnderNote.setVisibility(View.GONE);
             holder.bookNameLeftFromNoteText.setVisibility(View.GONE);
         } else {
-            switch (Integer.valueOf(AppPreferences.bookNameInSearchResults(context))) {
+            switch (prefs.bookNameInSearchResults) {
                 case 0:
                     holder.bookNameLeftFromNoteText.setVisibility(View.GONE);
                     holder.bookNameUnderNote.setVisibility(View.GONE);
                     break;
                 case 1:
-                    holder.bookNameLeftFromNoteText.setText(cursor.getString(cursor.getColumnIndex(DbNoteView.BOOK_NAME)));
+                    holder.bookNameLeftFromNoteText.setText(item.bookName);
                     holder.bookNameLeftFromNoteText.setVisibility(View.VISIBLE);
                     holder.bookNameUnderNote.setVisibility(View.GONE);
                     break;
                 case 2:
-                    holder.bookNameUnderNoteText.setText(cursor.getString(cursor.getColumnIndex(DbNoteView.BOOK_NAME)));
+                    holder.bookNameUnderNoteText.setText(item.bookName);
                     holder.bookNameLeftFromNoteText.setVisibility(View.GONE);
                     holder.bookNameUnderNote.setVisibility(View.VISIBLE);
                     break;
@@ -182,15 +246,15 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
         }
 
         /* Title. */
-        holder.title.setText(titleGenerator.generateTitle(note, head));
+        holder.title.setText(item.title);
 
         /* Content. */
-        if (head.hasContent() && titleGenerator.shouldDisplayContent(note)) {
-            if (AppPreferences.isFontMonospaced(context)) {
+        if (item.content != null) {
+            if (prefs.isFontMonospaced) {
                 holder.content.setTypeface(Typeface.MONOSPACE);
             }
 
-            holder.content.setText(OrgFormatter.INSTANCE.parse(context, head.getContent()));
+            holder.content.setText(item.content);
 
             holder.content.setVisibility(View.VISIBLE);
 
@@ -199,47 +263,38 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
         }
 
         /* Closed time. */
-        if (head.hasClosed() && AppPreferences.displayPlanning(context)) {
-            holder.closedText.setText(userTimeFormatter.formatAll(head.getClosed()));
-            holder.closed.setVisibility(View.VISIBLE);
-
-        } else {
-            holder.closed.setVisibility(View.GONE);
-        }
+        setPlanningTime(holder.closed, holder.closedText, item.closed);
 
-        /* see also ListWidgetViewsFactory.setContent */
         /* Deadline time. */
-        if (head.hasDeadline() && AppPreferences.displayPlanning(context)) {
-            holder.deadlineText.setText(userTimeFormatter.formatAll(head.getDeadline()));
-            holder.deadline.setVisibility(View.VISIBLE);
-
-        } else {
-            holder.deadline.setVisibility(View.GONE);
-        }
+        setPlanningTime(holder.deadline, holder.deadlineText, item.deadline);
 
         /* Scheduled time. */
-        if (head.hasScheduled() && AppPreferences.displayPlanning(context)) {
-            holder.scheduledText.setText(userTimeFormatter.formatAll(head.getScheduled()));
-            holder.scheduled.setVisibility(View.VISIBLE);
-
-        } else {
-            holder.scheduled.setVisibility(View.GONE);
-        }
+        setPlanningTime(holder.scheduled, holder.scheduledText, item.scheduled);
 
         /* Set alpha for done items. */
-        if (head.getState() != null && AppPreferences.doneKeywordsSet(context).contains(head.getState())) {
-            holder.payload.setAlpha(0.45f);
-        } else {
-            holder.payload.setAlpha(1.0f);
-        }
+        holder.payload.setAlpha(item.isDone ? 0.45f : 1.0f);
 
         quickMenu.updateView(view, note.getId(), holder.menuContainer, holder.menuFlipper);
 
         selection.updateView(view, note.getId());
     }
 
+    private void setPlanningTime(View container, TextView text, CharSequence time) {
+        if (time != null) {
+            text.setText(time);
+            container.setVisibility(View.VISIBLE);
+
+        } else {
+            container.setVisibility(View.GONE);
+        }
+    }
+
     @SuppressLint("StaticFieldLeak")
     private void toggleFoldedState(final Context context, final long id) {
+        if (onToggleFoldedStateListener != null) {
+            onToggleFoldedStateListener.onToggleFoldedState(id);
+        }
+
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
@@ -249,6 +304,33 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
         }.execute();
     }
 
+    public interface OnToggleFoldedStateListener {
+        /**
+         * Called before folded state of the note is toggled.
+         */
+        void onToggleFoldedState(long noteId);
+    }
+
+    /**
+     * Preferences used for every row, read once per cursor.
+     */
+    private static class ListPreferences {
+        final boolean displayPlanning;
+        final boolean isFontMonospaced;
+        final int bookNameInSearchResults;
+        final Set<String> doneKeywords;
+        final boolean isContentFoldable;
+
+        ListPreferences(Context context) {
+            displayPlanning = AppPreferences.displayPlanning(context);
+            isFontMonospaced = AppPreferences.isFontMonospaced(context);
+            bookNameInSearchResults = Integer.valueOf(AppPreferences.bookNameInSearchResults(context));
+            doneKeywords = AppPreferences.doneKeywordsSet(context);
+            isContentFoldable = AppPreferences.isNotesContentFoldable(context) &&
+                                AppPreferences.isNotesContentDisplayedInList(context);
+        }
+    }
+
     /**
      * Change folding button appearance.
      */
@@ -256,9 +338,7 @@ public class HeadsListViewAdapter extends SimpleCursorAdapter {
         boolean isVisible = false;
 
         if (inBook) {
-            boolean contentFoldable = note.getHead().hasContent() &&
-                                      AppPreferences.isNotesContentFoldable(context) &&
-                                      AppPreferences.isNotesContentDisplayedInList(context);
+            boolean contentFoldable = note.getHead().hasContent() && prefs.isContentFoldable;
 
             if (note.getPosition().getDescendantsCount() > 0 || contentFoldable) {
                 isVisible = true;
@@ -1169,6 +1169,16 @@ public class MainActivity extends CommonActivity
     public void onNotesMoved(int count) {
     }
 
+    @Override
+    public void onUndoRequest(long bookId) {
+        mSyncFragment.undo(bookId);
+    }
+
+    @Override
+    public void onUndone(int count) {
+        showSimpleSnackbarLong(count == 0 ? R.string.nothing_to_undo : R.string.undone);
+    }
+
     @Override
     public void onFailure(String message) {
         showSimpleSnackbarLong(message);
@@ -0,0 +1,171 @@
+package com.orgzly.android.ui;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.orgzly.android.Note;
+import com.orgzly.android.NotePosition;
+import com.orgzly.android.provider.models.DbNote;
+import com.orgzly.android.provider.views.DbNoteView;
+import com.orgzly.org.OrgHead;
+
+/**
+ * Note as displayed in the list, with its texts already generated.
+ *
+ * Created from a row of {@link #PROJECTION} the first time the note is bound
+ * and reused while the list displays the same cursor.
+ */
+public class NoteListItem {
+    /** Columns needed to display a note in the list. */
+    public static final String[] PROJECTION = {
+            DbNoteView._ID,
+            DbNoteView.BOOK_ID,
+            DbNoteView.BOOK_NAME,
+            DbNoteView.LEVEL,
+            DbNoteView.LFT,
+            DbNoteView.RGT,
+            DbNoteView.PARENT_ID,
+            DbNoteView.DESCENDANTS_COUNT,
+            DbNoteView.IS_FOLDED,
+            DbNoteView.FOLDED_UNDER_ID,
+            DbNoteView.STATE,
+            DbNoteView.PRIORITY,
+            DbNoteView.TITLE,
+            DbNoteView.TAGS,
+            DbNoteView.INHERITED_TAGS,
+            DbNoteView.CONTENT,
+            DbNoteView.CONTENT_LINE_COUNT,
+            DbNoteView.SCHEDULED_RANGE_STRING,
+            DbNoteView.DEADLINE_RANGE_STRING,
+            DbNoteView.CLOSED_RANGE_STRING
+    };
+
+    public final Note note;
+    public final String bookName;
+
+    /* Planning times, as stored. Null if not set. */
+    public final String scheduledRange;
+    public final String deadlineRange;
+    public final String closedRange;
+
+    /* Generated texts, set by the adapter. Null if not displayed. */
+    public CharSequence title;
+    public CharSequence content;
+    public CharSequence scheduled;
+    public CharSequence deadline;
+    public CharSequence closed;
+
+    public boolean isDone;
+
+    private NoteListItem(Note note, String bookName, String scheduledRange, String deadlineRange, String closedRange) {
+        this.note = note;
+        this.bookName = bookName;
+        this.scheduledRange = scheduledRange;
+        this.deadlineRange = deadlineRange;
+        this.closedRange = closedRange;
+    }
+
+    /**
+     * Reads the note from the current row. Planning times are not parsed.
+     */
+    public static NoteListItem fromCursor(Cursor cursor, Columns columns) {
+        NotePosition position = new NotePosition();
+        position.setBookId(cursor.getLong(columns.bookId));
+        position.setLevel(cursor.getInt(columns.level));
+        position.setLft(cursor.getLong(columns.lft));
+        position.setRgt(cursor.getLong(columns.rgt));
+        position.setParentId(cursor.getLong(columns.parentId));
+        position.setDescendantsCount(cursor.getInt(columns.descendantsCount));
+        position.setIsFolded(cursor.getInt(columns.isFolded) != 0);
+        position.setFoldedUnderId(cursor.getLong(columns.foldedUnderId));
+
+        OrgHead head = new OrgHead();
+
+        String state = cursor.getString(columns.state);
+        head.setState(NoteStateSpinner.isSet(state) ? state : null);
+
+        String priority = cursor.getString(columns.priority);
+        if (priority != null) {
+            head.setPriority(priority);
+        }
+
+        head.setTitle(cursor.getString(columns.title));
+        head.setContent(cursor.getString(columns.content));
+
+        String tags = cursor.getString(columns.tags);
+        if (!TextUtils.isEmpty(tags)) {
+            head.setTags(DbNote.dbDeSerializeTags(tags));
+        }
+
+        Note note = new Note();
+        note.setId(cursor.getLong(columns.id));
+        note.setHead(head);
+        note.setPosition(position);
+        note.setContentLines(cursor.getInt(columns.contentLineCount));
+
+        String inheritedTags = cursor.getString(columns.inheritedTags);
+        if (!TextUtils.isEmpty(inheritedTags)) {
+            note.setInheritedTags(DbNote.dbDeSerializeTags(inheritedTags));
+        }
+
+        return new NoteListItem(
+                note,
+                cursor.getString(columns.bookName),
+                emptyToNull(cursor.getString(columns.scheduledRange)),
+                emptyToNull(cursor.getString(columns.deadlineRange)),
+                emptyToNull(cursor.getString(columns.closedRange)));
+    }
+
+    private static String emptyToNull(String s) {
+        return TextUtils.isEmpty(s) ? null : s;
+    }
+
+    /**
+     * Indexes of {@link #PROJECTION} columns in a cursor, found once per cursor.
+     */
+    public static class Columns {
+        final int id;
+        final int bookId;
+        final int bookName;
+        final int level;
+        final int lft;
+        final int rgt;
+        final int parentId;
+        final int descendantsCount;
+        final int isFolded;
+        final int foldedUnderId;
+        final int state;
+        final int priority;
+        final int title;
+        final int tags;
+        final int inheritedTags;
+        final int content;
+        final int contentLineCount;
+        final int scheduledRange;
+        final int deadlineRange;
+        final int closedRange;
+
+        public Columns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(DbNoteView._ID);
+            bookId = cursor.getColumnIndexOrThrow(DbNoteView.BOOK_ID);
+            bookName = cursor.getColumnIndexOrThrow(DbNoteView.BOOK_NAME);
+            level = cursor.getColumnIndexOrThrow(DbNoteView.LEVEL);
+            lft = cursor.getColumnIndexOrThrow(DbNoteView.LFT);
+            rgt = cursor.getColumnIndexOrThrow(DbNoteView.RGT);
+            parentId = cursor.getColumnIndexOrThrow(DbNoteView.PARENT_ID);
+            descendantsCount = cursor.getColumnIndexOrThrow(DbNoteView.DESCENDANTS_COUNT);
+            isFolded = cursor.getColumnIndexOrThrow(DbNoteView.IS_FOLDED);
+            foldedUnderId = cursor.getColumnIndexOrThrow(DbNoteView.FOLDED_UNDER_ID);
+            state = cursor.getColumnIndexOrThrow(DbNoteView.STATE);
+            priority = cursor.getColumnIndexOrThrow(DbNoteView.PRIORITY);
+            title = cursor.getColumnIndexOrThrow(DbNoteView.TITLE);
+            tags = cursor.getColumnIndexOrThrow(DbNoteView.TAGS);
+            inheritedTags = cursor.getColumnIndexOrThrow(DbNoteView.INHERITED_TAGS);
+            content = cursor.getColumnIndexOrThrow(DbNoteView.CONTENT);
+            contentLineCount = cursor.getColumnIndexOrThrow(DbNoteView.CONTENT_LINE_COUNT);
+            scheduledRange = cursor.getColumnIndexOrThrow(DbNoteView.SCHEDULED_RANGE_STRING);
+            deadlineRange = cursor.getColumnIndexOrThrow(DbNoteView.DEADLINE_RANGE_STRING);
+            closedRange = cursor.getColumnIndexOrThrow(DbNoteView.CLOSED_RANGE_STRING);
+        }
+    }
+}
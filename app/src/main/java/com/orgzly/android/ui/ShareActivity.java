@@ -428,6 +428,10 @@ public class ShareActivity extends CommonActivity
     public void onNotesMoved(int result) {
     }
 
+    @Override
+    public void onUndone(int count) {
+    }
+
     @Override
     public void onFailure(String message) {
         showSimpleSnackbarLong(message);
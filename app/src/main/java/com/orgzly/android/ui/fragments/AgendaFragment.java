@@ -1,13 +1,9 @@
 package com.orgzly.android.ui.fragments;
 
-import android.content.Context;
 import android.database.Cursor;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
 import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.support.v4.content.Loader;
-import android.support.v4.util.LongSparseArray;
 import android.support.v7.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -20,26 +16,14 @@ import android.widget.ListView;
 import com.orgzly.BuildConfig;
 import com.orgzly.R;
 import com.orgzly.android.prefs.AppPreferences;
-import com.orgzly.android.provider.clients.NotesClient;
 import com.orgzly.android.provider.models.DbNoteColumns;
-import com.orgzly.android.provider.views.DbNoteViewColumns;
-import com.orgzly.android.query.Query;
-import com.orgzly.android.query.QueryParser;
-import com.orgzly.android.query.user.InternalQueryParser;
 import com.orgzly.android.ui.AgendaListViewAdapter;
+import com.orgzly.android.ui.AgendaLoader;
 import com.orgzly.android.ui.Loaders;
 import com.orgzly.android.ui.NoteStateSpinner;
 import com.orgzly.android.ui.Selection;
-import com.orgzly.android.util.AgendaUtils;
 import com.orgzly.android.util.LogUtils;
-import com.orgzly.android.util.UserTimeFormatter;
 
-import org.joda.time.DateTime;
-
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -50,14 +34,8 @@ public class AgendaFragment extends QueryFragment {
     /** Name used for {@link android.app.FragmentManager}. */
     public static final String FRAGMENT_TAG = AgendaFragment.class.getName();
 
-    private static final int MAX_DAYS = 30;
-
-    // Time formatter for separators
-    private UserTimeFormatter userTimeFormatter;
-
-
-    /* Maps agenda's item ID to note ID */
-    private LongSparseArray<Long> originalNoteIDs = new LongSparseArray<>();
+    /* Currently displayed agenda, which maps agenda's item ID to note ID. */
+    private AgendaLoader.AgendaCursor agenda;
 
     int currentLoaderId = -1;
 
@@ -73,13 +51,6 @@ public class AgendaFragment extends QueryFragment {
         return fragment;
     }
 
-    @Override
-    public void onAttach(Context context) {
-        super.onAttach(context);
-
-        userTimeFormatter = new UserTimeFormatter(context);
-    }
-
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, inflater, container, savedInstanceState);
@@ -95,7 +66,7 @@ public class AgendaFragment extends QueryFragment {
         /* On long click */
         getListView().setOnItemLongClickListener((parent, view1, position, id) -> {
             if (mListAdapter.getItemViewType(position) != AgendaListViewAdapter.SEPARATOR_TYPE) {
-                mListener.onNoteLongClick(AgendaFragment.this, view1, position, id, originalNoteIDs.get(id));
+                mListener.onNoteLongClick(AgendaFragment.this, view1, position, id, getOriginalNoteId(id));
             }
             return true;
         });
@@ -104,7 +75,7 @@ public class AgendaFragment extends QueryFragment {
 
         getListView().setOnItemMenuButtonClickListener(
                 (buttonId, noteId) -> {
-                    noteId = originalNoteIDs.get(noteId);
+                    noteId = getOriginalNoteId(noteId);
                     switch (buttonId) {
                         case R.id.item_menu_schedule_btn:
                             displayScheduleTimestampDialog(R.id.item_menu_schedule_btn, noteId);
@@ -178,7 +149,7 @@ public class AgendaFragment extends QueryFragment {
         int itemViewType = mListAdapter.getItemViewType(position);
 
         if (itemViewType == AgendaListViewAdapter.NOTE_TYPE) {
-            mListener.onNoteClick(this, view, position, id, originalNoteIDs.get(id));
+            mListener.onNoteClick(this, view, position, id, getOriginalNoteId(id));
         }
     }
 
@@ -192,6 +163,12 @@ public class AgendaFragment extends QueryFragment {
         return new MyActionMode();
     }
 
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, id, bundle);
+        return new AgendaLoader(getActivity(), mQuery);
+    }
+
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, loader, cursor);
@@ -206,97 +183,27 @@ public class AgendaFragment extends QueryFragment {
             return;
         }
 
-        QueryParser parser = new InternalQueryParser();
-        Query query = parser.parse(mQuery);
-
-        int agendaDays = query.getOptions().getAgendaDays();
-
-        if (agendaDays > MAX_DAYS) {
-            agendaDays = MAX_DAYS;
-        }
-
-        // Add IS_SEPARATOR column
-        String[] columnNames = new String[cursor.getColumnNames().length + 1];
-        System.arraycopy(cursor.getColumnNames(), 0, columnNames, 0, cursor.getColumnNames().length);
-        columnNames[columnNames.length - 1] = Columns.IS_SEPARATOR;
-
-        Map<Long, MatrixCursor> agenda = new LinkedHashMap<>();
-        DateTime day = DateTime.now().withTimeAtStartOfDay();
-        int i = 0;
-        // create entries from today to today+agenda_len
-        do {
-            MatrixCursor matrixCursor = new MatrixCursor(columnNames);
-            agenda.put(day.getMillis(), matrixCursor);
-            day = day.plusDays(1);
-        } while (++i < agendaDays);
-
-        DateTime now =  DateTime.now();
-
-        int scheduledRangeStrIdx = cursor.getColumnIndex(DbNoteViewColumns.SCHEDULED_RANGE_STRING);
-        int deadlineRangeStrIdx = cursor.getColumnIndex(DbNoteViewColumns.DEADLINE_RANGE_STRING);
-
-        // Expand each note if it has a repeater or is a range
-        long nextId = 1;
-        originalNoteIDs.clear();
-        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-            Set<DateTime> dates = AgendaUtils.expandOrgDateTime(
-                    new String[] {
-                            cursor.getString(scheduledRangeStrIdx),
-                            cursor.getString(deadlineRangeStrIdx)},
-                    now,
-                    agendaDays
-            );
-
-            for (DateTime date : dates) {
-                // create agenda cursors
-                MatrixCursor matrixCursor = agenda.get(date.getMillis());
-                MatrixCursor.RowBuilder rowBuilder = matrixCursor.newRow();
-
-                for (String col : columnNames) {
-                    if (col.equalsIgnoreCase(Columns._ID)) {
-                        long noteId = cursor.getLong(cursor.getColumnIndex(col));
-
-                        originalNoteIDs.put(nextId, noteId);
-
-                        rowBuilder.add(nextId++);
-
-                    } else if (col.equalsIgnoreCase(Columns.IS_SEPARATOR)) {
-                        rowBuilder.add(0); // Not a separator
-
-                    } else {
-                        rowBuilder.add(cursor.getString(cursor.getColumnIndex(col)));
-                    }
-                }
-            }
-        }
-
-        MergeCursor mCursor = mergeDates(nextId, agenda);
+        agenda = (AgendaLoader.AgendaCursor) cursor;
 
         /*
          * Swapping instead of changing Cursor here, to keep the old one open.
          * Loader should release the old Cursor - see note in
          * {@link LoaderManager.LoaderCallbacks#onLoadFinished).
          */
-        mListAdapter.swapCursor(mCursor);
+        mListAdapter.swapCursor(cursor);
 
         mActionModeListener.updateActionModeForSelection(mSelection.getCount(), new MyActionMode());
     }
 
-    private MergeCursor mergeDates(long nextId, Map<Long, MatrixCursor> agenda) {
-        List<Cursor> allCursors = new ArrayList<>();
-
-        for (long dateMilli: agenda.keySet()) {
-            DateTime date = new DateTime(dateMilli);
-            MatrixCursor dateCursor = new MatrixCursor(Columns.AGENDA_SEPARATOR_COLS);
-            MatrixCursor.RowBuilder dateRow = dateCursor.newRow();
-            dateRow.add(nextId++);
-            dateRow.add(userTimeFormatter.formatDate(AgendaUtils.buildOrgDateTimeFromDate(date, null)));
-            dateRow.add(1); // Separator
-            allCursors.add(dateCursor);
-            allCursors.add(agenda.get(dateMilli));
-        }
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        super.onLoaderReset(loader);
 
-        return new MergeCursor(allCursors.toArray(new Cursor[allCursors.size()]));
+        agenda = null;
+    }
+
+    private Long getOriginalNoteId(long id) {
+        return agenda != null ? agenda.getOriginalNoteId(id) : null;
     }
 
     protected class MyActionMode extends QueryFragment.MyActionMode {
@@ -344,7 +251,7 @@ public class AgendaFragment extends QueryFragment {
         private TreeSet<Long> originalSelectedIds() {
             TreeSet<Long> selectionIds = new TreeSet<>();
             for (Long id: mSelection.getIds()) {
-                Long originalId = originalNoteIDs.get(id);
+                Long originalId = getOriginalNoteId(id);
                 /*
                  * Original ID might be missing if user selects a note before it's gone
                  * (because of sync re-loading a notebook for example).  Adding null to TreeSet
@@ -361,11 +268,5 @@ public class AgendaFragment extends QueryFragment {
     public static class Columns implements BaseColumns, DbNoteColumns {
         public static String IS_SEPARATOR = "is_separator";
         public static String AGENDA_DAY = "day";
-
-        private static final String[] AGENDA_SEPARATOR_COLS = {
-                Columns._ID,
-                Columns.AGENDA_DAY,
-                Columns.IS_SEPARATOR
-        };
     }
 }
\ No newline at end of file
@@ -10,7 +10,6 @@ import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.view.ActionMode;
 import android.text.TextUtils;
 import android.util.Log;
@@ -22,6 +21,7 @@ import android.view.MotionEvent;
 import android.view.SubMenu;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -37,9 +37,11 @@ import com.orgzly.android.provider.ProviderContract;
 import com.orgzly.android.provider.clients.BooksClient;
 import com.orgzly.android.provider.views.DbNoteView;
 import com.orgzly.android.ui.ActionModeListener;
+import com.orgzly.android.ui.BookNotesLoader;
 import com.orgzly.android.ui.Fab;
 import com.orgzly.android.ui.HeadsListViewAdapter;
 import com.orgzly.android.ui.Loaders;
+import com.orgzly.android.ui.NoteListItem;
 import com.orgzly.android.ui.NotePlace;
 import com.orgzly.android.ui.NoteStateSpinner;
 import com.orgzly.android.ui.Place;
@@ -74,6 +76,9 @@ public class BookFragment extends NoteListFragment
 
     private static final int STATE_ITEM_GROUP = 1;
 
+    /** Notes loaded at a time. More are loaded when the list is scrolled close to the end. */
+    private static final int NOTES_PAGE_SIZE = 500;
+
     private static final int[] ITEMS_HIDDEN_ON_MULTIPLE_SELECTED_NOTES = {
             R.id.book_cab_new,
             R.id.book_cab_cut,
@@ -93,7 +98,11 @@ public class BookFragment extends NoteListFragment
     private TextView mPrefaceText;
     private View mNoNotesText;
 
-    private SimpleCursorAdapter mListAdapter;
+    private HeadsListViewAdapter mListAdapter;
+
+    /* Last loaded page of notes was full. */
+    private boolean mHasMoreNotes;
+    private boolean mIsLoadingMoreNotes;
 
     private String mActionModeTag;
 
@@ -220,6 +229,20 @@ public class BookFragment extends NoteListFragment
 
         mIsViewCreated = true;
 
+        /* Load more notes before reaching the end of the list. */
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - NOTES_PAGE_SIZE / 5) {
+                    loadMoreNotes(mListAdapter.getCount() + NOTES_PAGE_SIZE);
+                }
+            }
+        });
+
         /* Long click listener. */
         getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
             @Override
@@ -299,6 +322,8 @@ public class BookFragment extends NoteListFragment
 
         mListAdapter = new HeadsListViewAdapter(getActivity(), mSelection, getListView().getItemMenus(), true);
 
+        mListAdapter.setOnToggleFoldedStateListener(this::replaceNoteOnNextLoad);
+
         setListAdapter(mListAdapter);
 
         mSelection.restoreIds(savedInstanceState);
@@ -417,6 +442,10 @@ public class BookFragment extends NoteListFragment
                 listener.onBookPrefaceEditRequest(mBook);
                 return true;
 
+            case R.id.books_options_menu_item_undo:
+                listener.onUndoRequest(mBookId);
+                return true;
+
 //            case R.id.books_options_menu_item_paste:
 //                mListener.onNotesPasteRequest(mBookId, 0, null);
 //                return true;
@@ -510,6 +539,46 @@ public class BookFragment extends NoteListFragment
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG,
                     "Scrolling to note " + noteId +
                     " took " + (System.currentTimeMillis() - t) + "ms");
+
+            /* Note could be after the loaded notes. Scrolled to once all are loaded. */
+            if (getArguments().containsKey(ARG_NOTE_ID)) {
+                loadMoreNotes(0);
+            }
+        }
+    }
+
+    /**
+     * Reloads notes with a larger limit, if there could be more than currently loaded.
+     * Loader keeps its URI, so the same number of notes is loaded again after changes.
+     *
+     * @param limit number of notes to load, 0 for all
+     */
+    private void loadMoreNotes(int limit) {
+        if (!mHasMoreNotes || mIsLoadingMoreNotes) {
+            return;
+        }
+
+        Loader<Cursor> loader = getActivity().getSupportLoaderManager().getLoader(Loaders.BOOK_FRAGMENT_NOTES);
+
+        if (loader instanceof CursorLoader) {
+            mIsLoadingMoreNotes = true;
+
+            ((CursorLoader) loader).setUri(limit > 0
+                    ? ProviderContract.Books.ContentUri.booksIdNotesLimited(mBookId, limit)
+                    : ProviderContract.Books.ContentUri.booksIdNotes(mBookId));
+
+            loader.forceLoad();
+        }
+    }
+
+    /**
+     * Once the note is folded or unfolded, only it and its descendants are loaded again.
+     */
+    private void replaceNoteOnNextLoad(long noteId) {
+        Loader<Cursor> loader = getActivity().getSupportLoaderManager().getLoader(Loaders.BOOK_FRAGMENT_NOTES);
+
+        if (loader instanceof BookNotesLoader) {
+            ((BookNotesLoader) loader).replaceOnNextLoad(noteId);
         }
     }
 
@@ -557,13 +626,12 @@ public class BookFragment extends NoteListFragment
                 );
 
             case Loaders.BOOK_FRAGMENT_NOTES:
-                /* Get all non-cut notes for book id. Order by position. */
-                return new CursorLoader(
+                /* Get the first page of visible notes for book id. Order by position. */
+                return new BookNotesLoader(
                         getActivity().getApplicationContext(),
-                        ProviderContract.Books.ContentUri.booksIdNotes(mBookId),
-                        null,
-                        null,
-                        null,
+                        mBookId,
+                        ProviderContract.Books.ContentUri.booksIdNotesLimited(mBookId, NOTES_PAGE_SIZE),
+                        NoteListItem.PROJECTION,
                         DbNoteView.LFT);
 
             default:
@@ -585,6 +653,14 @@ public class BookFragment extends NoteListFragment
                 mLastBookId = mBookId;
 
             } else if (cursorLoader.getId() == Loaders.BOOK_FRAGMENT_NOTES) {
+                String limit = ((CursorLoader) cursorLoader).getUri().getQueryParameter(ProviderContract.Notes.Param.LIMIT);
+
+                /* Rows of a folded or unfolded note were replaced, there are as many more as before. */
+                if (!BookNotesLoader.hasReplacedRows(cursor)) {
+                    mHasMoreNotes = limit != null && cursor.getCount() >= Integer.parseInt(limit);
+                }
+                mIsLoadingMoreNotes = false;
+
                 notesLoaded(cursor);
             }
 
@@ -917,6 +993,7 @@ public class BookFragment extends NoteListFragment
         void onNotesPromoteRequest(long bookId, Set<Long> noteIds);
         void onNotesDemoteRequest(long bookId, Set<Long> noteIds);
         void onNotesMoveRequest(long bookId, long noteId, int offset);
+        void onUndoRequest(long bookId);
 
         void onCycleVisibilityRequest(Book book);
     }
@@ -15,6 +15,7 @@ import com.orgzly.R;
 import com.orgzly.android.Shelf;
 import com.orgzly.android.provider.clients.NotesClient;
 import com.orgzly.android.ui.ActionModeListener;
+import com.orgzly.android.ui.NoteListItem;
 import com.orgzly.android.ui.dialogs.TimestampDialogFragment;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.org.datetime.OrgDateTime;
@@ -147,7 +148,7 @@ abstract public class QueryFragment extends NoteListFragment
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, id, bundle);
-        return NotesClient.getLoaderForQuery(getActivity(), mQuery);
+        return NotesClient.getLoaderForQuery(getActivity(), mQuery, NoteListItem.PROJECTION);
     }
 
     @Override
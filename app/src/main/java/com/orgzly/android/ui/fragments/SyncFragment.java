@@ -753,9 +753,18 @@ public class SyncFragment extends Fragment {
         }
 
         private void setButtonTextToLastSynced() {
+            setButtonTextToLastSynced(0);
+        }
+
+        /**
+         * @param elapsedTime duration of the last sync in ms, not displayed if 0
+         */
+        private void setButtonTextToLastSynced(long elapsedTime) {
             long time = AppPreferences.lastSuccessfulSyncTime(appContext);
 
-            if (time > 0) {
+            if (time > 0 && elapsedTime > 0) {
+                buttonText.setText(resources.getString(R.string.last_sync_with_duration, formatLastSyncTime(time), elapsedTime / 1000f));
+            } else if (time > 0) {
                 buttonText.setText(resources.getString(R.string.last_sync_with_argument, formatLastSyncTime(time)));
             } else {
                 buttonText.setText(R.string.sync);
@@ -821,7 +830,6 @@ public class SyncFragment extends Fragment {
                     break;
 
                 case NOT_RUNNING:
-                case FINISHED:
                     progressBar.setVisibility(View.GONE);
 
                     setAnimation(false);
@@ -830,6 +838,15 @@ public class SyncFragment extends Fragment {
 
                     break;
 
+                case FINISHED:
+                    progressBar.setVisibility(View.GONE);
+
+                    setAnimation(false);
+
+                    setButtonTextToLastSynced(status.elapsedTime);
+
+                    break;
+
                 case CANCELED:
                 case FAILED:
                     progressBar.setVisibility(View.GONE);
@@ -996,6 +1013,23 @@ public class SyncFragment extends Fragment {
         }.execute();
     }
 
+    @SuppressLint("StaticFieldLeak")
+    public void undo(final long bookId) {
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... voids) {
+                return mShelf.undo(bookId);
+            }
+
+            @Override
+            protected void onPostExecute(Integer result) {
+                if (mListener != null) {
+                    mListener.onUndone(result);
+                }
+            }
+        }.execute();
+    }
+
     public interface SyncFragmentListener {
         void onBookCreated(Book book);
         void onBookCreationFailed(Exception exception);
@@ -1027,6 +1061,8 @@ public class SyncFragment extends Fragment {
 
         void onNotesMoved(int result);
 
+        void onUndone(int count);
+
         void onFailure(String message);
     }
 }
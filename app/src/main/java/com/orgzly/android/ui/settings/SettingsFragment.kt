@@ -205,16 +205,6 @@ class SettingsFragment : PreferenceFragment(), SharedPreferences.OnSharedPrefere
             }
         }
 
-        /* Reminders for scheduled notes. Reset last run time. */
-        if (getString(R.string.pref_key_use_reminders_for_scheduled_times) == key) {
-            AppPreferences.reminderLastRunForScheduled(context, 0L)
-        }
-
-        /* Reminders for deadlines. Reset last run time. */
-        if (getString(R.string.pref_key_use_reminders_for_deadline_times) == key) {
-            AppPreferences.reminderLastRunForDeadline(context, 0L)
-        }
-
         updateOtherPreferencesForReminders()
 
         /* Always notify about possibly changed data, if settings are modified.
@@ -29,13 +29,7 @@ public class AgendaUtils {
             }
         }
 
-        /* Truncate and remove duplicates. */
-        Set<DateTime> result = new TreeSet<>();
-        for (DateTime dt: set) {
-            result.add(dt.withTimeAtStartOfDay());
-        }
-
-        return result;
+        return truncate(set);
     }
 
     public static List<DateTime> expandOrgDateTime(String rangeStr, Calendar now, int days) {
@@ -46,10 +40,27 @@ public class AgendaUtils {
         return expandOrgDateTime(range, new DateTime(now), days);
     }
 
+    /* Truncate and remove duplicates. */
+    private static Set<DateTime> truncate(Set<DateTime> set) {
+        Set<DateTime> result = new TreeSet<>();
+        for (DateTime dt: set) {
+            result.add(dt.withTimeAtStartOfDay());
+        }
+
+        return result;
+    }
+
     private static List<DateTime> expandOrgDateTime(OrgRange range, DateTime now, int days) {
+        DateTime rangeEnd = null;
+        if (range.getEndTime() != null) {
+            rangeEnd = new DateTime(range.getEndTime().getCalendar());
+        }
+
+        return expandOrgDateTime(range.getStartTime(), rangeEnd, now, days);
+    }
+
+    private static List<DateTime> expandOrgDateTime(OrgDateTime rangeStart, DateTime rangeEnd, DateTime now, int days) {
         List<DateTime> result = new ArrayList<>();
-        OrgDateTime rangeStart = range.getStartTime();
-        OrgDateTime rangeEnd = range.getEndTime();
 
         // Add today if task is overdue
         if (rangeStart.getCalendar().before(now.toGregorianCalendar())) {
@@ -58,22 +69,37 @@ public class AgendaUtils {
 
         DateTime to = now.plusDays(days).withTimeAtStartOfDay();
 
+        result.addAll(getTimesInInterval(rangeStart, rangeEnd, now, to));
+
+        return result;
+    }
+
+    /**
+     * Days on which the range occurs between {@code from} and {@code to}.
+     * Unlike agenda expansion, today is not added for overdue ranges.
+     *
+     * @param rangeEnd end of the range, null if there is none
+     */
+    public static Set<DateTime> getOccurrenceDays(OrgDateTime rangeStart, DateTime rangeEnd, DateTime from, DateTime to) {
+        return truncate(new TreeSet<>(getTimesInInterval(rangeStart, rangeEnd, from, to)));
+    }
+
+    private static List<DateTime> getTimesInInterval(OrgDateTime rangeStart, DateTime rangeEnd, DateTime from, DateTime to) {
         if (rangeEnd == null) {
-            result.addAll(OrgDateTimeUtils.getTimesInInterval(rangeStart, now, to, true, 0));
+            return OrgDateTimeUtils.getTimesInInterval(rangeStart, from, to, true, 0);
+
         } else {
             // a time range
-            if (to.isAfter(rangeEnd.getCalendar().getTimeInMillis())) {
-                to = new DateTime(rangeEnd.getCalendar()).withTimeAtStartOfDay().plusDays(1);
+            if (to.isAfter(rangeEnd)) {
+                to = rangeEnd.withTimeAtStartOfDay().plusDays(1);
             }
             // if start time has no repeater, use a daily repeater
             if (!rangeStart.hasRepeater()) {
                 DateTime start = new DateTime(rangeStart.getCalendar());
                 rangeStart = buildOrgDateTimeFromDate(start, OrgRepeater.parse("++1d"));
             }
-            result.addAll(OrgDateTimeUtils.getTimesInInterval(rangeStart, now, to, true, 0));
+            return OrgDateTimeUtils.getTimesInInterval(rangeStart, from, to, true, 0);
         }
-
-        return result;
     }
 
     public static OrgDateTime buildOrgDateTimeFromDate(DateTime date, OrgRepeater repeater) {
@@ -18,6 +18,9 @@ public class EncodingDetect {
 
     private InputStream fileInputStream;
 
+    /** Maximum number of bytes to look at, 0 if the whole stream is read (and closed). */
+    private int prefixLimit = 0;
+
     private boolean hasRan = false;
     private String detectedCharset;
 
@@ -30,6 +33,20 @@ public class EncodingDetect {
         return detect;
     }
 
+    /**
+     * Detects encoding using at most {@code limit} bytes from the beginning of the stream.
+     * Stream is then reset back to its current position and left open, so the same stream
+     * can be used for reading the content.
+     */
+    public static EncodingDetect getInstance(BufferedInputStream inputStream, int limit) {
+        EncodingDetect detect = new EncodingDetect();
+
+        detect.fileInputStream = inputStream;
+        detect.prefixLimit = limit;
+
+        return detect;
+    }
+
     public String getEncoding() {
         detect();
         return detectedCharset;
@@ -171,6 +188,11 @@ public class EncodingDetect {
      * (https://code.google.com/p/juniversalchardet/)
      */
     private void universalDetect() {
+        if (prefixLimit > 0) {
+            universalDetectPrefix();
+            return;
+        }
+
         byte[] buf = new byte[4096];
 
         // (1)
@@ -214,4 +236,42 @@ public class EncodingDetect {
         // (5)
         detector.reset();
     }
+
+    /**
+     * Same as {@link #universalDetect()}, but only the marked prefix of the stream is used.
+     */
+    private void universalDetectPrefix() {
+        byte[] buf = new byte[4096];
+
+        UniversalDetector detector = new UniversalDetector(null);
+
+        fileInputStream.mark(prefixLimit);
+
+        try {
+            int total = 0;
+            int n;
+
+            while (total < prefixLimit && !detector.isDone()
+                   && (n = fileInputStream.read(buf, 0, Math.min(buf.length, prefixLimit - total))) > 0) {
+                detector.handleData(buf, 0, n);
+                total += n;
+            }
+
+            fileInputStream.reset();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        detector.dataEnd();
+
+        String charset = detector.getDetectedCharset();
+
+        if (charset != null) {
+            detectedCharset = charset;
+        }
+
+        detector.reset();
+    }
 }
@@ -0,0 +1,112 @@
+package com.orgzly.android.util;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+import android.text.SpannedString;
+
+import com.orgzly.BuildConfig;
+import com.orgzly.android.prefs.AppPreferences;
+
+/**
+ * Notes' titles and contents formatted by {@link OrgFormatter}, by note ID.
+ *
+ * Entry is used only if the text and the formatting preferences are the same
+ * as when it was created. Otherwise the text is formatted again and replaces
+ * the entry, so an updated note keeps at most one entry per text.
+ */
+public class OrgFormatterCache {
+    private static final String TAG = OrgFormatterCache.class.getName();
+
+    /** Maximum number of characters, of both original and formatted texts. */
+    private static final int MAX_SIZE = 256 * 1024;
+
+    /** Statistics are logged in debug builds after this many lookups. */
+    private static final int LOG_EVERY = 500;
+
+    private static final int TITLE = 0;
+    private static final int CONTENT = 1;
+
+    private static final LruCache<Long, Entry> cache = new LruCache<Long, Entry>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(Long key, Entry entry) {
+            return entry.source.length() + entry.formatted.length();
+        }
+    };
+
+    /* Statistics. Guarded by the class. */
+    private static int hits = 0;
+    private static int misses = 0;
+
+    public static CharSequence parseTitle(Context context, long noteId, String title) {
+        return parse(context, key(noteId, TITLE), title);
+    }
+
+    public static CharSequence parseContent(Context context, long noteId, String content) {
+        return parse(context, key(noteId, CONTENT), content);
+    }
+
+    public static void clear() {
+        cache.evictAll();
+    }
+
+    private static long key(long noteId, int type) {
+        return (noteId << 1) | type;
+    }
+
+    private static CharSequence parse(Context context, long key, String str) {
+        int flags = flags(context);
+
+        Entry entry = cache.get(key);
+
+        boolean isHit = entry != null && entry.flags == flags && entry.source.equals(str);
+
+        if (!isHit) {
+            /* Returned text is shared, so it must not be modified by callers. */
+            entry = new Entry(str, flags, new SpannedString(OrgFormatter.INSTANCE.parse(context, str)));
+
+            cache.put(key, entry);
+        }
+
+        if (BuildConfig.LOG_DEBUG) record(isHit);
+
+        return entry.formatted;
+    }
+
+    /**
+     * Preferences which change the result of {@link OrgFormatter#parse}.
+     */
+    private static int flags(Context context) {
+        return (AppPreferences.styleText(context) ? 1 : 0) | (AppPreferences.styledTextWithMarks(context) ? 2 : 0);
+    }
+
+    private static synchronized void record(boolean isHit) {
+        if (isHit) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        int lookups = hits + misses;
+
+        if (lookups % LOG_EVERY == 0) {
+            LogUtils.d(TAG, String.format("%d lookups, %d%% hits, %d evictions, %d entries, ~%d KB",
+                    lookups,
+                    hits * 100 / lookups,
+                    cache.evictionCount(),
+                    cache.snapshot().size(),
+                    cache.size() * 2 / 1024));
+        }
+    }
+
+    private static class Entry {
+        final String source;
+        final int flags;
+        final CharSequence formatted;
+
+        Entry(String source, int flags, CharSequence formatted) {
+            this.source = source;
+            this.flags = flags;
+            this.formatted = formatted;
+        }
+    }
+}
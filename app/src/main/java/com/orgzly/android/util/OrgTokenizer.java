@@ -0,0 +1,523 @@
+package com.orgzly.android.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds links and markup in Org text, without using regular expressions.
+ *
+ * Links are replaced in a single scan of the text. Markup is then found in a single
+ * scan of the result, as markers can surround links. Text is never modified in place,
+ * so formatting is linear in the text's length.
+ *
+ * Plain Java, with no Android dependencies, so it can be tested on the JVM.
+ */
+public class OrgTokenizer {
+    public enum Type {
+        URL_LINK,
+        PROPERTY_LINK,
+        BOLD,
+        ITALIC,
+        UNDERLINE,
+        MONOSPACE,
+        STRIKETHROUGH
+    }
+
+    public static class Token {
+        public final Type type;
+        public int start;
+        public int end;
+
+        /** Link's URL or the value of the property. */
+        public final String value;
+
+        /** Name of the property for property links. */
+        public final String propertyName;
+
+        Token(Type type, int start, int end, String value, String propertyName) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.value = value;
+            this.propertyName = propertyName;
+        }
+
+        @Override
+        public String toString() {
+            return type + "[" + start + "," + end + ")" + (value != null ? " " + value : "");
+        }
+    }
+
+    public static class Result {
+        public final String text;
+        public final List<Token> tokens;
+
+        Result(String text, List<Token> tokens) {
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+
+    private static final List<String> LINK_SCHEMES = Arrays.asList(
+            "http", "https", "mailto", "tel", "voicemail", "geo", "sms", "smsto", "mms", "mmsto");
+
+    /* Characters allowed after the closing marker. */
+    private static final String POST = "- \t.,:!?;'\")}[";
+
+    /**
+     * @param linkify create tokens for links, otherwise only replace links with their names
+     * @param markup find markup
+     * @param withMarks keep markers in the text
+     */
+    public static Result tokenize(String str, boolean linkify, boolean markup, boolean withMarks) {
+        List<Token> links = new ArrayList<>();
+
+        String text = parseBracketLinks(str, linkify, links);
+
+        if (linkify) {
+            parsePlainLinks(text, links);
+        }
+
+        if (!markup) {
+            return new Result(text, links);
+        }
+
+        List<Token> tokens = new ArrayList<>(links);
+
+        text = parseMarkup(text, withMarks, tokens);
+
+        return new Result(text, tokens);
+    }
+
+    /**
+     * [[link]] and [[link][name]], where link is an URL, #custom id or id:ID.
+     */
+    private static String parseBracketLinks(String str, boolean linkify, List<Token> tokens) {
+        int length = str.length();
+
+        /* Most texts have no links. */
+        if (str.indexOf("[[") == -1) {
+            return str;
+        }
+
+        StringBuilder out = new StringBuilder(length);
+
+        int i = 0;
+
+        while (i < length) {
+            char c = str.charAt(i);
+
+            if (c == '[' && i + 1 < length && str.charAt(i + 1) == '[') {
+                int next = parseBracketLink(str, i, linkify, out, tokens);
+
+                if (next != -1) {
+                    i = next;
+                    continue;
+                }
+            }
+
+            out.append(c);
+            i++;
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Parses the link starting at {@code start}, appending its text.
+     *
+     * @return position after the link, or -1 if there is no link
+     */
+    private static int parseBracketLink(String str, int start, boolean linkify, StringBuilder out, List<Token> tokens) {
+        int length = str.length();
+
+        int linkEnd = str.indexOf(']', start + 2);
+
+        if (linkEnd <= start + 2 || linkEnd + 1 >= length) {
+            return -1;
+        }
+
+        String link = str.substring(start + 2, linkEnd);
+
+        String name;
+        int end;
+
+        if (str.charAt(linkEnd + 1) == '[') { // [[link][name]]
+            int nameEnd = str.indexOf(']', linkEnd + 2);
+
+            if (nameEnd <= linkEnd + 2 || nameEnd + 1 >= length || str.charAt(nameEnd + 1) != ']') {
+                return -1;
+            }
+
+            name = str.substring(linkEnd + 2, nameEnd);
+            end = nameEnd + 2;
+
+        } else if (str.charAt(linkEnd + 1) == ']') { // [[link]]
+            name = null;
+            end = linkEnd + 2;
+
+        } else {
+            return -1;
+        }
+
+        Token token;
+
+        if (isCustomIdLink(link)) {
+            token = new Token(Type.PROPERTY_LINK, 0, 0, link.substring(1), "CUSTOM_ID");
+
+        } else if (isIdLink(link)) {
+            token = new Token(Type.PROPERTY_LINK, 0, 0, link.substring(3), "ID");
+
+        } else if (isUrl(link)) {
+            token = new Token(Type.URL_LINK, 0, 0, link, null);
+
+        } else if (name != null) { // Any link with a name is displayed as the name
+            token = null;
+
+        } else {
+            return -1;
+        }
+
+        String text = name != null ? name : link;
+
+        if (linkify && token != null) {
+            token.start = out.length();
+            token.end = out.length() + text.length();
+            tokens.add(token);
+        }
+
+        out.append(text);
+
+        return end;
+    }
+
+    private static boolean isCustomIdLink(String link) {
+        return link.length() > 1 && link.charAt(0) == '#';
+    }
+
+    /**
+     * id:CABA8098-5969-429E-A780-94C8E0A9D206
+     */
+    private static boolean isIdLink(String link) {
+        if (link.length() != 39 || !link.startsWith("id:")) {
+            return false;
+        }
+
+        for (int i = 3; i < link.length(); i++) {
+            char c = link.charAt(i);
+
+            if (i == 11 || i == 16 || i == 21 || i == 26) {
+                if (c != '-') {
+                    return false;
+                }
+
+            } else if (!isHexDigit(c)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isUrl(String link) {
+        int colon = link.indexOf(':');
+
+        if (colon == -1 || colon == link.length() - 1 || !LINK_SCHEMES.contains(link.substring(0, colon))) {
+            return false;
+        }
+
+        for (int i = colon + 1; i < link.length(); i++) {
+            if (isSpace(link.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * http://link.com
+     *
+     * Links starting inside an already found link are skipped.
+     */
+    private static void parsePlainLinks(String text, List<Token> tokens) {
+        int length = text.length();
+
+        if (text.indexOf(':') == -1) {
+            return;
+        }
+
+        List<Token> plainLinks = new ArrayList<>();
+
+        int linkIndex = 0;
+        int i = 0;
+
+        while (i < length) {
+            int end = plainLinkEnd(text, i);
+
+            if (end == -1) {
+                i++;
+                continue;
+            }
+
+            /* Skip links which ended before this one. */
+            while (linkIndex < tokens.size() && tokens.get(linkIndex).end <= i) {
+                linkIndex++;
+            }
+
+            if (!isInUrlLink(tokens, linkIndex, i)) {
+                plainLinks.add(new Token(Type.URL_LINK, i, end, text.substring(i, end), null));
+            }
+
+            i = end;
+        }
+
+        if (!plainLinks.isEmpty()) {
+            tokens.addAll(plainLinks);
+
+            Collections.sort(tokens, (a, b) -> a.start - b.start);
+        }
+    }
+
+    /**
+     * @return end of the link starting at {@code start}, or -1 if there is none
+     */
+    private static int plainLinkEnd(String text, int start) {
+        char c = text.charAt(start);
+
+        /* First letters of schemes. */
+        if (c != 'h' && c != 'm' && c != 't' && c != 'v' && c != 'g' && c != 's') {
+            return -1;
+        }
+
+        for (String scheme: LINK_SCHEMES) {
+            int colon = start + scheme.length();
+
+            if (text.startsWith(scheme, start)
+                && colon + 1 < text.length()
+                && text.charAt(colon) == ':'
+                && !isSpace(text.charAt(colon + 1))) {
+
+                int end = colon + 1;
+
+                while (end < text.length() && !isSpace(text.charAt(end))) {
+                    end++;
+                }
+
+                return end;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isInUrlLink(List<Token> tokens, int from, int position) {
+        for (int i = from; i < tokens.size() && tokens.get(i).start <= position; i++) {
+            Token token = tokens.get(i);
+
+            if (token.type == Type.URL_LINK && position < token.end) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * *bold* /italic/ _underline_ =verbatim= ~code~ +strike-through+
+     *
+     * Text between the markers must not start or end with a space and can span two lines.
+     * When markers are removed, markup inside the removed markers is found too.
+     *
+     * @return text with markers removed unless {@code withMarks}
+     */
+    private static String parseMarkup(String text, boolean withMarks, List<Token> tokens) {
+        int length = text.length();
+
+        if (!hasMarker(text)) {
+            return text;
+        }
+
+        List<Token> links = new ArrayList<>(tokens);
+
+        /* Markup of removed markers whose closing marker is not reached yet, innermost last. */
+        List<Token> open = new ArrayList<>();
+        List<Integer> closes = new ArrayList<>();
+
+        StringBuilder out = withMarks ? null : new StringBuilder(length);
+
+        /* Positions in the output, for moving links when markers are removed. */
+        int[] positions = withMarks ? null : new int[length + 1];
+
+        int i = 0;
+
+        while (i < length) {
+            if (!withMarks) {
+                positions[i] = out.length();
+            }
+
+            int last = closes.size() - 1;
+
+            if (last >= 0 && closes.get(last) == i) { // Removed closing marker
+                open.remove(last).end = out.length();
+                closes.remove(last);
+                i++;
+                continue;
+            }
+
+            char c = text.charAt(i);
+
+            Type type = markupType(c);
+
+            if (type != null) {
+                int limit = last >= 0 ? closes.get(last) : length;
+
+                int close = findClosingMarker(text, i, limit, closes);
+
+                if (close != -1) {
+                    if (withMarks) {
+                        tokens.add(new Token(type, i, close + 1, null, null));
+                        i = close + 1;
+
+                    } else {
+                        Token token = new Token(type, out.length(), 0, null, null);
+                        tokens.add(token);
+                        open.add(token);
+                        closes.add(close);
+                        i++;
+                    }
+
+                    continue;
+                }
+            }
+
+            if (!withMarks) {
+                out.append(c);
+            }
+
+            i++;
+        }
+
+        if (withMarks) {
+            return text;
+        }
+
+        positions[length] = out.length();
+
+        /* Move links found before markers were removed. */
+        for (Token link: links) {
+            link.start = positions[link.start];
+            link.end = positions[link.end];
+
+            if (link.start == link.end) {
+                tokens.remove(link);
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * @return position of the closing marker before {@code limit}, or -1 if there is none
+     */
+    private static int findClosingMarker(String text, int start, int limit, List<Integer> removedCloses) {
+        char marker = text.charAt(start);
+
+        /* First character after the marker. */
+        if (start + 1 >= limit || isSpace(text.charAt(start + 1))) {
+            return -1;
+        }
+
+        /* Text with a single character. */
+        if (start + 2 < limit && text.charAt(start + 2) == marker && isFollowedByPost(text, start + 2, removedCloses)) {
+            return start + 2;
+        }
+
+        int newLines = 0;
+
+        /* Last character before the marker is at i - 1, characters between are checked up to i - 2. */
+        for (int i = start + 3; i < limit; i++) {
+            char c = text.charAt(i - 2);
+
+            if (i - 2 > start + 1) {
+                if (c == '\n') {
+                    if (++newLines > 1) {
+                        return -1;
+                    }
+
+                } else if (isLineTerminator(c)) {
+                    return -1;
+                }
+            }
+
+            if (text.charAt(i) == marker && !isSpace(text.charAt(i - 1)) && isFollowedByPost(text, i, removedCloses)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Closing marker must be followed by a {@link #POST} character or the end of line.
+     * Removed closing markers of surrounding markup are skipped.
+     */
+    private static boolean isFollowedByPost(String text, int close, List<Integer> removedCloses) {
+        int next = close + 1;
+
+        for (int i = removedCloses.size() - 1; i >= 0 && removedCloses.get(i) == next; i--) {
+            next++;
+        }
+
+        if (next >= text.length()) {
+            return true;
+        }
+
+        char c = text.charAt(next);
+
+        return isLineTerminator(c) || POST.indexOf(c) != -1;
+    }
+
+    private static boolean hasMarker(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (markupType(text.charAt(i)) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Type markupType(char c) {
+        switch (c) {
+            case '*':
+                return Type.BOLD;
+            case '/':
+                return Type.ITALIC;
+            case '_':
+                return Type.UNDERLINE;
+            case '=':
+            case '~':
+                return Type.MONOSPACE;
+            case '+':
+                return Type.STRIKETHROUGH;
+            default:
+                return null;
+        }
+    }
+
+    /** Same as \s. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,238 @@
+package com.orgzly.android.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrgTokenizerTest {
+    private static final Logger LOGGER = Logger.getLogger(OrgTokenizerTest.class.getName());
+
+    private static final int TOKENIZER_RUNS = 50;
+    private static final int REGEX_RUNS = 3;
+
+    /** Tokenizing 10000 characters takes a few milliseconds. */
+    private static final double MAX_TOKENIZER_MS = 200;
+
+    /* Texts formatted the same as before. */
+    private static final String[] SNIPPETS = {
+            "[[http://www.orgzly.com]]\n[[http://www.orgzly.com]]",
+            "[[http://www.orgzly.com][Orgzly]]",
+            "AAA http://www.x.com BBB [[http://www.y.com]]CCC [[http://www.z.com][Z]]DDD",
+            "AAA mailto:x@x.com BBB [[mailto:y@y.com]]CCC [[mailto:z@z.com][Z]]DDD",
+            "See [[#custom][custom id]] and [[id:CABA8098-5969-429E-A780-94C8E0A9D206]] or [[#x]]",
+            "[[file:foo.org][Foo]] and [[file:bar.org]]",
+            "https://a.com/x_y_z_ and smsto:123 tel:55",
+            "[[a [[http://y]]",
+            "[[a [[b][c]]",
+            "x [[y]] z",
+            "*a* *b*",
+            "Note *bold*",
+            "*/a/*",
+            "a /b/ c =d= ~e~ +f+ _g_",
+            "*bold [[http://x.com][link]] text*",
+            "*[[http://x.com][link]]*",
+            "line one *bold\nline two* three",
+            "*a\nb\nc*",
+            "* not bold*",
+            "*not bold *",
+            "2*3*4",
+            "a*b*",
+            "(*a*)",
+            "*a*b*",
+            "- item /italic/.\n- =code= here,\n",
+            "*a*\r\n*b*\r\n",
+            "*a\r\nb*",
+            meetingLog(2000)
+    };
+
+    @Test
+    public void testNamedLink() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("[[http://www.orgzly.com][Orgzly]]", true, true, false);
+
+        assertEquals("Orgzly", result.text);
+        assertEquals("[URL_LINK[0,6) http://www.orgzly.com]", tokens(result).toString());
+    }
+
+    @Test
+    public void testPlainLinkInsideBracketLinkIsSkipped() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("[[http://a.com]]b http://c.com", true, true, false);
+
+        assertEquals("http://a.comb http://c.com", result.text);
+        assertEquals("[URL_LINK[0,12) http://a.com, URL_LINK[14,26) http://c.com]", tokens(result).toString());
+    }
+
+    @Test
+    public void testPropertyLinks() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize(
+                "[[#sec][Section]] [[id:CABA8098-5969-429E-A780-94C8E0A9D206]]", true, false, false);
+
+        assertEquals("Section id:CABA8098-5969-429E-A780-94C8E0A9D206", result.text);
+        assertEquals("CUSTOM_ID", result.tokens.get(0).propertyName);
+        assertEquals("sec", result.tokens.get(0).value);
+        assertEquals("ID", result.tokens.get(1).propertyName);
+        assertEquals("CABA8098-5969-429E-A780-94C8E0A9D206", result.tokens.get(1).value);
+    }
+
+    @Test
+    public void testLinksNotLinkified() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("[[http://a.com][A]] http://b.com", false, true, false);
+
+        assertEquals("A http://b.com", result.text);
+        assertEquals(0, result.tokens.size());
+    }
+
+    @Test
+    public void testMarkupWithMarks() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("*a* /b/", true, true, true);
+
+        assertEquals("*a* /b/", result.text);
+        assertEquals("[BOLD[0,3), ITALIC[4,7)]", tokens(result).toString());
+    }
+
+    @Test
+    public void testNestedMarkupWithoutMarks() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("*see /[[http://a.com][this]]/*", true, true, false);
+
+        assertEquals("see this", result.text);
+        assertEquals("[BOLD[0,8), ITALIC[4,8), URL_LINK[4,8) http://a.com]", tokens(result).toString());
+    }
+
+    @Test
+    public void testMarkupOverTwoLinesOnly() {
+        assertEquals("a\nb", OrgTokenizer.tokenize("*a\nb*", true, true, false).text);
+        assertEquals("*a\nb\nc*", OrgTokenizer.tokenize("*a\nb\nc*", true, true, false).text);
+    }
+
+    /*
+     * Differences from the regex formatter.
+     */
+
+    /* Regex formatter replaced URL links first and then "[[x][Y]]" left by it. */
+    @Test
+    public void testBracketLinksAreMatchedLeftToRight() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("[[x][[[http://y.com][Y]]]]", true, true, false);
+
+        assertEquals("[[x]Y]]", result.text);
+        assertEquals("[]", tokens(result).toString());
+    }
+
+    /* Regex formatter removed both pairs of marks, giving "a b c" with overlapping spans. */
+    @Test
+    public void testNestedMarkupWithoutMarksMustCloseInside() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("*a /b* c/", true, true, false);
+
+        assertEquals("a /b c/", result.text);
+        assertEquals("[BOLD[0,4)]", tokens(result).toString());
+    }
+
+    /* Regex formatter removed one of the slashes in "http://" as well, giving "see http:/a.com/b and". */
+    @Test
+    public void testMarkupWithoutMarksKeepsLinkText() {
+        OrgTokenizer.Result result = OrgTokenizer.tokenize("/see http://a.com/b/ and/", true, true, false);
+
+        assertEquals("see http://a.com/b and/", result.text);
+        assertEquals("[ITALIC[0,18), URL_LINK[4,18) http://a.com/b/]", tokens(result).toString());
+    }
+
+    @Test
+    public void testSameAsRegexFormatter() {
+        for (String snippet: SNIPPETS) {
+            for (int flags = 0; flags < 8; flags++) {
+                boolean linkify = (flags & 1) != 0;
+                boolean markup = (flags & 2) != 0;
+                boolean withMarks = (flags & 4) != 0;
+
+                OrgTokenizer.Result expected = RegexOrgFormatter.parse(snippet, linkify, markup, withMarks);
+                OrgTokenizer.Result actual = OrgTokenizer.tokenize(snippet, linkify, markup, withMarks);
+
+                String message = snippet + " (flags " + flags + ")";
+
+                assertEquals(message, expected.text, actual.text);
+                assertEquals(message, tokens(expected), tokens(actual));
+            }
+        }
+    }
+
+    /**
+     * Logs formatting speed. Only fails if the tokenizer is very slow, as timing
+     * depends on the machine and its load (it is usually around a hundred times
+     * faster than the regex formatter).
+     */
+    @Test
+    public void testSpeed() {
+        final String log = meetingLog(10000);
+
+        double tokenizerMs = minDurationMs(TOKENIZER_RUNS, new Runnable() {
+            @Override
+            public void run() {
+                OrgTokenizer.tokenize(log, true, true, false);
+            }
+        });
+
+        double regexMs = minDurationMs(REGEX_RUNS, new Runnable() {
+            @Override
+            public void run() {
+                RegexOrgFormatter.parse(log, true, true, false);
+            }
+        });
+
+        String result = String.format("Formatted %d characters: %.2f ms with regular expressions, %.2f ms with tokenizer",
+                log.length(), regexMs, tokenizerMs);
+
+        LOGGER.info(result);
+
+        assertTrue(result, tokenizerMs < MAX_TOKENIZER_MS);
+    }
+
+    /**
+     * Shortest of the runs, after the same number of runs to warm up.
+     */
+    private static double minDurationMs(int runs, Runnable runnable) {
+        for (int i = 0; i < runs; i++) {
+            runnable.run();
+        }
+
+        long min = Long.MAX_VALUE;
+
+        for (int i = 0; i < runs; i++) {
+            long startedAt = System.nanoTime();
+            runnable.run();
+            min = Math.min(min, System.nanoTime() - startedAt);
+        }
+
+        return min / 1e6;
+    }
+
+    /**
+     * Sorted, as tokens are not created in the same order.
+     */
+    private static List<String> tokens(OrgTokenizer.Result result) {
+        List<String> list = new ArrayList<>();
+
+        for (OrgTokenizer.Token token: result.tokens) {
+            list.add(token.toString());
+        }
+
+        Collections.sort(list);
+
+        return list;
+    }
+
+    private static String meetingLog(int length) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("- ").append(i).append(" discussed *item* with /team/, see [[http://example.com/")
+                    .append(i).append("][ticket]] and http://example.com/").append(i).append(" =config= ~cmd~\n")
+                    .append("  notes in [[#sec").append(i).append("][section]] _later_ +done+\n");
+        }
+
+        return sb.toString();
+    }
+}
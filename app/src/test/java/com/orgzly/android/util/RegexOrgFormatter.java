@@ -0,0 +1,219 @@
+package com.orgzly.android.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Previous implementation of {@link OrgFormatter}, a pass with regular expressions for
+ * each link type and for markup, modifying the text and moving spans after each match.
+ *
+ * Used as a reference for {@link OrgTokenizer}.
+ */
+class RegexOrgFormatter {
+    private static final String LINK_SCHEMES = "https?|mailto|tel|voicemail|geo|sms|smsto|mms|mmsto";
+
+    private static final String PLAIN_LINK = "((" + LINK_SCHEMES + "):\\S+)";
+    private static final String BRACKET_LINK = "((" + LINK_SCHEMES + "):[^]\\s]+)";
+    private static final String CUSTOM_ID_LINK = "(#([^]]+))";
+    private static final String HD = "[0-9a-fA-F]";
+    private static final String ID_LINK = "(id:(" + HD + "{8}-(?:" + HD + "{4}-){3}" + HD + "{12}))";
+    private static final String BRACKET_ANY_LINK = "(([^]]+))";
+
+    private static final String PRE = "- \t('\"{";
+    private static final String POST = "- \\t.,:!?;'\")}\\[";
+    private static final String BORDER = "\\S";
+    private static final String BODY = ".*?(?:\n.*?)?";
+
+    private static final Pattern MARKUP_PATTERN = Pattern.compile(
+            markupRegex('*') + "|" +
+            markupRegex('/') + "|" +
+            markupRegex('_') + "|" +
+            markupRegex('=') + "|" +
+            markupRegex('~') + "|" +
+            markupRegex('+'), Pattern.MULTILINE);
+
+    private static final OrgTokenizer.Type[] MARKUP_TYPES = {
+            OrgTokenizer.Type.BOLD,
+            OrgTokenizer.Type.ITALIC,
+            OrgTokenizer.Type.UNDERLINE,
+            OrgTokenizer.Type.MONOSPACE,
+            OrgTokenizer.Type.MONOSPACE,
+            OrgTokenizer.Type.STRIKETHROUGH
+    };
+
+    private static String markupRegex(char marker) {
+        return "(?:^|.{0}|[" + PRE + "])([" + marker + "](" + BORDER + "|" + BORDER + BODY + BORDER + ")[" + marker + "])(?:[" + POST + "]|$)";
+    }
+
+    private final StringBuilder sb;
+    private final List<OrgTokenizer.Token> tokens = new ArrayList<>();
+
+    private RegexOrgFormatter(String str) {
+        sb = new StringBuilder(str);
+    }
+
+    static OrgTokenizer.Result parse(String str, boolean linkify, boolean markup, boolean withMarks) {
+        RegexOrgFormatter formatter = new RegexOrgFormatter(str);
+
+        formatter.parsePropertyLinks(CUSTOM_ID_LINK, "CUSTOM_ID", linkify);
+        formatter.parsePropertyLinks(ID_LINK, "ID", linkify);
+
+        formatter.parseOrgLinksWithName(BRACKET_LINK, linkify);
+        formatter.parseOrgLinksWithName(BRACKET_ANY_LINK, false);
+
+        formatter.parseOrgLinks(BRACKET_LINK, linkify);
+
+        if (linkify) {
+            formatter.parsePlainLinks();
+        }
+
+        if (markup) {
+            formatter.parseMarkup(withMarks);
+        }
+
+        return new OrgTokenizer.Result(formatter.sb.toString(), formatter.tokens);
+    }
+
+    private void parsePropertyLinks(String linkRegex, String propName, boolean createLinks) {
+        parsePropertyLinks(Pattern.compile("\\[\\[" + linkRegex + "]\\[([^]]+)]]"), 2, 3, propName, createLinks);
+        parsePropertyLinks(Pattern.compile("\\[\\[" + linkRegex + "]]"), 2, 1, propName, createLinks);
+    }
+
+    private void parsePropertyLinks(Pattern p, int propGroup, int linkGroup, String propName, boolean createLinks) {
+        Matcher m = p.matcher(sb);
+
+        while (m.find()) {
+            String link = m.group(linkGroup);
+            String propValue = m.group(propGroup);
+            int start = m.start();
+
+            replace(start, m.end(), link);
+
+            if (createLinks) {
+                tokens.add(new OrgTokenizer.Token(OrgTokenizer.Type.PROPERTY_LINK, start, start + link.length(), propValue, propName));
+            }
+
+            m.reset(sb);
+        }
+    }
+
+    private void parseOrgLinksWithName(String linkRegex, boolean createLinks) {
+        Matcher m = Pattern.compile("\\[\\[" + linkRegex + "]\\[([^]]+)]]").matcher(sb);
+
+        while (m.find()) {
+            String link = m.group(1);
+            String name = m.group(3);
+            int start = m.start();
+
+            replace(start, m.end(), name);
+
+            if (createLinks) {
+                tokens.add(new OrgTokenizer.Token(OrgTokenizer.Type.URL_LINK, start, start + name.length(), link, null));
+            }
+
+            m.reset(sb);
+        }
+    }
+
+    private void parseOrgLinks(String linkRegex, boolean createLinks) {
+        Matcher m = Pattern.compile("\\[\\[" + linkRegex + "]]").matcher(sb);
+
+        while (m.find()) {
+            String link = m.group(1);
+            int start = m.start();
+
+            replace(start, m.end(), link);
+
+            if (createLinks) {
+                tokens.add(new OrgTokenizer.Token(OrgTokenizer.Type.URL_LINK, start, start + link.length(), link, null));
+            }
+
+            m.reset(sb);
+        }
+    }
+
+    private void parsePlainLinks() {
+        Matcher m = Pattern.compile(PLAIN_LINK).matcher(sb);
+
+        List<OrgTokenizer.Token> plainLinks = new ArrayList<>();
+
+        while (m.find()) {
+            if (!isInUrlLink(m.start())) {
+                plainLinks.add(new OrgTokenizer.Token(OrgTokenizer.Type.URL_LINK, m.start(), m.end(), m.group(1), null));
+            }
+        }
+
+        tokens.addAll(plainLinks);
+    }
+
+    private boolean isInUrlLink(int position) {
+        for (OrgTokenizer.Token token: tokens) {
+            if (token.type == OrgTokenizer.Type.URL_LINK && token.start <= position && position < token.end) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void parseMarkup(boolean withMarks) {
+        Matcher m = MARKUP_PATTERN.matcher(sb);
+
+        while (m.find()) {
+            for (int i = 0; i < MARKUP_TYPES.length; i++) {
+                int group = 1 + i * 2;
+
+                if (m.group(group) != null) {
+                    int start = m.start(group);
+
+                    if (withMarks) {
+                        tokens.add(new OrgTokenizer.Token(MARKUP_TYPES[i], start, m.end(group), null, null));
+
+                    } else {
+                        String content = m.group(group + 1);
+
+                        replace(start, m.end(group), content);
+
+                        tokens.add(new OrgTokenizer.Token(MARKUP_TYPES[i], start, start + content.length(), null, null));
+
+                        m.reset(sb);
+                    }
+
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces text, moving spans like the markers were removed.
+     */
+    private void replace(int start, int end, String text) {
+        sb.replace(start, end, text);
+
+        for (int i = tokens.size() - 1; i >= 0; i--) {
+            OrgTokenizer.Token token = tokens.get(i);
+
+            token.start = move(token.start, start, end, text.length());
+            token.end = move(token.end, start, end, text.length());
+
+            if (token.start >= token.end) {
+                tokens.remove(i);
+            }
+        }
+    }
+
+    private static int move(int position, int start, int end, int length) {
+        if (position <= start) {
+            return position;
+
+        } else if (position >= end) {
+            return position + length - (end - start);
+
+        } else {
+            return Math.max(start, Math.min(position - 1, start + length));
+        }
+    }
+}